@@ -0,0 +1,191 @@
+package authentication;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import models.Account;
+import models.Password;
+
+/**
+ * The work every request does in {@link AuthenticationFilter}, and the password check of a login, as the number of
+ * threads grows. run through its main method, which runs every benchmark with 1, 4 and 16 threads and the GC
+ * profiler, so each result comes with the bytes it allocates (gc.alloc.rate.norm).
+ * <pre>
+ * java -cp target/benchmarks.jar authentication.AuthenticationBenchmark
+ * </pre>
+ * any other JMH options can be given after it, e.g. -rf json -rff auth.json to keep the results.
+ *
+ * @author Matt Rayner
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthenticationBenchmark
+{
+    private static final int SESSIONS = 1 << 16;
+    private static final long TIMEOUT = 86400000;
+
+    /**
+     * a store full of sessions to look up, and tokens that are not in it.
+     */
+    @State(Scope.Benchmark)
+    public static class Sessions
+    {
+        private SessionStore store;
+        private String[] tokens;
+        private String[] missing;
+
+        @Setup
+        public void fill()
+        {
+            this.store = new SessionStore(TIMEOUT, SESSIONS * 2, 64);
+            this.tokens = new String[SESSIONS];
+            this.missing = new String[SESSIONS];
+            for (int i = 0; i < SESSIONS; i++)
+            {
+                this.tokens[i] = this.store.add(account(i));
+                this.missing[i] = TokenStore.generateToken();
+            }
+        }
+    }
+
+    /**
+     * a store at its maximum, so each login evicts the session due to expire soonest.
+     */
+    @State(Scope.Benchmark)
+    public static class FullSessions
+    {
+        private SessionStore store;
+
+        @Setup
+        public void fill()
+        {
+            this.store = new SessionStore(TIMEOUT, SESSIONS, 64);
+            for (int i = 0; i < SESSIONS; i++)
+            {
+                this.store.add(account(i));
+            }
+        }
+    }
+
+    /**
+     * the exempt paths of auth.properties.
+     */
+    @State(Scope.Benchmark)
+    public static class ExemptPaths
+    {
+        private PathScanner scanner;
+
+        @Setup
+        public void compile()
+        {
+            final ResourceBundle auth = ResourceBundle.getBundle("auth"); //NON-NLS
+            final List<String> rules = new ArrayList<>();
+            for (int i = 0; auth.containsKey("auth.exempt." + i); i++) //NON-NLS
+            {
+                rules.add(auth.getString("auth.exempt." + i)); //NON-NLS
+            }
+            this.scanner = PathScanner.compile(rules);
+        }
+    }
+
+    /**
+     * a stored password, hashed with the algorithm and auth.password.keyLength of auth.properties.
+     */
+    @State(Scope.Benchmark)
+    public static class StoredPassword
+    {
+        private Password password;
+
+        @Setup
+        public void hash() throws NoSuchAlgorithmException
+        {
+            this.password = Password.fromPlainText("Benchmark1"); //NON-NLS
+        }
+    }
+
+    @Benchmark
+    public Account lookupHit(final Sessions sessions)
+    {
+        return sessions.store.get(sessions.tokens[ThreadLocalRandom.current().nextInt(SESSIONS)]);
+    }
+
+    @Benchmark
+    public Account lookupMiss(final Sessions sessions)
+    {
+        return sessions.store.get(sessions.missing[ThreadLocalRandom.current().nextInt(SESSIONS)]);
+    }
+
+    @Benchmark
+    public String addEvicting(final FullSessions sessions)
+    {
+        return sessions.store.add(account(ThreadLocalRandom.current().nextInt(SESSIONS)));
+    }
+
+    @Benchmark
+    public long exemptPath(final ExemptPaths paths)
+    {
+        return paths.scanner.scan("business/acme/employee/bob/worklog"); //NON-NLS
+    }
+
+    @Benchmark
+    public String generateToken()
+    {
+        return TokenStore.generateToken();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean passwordMatches(final StoredPassword stored) throws NoSuchAlgorithmException
+    {
+        return stored.password.matches("Benchmark1"); //NON-NLS
+    }
+
+    /**
+     * run every benchmark of this class with 1, 4 and 16 threads and the GC profiler.
+     *
+     * @param args - any other JMH options.
+     * @throws RunnerException if a benchmark fails.
+     * @throws CommandLineOptionException if the options are not understood.
+     */
+    public static void main(final String[] args) throws RunnerException, CommandLineOptionException
+    {
+        for (final int threads : new int[] {1, 4, 16})
+        {
+            new Runner(new OptionsBuilder()
+                    .parent(new CommandLineOptions(args))
+                    .include("\\." + AuthenticationBenchmark.class.getSimpleName() + "\\.")
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .build()).run();
+        }
+    }
+
+    private static Account account(final int i)
+    {
+        return new Account("user" + i, Password.fromHash("hash"), "acme", "user" + i + "@acme"); //NON-NLS
+    }
+}
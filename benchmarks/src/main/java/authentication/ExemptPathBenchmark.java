@@ -0,0 +1,104 @@
+package authentication;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.ws.rs.core.PathSegment;
+
+import org.glassfish.jersey.uri.UriComponent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares finding whether a path is exempt and the business it is for the way {@link AuthenticationFilter} used to,
+ * trying each auth.exempt.N regular expression in turn and walking the path segments as JAX-RS splits them,
+ * against the single pass of {@link PathScanner}. the rules are those of auth.properties.
+ * <pre>
+ * java -jar target/benchmarks.jar ExemptPathBenchmark -prof gc
+ * </pre>
+ * gc.alloc.rate.norm is the bytes allocated by each operation.
+ *
+ * @author Matt Rayner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExemptPathBenchmark
+{
+    /**
+     * a resource of a business, a login, the metrics and a path that is neither exempt nor for a business.
+     */
+    @Param({"business/acme/employee/bob/worklog", "business/acme/login", "metrics", "worklog/user/bob"})
+    private String path;
+
+    private List<Pattern> patterns;
+    private PathScanner scanner;
+
+    @Setup
+    public void compile()
+    {
+        final ResourceBundle auth = ResourceBundle.getBundle("auth"); //NON-NLS
+        final List<String> rules = new ArrayList<>();
+        for (int i = 0; auth.containsKey("auth.exempt." + i); i++) //NON-NLS
+        {
+            rules.add(auth.getString("auth.exempt." + i)); //NON-NLS
+        }
+        this.patterns = new ArrayList<>();
+        for (final String rule : rules)
+        {
+            this.patterns.add(Pattern.compile(rule));
+        }
+        this.scanner = PathScanner.compile(rules);
+    }
+
+    @Benchmark
+    public void patternLoop(final Blackhole blackhole)
+    {
+        // getPathSegments() decodes the path into a new list of segments on each call.
+        String businessTag = null;
+        for (final Iterator<PathSegment> i = UriComponent.decodePath(this.path, true).iterator(); i.hasNext();)
+        {
+            if ("business".equals(i.next().getPath()) && i.hasNext()) //NON-NLS
+            {
+                businessTag = i.next().getPath();
+                break;
+            }
+        }
+        boolean exempt = false;
+        for (final Pattern exemptPath : this.patterns)
+        {
+            if (exemptPath.matcher(this.path).matches())
+            {
+                exempt = true;
+                break;
+            }
+        }
+        blackhole.consume(exempt);
+        blackhole.consume(businessTag == null || businessTag.equals("acme")); //NON-NLS
+    }
+
+    @Benchmark
+    public void singlePass(final Blackhole blackhole)
+    {
+        final long scan = this.scanner.scan(this.path);
+        blackhole.consume(PathScanner.isExempt(scan));
+        blackhole.consume(!PathScanner.hasBusinessTag(scan) || PathScanner.isBusinessTag(scan, this.path, "acme")); //NON-NLS
+    }
+}
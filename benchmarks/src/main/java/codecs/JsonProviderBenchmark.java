@@ -0,0 +1,253 @@
+/**
+ *
+ */
+package codecs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+
+import org.codehaus.jackson.jaxrs.JacksonJaxbJsonProvider;
+import org.eclipse.persistence.jaxb.rs.MOXyJsonProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import models.Account;
+import models.Client;
+import models.Employee;
+import models.Location;
+import models.Password;
+import models.WorkLog;
+import webresources.JsonCodecProvider;
+
+/**
+ * Compares the JSON providers on the classpath writing and reading lists of the models, as the
+ * resources return and receive them. MOXy (jersey-media-moxy) is found by Jersey by itself and
+ * Jackson (jersey-media-json-jackson, Jackson 1.9) would have to be registered. The API uses the
+ * codecs of {@link JsonCodecProvider} for the models, which write the same JSON as MOXy.
+ * <br />
+ * Both read the same payload, the JSON MOXy writes, as that is what clients of the API send. Jackson
+ * writes a different form: the getters with no field such as valid and name become members too,
+ * and it cannot read those back.
+ * <pre>
+ * java -jar target/benchmarks.jar JsonProviderBenchmark -prof gc
+ * </pre>
+ * Scores are lists a second, gc.alloc.rate.norm is the bytes allocated for each list.
+ *
+ * @author Lawrence
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class JsonProviderBenchmark
+{
+	/** No annotations on the resource methods. **/
+	private static final Annotation[] ANNOTATIONS = new Annotation[0];
+
+	/** The provider being measured. **/
+	@Param({"moxy", "jackson", "codecs"})
+	private String provider;
+
+	/** The model in the list. **/
+	@Param({"workLog", "client", "employee"})
+	private String model;
+
+	/** The number of models in the list. **/
+	@Param({"10", "1000", "100000"})
+	private int size;
+
+	/** The list written. **/
+	private List<?> list;
+
+	/** The type of the list. **/
+	private Type type;
+
+	/** The list as MOXy writes it, read back. **/
+	private byte[] payload;
+
+	/** The provider as a writer. **/
+	private MessageBodyWriter<Object> writer;
+
+	/** The provider as a reader. **/
+	private MessageBodyReader<Object> reader;
+
+	/** Written to, reset before each list so that only the provider allocates. **/
+	private ByteArrayOutputStream out;
+
+	/**
+	 * Builds the list and the payload.
+	 *
+	 * @throws IOException if the list cannot be written.
+	 */
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setUp() throws IOException
+	{
+		Random random = new Random(42);
+
+		switch (this.model)
+		{
+			case "workLog":
+				this.list = workLogs(random, this.size);
+				this.type = new GenericType<List<WorkLog>>() {}.getType();
+				break;
+			case "client":
+				this.list = clients(random, this.size);
+				this.type = new GenericType<List<Client>>() {}.getType();
+				break;
+			default:
+				this.list = employees(random, this.size);
+				this.type = new GenericType<List<Employee>>() {}.getType();
+		}
+
+		Object instance;
+
+		switch (this.provider)
+		{
+			case "jackson":
+				instance = new JacksonJaxbJsonProvider();
+				break;
+			case "codecs":
+				instance = new JsonCodecProvider.Lists();
+				break;
+			default:
+				instance = new MOXyJsonProvider();
+		}
+		this.writer = (MessageBodyWriter<Object>) instance;
+		this.reader = (MessageBodyReader<Object>) instance;
+
+		this.out = new ByteArrayOutputStream();
+		write((MessageBodyWriter<Object>) (Object) new MOXyJsonProvider(), this.list, this.type, this.out);
+		this.payload = this.out.toByteArray();
+		this.out.reset();
+	}
+
+	/**
+	 * @return the bytes written.
+	 * @throws IOException if the list cannot be written.
+	 */
+	@Benchmark
+	public int serialize() throws IOException
+	{
+		this.out.reset();
+		write(this.writer, this.list, this.type, this.out);
+		return this.out.size();
+	}
+
+	/**
+	 * @return the list read.
+	 * @throws IOException if the payload cannot be read.
+	 */
+	@Benchmark
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public Object deserialize() throws IOException
+	{
+		return this.reader.readFrom((Class) List.class, this.type, ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE,
+				new MultivaluedHashMap<String, String>(), new ByteArrayInputStream(this.payload));
+	}
+
+	/**
+	 * Writes a list as a resource returning it would.
+	 */
+	private static void write(MessageBodyWriter<Object> writer, List<?> list, Type type, ByteArrayOutputStream out)
+			throws IOException
+	{
+		writer.writeTo(list, ArrayList.class, type, ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE,
+				new MultivaluedHashMap<String, Object>(), out);
+	}
+
+	/**
+	 * @return worklogs of a week of a business, most with a location.
+	 */
+	private static List<WorkLog> workLogs(Random random, int size)
+	{
+		List<WorkLog> workLogs = new ArrayList<WorkLog>(size);
+		long start = 1500000000000L;
+
+		for (int i = 0; i < size; i++)
+		{
+			long begin = start + random.nextInt(7 * 24) * 3600000L;
+			WorkLog workLog = new WorkLog(i + 1, "user" + random.nextInt(200), "acme", random.nextInt(50) + 1,
+					begin, begin + (1 + random.nextInt(8)) * 3600000L, "Worked on ticket #" + random.nextInt(10000));
+
+			if (random.nextInt(4) != 0)
+			{
+				workLog.setLocation(location(random));
+			}
+			workLogs.add(workLog);
+		}
+		return workLogs;
+	}
+
+	/**
+	 * @return clients of a business with one to five locations each.
+	 */
+	private static List<Client> clients(Random random, int size)
+	{
+		List<Client> clients = new ArrayList<Client>(size);
+
+		for (int i = 0; i < size; i++)
+		{
+			Client client = new Client(i + 1, "Client " + i + " Ltd", "acme", random.nextInt(2000));
+			List<Location> locations = new ArrayList<Location>();
+
+			for (int j = random.nextInt(5); j >= 0; j--)
+			{
+				locations.add(location(random));
+			}
+			client.setLocations(locations);
+			clients.add(client);
+		}
+		return clients;
+	}
+
+	/**
+	 * @return employees of a business with their accounts, most reporting to another.
+	 */
+	private static List<Employee> employees(Random random, int size)
+	{
+		List<Employee> employees = new ArrayList<Employee>(size);
+
+		for (int i = 0; i < size; i++)
+		{
+			Account account = new Account("user" + i, Password.fromHash("hash"), "acme", "user" + i + "@acme.com");
+			employees.add(new Employee(account, "First" + i, "Surname" + i,
+					i == 0 ? null : "user" + random.nextInt(i), i % 3 == 0 ? null : "Engineer",
+					random.nextInt(2000)));
+		}
+		return employees;
+	}
+
+	/**
+	 * @return a location in the UK.
+	 */
+	private static Location location(Random random)
+	{
+		return new Location("AB" + random.nextInt(100) + " " + random.nextInt(10) + "CD",
+				"Site " + random.nextInt(1000));
+	}
+}
@@ -0,0 +1,522 @@
+/**
+ *
+ */
+package database;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sql.DataSource;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.Response;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.h2.jdbcx.JdbcDataSource;
+
+import utilities.LatencyHistogram;
+import webresources.BusinessResource;
+import webresources.DatabaseExecutor;
+
+/**
+ * Finds the most requests a second the API can sustain with its requests on platform threads
+ * and on virtual threads, see executor.virtualThreads. Each mode runs in its own JVM with the
+ * heap limit of the deployment, 100MB unless bench.heap is given.
+ * <br />
+ * Requests for a business are offered at a fixed rate, whether or not earlier ones have been
+ * answered, and go through BusinessResource, the DatabaseExecutor and the connection pool to an
+ * in memory database. Every statement waits bench.queryLatency milliseconds to stand in for the
+ * round trip to a real database. The rate is raised by a quarter each step until fewer than 99%
+ * of the requests are answered or the 99th percentile passes bench.p99Budget milliseconds.
+ * <pre>
+ * java -cp target/benchmarks.jar database.ExecutorLoadBenchmark
+ * </pre>
+ * Run on Java 21 to compare both modes, on older versions the virtual mode falls back to
+ * platform threads. Any setting of the API can be given as a system property as well, for
+ * example -Ddb.pool.maxTotal=400. Pinned virtual threads are reported on the way.
+ *
+ * @author Lawrence
+ */
+public final class ExecutorLoadBenchmark
+{
+	/** The prefix of the line each mode reports its result on. **/
+	private static final String RESULT = "max sustainable rps: ";
+
+	/** The number of businesses requested. **/
+	private static final int BUSINESSES = 100;
+
+	/** Milliseconds each statement waits for. **/
+	private static final long QUERY_LATENCY = Long.getLong("bench.queryLatency", 20);
+
+	/** The rate of the first step in requests a second. **/
+	private static final double START_RATE = Double.parseDouble(System.getProperty("bench.startRate", "500"));
+
+	/** The most steps taken. **/
+	private static final int STEPS = Integer.getInteger("bench.steps", 20);
+
+	/** Milliseconds each step offers requests for. **/
+	private static final long STEP_MILLIS = Long.getLong("bench.stepMillis", 5000);
+
+	/** The 99th percentile in milliseconds past which a rate is not sustained. **/
+	private static final double P99_BUDGET = Double.parseDouble(System.getProperty("bench.p99Budget", "500"));
+
+	/** Times out the requests as the container would. **/
+	private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, runnable ->
+	{
+		Thread thread = new Thread(runnable, "benchmark-timer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * The outcome of the requests of one step.
+	 */
+	private static final class Step
+	{
+		/** The latency of the requests answered with a business. **/
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		/** The number of requests answered with a business. **/
+		private final AtomicLong answered = new AtomicLong();
+
+		/** The number of requests answered with 503. **/
+		private final AtomicLong unavailable = new AtomicLong();
+
+		/** The number of requests answered with any other error. **/
+		private final AtomicLong failed = new AtomicLong();
+
+		/** The number of requests made. **/
+		private long sent = 0;
+
+		/**
+		 * @return the number of requests that have not been answered yet.
+		 */
+		private long outstanding()
+		{
+			return this.sent - this.answered.get() - this.unavailable.get() - this.failed.get();
+		}
+	}
+
+	/**
+	 * Stands in for the container, recording how a request was answered.
+	 */
+	private static final class BenchmarkResponse implements AsyncResponse
+	{
+		/** The step the request belongs to. **/
+		private final Step step;
+
+		/** When the request was made. **/
+		private final long start = System.nanoTime();
+
+		/** Whether the request has been answered. **/
+		private final AtomicBoolean done = new AtomicBoolean();
+
+		/** Called if the request is not answered in time. **/
+		private volatile TimeoutHandler timeoutHandler;
+
+		/** The pending timeout. **/
+		private volatile ScheduledFuture<?> timeout;
+
+		/**
+		 * CLASS CONSTRUCTOR
+		 *
+		 * @param step - the step the request belongs to.
+		 */
+		private BenchmarkResponse(Step step)
+		{
+			this.step = step;
+		}
+
+		@Override
+		public boolean resume(Object response)
+		{
+			int status = response instanceof Response ? ((Response) response).getStatus() : 200;
+			return this.complete(status);
+		}
+
+		@Override
+		public boolean resume(Throwable response)
+		{
+			int status = response instanceof WebApplicationException
+					? ((WebApplicationException) response).getResponse().getStatus() : 500;
+			return this.complete(status);
+		}
+
+		@Override
+		public boolean cancel()
+		{
+			return this.complete(503);
+		}
+
+		@Override
+		public boolean cancel(int retryAfter)
+		{
+			return this.complete(503);
+		}
+
+		@Override
+		public boolean cancel(Date retryAfter)
+		{
+			return this.complete(503);
+		}
+
+		@Override
+		public boolean isSuspended()
+		{
+			return !this.done.get();
+		}
+
+		@Override
+		public boolean isCancelled()
+		{
+			return false;
+		}
+
+		@Override
+		public boolean isDone()
+		{
+			return this.done.get();
+		}
+
+		@Override
+		public boolean setTimeout(long time, TimeUnit unit)
+		{
+			this.timeout = TIMER.schedule(() ->
+			{
+				if (!this.done.get() && this.timeoutHandler != null)
+				{
+					this.timeoutHandler.handleTimeout(this);
+				}
+			}, time, unit);
+			return true;
+		}
+
+		@Override
+		public void setTimeoutHandler(TimeoutHandler handler)
+		{
+			this.timeoutHandler = handler;
+		}
+
+		@Override
+		public Collection<Class<?>> register(Class<?> callback)
+		{
+			return Collections.emptyList();
+		}
+
+		@Override
+		public Map<Class<?>, Collection<Class<?>>> register(Class<?> callback, Class<?>... callbacks)
+		{
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public Collection<Class<?>> register(Object callback)
+		{
+			return Collections.emptyList();
+		}
+
+		@Override
+		public Map<Class<?>, Collection<Class<?>>> register(Object callback, Object... callbacks)
+		{
+			return Collections.emptyMap();
+		}
+
+		/**
+		 * Records the answer to the request, only the first counts.
+		 *
+		 * @param status - the status of the answer.
+		 * @return whether this was the first answer.
+		 */
+		private boolean complete(int status)
+		{
+			if (!this.done.compareAndSet(false, true))
+			{
+				return false;
+			}
+
+			ScheduledFuture<?> pending = this.timeout;
+
+			if (pending != null)
+			{
+				pending.cancel(false);
+			}
+
+			if (status < 400)
+			{
+				this.step.latency.record(System.nanoTime() - this.start);
+				this.step.answered.incrementAndGet();
+			}
+			else if (status == 503)
+			{
+				this.step.unavailable.incrementAndGet();
+			}
+			else
+			{
+				this.step.failed.incrementAndGet();
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 */
+	private ExecutorLoadBenchmark()
+	{
+	}
+
+	/**
+	 * Runs both modes in their own JVMs and compares them, or runs one mode when given "run".
+	 *
+	 * @param args - nothing, or "run" to run the mode of this JVM.
+	 * @throws Exception if the benchmark cannot be run.
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length > 0 && "run".equals(args[0]))
+		{
+			run();
+			return;
+		}
+
+		double platform = fork(false);
+		double virtual = fork(true);
+
+		System.out.println();
+		System.out.println(String.format("platform threads: %.0f rps", platform));
+		System.out.println(String.format("virtual threads:  %.0f rps", virtual));
+	}
+
+	/**
+	 * Runs one mode in a JVM of its own.
+	 *
+	 * @param virtualThreads - whether the requests run on virtual threads.
+	 * @return the most requests a second sustained.
+	 * @throws Exception if the JVM cannot be started.
+	 */
+	private static double fork(boolean virtualThreads) throws Exception
+	{
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.add("-Xmx" + System.getProperty("bench.heap", "100m"));
+		command.add("-Djdk.tracePinnedThreads=short");
+
+		for (String name : System.getProperties().stringPropertyNames())
+		{
+			if (name.startsWith("bench.") || name.startsWith("db.") || name.startsWith("executor."))
+			{
+				command.add("-D" + name + "=" + System.getProperty(name));
+			}
+		}
+		command.add("-Dexecutor.virtualThreads=" + virtualThreads);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(ExecutorLoadBenchmark.class.getName());
+		command.add("run");
+
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		double result = 0;
+
+		try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream())))
+		{
+			String line;
+
+			while ((line = output.readLine()) != null)
+			{
+				System.out.println(line);
+
+				if (line.startsWith(RESULT))
+				{
+					result = Double.parseDouble(line.substring(RESULT.length()));
+				}
+			}
+		}
+
+		if (process.waitFor() != 0)
+		{
+			System.out.println("The " + (virtualThreads ? "virtual" : "platform") + " run failed");
+		}
+		return result;
+	}
+
+	/**
+	 * Raises the rate until it is no longer sustained and reports the highest that was.
+	 *
+	 * @throws Exception if the database cannot be created.
+	 */
+	private static void run() throws Exception
+	{
+		// Only the executor is measured, logging every query would measure log4j.
+		Logger.getRootLogger().setLevel(Level.ERROR);
+		TIMER.setRemoveOnCancelPolicy(true);
+
+		DatabasePool.useDataSource(createDatabase());
+
+		StringBuilder executor = DatabaseExecutor.appendJson(new StringBuilder());
+		System.out.println("java " + System.getProperty("java.version") + ", heap "
+				+ Runtime.getRuntime().maxMemory() / (1024 * 1024) + "MB, executor " + executor);
+
+		// Warms up the classes and the pool.
+		runStep(START_RATE, STEP_MILLIS);
+
+		double rate = START_RATE;
+		double sustained = 0;
+
+		System.out.println(" offered  answered      503  failed   p50ms   p99ms");
+
+		for (int i = 0; i < STEPS; i++, rate *= 1.25)
+		{
+			Step step = runStep(rate, STEP_MILLIS);
+			double seconds = STEP_MILLIS / 1000.0;
+			double p99 = step.latency.getPercentileMillis(99);
+
+			System.out.println(String.format("%8.0f %9.0f %8d %7d %7.1f %7.1f",
+					step.sent / seconds, step.answered.get() / seconds, step.unavailable.get(),
+					step.failed.get(), step.latency.getPercentileMillis(50), p99));
+
+			if (step.outstanding() > 0 || step.answered.get() < step.sent * 0.99 || p99 > P99_BUDGET)
+			{
+				break;
+			}
+			sustained = step.answered.get() / seconds;
+		}
+
+		System.out.println(RESULT + Math.round(sustained));
+		DatabasePool.shutdown();
+	}
+
+	/**
+	 * Offers requests at a fixed rate and waits for them to be answered.
+	 *
+	 * @param rate - the requests a second.
+	 * @param millis - how long to offer them for.
+	 * @return the outcome of the requests.
+	 */
+	private static Step runStep(double rate, long millis)
+	{
+		Step step = new Step();
+		BusinessResource resource = new BusinessResource();
+		long start = System.nanoTime();
+		long end = start + TimeUnit.MILLISECONDS.toNanos(millis);
+		long now;
+
+		while ((now = System.nanoTime()) < end)
+		{
+			long due = (long) ((now - start) * rate / TimeUnit.SECONDS.toNanos(1));
+
+			while (step.sent < due)
+			{
+				resource.getBusiness("business" + step.sent % BUSINESSES, new BenchmarkResponse(step));
+				step.sent++;
+			}
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+		}
+
+		// Every request is answered by the executor timeout at the latest.
+		long drain = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+
+		while (step.outstanding() > 0 && System.nanoTime() < drain)
+		{
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+		}
+		return step;
+	}
+
+	/**
+	 * Creates the in memory database the requests read from.
+	 *
+	 * @return the datasource, its statements waiting as if the database were across a network.
+	 * @throws SQLException if the database cannot be created.
+	 */
+	private static DataSource createDatabase() throws SQLException
+	{
+		final JdbcDataSource dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:benchmark;MODE=MySQL;DB_CLOSE_DELAY=-1");
+
+		try (Connection connection = dataSource.getConnection();
+				Statement stmt = connection.createStatement())
+		{
+			stmt.execute("CREATE TABLE Business (businessTag VARCHAR(64) PRIMARY KEY, businessName VARCHAR(255));");
+
+			for (int i = 0; i < BUSINESSES; i++)
+			{
+				stmt.execute("INSERT INTO Business VALUES ('business" + i + "', 'Business " + i + "');");
+			}
+		}
+
+		return (DataSource) Proxy.newProxyInstance(ExecutorLoadBenchmark.class.getClassLoader(),
+				new Class<?>[] { DataSource.class }, delaying(dataSource));
+	}
+
+	/**
+	 * Wraps a JDBC object so that the connections and statements it returns wait before executing.
+	 *
+	 * @param target - the object to wrap.
+	 * @return the handler of the proxy.
+	 */
+	private static InvocationHandler delaying(final Object target)
+	{
+		return (proxy, method, args) ->
+		{
+			if (method.getName().startsWith("execute"))
+			{
+				// Sleeping parks a virtual thread as waiting on a socket would.
+				Thread.sleep(QUERY_LATENCY);
+			}
+
+			Object result = invoke(target, method, args);
+
+			if (result instanceof Connection || result instanceof PreparedStatement)
+			{
+				Class<?> type = result instanceof Connection ? Connection.class : PreparedStatement.class;
+				return Proxy.newProxyInstance(ExecutorLoadBenchmark.class.getClassLoader(),
+						new Class<?>[] { type }, delaying(result));
+			}
+			return result;
+		};
+	}
+
+	/**
+	 * Invokes a method, throwing what it throws rather than a reflection exception.
+	 *
+	 * @param target - the object to invoke the method on.
+	 * @param method - the method.
+	 * @param args - the arguments.
+	 * @return the result of the method.
+	 * @throws Throwable what the method throws.
+	 */
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable
+	{
+		try
+		{
+			return method.invoke(target, args);
+		}
+		catch (InvocationTargetException e)
+		{
+			throw e.getCause();
+		}
+	}
+}
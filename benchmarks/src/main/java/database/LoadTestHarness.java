@@ -0,0 +1,472 @@
+/**
+ *
+ */
+package database;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.glassfish.jersey.servlet.ServletContainer;
+import org.h2.jdbcx.JdbcDataSource;
+
+import utilities.LatencyHistogram;
+
+/**
+ * Load tests the API offline. The resources run in an embedded Tomcat, as the application is
+ * deployed, against an in memory database in MySQL compatibility mode loaded with the schema
+ * and the {@link SyntheticData}. Clients then make the requests of a {@link Workload} over HTTP
+ * and the latency and throughput of each operation are reported.
+ * <br />
+ * Requests are offered at a fixed rate, whether or not earlier ones have been answered, and
+ * each is timed from when it was due rather than when it was sent, so that a slow server is
+ * not hidden by clients waiting on it. The workload runs for load.warmupSeconds before it is
+ * measured for load.seconds. Runs with the same settings make the same requests.
+ * <pre>
+ * java -cp target/benchmarks.jar database.LoadTestHarness
+ * java -Dload.profile=reads -Dload.rate=40 -cp target/benchmarks.jar database.LoadTestHarness
+ * </pre>
+ * The settings and the budgets are in load.properties, any of them can be given as a system
+ * property, as can any setting of the API. The run fails, exiting with 1, when the 50th or 99th
+ * percentile of an operation passes its budget, too many requests fail or too few are answered.
+ * mvn -Pload-test test runs it as part of the build of the benchmarks.
+ *
+ * @author Lawrence
+ */
+public final class LoadTestHarness
+{
+	/** The settings of the load test. **/
+	private static final ResourceBundle LOAD_RB = ResourceBundle.getBundle("load"); //NON-NLS
+
+	/** Milliseconds a request may take before it is counted as failed. **/
+	private static final int TIMEOUT = 30000;
+
+	/** Warns of every thread of the API still running when the server stops, as it would on redeploying. **/
+	private static final java.util.logging.Logger CLASS_LOADER_LOGGER =
+			java.util.logging.Logger.getLogger("org.apache.catalina.loader.WebappClassLoaderBase"); //NON-NLS
+
+	/**
+	 * The outcome of the requests of one operation.
+	 */
+	private static final class Outcome
+	{
+		/** The latency of the requests answered. **/
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		/** The number of requests that failed or were answered with an error. **/
+		private final AtomicLong errors = new AtomicLong();
+	}
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 */
+	private LoadTestHarness()
+	{
+	}
+
+	/**
+	 * Runs the load test, exiting with 1 if it is over budget.
+	 *
+	 * @param args - not used.
+	 * @throws Exception if the load test cannot be run.
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		List<String> breaches = run();
+
+		// The pools of the API are not daemon threads.
+		System.exit(breaches.isEmpty() ? 0 : 1);
+	}
+
+	/**
+	 * Loads the database, starts the server and runs the workload against it.
+	 *
+	 * @return the budgets that were passed, empty if none were.
+	 * @throws Exception if the load test cannot be run.
+	 */
+	public static List<String> run() throws Exception
+	{
+		// Only the API is measured, logging every query would measure log4j.
+		Logger.getRootLogger().setLevel(Level.ERROR);
+
+		int threads = getInt("load.threads");
+
+		// Keeps a connection open for each client rather than the default of five.
+		if (System.getProperty("http.maxConnections") == null)
+		{
+			System.setProperty("http.maxConnections", String.valueOf(threads));
+		}
+
+		JdbcDataSource dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:load;MODE=MySQL;DB_CLOSE_DELAY=-1;"
+				+ "INIT=RUNSCRIPT FROM 'classpath:schema.sql'");
+		DatabasePool.useDataSource(dataSource);
+
+		long seed = getLong("load.seed");
+		SyntheticData data = new SyntheticData(seed, getInt("load.businesses"), getInt("load.employees"),
+				getInt("load.businessClients"), getInt("load.years"), getLong("load.dataEnd"));
+		long start = System.nanoTime();
+		data.store();
+
+		String mix = getMix();
+		Workload workload = new Workload(data, mix, getInt("load.importSize"));
+		double rate = getDouble("load.rate");
+		long seconds = getLong("load.seconds");
+
+		System.out.println("java " + System.getProperty("java.version") + ", heap "
+				+ Runtime.getRuntime().maxMemory() / (1024 * 1024) + "MB, stored " + data.getWorkLogs()
+				+ " worklogs of " + data.getBusinesses() + " businesses in "
+				+ TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) + "s");
+		System.out.println("profile " + getString("load.profile") + " (" + mix + "), " + rate + " requests a second from "
+				+ threads + " clients for " + seconds + "s after " + getLong("load.warmupSeconds") + "s of warm up");
+
+		Tomcat tomcat = startServer(getInt("load.port"));
+
+		try
+		{
+			String root = "http://localhost:" + tomcat.getConnector().getLocalPort();
+
+			drive(root, workload, seed, rate, threads, getLong("load.warmupSeconds"));
+			Map<String, Outcome> outcomes = drive(root, workload, seed + threads, rate, threads, seconds);
+
+			report(outcomes, seconds);
+			List<String> breaches = checkBudgets(outcomes, rate, seconds);
+
+			for (String breach : breaches)
+			{
+				System.out.println("OVER BUDGET: " + breach);
+			}
+			return breaches;
+		}
+		finally
+		{
+			tomcat.stop();
+			tomcat.destroy();
+			DatabasePool.shutdown();
+		}
+	}
+
+	/**
+	 * Starts Tomcat with the resources of the API at its root, as the application is deployed.
+	 *
+	 * @param port - the port to listen on, 0 for any free port.
+	 * @return the server.
+	 * @throws IOException if the working directory of the server cannot be created.
+	 * @throws LifecycleException if the server cannot be started.
+	 */
+	private static Tomcat startServer(int port) throws IOException, LifecycleException
+	{
+		File baseDir = Files.createTempDirectory("load").toFile();
+		baseDir.deleteOnExit();
+
+		Tomcat tomcat = new Tomcat();
+		tomcat.setBaseDir(baseDir.getAbsolutePath());
+		tomcat.setPort(port);
+		tomcat.setSilent(true);
+		CLASS_LOADER_LOGGER.setLevel(java.util.logging.Level.SEVERE);
+
+		// Creates the HTTP connector, the server has none unless asked for it.
+		tomcat.getConnector();
+
+		Context context = tomcat.addContext("", baseDir.getAbsolutePath());
+		Wrapper servlet = Tomcat.addServlet(context, "api", ServletContainer.class.getName());
+		servlet.addInitParameter("javax.ws.rs.Application", "RestConfig"); //NON-NLS
+		servlet.setLoadOnStartup(1);
+		// The resources answer from the DatabaseExecutor rather than the request thread.
+		servlet.setAsyncSupported(true);
+		context.addServletMappingDecoded("/*", "api");
+
+		tomcat.start();
+		return tomcat;
+	}
+
+	/**
+	 * Offers the requests of the workload at a fixed rate and waits for them to be answered.
+	 *
+	 * @param root - the url of the API.
+	 * @param workload - the requests to make.
+	 * @param seed - the seed of the first client, each client makes its own requests.
+	 * @param rate - the requests a second of all of the clients.
+	 * @param threads - the clients.
+	 * @param seconds - how long to offer requests for.
+	 * @return the outcome of each operation.
+	 * @throws InterruptedException if interrupted waiting for the clients.
+	 */
+	private static Map<String, Outcome> drive(final String root, final Workload workload, final long seed,
+			double rate, final int threads, long seconds) throws InterruptedException
+	{
+		final Map<String, Outcome> outcomes = new LinkedHashMap<String, Outcome>();
+
+		for (String operation : workload.getOperations())
+		{
+			outcomes.put(operation, new Outcome());
+		}
+
+		final long interval = (long) (threads * TimeUnit.SECONDS.toNanos(1) / rate);
+		final long start = System.nanoTime();
+		final long end = start + TimeUnit.SECONDS.toNanos(seconds);
+		List<Thread> clients = new ArrayList<Thread>();
+
+		for (int i = 0; i < threads; i++)
+		{
+			final int client = i;
+			Thread thread = new Thread(() ->
+			{
+				Random random = new Random(seed + client);
+
+				for (long due = start + interval * client / threads; due < end; due += interval)
+				{
+					long wait;
+
+					while ((wait = due - System.nanoTime()) > 0)
+					{
+						LockSupport.parkNanos(wait);
+					}
+
+					Workload.Request request;
+
+					try
+					{
+						request = workload.next(random);
+					}
+					catch (IOException e)
+					{
+						throw new IllegalStateException("The request could not be written", e);
+					}
+
+					Outcome outcome = outcomes.get(request.getOperation());
+
+					try
+					{
+						if (send(root, request) < 400)
+						{
+							outcome.latency.record(System.nanoTime() - due);
+						}
+						else
+						{
+							outcome.errors.incrementAndGet();
+						}
+					}
+					catch (IOException e)
+					{
+						outcome.errors.incrementAndGet();
+					}
+				}
+			}, "load-client-" + i);
+
+			thread.start();
+			clients.add(thread);
+		}
+
+		for (Thread thread : clients)
+		{
+			thread.join();
+		}
+		return outcomes;
+	}
+
+	/**
+	 * Makes a request and reads the whole of the answer, so that the connection can be used again.
+	 *
+	 * @param root - the url of the API.
+	 * @param request - the request.
+	 * @return the status of the answer.
+	 * @throws IOException if the request fails.
+	 */
+	private static int send(String root, Workload.Request request) throws IOException
+	{
+		HttpURLConnection connection = (HttpURLConnection) new URL(root + request.getPath()).openConnection();
+		connection.setRequestMethod(request.getMethod());
+		connection.setConnectTimeout(TIMEOUT);
+		connection.setReadTimeout(TIMEOUT);
+
+		if (request.getBody() != null)
+		{
+			byte[] body = request.getBody().getBytes(StandardCharsets.UTF_8);
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(body.length);
+			connection.setRequestProperty("Content-Type", request.getContentType());
+
+			try (OutputStream out = connection.getOutputStream())
+			{
+				out.write(body);
+			}
+		}
+
+		int status = connection.getResponseCode();
+		InputStream answer = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+
+		if (answer != null)
+		{
+			try (InputStream in = answer)
+			{
+				byte[] buffer = new byte[8192];
+
+				while (in.read(buffer) != -1)
+				{
+					// Read to the end.
+				}
+			}
+		}
+		return status;
+	}
+
+	/**
+	 * Prints the requests, throughput and latency of each operation and of them all.
+	 *
+	 * @param outcomes - the outcome of each operation.
+	 * @param seconds - how long the requests were offered for.
+	 */
+	private static void report(Map<String, Outcome> outcomes, long seconds)
+	{
+		System.out.println("operation    requests  errors      rps   p50ms   p99ms  meanms");
+
+		long requests = 0;
+		long errors = 0;
+
+		for (Map.Entry<String, Outcome> entry : outcomes.entrySet())
+		{
+			Outcome outcome = entry.getValue();
+			long answered = outcome.latency.getCount();
+
+			System.out.println(String.format("%-12s %8d %7d %8.1f %7.1f %7.1f %7.1f", entry.getKey(),
+					answered + outcome.errors.get(), outcome.errors.get(), answered / (double) seconds,
+					outcome.latency.getPercentileMillis(50), outcome.latency.getPercentileMillis(99),
+					outcome.latency.getMeanMillis()));
+
+			requests += answered + outcome.errors.get();
+			errors += outcome.errors.get();
+		}
+
+		System.out.println(String.format("%-12s %8d %7d %8.1f", "all", requests, errors,
+				(requests - errors) / (double) seconds));
+	}
+
+	/**
+	 * Compares the outcome of the workload with the budgets given for it.
+	 *
+	 * @param outcomes - the outcome of each operation.
+	 * @param rate - the requests a second offered.
+	 * @param seconds - how long the requests were offered for.
+	 * @return a description of each budget that was passed.
+	 */
+	private static List<String> checkBudgets(Map<String, Outcome> outcomes, double rate, long seconds)
+	{
+		List<String> breaches = new ArrayList<String>();
+		long requests = 0;
+		long errors = 0;
+
+		for (Map.Entry<String, Outcome> entry : outcomes.entrySet())
+		{
+			Outcome outcome = entry.getValue();
+
+			for (int percentile : new int[] {50, 99})
+			{
+				String budget = getOptional("load.budget." + entry.getKey() + ".p" + percentile);
+				double millis = outcome.latency.getPercentileMillis(percentile);
+
+				if (budget != null && millis > Double.parseDouble(budget))
+				{
+					breaches.add(String.format("%s p%d of %.1fms is over its budget of %sms",
+							entry.getKey(), percentile, millis, budget));
+				}
+			}
+
+			requests += outcome.latency.getCount() + outcome.errors.get();
+			errors += outcome.errors.get();
+		}
+
+		double errorRate = requests == 0 ? 0 : errors / (double) requests;
+
+		if (errorRate > getDouble("load.budget.errorRate"))
+		{
+			breaches.add(String.format("%.2f%% of the requests failed, over the budget of %.2f%%",
+					errorRate * 100, getDouble("load.budget.errorRate") * 100));
+		}
+
+		double answered = (requests - errors) / (double) seconds;
+
+		if (answered < rate * getDouble("load.budget.throughput"))
+		{
+			breaches.add(String.format("%.1f requests a second were answered, under %.0f%% of the %.1f offered",
+					answered, getDouble("load.budget.throughput") * 100, rate));
+		}
+		return breaches;
+	}
+
+	/**
+	 * @return the operations of the profile and their weights.
+	 */
+	private static String getMix()
+	{
+		String profile = getString("load.profile");
+		return profile.contains(":") ? profile : getString("load.profile." + profile);
+	}
+
+	/**
+	 * Reads a setting, preferring a system property over the resource bundle.
+	 *
+	 * @param key - the name of the setting.
+	 * @return the value of the setting.
+	 */
+	private static String getString(String key)
+	{
+		return System.getProperty(key, LOAD_RB.getString(key));
+	}
+
+	/**
+	 * @param key - the name of the setting.
+	 * @return the value of the setting, null if it is not given.
+	 */
+	private static String getOptional(String key)
+	{
+		return System.getProperty(key, LOAD_RB.containsKey(key) ? LOAD_RB.getString(key) : null);
+	}
+
+	/**
+	 * @param key - the name of the setting.
+	 * @return the value of the setting as an int.
+	 */
+	private static int getInt(String key)
+	{
+		return Integer.parseInt(getString(key).trim());
+	}
+
+	/**
+	 * @param key - the name of the setting.
+	 * @return the value of the setting as a long.
+	 */
+	private static long getLong(String key)
+	{
+		return Long.parseLong(getString(key).trim());
+	}
+
+	/**
+	 * @param key - the name of the setting.
+	 * @return the value of the setting as a double.
+	 */
+	private static double getDouble(String key)
+	{
+		return Double.parseDouble(getString(key).trim());
+	}
+}
@@ -0,0 +1,349 @@
+/**
+ *
+ */
+package database;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import exceptions.DataAccessException;
+import models.Account;
+import models.Business;
+import models.Client;
+import models.Employee;
+import models.ImportResult;
+import models.Location;
+import models.Password;
+import models.WorkLog;
+
+/**
+ * Businesses with their employees, clients and years of worklogs, generated from a seed so that
+ * every run with the same settings stores the same data. The data is stored through the queries
+ * of the API, which keep the daily hours rollups as the worklogs are added.
+ * <br />
+ * Each employee logs one worklog each working day, starting in the morning and lasting two to
+ * eight hours, for a client of their business. Most worklogs and clients have a location.
+ *
+ * @author Lawrence
+ */
+public final class SyntheticData
+{
+	/** The password of every employee. **/
+	public static final String PASSWORD = "Passw0rdLoad";
+
+	/** Worklogs stored in each import. **/
+	private static final int IMPORT_SIZE = 5000;
+
+	/** An hour in milliseconds. **/
+	private static final long HOUR = 60L * 60L * 1000L;
+
+	/** The seed of the data. **/
+	private final long seed;
+
+	/** The businesses. **/
+	private final int businesses;
+
+	/** The employees of each business. **/
+	private final int employees;
+
+	/** The clients of each business. **/
+	private final int clients;
+
+	/** The first day of worklogs. **/
+	private final long start;
+
+	/** The day after the last day of worklogs. **/
+	private final long end;
+
+	/** The ids of the clients of each business, by business tag. **/
+	private final Map<String, List<Integer>> clientIds = new LinkedHashMap<String, List<Integer>>();
+
+	/** The number of worklogs stored. **/
+	private int workLogs = 0;
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 *
+	 * @param seed - the seed of the data.
+	 * @param businesses - the businesses.
+	 * @param employees - the employees of each business.
+	 * @param clients - the clients of each business.
+	 * @param years - the years of worklogs.
+	 * @param end - the day after the last day of worklogs.
+	 */
+	public SyntheticData(long seed, int businesses, int employees, int clients, int years, long end)
+	{
+		this.seed = seed;
+		this.businesses = businesses;
+		this.employees = employees;
+		this.clients = clients;
+		this.end = DBDailyHoursQueries.dayOf(end) * DBDailyHoursQueries.DAY;
+		this.start = this.end - years * 365L * DBDailyHoursQueries.DAY;
+	}
+
+	/**
+	 * Stores the data.
+	 *
+	 * @throws DataAccessException if the datastore cannot be reached.
+	 * @throws NoSuchAlgorithmException if the password cannot be hashed.
+	 */
+	public void store() throws DataAccessException, NoSuchAlgorithmException
+	{
+		Random random = new Random(this.seed);
+
+		// Hashing is slow on purpose, every employee shares the one hash.
+		Password password = Password.fromPlainText(PASSWORD);
+
+		for (int i = 0; i < this.businesses; i++)
+		{
+			String businessTag = getBusinessTag(i);
+			Business business = new Business(businessTag, "Business " + i);
+			business.setDefaultEmployee(new Employee(account(businessTag, 0, password), "Owner", "Business " + i,
+					null, "Owner"));
+
+			ImportResult result = new ImportResult();
+			new DBBusinessQueries().createBusinesses(single(business), result);
+			check(result, businessTag);
+
+			this.storeEmployees(random, businessTag, password);
+			this.storeClients(random, businessTag);
+			this.storeWorkLogs(random, businessTag);
+		}
+	}
+
+	/**
+	 * @param index - the position of the business.
+	 * @return the tag of the business.
+	 */
+	public static String getBusinessTag(int index)
+	{
+		return "business" + index;
+	}
+
+	/**
+	 * @param index - the position of the employee in their business, 0 is the owner.
+	 * @return the user name of the employee.
+	 */
+	public static String getUserName(int index)
+	{
+		return "user" + index;
+	}
+
+	/**
+	 * @return the number of businesses.
+	 */
+	public int getBusinesses()
+	{
+		return this.businesses;
+	}
+
+	/**
+	 * @return the number of employees of each business, including its owner.
+	 */
+	public int getEmployees()
+	{
+		return this.employees + 1;
+	}
+
+	/**
+	 * @param businessTag - the business.
+	 * @return the ids of its clients.
+	 */
+	public List<Integer> getClientIds(String businessTag)
+	{
+		return this.clientIds.get(businessTag);
+	}
+
+	/**
+	 * @return the first day of worklogs.
+	 */
+	public long getStart()
+	{
+		return this.start;
+	}
+
+	/**
+	 * @return the day after the last day of worklogs.
+	 */
+	public long getEnd()
+	{
+		return this.end;
+	}
+
+	/**
+	 * @return the number of worklogs stored.
+	 */
+	public int getWorkLogs()
+	{
+		return this.workLogs;
+	}
+
+	/**
+	 * Creates a worklog of an employee, not stored.
+	 *
+	 * @param random - the source of the worklog.
+	 * @param businessTag - the business of the employee.
+	 * @param userName - the employee.
+	 * @param day - the day worked.
+	 * @return the worklog.
+	 */
+	public WorkLog createWorkLog(Random random, String businessTag, String userName, long day)
+	{
+		List<Integer> ids = this.clientIds.get(businessTag);
+		long begin = day + 8 * HOUR + random.nextInt(120) * 60000L;
+		WorkLog workLog = new WorkLog(-1, userName, businessTag,
+				ids.get(random.nextInt(ids.size())), begin, begin + (2 + random.nextInt(7)) * HOUR,
+				"Worked on ticket #" + random.nextInt(10000));
+
+		if (random.nextInt(4) != 0)
+		{
+			workLog.setLocation(location(random));
+		}
+		return workLog;
+	}
+
+	/**
+	 * Stores the employees of a business, most reporting to an earlier one.
+	 */
+	private void storeEmployees(Random random, String businessTag, Password password) throws DataAccessException
+	{
+		Map<Integer, Employee> created = new LinkedHashMap<Integer, Employee>();
+
+		for (int i = 1; i <= this.employees; i++)
+		{
+			created.put(i, new Employee(account(businessTag, i, password), "First" + i, "Surname" + i,
+					getUserName(random.nextInt(i)), i % 3 == 0 ? null : "Engineer"));
+		}
+
+		ImportResult result = new ImportResult();
+		new DBEmployeeQueries().createEmployeeAccounts(created, result);
+		check(result, businessTag);
+	}
+
+	/**
+	 * Stores the clients of a business with one to three locations each.
+	 */
+	private void storeClients(Random random, String businessTag) throws DataAccessException
+	{
+		Map<Integer, Client> created = new LinkedHashMap<Integer, Client>();
+
+		for (int i = 0; i < this.clients; i++)
+		{
+			Client client = new Client(-1, "Client " + i + " Ltd", businessTag);
+			List<Location> locations = new ArrayList<Location>();
+
+			for (int j = random.nextInt(3); j >= 0; j--)
+			{
+				locations.add(location(random));
+			}
+			client.setLocations(locations);
+			created.put(i, client);
+		}
+
+		ImportResult result = new ImportResult();
+		new DBClientQueries().createClients(created, result);
+		check(result, businessTag);
+
+		List<Integer> ids = new ArrayList<Integer>();
+
+		for (Client client : created.values())
+		{
+			ids.add(client.getClientId());
+		}
+		this.clientIds.put(businessTag, ids);
+	}
+
+	/**
+	 * Stores a worklog for every employee of a business on every working day.
+	 */
+	private void storeWorkLogs(Random random, String businessTag) throws DataAccessException
+	{
+		Map<Integer, WorkLog> created = new LinkedHashMap<Integer, WorkLog>();
+
+		for (long day = this.start; day < this.end; day += DBDailyHoursQueries.DAY)
+		{
+			// The epoch was a Thursday, the third and fourth days of each week are the weekend.
+			long weekday = (day / DBDailyHoursQueries.DAY) % 7;
+
+			if (weekday == 2 || weekday == 3)
+			{
+				continue;
+			}
+
+			for (int i = 1; i <= this.employees; i++)
+			{
+				created.put(created.size(), this.createWorkLog(random, businessTag, getUserName(i), day));
+			}
+
+			if (created.size() >= IMPORT_SIZE)
+			{
+				this.storeWorkLogs(created, businessTag);
+			}
+		}
+		this.storeWorkLogs(created, businessTag);
+	}
+
+	/**
+	 * Stores the given worklogs and forgets them.
+	 */
+	private void storeWorkLogs(Map<Integer, WorkLog> created, String businessTag) throws DataAccessException
+	{
+		if (created.isEmpty())
+		{
+			return;
+		}
+
+		ImportResult result = new ImportResult();
+		new DBWorkLogQueries().createWorkLogs(created, result);
+		check(result, businessTag);
+
+		this.workLogs += created.size();
+		created.clear();
+	}
+
+	/**
+	 * @return the account of an employee.
+	 */
+	private static Account account(String businessTag, int index, Password password)
+	{
+		String userName = getUserName(index);
+		return new Account(userName, password, businessTag, userName + "@" + businessTag + ".com");
+	}
+
+	/**
+	 * @return a location in the UK.
+	 */
+	private static Location location(Random random)
+	{
+		return new Location("AB" + random.nextInt(100) + " " + random.nextInt(10) + "CD",
+				"Site " + random.nextInt(1000));
+	}
+
+	/**
+	 * @return a map of the given business at the first position.
+	 */
+	private static Map<Integer, Business> single(Business business)
+	{
+		Map<Integer, Business> result = new LinkedHashMap<Integer, Business>();
+		result.put(0, business);
+		return result;
+	}
+
+	/**
+	 * @param result - the result of storing data for a business.
+	 * @param businessTag - the business.
+	 * @throws DataAccessException if any of it was not stored.
+	 */
+	private static void check(ImportResult result, String businessTag) throws DataAccessException
+	{
+		if (!result.getFailures().isEmpty())
+		{
+			throw new DataAccessException("Failed to store the data of " + businessTag + ": "
+					+ result.getFailures().get(0).getMessage(), null);
+		}
+	}
+}
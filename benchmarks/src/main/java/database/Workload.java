@@ -0,0 +1,263 @@
+/**
+ *
+ */
+package database;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import codecs.JsonWriter;
+import codecs.WorkLogCodec;
+
+/**
+ * A mix of the requests made of the API, each operation picked by its weight, for example
+ * login:10,range:30,userRange:25,leaderboard:25,import:10. The requests are made of the
+ * {@link SyntheticData}, for a random business, employee and period of its worklogs.
+ *
+ * @author Lawrence
+ */
+public final class Workload
+{
+	/** The operations that can be mixed. **/
+	private static final String[] OPERATIONS = {"login", "range", "userRange", "leaderboard", "import"};
+
+	/** A week in milliseconds. **/
+	private static final long WEEK = 7 * DBDailyHoursQueries.DAY;
+
+	/**
+	 * A request to the API.
+	 */
+	public static final class Request
+	{
+		/** The operation the request is for. **/
+		private final String operation;
+
+		/** The HTTP method. **/
+		private final String method;
+
+		/** The path of the request from the root of the API. **/
+		private final String path;
+
+		/** The type of the body, null if there is none. **/
+		private final String contentType;
+
+		/** The body, null if there is none. **/
+		private final String body;
+
+		/**
+		 * CLASS CONSTRUCTOR
+		 *
+		 * @param operation - the operation the request is for.
+		 * @param method - the HTTP method.
+		 * @param path - the path of the request from the root of the API.
+		 * @param contentType - the type of the body, null if there is none.
+		 * @param body - the body, null if there is none.
+		 */
+		private Request(String operation, String method, String path, String contentType, String body)
+		{
+			this.operation = operation;
+			this.method = method;
+			this.path = path;
+			this.contentType = contentType;
+			this.body = body;
+		}
+
+		/**
+		 * @return the operation the request is for.
+		 */
+		public String getOperation()
+		{
+			return this.operation;
+		}
+
+		/**
+		 * @return the HTTP method.
+		 */
+		public String getMethod()
+		{
+			return this.method;
+		}
+
+		/**
+		 * @return the path of the request from the root of the API.
+		 */
+		public String getPath()
+		{
+			return this.path;
+		}
+
+		/**
+		 * @return the type of the body, null if there is none.
+		 */
+		public String getContentType()
+		{
+			return this.contentType;
+		}
+
+		/**
+		 * @return the body, null if there is none.
+		 */
+		public String getBody()
+		{
+			return this.body;
+		}
+	}
+
+	/** The data requested. **/
+	private final SyntheticData data;
+
+	/** The operations in the mix. **/
+	private final List<String> operations = new ArrayList<String>();
+
+	/** The sum of the weights up to and including each operation. **/
+	private final List<Integer> weights = new ArrayList<Integer>();
+
+	/** The worklogs in each import. **/
+	private final int importSize;
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 *
+	 * @param data - the data requested.
+	 * @param mix - the operations and their weights, operation:weight separated by commas.
+	 * @param importSize - the worklogs in each import.
+	 */
+	public Workload(SyntheticData data, String mix, int importSize)
+	{
+		this.data = data;
+		this.importSize = importSize;
+
+		int total = 0;
+
+		for (String entry : mix.split(","))
+		{
+			String[] parts = entry.trim().split(":");
+			String operation = parts[0].trim();
+
+			if (parts.length != 2 || !isOperation(operation))
+			{
+				throw new IllegalArgumentException("Not an operation and weight: " + entry);
+			}
+
+			int weight = Integer.parseInt(parts[1].trim());
+
+			if (weight > 0)
+			{
+				total += weight;
+				this.operations.add(operation);
+				this.weights.add(total);
+			}
+		}
+
+		if (total == 0)
+		{
+			throw new IllegalArgumentException("No operations in the mix: " + mix);
+		}
+	}
+
+	/**
+	 * @return the operations in the mix.
+	 */
+	public List<String> getOperations()
+	{
+		return this.operations;
+	}
+
+	/**
+	 * Creates the next request of the mix.
+	 *
+	 * @param random - the source of the request.
+	 * @return the request.
+	 * @throws IOException if the body cannot be written.
+	 */
+	public Request next(Random random) throws IOException
+	{
+		int pick = random.nextInt(this.weights.get(this.weights.size() - 1));
+		int index = 0;
+
+		while (pick >= this.weights.get(index))
+		{
+			index++;
+		}
+
+		String operation = this.operations.get(index);
+		String businessTag = SyntheticData.getBusinessTag(random.nextInt(this.data.getBusinesses()));
+		String business = "/business/" + businessTag;
+		String userName = SyntheticData.getUserName(random.nextInt(this.data.getEmployees()));
+
+		switch (operation)
+		{
+			case "login":
+				return new Request(operation, "POST", business + "/login", "application/x-www-form-urlencoded",
+						"u=" + userName + "&p=" + SyntheticData.PASSWORD);
+			case "range":
+				long week = this.day(random, WEEK);
+				return new Request(operation, "GET", business + "/worklog/range/" + week + "/" + (week + WEEK)
+						+ "?limit=100", null, null);
+			case "userRange":
+				long month = this.day(random, 30 * DBDailyHoursQueries.DAY);
+				return new Request(operation, "GET", business + "/worklog/user/" + userName + "/range/" + month
+						+ "/" + (month + 30 * DBDailyHoursQueries.DAY), null, null);
+			case "leaderboard":
+				long quarter = this.day(random, 91 * DBDailyHoursQueries.DAY);
+				return new Request(operation, "GET", business + (random.nextBoolean() ? "/employee" : "/client")
+						+ "/mostWorked/top/1/10/between/" + quarter + "/" + (quarter + 91 * DBDailyHoursQueries.DAY),
+						null, null);
+			default:
+				return new Request(operation, "POST", business + "/worklog/import", "application/json",
+						this.workLogs(random, businessTag));
+		}
+	}
+
+	/**
+	 * @param operation - the name of an operation.
+	 * @return whether it is an operation that can be mixed.
+	 */
+	public static boolean isOperation(String operation)
+	{
+		for (String known : OPERATIONS)
+		{
+			if (known.equals(operation))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param random - the source of the day.
+	 * @param length - the length of the period starting on the day.
+	 * @return the first day of a period inside the worklogs stored.
+	 */
+	private long day(Random random, long length)
+	{
+		long days = Math.max(1, (this.data.getEnd() - this.data.getStart() - length) / DBDailyHoursQueries.DAY);
+		return this.data.getStart() + (long) random.nextInt((int) days) * DBDailyHoursQueries.DAY;
+	}
+
+	/**
+	 * @return the JSON of worklogs of the employees of a business on a day.
+	 */
+	private String workLogs(Random random, String businessTag) throws IOException
+	{
+		StringWriter body = new StringWriter();
+		JsonWriter json = new JsonWriter(body);
+		long day = this.day(random, DBDailyHoursQueries.DAY);
+
+		json.beginArray();
+
+		for (int i = 0; i < this.importSize; i++)
+		{
+			String userName = SyntheticData.getUserName(random.nextInt(this.data.getEmployees()));
+			WorkLogCodec.write(json, this.data.createWorkLog(random, businessTag, userName, day));
+		}
+		json.endArray();
+		json.flush();
+
+		return body.toString();
+	}
+}
@@ -0,0 +1,21 @@
+package database;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Fails the build of the benchmarks when the load test is over budget, run with -Pload-test.
+ *
+ * @author Lawrence
+ */
+public class LoadBudgetTest
+{
+	@Test
+	public void workloadIsWithinBudget() throws Exception
+	{
+		List<String> breaches = LoadTestHarness.run();
+		Assert.assertTrue(String.join("\n", breaches), breaches.isEmpty());
+	}
+}
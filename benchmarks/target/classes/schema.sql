@@ -0,0 +1,100 @@
+-- Schema of the datastore used by the embedded test database.
+
+CREATE TABLE IF NOT EXISTS Business (
+	businessTag VARCHAR(64) NOT NULL PRIMARY KEY,
+	businessName VARCHAR(255) NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS Account (
+	userName VARCHAR(64) NOT NULL,
+	userPassword VARCHAR(255) NOT NULL,
+	businessTag VARCHAR(64) NOT NULL,
+	email VARCHAR(255),
+	PRIMARY KEY (userName, businessTag),
+	FOREIGN KEY (businessTag) REFERENCES Business(businessTag)
+);
+
+CREATE TABLE IF NOT EXISTS Employee (
+	userName VARCHAR(64) NOT NULL,
+	firstName VARCHAR(255),
+	surName VARCHAR(255),
+	businessTag VARCHAR(64) NOT NULL,
+	parentUser VARCHAR(64),
+	jobRole VARCHAR(255),
+	PRIMARY KEY (userName, businessTag),
+	FOREIGN KEY (userName, businessTag) REFERENCES Account(userName, businessTag)
+);
+
+CREATE TABLE IF NOT EXISTS LocationOwner (
+	locationOwnerId INT NOT NULL AUTO_INCREMENT PRIMARY KEY
+);
+
+CREATE TABLE IF NOT EXISTS Location (
+	locationId INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+	postcode VARCHAR(16),
+	description VARCHAR(255)
+);
+
+CREATE TABLE IF NOT EXISTS LocationOwnertoLocation (
+	locationOwnerId INT NOT NULL,
+	locationId INT NOT NULL,
+	PRIMARY KEY (locationOwnerId, locationId),
+	FOREIGN KEY (locationOwnerId) REFERENCES LocationOwner(locationOwnerId),
+	FOREIGN KEY (locationId) REFERENCES Location(locationId)
+);
+
+CREATE TABLE IF NOT EXISTS BusinessClient (
+	clientId INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+	clientName VARCHAR(255) NOT NULL,
+	businessTag VARCHAR(64) NOT NULL,
+	locationOwnerId INT NOT NULL,
+	FOREIGN KEY (businessTag) REFERENCES Business(businessTag),
+	FOREIGN KEY (locationOwnerId) REFERENCES LocationOwner(locationOwnerId)
+);
+
+CREATE TABLE IF NOT EXISTS WorkLog (
+	workLogId INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+	userName VARCHAR(64) NOT NULL,
+	businessTag VARCHAR(64) NOT NULL,
+	clientId INT NOT NULL,
+	startTime BIGINT NOT NULL,
+	endTime BIGINT NOT NULL,
+	description VARCHAR(1024),
+	locationOwnerId INT NOT NULL,
+	FOREIGN KEY (userName, businessTag) REFERENCES Employee(userName, businessTag),
+	FOREIGN KEY (clientId) REFERENCES BusinessClient(clientId),
+	FOREIGN KEY (locationOwnerId) REFERENCES LocationOwner(locationOwnerId)
+);
+
+CREATE INDEX IF NOT EXISTS WorkLogStartTime ON WorkLog(businessTag, startTime);
+CREATE INDEX IF NOT EXISTS WorkLogUserStartTime ON WorkLog(businessTag, userName, startTime);
+CREATE INDEX IF NOT EXISTS WorkLogEndTime ON WorkLog(businessTag, endTime);
+
+CREATE TABLE IF NOT EXISTS EmployeeDailyHours (
+	businessTag VARCHAR(64) NOT NULL,
+	startDay BIGINT NOT NULL,
+	userName VARCHAR(64) NOT NULL,
+	endDay BIGINT NOT NULL,
+	hoursWorked BIGINT NOT NULL,
+	PRIMARY KEY (businessTag, startDay, userName, endDay)
+);
+
+CREATE TABLE IF NOT EXISTS ClientDailyHours (
+	businessTag VARCHAR(64) NOT NULL,
+	startDay BIGINT NOT NULL,
+	clientId INT NOT NULL,
+	endDay BIGINT NOT NULL,
+	hoursWorked BIGINT NOT NULL,
+	PRIMARY KEY (businessTag, startDay, clientId, endDay)
+);
+
+CREATE TABLE IF NOT EXISTS Session (
+	token CHAR(32) NOT NULL PRIMARY KEY,
+	userName VARCHAR(64) NOT NULL,
+	businessTag VARCHAR(64) NOT NULL,
+	lastUsed BIGINT NOT NULL,
+	FOREIGN KEY (userName, businessTag) REFERENCES Account(userName, businessTag) ON DELETE CASCADE
+);
+
+CREATE INDEX IF NOT EXISTS SessionAccount ON Session(businessTag, userName);
+CREATE INDEX IF NOT EXISTS SessionLastUsed ON Session(lastUsed);
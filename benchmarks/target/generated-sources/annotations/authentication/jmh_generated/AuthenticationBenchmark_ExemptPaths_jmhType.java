@@ -0,0 +1,4 @@
+package authentication.jmh_generated;
+public class AuthenticationBenchmark_ExemptPaths_jmhType extends AuthenticationBenchmark_ExemptPaths_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package authentication.jmh_generated;
+public class AuthenticationBenchmark_FullSessions_jmhType extends AuthenticationBenchmark_FullSessions_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package authentication.jmh_generated;
+public class AuthenticationBenchmark_Sessions_jmhType extends AuthenticationBenchmark_Sessions_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package authentication.jmh_generated;
+public class AuthenticationBenchmark_StoredPassword_jmhType extends AuthenticationBenchmark_StoredPassword_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package authentication.jmh_generated;
+public class AuthenticationBenchmark_jmhType extends AuthenticationBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package authentication.jmh_generated;
+public class ExemptPathBenchmark_jmhType extends ExemptPathBenchmark_jmhType_B3 {
+}
+
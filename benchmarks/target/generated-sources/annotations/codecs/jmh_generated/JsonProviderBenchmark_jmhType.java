@@ -0,0 +1,4 @@
+package codecs.jmh_generated;
+public class JsonProviderBenchmark_jmhType extends JsonProviderBenchmark_jmhType_B3 {
+}
+
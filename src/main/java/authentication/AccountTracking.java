@@ -1,6 +1,7 @@
 package authentication;
 
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 import models.Account;
 
@@ -11,9 +12,15 @@ import models.Account;
  */
 class AccountTracking
 {
+    private static final AtomicLongFieldUpdater<AccountTracking> LAST_TIME_USED =
+            AtomicLongFieldUpdater.newUpdater(AccountTracking.class, "lastTimeUsed"); //NON-NLS
+
     private final Account account;
 
-    private long lastTimeUsed;
+    /**
+     * read and slid forward by concurrent requests, only ever through {@link #touch(long)} once shared.
+     */
+    private volatile long lastTimeUsed;
 
     /**
      * create a new Account Tracking with the current time as the last used time.
@@ -69,6 +76,34 @@ class AccountTracking
         return System.currentTimeMillis() - this.lastTimeUsed < timeout;
     }
 
+    /**
+     * Slides the last used time forward to <code>System.currentTimeMillis()</code>, unless the account has already timed out.
+     * <br />
+     * the check and the update are a single atomic step, so once a tracking has timed out it can never be used again
+     * and can be removed without racing a request that is using it.
+     *
+     * @param timeout the max age the last time used a account can have while still being valid.
+     * @return <code>true</code> if the account was still valid and its last used time is now.
+     */
+    public boolean touch(final long timeout)
+    {
+        final long now = System.currentTimeMillis();
+        long last;
+        do
+        {
+            last = this.lastTimeUsed;
+            if (now - last >= timeout)
+            {
+                return false;
+            }
+            if (last >= now)
+            {
+                return true;
+            }
+        } while (!LAST_TIME_USED.compareAndSet(this, last, now));
+        return true;
+    }
+
     /**
      * Sets the last used time to <code>System.currentTimeMillis()</code>
      *
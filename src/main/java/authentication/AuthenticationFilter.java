@@ -13,11 +13,18 @@ import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 import javax.ws.rs.ext.Provider;
 
+import org.apache.log4j.Logger;
+
+import database.ReplicaRouter;
+import exceptions.DataAccessException;
 import models.Account;
+import models.TokenPair;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.util.*;
-import java.util.regex.Pattern;
 
 /**
  * Filter that all requests pass through.
@@ -30,72 +37,194 @@ import java.util.regex.Pattern;
 @Priority(Priorities.AUTHENTICATION)
 public class AuthenticationFilter implements ContainerRequestFilter
 {
+    private static final Logger LOGGER = Logger.getLogger(AuthenticationFilter.class);
+
     private static final ResourceBundle AUTH_RB = ResourceBundle.getBundle("auth"); //NON-NLS
     private static final String TOKEN_PARAMETER = AUTH_RB.getString("auth.token.parameter");
     private static final long TOKEN_TIMEOUT = Long.parseLong(AUTH_RB.getString("auth.token.timeout"));
 
-    private static final Map<String, AccountTracking> AUTHENTICATED_ACCOUNTS = new HashMap<>();
-    private static final Collection<Pattern> EXEMPT_PATHS = new ArrayList<>();
+    private static final TokenStore AUTHENTICATED_ACCOUNTS = createTokenStore();
+    private static final PathScanner EXEMPT_PATHS = PathScanner.compile(readExemptPaths());
+
+    private static final String METRICS_PATH = "metrics"; //NON-NLS
+    private static final String METRICS_HEADER = "X-Metrics-Key"; //NON-NLS
+    private static final byte[] METRICS_KEY = metricsKey();
+
+    /**
+     * variable for the underlying {@link HttpServletRequest}.
+     * this variable is assigned by JAX-RS.
+     */
+    @Context
+    private HttpServletRequest servletRequest;
 
-    /*
-      Static initializer to populate the Exempt_Paths collection from the resourceBundle.
+    /**
+     * read the exempt paths from the resourceBundle, auth.exempt.0 onwards.
+     *
+     * @return the regular expressions of the exempt paths.
      */
-    static
+    private static List<String> readExemptPaths()
     {
+        final List<String> exemptPaths = new ArrayList<>();
         int i = 0;
         while(AUTH_RB.containsKey("auth.exempt."+i)) //NON-NLS
         {
-            EXEMPT_PATHS.add(Pattern.compile(AUTH_RB.getString("auth.exempt."+i))); //NON-NLS
+            exemptPaths.add(AUTH_RB.getString("auth.exempt."+i)); //NON-NLS
             i++;
         }
+        return exemptPaths;
     }
 
     /**
-     * variable for the underlying {@link HttpServletRequest}.
-     * this variable is assigned by JAX-RS.
+     * create the store of the sessions configured by auth.token.store.
+     *
+     * @return the store.
      */
-    @Context
-    private HttpServletRequest servletRequest;
+    private static TokenStore createTokenStore()
+    {
+        if ("signed".equalsIgnoreCase(AUTH_RB.getString("auth.token.mode"))) //NON-NLS
+        {
+            return new SignedTokenStore(signingKey(),
+                    Long.parseLong(AUTH_RB.getString("auth.token.signed.accessTtl")), //NON-NLS
+                    TOKEN_TIMEOUT,
+                    Integer.parseInt(AUTH_RB.getString("auth.token.signed.revocationBits")), //NON-NLS
+                    Integer.parseInt(AUTH_RB.getString("auth.token.signed.revocationHashes"))); //NON-NLS
+        }
+        if ("jdbc".equalsIgnoreCase(AUTH_RB.getString("auth.token.store"))) //NON-NLS
+        {
+            return new JdbcTokenStore(TOKEN_TIMEOUT,
+                    Long.parseLong(AUTH_RB.getString("auth.session.jdbc.nearCacheTtl")), //NON-NLS
+                    Integer.parseInt(AUTH_RB.getString("auth.session.jdbc.nearCacheSize")), //NON-NLS
+                    Long.parseLong(AUTH_RB.getString("auth.session.jdbc.flushInterval")), //NON-NLS
+                    Long.parseLong(AUTH_RB.getString("auth.session.jdbc.sweepInterval"))); //NON-NLS
+        }
+        return new SessionStore(TOKEN_TIMEOUT,
+                Integer.parseInt(AUTH_RB.getString("auth.session.maxSessions")), //NON-NLS
+                Integer.parseInt(AUTH_RB.getString("auth.session.wheelSlots"))); //NON-NLS
+    }
 
     /**
-     * generate a unique token for each account.
+     * read the key tokens are signed with, the system property auth.token.signed.key in preference to auth.properties.
      *
-     * @param account the account the token will be mapped to.
-     * @return the generated token.
+     * @return the key, or a random one if none is configured.
      */
-    private static String generateToken(final Account account)
+    private static byte[] signingKey()
     {
-        String token;
-        do
+        final String key = System.getProperty("auth.token.signed.key", //NON-NLS
+                AUTH_RB.getString("auth.token.signed.key")).trim(); //NON-NLS
+        if (key.isEmpty())
         {
-            token = UUID.randomUUID().toString().replaceAll("-","");
-        }while(AuthenticationFilter.AUTHENTICATED_ACCOUNTS.containsKey(token)); //ensure that the token has not been used;
+            LOGGER.warn("No auth.token.signed.key, tokens will only work on this server until it restarts"); //NON-NLS
+            final byte[] random = new byte[32];
+            new SecureRandom().nextBytes(random);
+            return random;
+        }
+        return Base64.getDecoder().decode(key);
+    }
 
-        return token;
+    /**
+     * @return <code>true</code> if logging in gives signed tokens rather than a session, see auth.token.mode.
+     */
+    public static boolean usesSignedTokens()
+    {
+        return AuthenticationFilter.AUTHENTICATED_ACCOUNTS instanceof SignedTokenStore;
     }
 
-    public static String addAuthenticatedAccount(final Account account)
+    /**
+     * issue signed access and refresh tokens for an account that has logged in.
+     *
+     * @param account the account that logged in.
+     * @return the tokens.
+     * @throws IllegalStateException if tokens are not signed.
+     */
+    public static TokenPair issueTokens(final Account account)
     {
-        final String token = AuthenticationFilter.generateToken(account);
-        AuthenticationFilter.AUTHENTICATED_ACCOUNTS.put(token, new AccountTracking(account));
-        return token;
+        return signedTokens().issue(account);
     }
 
-    static void removeAuthenticatedAccount(final String token)
+    /**
+     * redeem a refresh token for the account it was issued to, it and its access token can not be used again.
+     *
+     * @param refreshToken the refresh token.
+     * @return the account, or <code>null</code> if the token is not valid.
+     * @throws IllegalStateException if tokens are not signed.
+     * @throws DataAccessException if the revoked tokens could not be read or written.
+     */
+    public static Account redeemRefreshToken(final String refreshToken) throws DataAccessException
     {
-        AuthenticationFilter.AUTHENTICATED_ACCOUNTS.remove(token);
+        return signedTokens().refresh(refreshToken);
     }
 
-    static void removeAuthenticatedAccount(final Account account)
+    private static SignedTokenStore signedTokens()
     {
-        for(Map.Entry<String, AccountTracking> entry : AUTHENTICATED_ACCOUNTS.entrySet())
+        if (!usesSignedTokens())
         {
-            if (entry.getValue().getAccount().equals(account))
-            {
-                AuthenticationFilter.removeAuthenticatedAccount(entry.getKey());
-                return;
-            }
+            throw new IllegalStateException("auth.token.mode is not signed"); //NON-NLS
         }
+        return (SignedTokenStore) AuthenticationFilter.AUTHENTICATED_ACCOUNTS;
+    }
+
+    /**
+     * create a session for an account under a new unique token.
+     *
+     * @param account the account the token will be mapped to.
+     * @return the generated token.
+     * @throws DataAccessException if the session could not be stored.
+     */
+    public static String addAuthenticatedAccount(final Account account) throws DataAccessException
+    {
+        return AuthenticationFilter.AUTHENTICATED_ACCOUNTS.add(account);
+    }
+
+    static void removeAuthenticatedAccount(final String token) throws DataAccessException
+    {
+        AuthenticationFilter.AUTHENTICATED_ACCOUNTS.remove(token);
+    }
+
+    /**
+     * log an account out of every session it has.
+     *
+     * @param account the account to log out.
+     * @return the number of sessions ended.
+     * @throws DataAccessException if the sessions could not be changed.
+     */
+    static int removeAuthenticatedAccount(final Account account) throws DataAccessException
+    {
+        return AuthenticationFilter.AUTHENTICATED_ACCOUNTS.remove(account);
+    }
+
+    /**
+     * log an account out of one of its sessions.
+     *
+     * @param account the account to log out.
+     * @param token the token of the session to end.
+     * @return <code>true</code> if the token was a session of the account.
+     * @throws DataAccessException if the sessions could not be changed.
+     */
+    static boolean removeAuthenticatedAccount(final Account account, final String token) throws DataAccessException
+    {
+        return AuthenticationFilter.AUTHENTICATED_ACCOUNTS.remove(account, token);
+    }
+
+    /**
+     * list the sessions an account is logged in with.
+     *
+     * @param account the account.
+     * @return the last time each session was used by its token.
+     * @throws DataAccessException if the sessions could not be read.
+     */
+    static Map<String, Long> getAuthenticatedSessions(final Account account) throws DataAccessException
+    {
+        return AuthenticationFilter.AUTHENTICATED_ACCOUNTS.getSessions(account);
+    }
+
+    /**
+     * Getter for the store of the logged in accounts, for reporting its metrics.
+     *
+     * @return the store.
+     */
+    public static TokenStore getTokenStore()
+    {
+        return AuthenticationFilter.AUTHENTICATED_ACCOUNTS;
     }
 
     private static String extractBusinessTag(final UriInfo uriInfo)
@@ -110,43 +239,108 @@ public class AuthenticationFilter implements ContainerRequestFilter
         return null;
     }
 
-    public static boolean removeInvalidAccounts()
+    public static boolean removeInvalidAccounts() throws DataAccessException
     {
-        return AUTHENTICATED_ACCOUNTS.entrySet().removeIf(entry -> !entry.getValue().isTimeValid(TOKEN_TIMEOUT));
+        return AUTHENTICATED_ACCOUNTS.removeExpired();
+    }
+
+    /**
+     * read the key the metrics are read with, the system property auth.metrics.key in preference to auth.properties.
+     *
+     * @return the key, or <code>null</code> if none is configured and the metrics can not be read.
+     */
+    private static byte[] metricsKey()
+    {
+        final String key = System.getProperty("auth.metrics.key", //NON-NLS
+                AUTH_RB.getString("auth.metrics.key")).trim(); //NON-NLS
+        return key.isEmpty() ? null : key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * whether a request is for the metrics and carries the metrics key, compared in constant time.
+     * the metrics are not for the employees of any business, so a logged in account is not enough.
+     *
+     * @param path the path of the request.
+     * @return <code>true</code> if the request may read the metrics.
+     * @throws WebApplicationException FORBIDDEN if the request is for the metrics without the key.
+     */
+    private boolean isMetricsRequest(final String path)
+    {
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/')
+        {
+            start++;
+        }
+        while (end > start && path.charAt(end - 1) == '/')
+        {
+            end--;
+        }
+        if (!path.regionMatches(start, METRICS_PATH, 0, end - start) || end - start != METRICS_PATH.length())
+        {
+            return false;
+        }
+        final String key = this.servletRequest.getHeader(METRICS_HEADER);
+        if (METRICS_KEY == null || key == null
+                || !MessageDigest.isEqual(METRICS_KEY, key.getBytes(StandardCharsets.UTF_8)))
+        {
+            throw new WebApplicationException(Response.Status.FORBIDDEN);
+        }
+        return true;
     }
 
     @Override
     public void filter(final ContainerRequestContext requestContext) throws IOException
     {
         final String token = this.servletRequest.getParameter(TOKEN_PARAMETER);
+        ReplicaRouter.bindToken(null); //the thread may have served another request
+
+        //one pass over the path finds whether it is exempt and the business it is for.
+        final String path = requestContext.getUriInfo().getPath();
+        if (this.isMetricsRequest(path))
+        {
+            return;
+        }
+        final long scan = EXEMPT_PATHS.scan(path);
         if (token != null)
         {
-            final AccountTracking tracking = AuthenticationFilter.AUTHENTICATED_ACCOUNTS.get(token);
-            if (tracking != null)
+            //expired sessions are removed by the lookup, valid ones have their last used time slid forward.
+            //signed tokens are only checked.
+            final Account account;
+            try
+            {
+                account = AuthenticationFilter.AUTHENTICATED_ACCOUNTS.get(token);
+            }
+            catch (final DataAccessException e)
             {
-                if (!tracking.isTimeValid(TOKEN_TIMEOUT))
+                throw new WebApplicationException(e, Response.Status.SERVICE_UNAVAILABLE);
+            }
+            if (account != null)
+            {
+                //a percent-encoded '/' is part of a segment, so encoded paths are split into segments by JAX-RS.
+                final boolean sameBusiness;
+                if (this.servletRequest.getRequestURI().indexOf('%') < 0)
                 {
-                    removeAuthenticatedAccount(token);
+                    sameBusiness = !PathScanner.hasBusinessTag(scan)
+                            || PathScanner.isBusinessTag(scan, path, account.getBusinessTag());
                 }
                 else
                 {
                     final String requestedBusiness = extractBusinessTag(requestContext.getUriInfo());
-                    if (requestedBusiness == null || requestedBusiness.equals(tracking.getAccount().getBusinessTag()))
-                    {
-                        tracking.updateLastTimeUsed();
-                        requestContext.setSecurityContext(
-                                new AuthenticationSecurityContext(tracking.getAccount(), this.servletRequest.isSecure()));
-                        return;
-                    }
+                    sameBusiness = requestedBusiness == null || requestedBusiness.equals(account.getBusinessTag());
+                }
+                if (sameBusiness)
+                {
+                    ReplicaRouter.bindToken(token);
+                    requestContext.setSecurityContext(
+                            new AuthenticationSecurityContext(account, this.servletRequest.isSecure()));
+                    return;
                 }
             }
         }
-        for (final Pattern exemptPath : EXEMPT_PATHS)
+        if (PathScanner.isExempt(scan))
         {
-            if (exemptPath.matcher(requestContext.getUriInfo().getPath()).matches())
-            {
-                return;
-            }
+            return;
         }
         throw new WebApplicationException(Response.Status.FORBIDDEN);
     }
@@ -0,0 +1,326 @@
+package authentication;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import database.DBSessionQueries;
+import exceptions.BadKeyException;
+import exceptions.DataAccessException;
+import models.Account;
+
+/**
+ * Store of the logged in accounts kept in the Session table of the database, so that a token created by one replica
+ * of the API is accepted by every other. see sql/session.sql.
+ * <br />
+ * sessions read from the database are kept in a small near cache for a few seconds, so a busy session is not read
+ * on every request. a session logged out on another replica can still be used here until its cache entry is that
+ * old. uses of a session are not written straight away either, the latest use of each session is written back in
+ * one batch every flush interval. sessions that have timed out are deleted by a periodic sweep.
+ *
+ * @author Matt Rayner
+ */
+final class JdbcTokenStore implements TokenStore
+{
+    private static final Logger LOGGER = Logger.getLogger(JdbcTokenStore.class);
+
+    /**
+     * a session read from the database and when it was read.
+     */
+    private static final class CachedSession
+    {
+        private final AccountTracking tracking;
+        private final long cachedAt;
+
+        private CachedSession(final AccountTracking tracking, final long cachedAt)
+        {
+            this.tracking = tracking;
+            this.cachedAt = cachedAt;
+        }
+    }
+
+    private final long timeout;
+    private final long nearCacheTtl;
+    private final int nearCacheSize;
+
+    private final Map<String, CachedSession> nearCache = new ConcurrentHashMap<>();
+
+    /**
+     * the latest use of each session not written back yet.
+     */
+    private final Map<String, Long> pendingUses = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService background;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong writtenBack = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+
+    /**
+     * create a new store and start writing back uses and sweeping expired sessions in the background.
+     *
+     * @param timeout - the milliseconds a session may go unused before it expires.
+     * @param nearCacheTtl - the milliseconds a session read from the database is trusted for.
+     * @param nearCacheSize - the most sessions held in the near cache.
+     * @param flushInterval - the milliseconds between writing back the uses of sessions.
+     * @param sweepInterval - the milliseconds between deleting expired sessions.
+     */
+    JdbcTokenStore(final long timeout, final long nearCacheTtl, final int nearCacheSize,
+                   final long flushInterval, final long sweepInterval)
+    {
+        this.timeout = timeout;
+        this.nearCacheTtl = nearCacheTtl;
+        this.nearCacheSize = nearCacheSize;
+
+        this.background = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            final Thread thread = new Thread(runnable, "session-store"); //NON-NLS
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.background.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        this.background.scheduleWithFixedDelay(this::sweep, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * {@inheritDoc}
+     * a token is 128 random bits, so a token that is already used is treated as the database failing.
+     */
+    @Override
+    public String add(final Account account) throws DataAccessException
+    {
+        final String token = TokenStore.generateToken();
+        final AccountTracking tracking = new AccountTracking(account);
+        try
+        {
+            new DBSessionQueries().createSession(token, account, tracking.getLastTimeUsed());
+        }
+        catch (final BadKeyException e)
+        {
+            throw new DataAccessException("Could not store the session of " + account.getName(), e); //NON-NLS
+        }
+        this.created.incrementAndGet();
+        this.cache(token, tracking, System.currentTimeMillis());
+        return token;
+    }
+
+    @Override
+    public Account get(final String token) throws DataAccessException
+    {
+        this.lookups.incrementAndGet();
+        final long now = System.currentTimeMillis();
+
+        final CachedSession cached = this.nearCache.get(token);
+        if (cached != null && now - cached.cachedAt < this.nearCacheTtl && cached.tracking.touch(this.timeout))
+        {
+            this.cacheHits.incrementAndGet();
+            this.pendingUses.merge(token, cached.tracking.getLastTimeUsed(), Math::max);
+            return cached.tracking.getAccount();
+        }
+
+        //not cached, cached too long ago, or timed out here but maybe used on another replica since.
+        this.reads.incrementAndGet();
+        final DBSessionQueries.Session session = new DBSessionQueries().getSession(token);
+        if (session == null)
+        {
+            this.nearCache.remove(token);
+            this.pendingUses.remove(token);
+            this.misses.incrementAndGet();
+            return null;
+        }
+
+        final Long pending = this.pendingUses.get(token);
+        final AccountTracking tracking = new AccountTracking(session.getAccount(),
+                pending == null ? session.getLastUsed() : Math.max(pending, session.getLastUsed()));
+        if (!tracking.touch(this.timeout))
+        {
+            //left for the sweep to delete.
+            this.nearCache.remove(token);
+            this.misses.incrementAndGet();
+            return null;
+        }
+
+        this.pendingUses.merge(token, tracking.getLastTimeUsed(), Math::max);
+        this.cache(token, tracking, now);
+        return tracking.getAccount();
+    }
+
+    @Override
+    public boolean remove(final String token) throws DataAccessException
+    {
+        this.forget(token);
+        if (new DBSessionQueries().deleteSession(token, null, null))
+        {
+            this.removed.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean remove(final Account account, final String token) throws DataAccessException
+    {
+        if (new DBSessionQueries().deleteSession(token, account.getUserName(), account.getBusinessTag()))
+        {
+            this.forget(token);
+            this.removed.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int remove(final Account account) throws DataAccessException
+    {
+        final int count = new DBSessionQueries().deleteSessions(account.getUserName(), account.getBusinessTag());
+
+        //the near cache is small, and this replica should stop accepting the tokens straight away.
+        for (final Iterator<Map.Entry<String, CachedSession>> i = this.nearCache.entrySet().iterator(); i.hasNext();)
+        {
+            final Account cached = i.next().getValue().tracking.getAccount();
+            if (cached.getUserName().equals(account.getUserName())
+                    && cached.getBusinessTag().equals(account.getBusinessTag()))
+            {
+                i.remove();
+            }
+        }
+        this.removed.addAndGet(count);
+        return count;
+    }
+
+    @Override
+    public Map<String, Long> getSessions(final Account account) throws DataAccessException
+    {
+        final Map<String, Long> result = new DBSessionQueries().getSessions(account.getUserName(),
+                account.getBusinessTag(), System.currentTimeMillis() - this.timeout);
+
+        //uses here that have not been written back yet.
+        for (final Map.Entry<String, Long> entry : result.entrySet())
+        {
+            final Long pending = this.pendingUses.get(entry.getKey());
+            if (pending != null && pending > entry.getValue())
+            {
+                entry.setValue(pending);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean removeExpired() throws DataAccessException
+    {
+        this.flush();
+        final int count = new DBSessionQueries().deleteExpiredSessions(System.currentTimeMillis() - this.timeout);
+        this.expired.addAndGet(count);
+        return count > 0;
+    }
+
+    @Override
+    public StringBuilder appendJson(final StringBuilder json)
+    {
+        return json.append("{\"store\":\"jdbc\"") //NON-NLS
+            .append(",\"cached\":").append(this.nearCache.size()) //NON-NLS
+            .append(",\"pendingUses\":").append(this.pendingUses.size()) //NON-NLS
+            .append(",\"created\":").append(this.created.get()) //NON-NLS
+            .append(",\"lookups\":").append(this.lookups.get()) //NON-NLS
+            .append(",\"cacheHits\":").append(this.cacheHits.get()) //NON-NLS
+            .append(",\"reads\":").append(this.reads.get()) //NON-NLS
+            .append(",\"misses\":").append(this.misses.get()) //NON-NLS
+            .append(",\"flushes\":").append(this.flushes.get()) //NON-NLS
+            .append(",\"writtenBack\":").append(this.writtenBack.get()) //NON-NLS
+            .append(",\"expired\":").append(this.expired.get()) //NON-NLS
+            .append(",\"removed\":").append(this.removed.get()) //NON-NLS
+            .append("}");
+    }
+
+    /**
+     * write back the latest use of each session used since the last flush, and drop stale near cache entries.
+     * runs on the background thread, or before a sweep.
+     */
+    void flush()
+    {
+        final long now = System.currentTimeMillis();
+        this.nearCache.values().removeIf(cached -> now - cached.cachedAt >= this.nearCacheTtl);
+
+        final Map<String, Long> uses = new HashMap<>();
+        for (final String token : this.pendingUses.keySet())
+        {
+            final Long lastUsed = this.pendingUses.remove(token);
+            if (lastUsed != null)
+            {
+                uses.put(token, lastUsed);
+            }
+        }
+        if (uses.isEmpty())
+        {
+            return;
+        }
+
+        try
+        {
+            new DBSessionQueries().touchSessions(uses);
+            this.flushes.incrementAndGet();
+            this.writtenBack.addAndGet(uses.size());
+        }
+        catch (final DataAccessException | RuntimeException e)
+        {
+            //kept for the next flush, unless the session has been used again since.
+            LOGGER.error("Failed to write back the use of " + uses.size() + " sessions", e); //NON-NLS
+            uses.forEach((token, lastUsed) -> this.pendingUses.merge(token, lastUsed, Math::max));
+        }
+    }
+
+    /**
+     * delete the sessions that have timed out. runs on the background thread.
+     */
+    private void sweep()
+    {
+        try
+        {
+            this.removeExpired();
+        }
+        catch (final DataAccessException | RuntimeException e)
+        {
+            LOGGER.error("Failed to delete expired sessions", e); //NON-NLS
+        }
+    }
+
+    /**
+     * keep a session read from or written to the database in the near cache, unless the cache is full.
+     *
+     * @param token - the token of the session.
+     * @param tracking - the session.
+     * @param now - the time the session was read.
+     */
+    private void cache(final String token, final AccountTracking tracking, final long now)
+    {
+        if (this.nearCache.size() < this.nearCacheSize)
+        {
+            this.nearCache.put(token, new CachedSession(tracking, now));
+        }
+    }
+
+    /**
+     * stop accepting a token on this replica.
+     *
+     * @param token - the token of the session.
+     */
+    private void forget(final String token)
+    {
+        this.nearCache.remove(token);
+        this.pendingUses.remove(token);
+    }
+}
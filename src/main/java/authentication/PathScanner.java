@@ -0,0 +1,598 @@
+package authentication;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The paths exempt from authentication, compiled once into a single DFA, and a scan of a request path that finds
+ * both whether it is exempt and the business it is for in one pass without allocating.
+ * <br />
+ * the rules are regular expressions, matched against the whole path as {@link java.util.regex.Matcher#matches()}
+ * would. the DFA understands literals, '.', character classes, the \d \w \s escapes and their negations, groups,
+ * '|' and the '*' '+' '?' quantifiers. rules using anything else, and paths with characters outside the basic
+ * multilingual plane, are matched with java.util.regex instead.
+ * <br />
+ * the result of a scan is packed into a long, read it with {@link #isExempt(long)}, {@link #hasBusinessTag(long)}
+ * and {@link #isBusinessTag(long, String, String)}.
+ *
+ * @author Matt Rayner
+ */
+final class PathScanner
+{
+    private static final Logger LOGGER = Logger.getLogger(PathScanner.class);
+
+    private static final String BUSINESS = "business"; //NON-NLS
+    private static final int MAX_STATES = 4096;
+    private static final int CHARS = Character.MAX_VALUE + 1;
+
+    private static final long EXEMPT = 1L << 62;
+    private static final long HAS_TAG = 1L << 61;
+    private static final int OFFSET_BITS = 30;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    /**
+     * every rule as one alternation, for what the DFA cannot match.
+     */
+    private final Pattern combined;
+
+    /**
+     * the next state by state and class of character, -1 once no rule can match. <code>null</code> if the rules
+     * could not be compiled.
+     */
+    private final int[] transitions;
+    private final boolean[] accepting;
+    private final int classes;
+
+    /**
+     * the class of each ASCII character, and the first character of each class for the rest.
+     */
+    private final int[] asciiClasses = new int[128];
+    private final char[] boundaries;
+
+    /**
+     * compile the rules.
+     *
+     * @param rules - the regular expressions of the exempt paths.
+     * @return the scanner.
+     * @throws java.util.regex.PatternSyntaxException if a rule is not a regular expression.
+     */
+    static PathScanner compile(final List<String> rules)
+    {
+        final StringBuilder alternation = new StringBuilder();
+        for (final String rule : rules)
+        {
+            alternation.append(alternation.length() == 0 ? "(?:" : "|(?:").append(rule).append(')');
+        }
+        // no rules matches nothing.
+        final Pattern combined = Pattern.compile(rules.isEmpty() ? "(?!)" : alternation.toString()); //NON-NLS
+
+        try
+        {
+            final Nfa nfa = new Nfa();
+            final int start = nfa.state();
+            final int accept = nfa.state();
+            for (final String rule : rules)
+            {
+                final int[] fragment = new Parser(rule, nfa).parse();
+                nfa.epsilon(start, fragment[0]);
+                nfa.epsilon(fragment[1], accept);
+            }
+            return new PathScanner(combined, nfa, start, accept);
+        }
+        catch (final IllegalArgumentException e)
+        {
+            LOGGER.warn("Exempt paths matched with java.util.regex: " + e.getMessage()); //NON-NLS
+            return new PathScanner(combined);
+        }
+    }
+
+    private PathScanner(final Pattern combined)
+    {
+        this.combined = combined;
+        this.transitions = null;
+        this.accepting = null;
+        this.classes = 0;
+        this.boundaries = null;
+    }
+
+    /**
+     * build the DFA from the NFA of the rules by the subset construction.
+     */
+    private PathScanner(final Pattern combined, final Nfa nfa, final int start, final int accept)
+    {
+        this.combined = combined;
+
+        // characters no rule tells apart share a class, so each state needs one transition per class.
+        final BitSet starts = new BitSet(CHARS);
+        starts.set(0);
+        for (final BitSet set : nfa.sets)
+        {
+            if (set != null)
+            {
+                for (int c = set.nextSetBit(0); c >= 0; c = set.nextSetBit(set.nextClearBit(c)))
+                {
+                    starts.set(c);
+                    if (set.nextClearBit(c) < CHARS)
+                    {
+                        starts.set(set.nextClearBit(c));
+                    }
+                }
+            }
+        }
+        this.boundaries = new char[starts.cardinality()];
+        int k = 0;
+        for (int c = starts.nextSetBit(0); c >= 0; c = starts.nextSetBit(c + 1))
+        {
+            this.boundaries[k++] = (char) c;
+        }
+        this.classes = this.boundaries.length;
+        for (char c = 0; c < this.asciiClasses.length; c++)
+        {
+            this.asciiClasses[c] = this.search(c);
+        }
+
+        final Map<BitSet, Integer> ids = new HashMap<>();
+        final List<BitSet> states = new ArrayList<>();
+        final List<int[]> rows = new ArrayList<>();
+        final BitSet initial = new BitSet();
+        initial.set(start);
+        ids.put(nfa.closure(initial), 0);
+        states.add(nfa.closure(initial));
+
+        for (int d = 0; d < states.size(); d++)
+        {
+            final BitSet from = states.get(d);
+            final int[] row = new int[this.classes];
+            for (int cls = 0; cls < this.classes; cls++)
+            {
+                final BitSet to = new BitSet();
+                for (int s = from.nextSetBit(0); s >= 0; s = from.nextSetBit(s + 1))
+                {
+                    final BitSet set = nfa.sets.get(s);
+                    if (set != null && set.get(this.boundaries[cls]))
+                    {
+                        to.set(nfa.targets.get(s));
+                    }
+                }
+                if (to.isEmpty())
+                {
+                    row[cls] = -1;
+                    continue;
+                }
+                final BitSet closure = nfa.closure(to);
+                Integer id = ids.get(closure);
+                if (id == null)
+                {
+                    if (states.size() == MAX_STATES)
+                    {
+                        throw new IllegalArgumentException("more than " + MAX_STATES + " states"); //NON-NLS
+                    }
+                    id = states.size();
+                    ids.put(closure, id);
+                    states.add(closure);
+                }
+                row[cls] = id;
+            }
+            rows.add(row);
+        }
+
+        this.transitions = new int[rows.size() * this.classes];
+        this.accepting = new boolean[rows.size()];
+        for (int d = 0; d < rows.size(); d++)
+        {
+            System.arraycopy(rows.get(d), 0, this.transitions, d * this.classes, this.classes);
+            this.accepting[d] = states.get(d).get(accept);
+        }
+    }
+
+    /**
+     * scan a decoded request path, one without percent-encoded characters as those can hide a '/' in a segment.
+     * the business tag is the segment after the first segment that is "business", without its matrix parameters.
+     *
+     * @param path - the path relative to the API.
+     * @return whether the path is exempt and where its business tag is.
+     */
+    long scan(final String path)
+    {
+        final int length = path.length();
+        int state = this.transitions == null ? -1 : 0;
+        boolean regex = this.transitions == null;
+
+        int segment = 0;
+        int parameters = -1;
+        boolean afterBusiness = false;
+        long tag = 0;
+
+        for (int i = 0; i < length; i++)
+        {
+            final char c = path.charAt(i);
+            if (state >= 0)
+            {
+                state = this.transitions[state * this.classes + this.classOf(c)];
+            }
+            if (Character.isSurrogate(c))
+            {
+                // java.util.regex matches these as one character, the DFA would see two.
+                regex = true;
+            }
+
+            if (tag == 0)
+            {
+                if (c == ';' && parameters < 0)
+                {
+                    parameters = i;
+                }
+                else if (c == '/')
+                {
+                    final int end = parameters < 0 ? i : parameters;
+                    if (afterBusiness)
+                    {
+                        tag = HAS_TAG | ((long) segment << OFFSET_BITS) | end;
+                    }
+                    afterBusiness = end - segment == BUSINESS.length() && path.startsWith(BUSINESS, segment);
+                    segment = i + 1;
+                    parameters = -1;
+                }
+            }
+            else if (state < 0 && !regex)
+            {
+                break;
+            }
+        }
+        if (tag == 0 && afterBusiness)
+        {
+            tag = HAS_TAG | ((long) segment << OFFSET_BITS) | (parameters < 0 ? length : parameters);
+        }
+
+        final boolean exempt = regex ? this.combined.matcher(path).matches() : state >= 0 && this.accepting[state];
+        return exempt ? tag | EXEMPT : tag;
+    }
+
+    /**
+     * @param scan - the result of {@link #scan(String)}.
+     * @return <code>true</code> if the path is exempt from authentication.
+     */
+    static boolean isExempt(final long scan)
+    {
+        return (scan & EXEMPT) != 0;
+    }
+
+    /**
+     * @param scan - the result of {@link #scan(String)}.
+     * @return <code>true</code> if the path is for a business.
+     */
+    static boolean hasBusinessTag(final long scan)
+    {
+        return (scan & HAS_TAG) != 0;
+    }
+
+    /**
+     * @param scan - the result of {@link #scan(String)}.
+     * @param path - the path scanned.
+     * @param businessTag - a business tag.
+     * @return <code>true</code> if the path is for the business.
+     */
+    static boolean isBusinessTag(final long scan, final String path, final String businessTag)
+    {
+        final int start = (int) ((scan >>> OFFSET_BITS) & OFFSET_MASK);
+        final int end = (int) (scan & OFFSET_MASK);
+        return hasBusinessTag(scan) && end - start == businessTag.length()
+                && path.regionMatches(start, businessTag, 0, businessTag.length());
+    }
+
+    private int classOf(final char c)
+    {
+        return c < this.asciiClasses.length ? this.asciiClasses[c] : this.search(c);
+    }
+
+    /**
+     * @param c - a character.
+     * @return the class of the character, the last class starting at or before it.
+     */
+    private int search(final char c)
+    {
+        final int found = Arrays.binarySearch(this.boundaries, c);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    /**
+     * an NFA built by Thompson's construction, each state has at most one character transition.
+     */
+    private static final class Nfa
+    {
+        private final List<List<Integer>> epsilons = new ArrayList<>();
+        private final List<BitSet> sets = new ArrayList<>();
+        private final List<Integer> targets = new ArrayList<>();
+
+        int state()
+        {
+            this.epsilons.add(new ArrayList<>());
+            this.sets.add(null);
+            this.targets.add(-1);
+            return this.epsilons.size() - 1;
+        }
+
+        void epsilon(final int from, final int to)
+        {
+            this.epsilons.get(from).add(to);
+        }
+
+        void transition(final int from, final BitSet set, final int to)
+        {
+            this.sets.set(from, set);
+            this.targets.set(from, to);
+        }
+
+        BitSet closure(final BitSet states)
+        {
+            final BitSet result = (BitSet) states.clone();
+            final Deque<Integer> stack = new ArrayDeque<>();
+            states.stream().forEach(stack::push);
+            while (!stack.isEmpty())
+            {
+                for (final int next : this.epsilons.get(stack.pop()))
+                {
+                    if (!result.get(next))
+                    {
+                        result.set(next);
+                        stack.push(next);
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * parses a rule into NFA states, a fragment is the pair of its start and end state.
+     */
+    private static final class Parser
+    {
+        private final String rule;
+        private final Nfa nfa;
+        private int pos;
+
+        Parser(final String rule, final Nfa nfa)
+        {
+            this.rule = rule;
+            this.nfa = nfa;
+        }
+
+        int[] parse()
+        {
+            final int[] fragment = this.alternation();
+            if (this.pos < this.rule.length())
+            {
+                throw this.unsupported();
+            }
+            return fragment;
+        }
+
+        private int[] alternation()
+        {
+            int[] fragment = this.concatenation();
+            while (this.more() && this.peek() == '|')
+            {
+                this.pos++;
+                final int[] other = this.concatenation();
+                final int start = this.nfa.state();
+                final int end = this.nfa.state();
+                this.nfa.epsilon(start, fragment[0]);
+                this.nfa.epsilon(start, other[0]);
+                this.nfa.epsilon(fragment[1], end);
+                this.nfa.epsilon(other[1], end);
+                fragment = new int[] {start, end};
+            }
+            return fragment;
+        }
+
+        private int[] concatenation()
+        {
+            final int start = this.nfa.state();
+            int end = start;
+            while (this.more() && this.peek() != '|' && this.peek() != ')')
+            {
+                final int[] next = this.repetition();
+                this.nfa.epsilon(end, next[0]);
+                end = next[1];
+            }
+            return new int[] {start, end};
+        }
+
+        private int[] repetition()
+        {
+            int[] fragment = this.atom();
+            while (this.more() && "*+?".indexOf(this.peek()) >= 0)
+            {
+                final char quantifier = this.rule.charAt(this.pos++);
+                if (this.more() && this.peek() == '+')
+                {
+                    throw this.unsupported(); //possessive
+                }
+                if (this.more() && this.peek() == '?')
+                {
+                    this.pos++; //reluctant, the same when matching the whole path.
+                }
+                final int start = this.nfa.state();
+                final int end = this.nfa.state();
+                this.nfa.epsilon(start, fragment[0]);
+                this.nfa.epsilon(fragment[1], end);
+                if (quantifier != '+')
+                {
+                    this.nfa.epsilon(start, end);
+                }
+                if (quantifier != '?')
+                {
+                    this.nfa.epsilon(fragment[1], fragment[0]);
+                }
+                fragment = new int[] {start, end};
+            }
+            return fragment;
+        }
+
+        private int[] atom()
+        {
+            final char c = this.rule.charAt(this.pos++);
+            final BitSet set;
+            switch (c)
+            {
+                case '(':
+                    if (this.rule.startsWith("?:", this.pos)) //NON-NLS
+                    {
+                        this.pos += 2;
+                    }
+                    else if (this.more() && this.peek() == '?')
+                    {
+                        throw this.unsupported();
+                    }
+                    final int[] group = this.alternation();
+                    if (!this.more() || this.rule.charAt(this.pos++) != ')')
+                    {
+                        throw this.unsupported();
+                    }
+                    return group;
+                case '[':
+                    set = this.characterClass();
+                    break;
+                case '.':
+                    set = new BitSet(CHARS);
+                    set.set(0, CHARS);
+                    for (final char terminator : "\n\r\u0085\u2028\u2029".toCharArray())
+                    {
+                        set.clear(terminator);
+                    }
+                    break;
+                case '\\':
+                    set = this.escape();
+                    break;
+                case '^': case '$': case '{': case '*': case '+': case '?': case ')':
+                    throw this.unsupported();
+                default:
+                    set = new BitSet(CHARS);
+                    set.set(c);
+            }
+            final int start = this.nfa.state();
+            final int end = this.nfa.state();
+            this.nfa.transition(start, set, end);
+            return new int[] {start, end};
+        }
+
+        private BitSet characterClass()
+        {
+            final boolean negated = this.more() && this.peek() == '^';
+            if (negated)
+            {
+                this.pos++;
+            }
+            final BitSet set = new BitSet(CHARS);
+            boolean first = true;
+            while (this.more() && (this.peek() != ']' || first))
+            {
+                final char c = this.rule.charAt(this.pos++);
+                first = false;
+                if (c == '[' || c == ']' || (c == '&' && this.more() && this.peek() == '&'))
+                {
+                    throw this.unsupported();
+                }
+                if (c == '\\')
+                {
+                    set.or(this.escape());
+                }
+                else if (this.rule.startsWith("-", this.pos) && this.pos + 1 < this.rule.length() //NON-NLS
+                        && this.rule.charAt(this.pos + 1) != ']')
+                {
+                    final char last = this.rule.charAt(this.pos + 1);
+                    if (last == '\\' || last == '[' || last < c)
+                    {
+                        throw this.unsupported();
+                    }
+                    set.set(c, last + 1);
+                    this.pos += 2;
+                }
+                else
+                {
+                    set.set(c);
+                }
+            }
+            if (!this.more())
+            {
+                throw this.unsupported();
+            }
+            this.pos++;
+            if (negated)
+            {
+                set.flip(0, CHARS);
+            }
+            return set;
+        }
+
+        private BitSet escape()
+        {
+            if (!this.more())
+            {
+                throw this.unsupported();
+            }
+            final char c = this.rule.charAt(this.pos++);
+            final BitSet set = new BitSet(CHARS);
+            switch (Character.toLowerCase(c))
+            {
+                case 'd':
+                    set.set('0', '9' + 1);
+                    break;
+                case 'w':
+                    set.set('a', 'z' + 1);
+                    set.set('A', 'Z' + 1);
+                    set.set('0', '9' + 1);
+                    set.set('_');
+                    break;
+                case 's':
+                    for (final char space : " \t\n\u000B\f\r".toCharArray())
+                    {
+                        set.set(space);
+                    }
+                    break;
+                default:
+                    if (c == 't' || c == 'n' || c == 'r' || c == 'f')
+                    {
+                        set.set("\t\n\r\f".charAt("tnrf".indexOf(c)));
+                        return set;
+                    }
+                    if (Character.isLetterOrDigit(c))
+                    {
+                        throw this.unsupported();
+                    }
+                    set.set(c);
+                    return set;
+            }
+            if (Character.isUpperCase(c))
+            {
+                set.flip(0, CHARS);
+            }
+            return set;
+        }
+
+        private boolean more()
+        {
+            return this.pos < this.rule.length();
+        }
+
+        private char peek()
+        {
+            return this.rule.charAt(this.pos);
+        }
+
+        private IllegalArgumentException unsupported()
+        {
+            return new IllegalArgumentException("'" + this.rule + "' at " + this.pos); //NON-NLS
+        }
+    }
+}
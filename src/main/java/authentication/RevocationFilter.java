@@ -0,0 +1,129 @@
+package authentication;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of the ids of revoked signed tokens, safe to use from concurrent requests.
+ * <br />
+ * a revoked token only has to be remembered until it would have expired anyway, so the filter is kept in two
+ * generations: ids are added to the current one and looked for in both, and every token lifetime the previous
+ * generation is dropped and the current one takes its place. a token is never forgotten before it expires.
+ * <br />
+ * a bloom filter can answer that a token was revoked when it was not, at a rate set by its size. such a token is
+ * rejected as if it had been logged out, so the size should keep that rare for the revocations expected.
+ *
+ * @author Matt Rayner
+ */
+final class RevocationFilter
+{
+    private final int bits;
+    private final int hashes;
+
+    private volatile AtomicLongArray current;
+    private volatile AtomicLongArray previous;
+
+    private final AtomicLong added = new AtomicLong();
+
+    /**
+     * create a new empty filter.
+     *
+     * @param bits - the number of bits in each generation, rounded up to a multiple of 64.
+     * @param hashes - the number of bits set for each id.
+     */
+    RevocationFilter(final int bits, final int hashes)
+    {
+        this.bits = (bits + 63) / 64 * 64;
+        this.hashes = hashes;
+        this.current = new AtomicLongArray(this.bits / 64);
+        this.previous = new AtomicLongArray(this.bits / 64);
+    }
+
+    /**
+     * remember that a token has been revoked.
+     *
+     * @param id - the random id of the token.
+     */
+    void add(final long id)
+    {
+        final AtomicLongArray words = this.current;
+        for (int i = 0; i < this.hashes; i++)
+        {
+            final int bit = this.bit(id, i);
+            final int word = bit >>> 6;
+            final long mask = 1L << bit;
+            long value;
+            do
+            {
+                value = words.get(word);
+            } while ((value & mask) == 0 && !words.compareAndSet(word, value, value | mask));
+        }
+        this.added.incrementAndGet();
+    }
+
+    /**
+     * @param id - the random id of a token.
+     * @return <code>true</code> if the token may have been revoked, <code>false</code> if it certainly was not.
+     */
+    boolean mightContain(final long id)
+    {
+        return this.contains(this.current, id) || this.contains(this.previous, id);
+    }
+
+    /**
+     * drop the previous generation and start a new one, called once every token lifetime.
+     */
+    void rotate()
+    {
+        this.previous = this.current;
+        this.current = new AtomicLongArray(this.bits / 64);
+    }
+
+    /**
+     * @return the number of ids added since the filter was created.
+     */
+    long getAdded()
+    {
+        return this.added.get();
+    }
+
+    /**
+     * @return the share of the bits of the current generation that are set.
+     */
+    double getFill()
+    {
+        final AtomicLongArray words = this.current;
+        long set = 0;
+        for (int i = 0; i < words.length(); i++)
+        {
+            set += Long.bitCount(words.get(i));
+        }
+        return (double) set / this.bits;
+    }
+
+    private boolean contains(final AtomicLongArray words, final long id)
+    {
+        for (int i = 0; i < this.hashes; i++)
+        {
+            final int bit = this.bit(id, i);
+            if ((words.get(bit >>> 6) & (1L << bit)) == 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * the ids are random already, so the two halves of an id are used as the hashes the bits are derived from.
+     *
+     * @param id - the id.
+     * @param i - which of the bits of the id.
+     * @return the index of the bit.
+     */
+    private int bit(final long id, final int i)
+    {
+        final int combined = (int) id + i * (int) (id >>> 32);
+        return (combined & Integer.MAX_VALUE) % this.bits;
+    }
+}
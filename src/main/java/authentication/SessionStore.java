@@ -0,0 +1,398 @@
+package authentication;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import models.Account;
+
+/**
+ * Store of the logged in accounts by their token, safe to use from concurrent requests.
+ * <br />
+ * a session expires once it has not been used for the timeout, every use slides its expiry forward.
+ * expired sessions are removed in the background by a timing wheel: each session is filed in the slot
+ * of the tick it would expire on, and when a tick passes the sessions in its slot are either removed or,
+ * if they have been used since, filed again under their new expiry. using a session never touches the wheel.
+ * <br />
+ * the store holds at most a maximum number of sessions, past it the sessions due to expire soonest are evicted.
+ * <br />
+ * the tokens of each account are indexed as well, so that every session of an account can be found or logged out
+ * without going through every session. the index is kept in step with every way a session can go.
+ *
+ * @author Matt Rayner
+ */
+public final class SessionStore implements TokenStore
+{
+    private static final Logger LOGGER = Logger.getLogger(SessionStore.class);
+
+    private final Map<String, AccountTracking> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * the tokens of each account by {@link TokenStore#accountKey(Account)}, changed only inside compute so a set is never
+     * removed while a token is being added to it.
+     */
+    private final Map<String, Set<String>> accounts = new ConcurrentHashMap<>();
+
+    /**
+     * the tokens of the sessions by the slot of the tick they are due to expire on,
+     * a token may be left in a slot after its session has gone.
+     */
+    private final Queue<String>[] wheel;
+
+    private final long timeout;
+    private final int maxSessions;
+    private final long tickMillis;
+
+    /**
+     * the next tick to be expired, only moved by the expiry thread.
+     */
+    private volatile long nextTick;
+
+    private final ScheduledExecutorService expiry;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+
+    /**
+     * create a new store and start expiring its sessions in the background.
+     *
+     * @param timeout - the milliseconds a session may go unused before it expires.
+     * @param maxSessions - the most sessions held.
+     * @param slots - the number of slots in the timing wheel, each covers an equal share of the timeout.
+     */
+    @SuppressWarnings("unchecked")
+    SessionStore(final long timeout, final int maxSessions, final int slots)
+    {
+        this.timeout = timeout;
+        this.maxSessions = maxSessions;
+        this.tickMillis = Math.max(1, timeout / slots);
+
+        // one more slot than the timeout needs, so a session is never filed under the tick being expired.
+        this.wheel = new Queue[slots + 2];
+        for (int i = 0; i < this.wheel.length; i++)
+        {
+            this.wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.nextTick = System.currentTimeMillis() / this.tickMillis;
+
+        this.expiry = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            final Thread thread = new Thread(runnable, "session-expiry"); //NON-NLS
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.expiry.scheduleWithFixedDelay(this::expire, this.tickMillis, this.tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String add(final Account account)
+    {
+        final AccountTracking tracking = new AccountTracking(account);
+        String token;
+        do
+        {
+            token = TokenStore.generateToken();
+        } while (this.sessions.putIfAbsent(token, tracking) != null); //ensure that the token has not been used
+
+        this.created.incrementAndGet();
+        this.index(token, account);
+        if (this.sessions.get(token) != tracking)
+        {
+            //the session went before it was indexed, do not leave its token behind.
+            this.deindex(token, account);
+        }
+        this.file(token, tracking);
+
+        while (this.sessions.size() > this.maxSessions && this.evictOne(token))
+        {
+            this.evicted.incrementAndGet();
+        }
+        return token;
+    }
+
+    @Override
+    public Account get(final String token)
+    {
+        this.lookups.incrementAndGet();
+        final AccountTracking tracking = this.sessions.get(token);
+        if (tracking == null)
+        {
+            this.misses.incrementAndGet();
+            return null;
+        }
+        if (!tracking.touch(this.timeout))
+        {
+            if (this.unlink(token, tracking))
+            {
+                this.expired.incrementAndGet();
+            }
+            this.misses.incrementAndGet();
+            return null;
+        }
+        return tracking.getAccount();
+    }
+
+    /**
+     * {@inheritDoc}
+     * its token is left in the wheel until its tick passes.
+     */
+    @Override
+    public boolean remove(final String token)
+    {
+        final AccountTracking tracking = this.sessions.get(token);
+        if (tracking != null && this.unlink(token, tracking))
+        {
+            this.removed.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean remove(final Account account, final String token)
+    {
+        final AccountTracking tracking = this.sessions.get(token);
+        if (tracking != null && TokenStore.accountKey(tracking.getAccount()).equals(TokenStore.accountKey(account)))
+        {
+            return this.remove(token);
+        }
+        return false;
+    }
+
+    @Override
+    public int remove(final Account account)
+    {
+        final Set<String> tokens = this.accounts.remove(TokenStore.accountKey(account));
+        int count = 0;
+        if (tokens != null)
+        {
+            for (final String token : tokens)
+            {
+                if (this.sessions.remove(token) != null)
+                {
+                    this.removed.incrementAndGet();
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public Map<String, Long> getSessions(final Account account)
+    {
+        final Set<String> tokens = this.accounts.get(TokenStore.accountKey(account));
+        if (tokens == null)
+        {
+            return Collections.emptyMap();
+        }
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (final String token : tokens)
+        {
+            final AccountTracking tracking = this.sessions.get(token);
+            if (tracking != null && tracking.isTimeValid(this.timeout))
+            {
+                result.put(token, tracking.getLastTimeUsed());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * rather than waiting for the wheel.
+     */
+    @Override
+    public boolean removeExpired()
+    {
+        boolean any = false;
+        for (final Map.Entry<String, AccountTracking> entry : this.sessions.entrySet())
+        {
+            if (!entry.getValue().isTimeValid(this.timeout) && this.unlink(entry.getKey(), entry.getValue()))
+            {
+                this.expired.incrementAndGet();
+                any = true;
+            }
+        }
+        return any;
+    }
+
+    /**
+     * stop expiring sessions in the background, the store should not be used afterwards.
+     */
+    void shutdown()
+    {
+        this.expiry.shutdownNow();
+    }
+
+    /**
+     * @return the number of sessions held, some may have expired but not been removed yet.
+     */
+    public int size()
+    {
+        return this.sessions.size();
+    }
+
+    @Override
+    public StringBuilder appendJson(final StringBuilder json)
+    {
+        return json.append("{\"store\":\"memory\",\"live\":").append(this.sessions.size()) //NON-NLS
+            .append(",\"accounts\":").append(this.accounts.size()) //NON-NLS
+            .append(",\"maxSessions\":").append(this.maxSessions) //NON-NLS
+            .append(",\"created\":").append(this.created.get()) //NON-NLS
+            .append(",\"lookups\":").append(this.lookups.get()) //NON-NLS
+            .append(",\"misses\":").append(this.misses.get()) //NON-NLS
+            .append(",\"expired\":").append(this.expired.get()) //NON-NLS
+            .append(",\"evicted\":").append(this.evicted.get()) //NON-NLS
+            .append(",\"removed\":").append(this.removed.get()) //NON-NLS
+            .append("}");
+    }
+
+    /**
+     * file a session in the slot of the tick it is due to expire on, never the tick being expired.
+     *
+     * @param token - the token of the session.
+     * @param tracking - the session.
+     */
+    private void file(final String token, final AccountTracking tracking)
+    {
+        final long tick = Math.max((tracking.getLastTimeUsed() + this.timeout) / this.tickMillis, this.nextTick + 1);
+        this.wheel[(int) (tick % this.wheel.length)].add(token);
+    }
+
+    /**
+     * expire the sessions of every tick that has passed. runs on the expiry thread.
+     */
+    private void expire()
+    {
+        try
+        {
+            final long now = System.currentTimeMillis();
+            while ((this.nextTick + 1) * this.tickMillis <= now)
+            {
+                final Queue<String> slot = this.wheel[(int) (this.nextTick % this.wheel.length)];
+                // sessions filed while the slot is drained are always for a later tick, so stop at its current size.
+                for (int i = slot.size(); i > 0; i--)
+                {
+                    final String token = slot.poll();
+                    if (token == null)
+                    {
+                        break;
+                    }
+                    final AccountTracking tracking = this.sessions.get(token);
+                    if (tracking == null)
+                    {
+                        continue;
+                    }
+                    if (!tracking.isTimeValid(this.timeout))
+                    {
+                        if (this.unlink(token, tracking))
+                        {
+                            this.expired.incrementAndGet();
+                        }
+                    }
+                    else
+                    {
+                        this.file(token, tracking);
+                    }
+                }
+                this.nextTick++;
+            }
+        }
+        catch (final RuntimeException e)
+        {
+            LOGGER.error("Failed to expire sessions", e); //NON-NLS
+        }
+    }
+
+    /**
+     * evict the session due to expire soonest, as far as the wheel knows, other than the one just created.
+     *
+     * @param keep - the token of the session just created.
+     * @return <code>true</code> if a session was evicted.
+     */
+    private boolean evictOne(final String keep)
+    {
+        for (int i = 0; i < this.wheel.length; i++)
+        {
+            final Queue<String> slot = this.wheel[(int) ((this.nextTick + i) % this.wheel.length)];
+            String token;
+            while ((token = slot.poll()) != null)
+            {
+                if (token.equals(keep))
+                {
+                    slot.add(token);
+                    break;
+                }
+                final AccountTracking tracking = this.sessions.get(token);
+                if (tracking != null && this.unlink(token, tracking))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * remove a session and its token from the index of its account.
+     *
+     * @param token - the token of the session.
+     * @param tracking - the session, it is only removed if the token still maps to it.
+     * @return <code>true</code> if the session was removed.
+     */
+    private boolean unlink(final String token, final AccountTracking tracking)
+    {
+        if (this.sessions.remove(token, tracking))
+        {
+            this.deindex(token, tracking.getAccount());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * add a token to the index of its account.
+     *
+     * @param token - the token of the session.
+     * @param account - the account of the session.
+     */
+    private void index(final String token, final Account account)
+    {
+        this.accounts.compute(TokenStore.accountKey(account), (key, tokens) ->
+        {
+            final Set<String> result = tokens == null ? ConcurrentHashMap.newKeySet() : tokens;
+            result.add(token);
+            return result;
+        });
+    }
+
+    /**
+     * remove a token from the index of its account, and the account once it has no tokens left.
+     *
+     * @param token - the token of the session.
+     * @param account - the account of the session.
+     */
+    private void deindex(final String token, final Account account)
+    {
+        this.accounts.computeIfPresent(TokenStore.accountKey(account), (key, tokens) ->
+        {
+            tokens.remove(token);
+            return tokens.isEmpty() ? null : tokens;
+        });
+    }
+}
@@ -0,0 +1,422 @@
+package authentication;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.log4j.Logger;
+
+import database.DBSessionQueries;
+import exceptions.DataAccessException;
+import models.Account;
+import models.TokenPair;
+
+/**
+ * Stateless tokens signed with a key shared by every replica of the API, so a token is checked in memory without
+ * looking anything up or writing anything. chosen with auth.token.mode=signed.
+ * <br />
+ * a token carries the account, its own random id, when it was issued and when it expires, followed by an
+ * HMAC-SHA256 of all of that. an account that logs in is given a short lived access token and a refresh token that
+ * lasts the session timeout, both with the same id. the refresh token is traded for a new pair before the access
+ * token expires, and is revoked as it is.
+ * <br />
+ * revoking a token puts its id in a {@link RevocationFilter}, which revokes both tokens of the pair. logging an
+ * account out everywhere keeps the time it happened, tokens of the account issued before then are rejected.
+ * <br />
+ * both are also written to the database (see sql/session.sql), and a refresh token is only redeemed once its id has
+ * been added there, so a refresh token works once on whichever replica it is sent to and not at all once revoked or
+ * logged out on any of them. access tokens are still only checked in memory, so one revoked on another replica works
+ * here until it expires, at most auth.token.signed.accessTtl.
+ *
+ * @author Matt Rayner
+ */
+final class SignedTokenStore implements TokenStore
+{
+    private static final Logger LOGGER = Logger.getLogger(SignedTokenStore.class);
+
+    private static final String ALGORITHM = "HmacSHA256"; //NON-NLS
+    private static final char ACCESS = 'a';
+    private static final char REFRESH = 'r';
+    private static final char SEPARATOR = '\u0000';
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    /**
+     * the contents of a token whose signature has been checked.
+     */
+    private static final class Claims
+    {
+        private final char kind;
+        private final long id;
+        private final long issued;
+        private final long expires;
+        private final Account account;
+
+        private Claims(final char kind, final long id, final long issued, final long expires, final Account account)
+        {
+            this.kind = kind;
+            this.id = id;
+            this.issued = issued;
+            this.expires = expires;
+            this.account = account;
+        }
+    }
+
+    /**
+     * initialised with the key, cloned for each use as a Mac is not safe to share.
+     */
+    private final Mac signer;
+
+    private final SecureRandom random = new SecureRandom();
+    private final long accessTtl;
+    private final long refreshTtl;
+    private final RevocationFilter revoked;
+
+    /**
+     * when each account last logged out everywhere by {@link TokenStore#accountKey(Account)}.
+     */
+    private final Map<String, Long> revokedAccounts = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService rotation;
+
+    private final AtomicLong issued = new AtomicLong();
+    private final AtomicLong verified = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong refreshed = new AtomicLong();
+
+    /**
+     * create a new store and start rotating its revocations in the background.
+     *
+     * @param key - the HMAC key, at least 32 bytes and the same on every replica.
+     * @param accessTtl - the milliseconds an access token is valid for.
+     * @param refreshTtl - the milliseconds a refresh token is valid for.
+     * @param revocationBits - the bits in each generation of the revocation filter.
+     * @param revocationHashes - the bits set in the revocation filter for each token.
+     */
+    SignedTokenStore(final byte[] key, final long accessTtl, final long refreshTtl,
+                     final int revocationBits, final int revocationHashes)
+    {
+        if (key.length < 32)
+        {
+            throw new IllegalArgumentException("The signing key must be at least 32 bytes"); //NON-NLS
+        }
+        try
+        {
+            this.signer = Mac.getInstance(ALGORITHM);
+            this.signer.init(new SecretKeySpec(key, ALGORITHM));
+        }
+        catch (final GeneralSecurityException e)
+        {
+            throw new IllegalStateException("Could not create the token signer", e); //NON-NLS
+        }
+        this.accessTtl = accessTtl;
+        this.refreshTtl = refreshTtl;
+        this.revoked = new RevocationFilter(revocationBits, revocationHashes);
+
+        // a revoked token is kept for at least one whole generation, no token lives longer than a refresh token.
+        this.rotation = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            final Thread thread = new Thread(runnable, "token-revocation"); //NON-NLS
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.rotation.scheduleWithFixedDelay(this::rotate, refreshTtl, refreshTtl, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * issue an access and refresh token for an account that has logged in.
+     *
+     * @param account - the account.
+     * @return the tokens.
+     */
+    TokenPair issue(final Account account)
+    {
+        final long id = this.random.nextLong();
+        final long now = System.currentTimeMillis();
+        this.issued.incrementAndGet();
+        return new TokenPair(this.sign(ACCESS, id, now, now + this.accessTtl, account),
+                this.sign(REFRESH, id, now, now + this.refreshTtl, account),
+                now + this.accessTtl);
+    }
+
+    /**
+     * redeem a refresh token, revoking it and the access token issued with it. the token is checked against the
+     * revocations of every replica, and recorded as redeemed for all of them.
+     *
+     * @param token - the refresh token.
+     * @return the account the token was issued to, or <code>null</code> if the token is not valid.
+     * @throws DataAccessException if the revocations could not be read or written.
+     */
+    Account refresh(final String token) throws DataAccessException
+    {
+        final Claims claims = this.verify(token, REFRESH);
+        if (claims == null)
+        {
+            return null;
+        }
+        final Account account = claims.account;
+        if (claims.issued <= new DBSessionQueries().getLoggedOut(account.getUserName(), account.getBusinessTag())
+                || !new DBSessionQueries().revokeToken(claims.id, claims.expires))
+        {
+            //logged out everywhere, or redeemed or revoked, on another replica.
+            this.revoked.add(claims.id);
+            this.rejected.incrementAndGet();
+            return null;
+        }
+        this.revoked.add(claims.id);
+        this.refreshed.incrementAndGet();
+        return account;
+    }
+
+    /**
+     * {@inheritDoc}
+     * with no refresh token, {@link #issue(Account)} is used to log in.
+     */
+    @Override
+    public String add(final Account account)
+    {
+        return this.issue(account).getAccessToken();
+    }
+
+    /**
+     * {@inheritDoc}
+     * the account only has its userName and businessTag, a token does not slide its expiry.
+     */
+    @Override
+    public Account get(final String token)
+    {
+        final Claims claims = this.verify(token, ACCESS);
+        return claims == null ? null : claims.account;
+    }
+
+    /**
+     * {@inheritDoc}
+     * either token of a pair revokes both.
+     */
+    @Override
+    public boolean remove(final String token) throws DataAccessException
+    {
+        Claims claims = this.verify(token, ACCESS);
+        if (claims == null)
+        {
+            claims = this.verify(token, REFRESH);
+        }
+        if (claims == null)
+        {
+            return false;
+        }
+        this.revoke(claims);
+        return true;
+    }
+
+    @Override
+    public boolean remove(final Account account, final String token) throws DataAccessException
+    {
+        final Claims claims = this.verify(token, ACCESS);
+        if (claims != null && TokenStore.accountKey(claims.account).equals(TokenStore.accountKey(account)))
+        {
+            this.revoke(claims);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     * the tokens are not kept, so the number of them is not known and 0 is returned.
+     */
+    @Override
+    public int remove(final Account account) throws DataAccessException
+    {
+        final long now = System.currentTimeMillis();
+        this.revokedAccounts.put(TokenStore.accountKey(account), now);
+        new DBSessionQueries().logoutAccount(account.getUserName(), account.getBusinessTag(), now);
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * the tokens are not kept, so there are none to list.
+     */
+    @Override
+    public Map<String, Long> getSessions(final Account account)
+    {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * {@inheritDoc}
+     * tokens expire by themselves, there is nothing to remove.
+     */
+    @Override
+    public boolean removeExpired()
+    {
+        return false;
+    }
+
+    @Override
+    public StringBuilder appendJson(final StringBuilder json)
+    {
+        return json.append("{\"store\":\"signed\",\"issued\":").append(this.issued.get()) //NON-NLS
+            .append(",\"verified\":").append(this.verified.get()) //NON-NLS
+            .append(",\"rejected\":").append(this.rejected.get()) //NON-NLS
+            .append(",\"refreshed\":").append(this.refreshed.get()) //NON-NLS
+            .append(",\"revoked\":").append(this.revoked.getAdded()) //NON-NLS
+            .append(",\"revocationFill\":").append(this.revoked.getFill()) //NON-NLS
+            .append(",\"revokedAccounts\":").append(this.revokedAccounts.size()) //NON-NLS
+            .append("}");
+    }
+
+    /**
+     * stop rotating the revocations in the background, the store should not be used afterwards.
+     */
+    void shutdown()
+    {
+        this.rotation.shutdownNow();
+    }
+
+    /**
+     * revoke both tokens of a pair, here straight away and for the refresh token on every replica.
+     *
+     * @param claims - the contents of either token of the pair.
+     * @throws DataAccessException if the revocation could not be written.
+     */
+    private void revoke(final Claims claims) throws DataAccessException
+    {
+        this.revoked.add(claims.id);
+        //kept until the refresh token of the pair expires, an access token never outlives it.
+        new DBSessionQueries().revokeToken(claims.id, claims.issued + this.refreshTtl);
+    }
+
+    /**
+     * create a signed token.
+     *
+     * @param kind - {@link #ACCESS} or {@link #REFRESH}.
+     * @param id - the id shared by the tokens of the pair.
+     * @param issued - when the token was issued.
+     * @param expires - when the token expires.
+     * @param account - the account the token is for.
+     * @return the token, its payload and signature in base64url separated by a '.'.
+     */
+    private String sign(final char kind, final long id, final long issued, final long expires, final Account account)
+    {
+        final String payload = ENCODER.encodeToString((String.valueOf(kind) + SEPARATOR + Long.toHexString(id)
+                + SEPARATOR + issued + SEPARATOR + expires + SEPARATOR + account.getBusinessTag()
+                + SEPARATOR + account.getUserName()).getBytes(StandardCharsets.UTF_8));
+        return payload + '.' + ENCODER.encodeToString(this.mac(payload));
+    }
+
+    /**
+     * check a token: its signature, kind, expiry and that it has not been revoked.
+     *
+     * @param token - the token.
+     * @param kind - the kind of token expected.
+     * @return the contents of the token, or <code>null</code> if it is not valid.
+     */
+    private Claims verify(final String token, final char kind)
+    {
+        final Claims claims = this.parse(token);
+        if (claims == null || claims.kind != kind || claims.expires <= System.currentTimeMillis()
+                || this.revoked.mightContain(claims.id))
+        {
+            this.rejected.incrementAndGet();
+            return null;
+        }
+        final Long loggedOut = this.revokedAccounts.get(TokenStore.accountKey(claims.account));
+        if (loggedOut != null && claims.issued <= loggedOut)
+        {
+            this.rejected.incrementAndGet();
+            return null;
+        }
+        this.verified.incrementAndGet();
+        return claims;
+    }
+
+    /**
+     * read a token once its signature has been checked.
+     *
+     * @param token - the token.
+     * @return the contents of the token, or <code>null</code> if it is malformed or its signature is wrong.
+     */
+    private Claims parse(final String token)
+    {
+        final int dot = token.indexOf('.');
+        if (dot <= 0)
+        {
+            return null;
+        }
+        final String payload = token.substring(0, dot);
+        try
+        {
+            if (!MessageDigest.isEqual(this.mac(payload), DECODER.decode(token.substring(dot + 1))))
+            {
+                return null;
+            }
+            final String[] fields = new String(DECODER.decode(payload), StandardCharsets.UTF_8)
+                    .split(String.valueOf(SEPARATOR), 6);
+            if (fields.length != 6 || fields[0].length() != 1)
+            {
+                return null;
+            }
+            return new Claims(fields[0].charAt(0), Long.parseUnsignedLong(fields[1], 16),
+                    Long.parseLong(fields[2]), Long.parseLong(fields[3]),
+                    new Account(fields[5], null, fields[4], null));
+        }
+        catch (final IllegalArgumentException e)
+        {
+            //not base64 or not numbers, only a token signed with the key could have got this far.
+            return null;
+        }
+    }
+
+    /**
+     * @param payload - the payload of a token in base64url.
+     * @return the HMAC of the payload.
+     */
+    private byte[] mac(final String payload)
+    {
+        final Mac mac;
+        try
+        {
+            mac = (Mac) this.signer.clone();
+        }
+        catch (final CloneNotSupportedException e)
+        {
+            throw new IllegalStateException("The token signer cannot be copied", e); //NON-NLS
+        }
+        return mac.doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * start a new generation of revocations, and forget the accounts logged out long enough ago that every token
+     * issued before then has expired, here and in the database. runs on the background thread.
+     */
+    private void rotate()
+    {
+        try
+        {
+            this.revoked.rotate();
+            final long now = System.currentTimeMillis();
+            final long before = now - this.refreshTtl;
+            this.revokedAccounts.values().removeIf(loggedOut -> loggedOut < before);
+            new DBSessionQueries().deleteExpiredRevocations(now, before);
+        }
+        catch (final DataAccessException | RuntimeException e)
+        {
+            LOGGER.error("Failed to rotate the revoked tokens", e); //NON-NLS
+        }
+    }
+}
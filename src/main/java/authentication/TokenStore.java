@@ -0,0 +1,110 @@
+package authentication;
+
+import java.util.Map;
+import java.util.UUID;
+
+import exceptions.DataAccessException;
+import models.Account;
+
+/**
+ * Where the sessions of logged in accounts are kept, chosen with auth.token.store.
+ * <br />
+ * {@link SessionStore} keeps them in the memory of this server, so a token only works on the replica that
+ * created it. {@link JdbcTokenStore} keeps them in the database, so every replica accepts every token.
+ *
+ * @author Matt Rayner
+ */
+public interface TokenStore
+{
+    /**
+     * create a session for an account under a new unique token.
+     *
+     * @param account the account that logged in.
+     * @return the token of the session.
+     * @throws DataAccessException if the session could not be stored.
+     */
+    String add(Account account) throws DataAccessException;
+
+    /**
+     * find the account of a session and slide its expiry forward.
+     *
+     * @param token the token of the session.
+     * @return the account, or <code>null</code> if there is no session or it has expired.
+     * @throws DataAccessException if the sessions could not be read.
+     */
+    Account get(String token) throws DataAccessException;
+
+    /**
+     * end a session.
+     *
+     * @param token the token of the session.
+     * @return <code>true</code> if there was a session.
+     * @throws DataAccessException if the sessions could not be changed.
+     */
+    boolean remove(String token) throws DataAccessException;
+
+    /**
+     * end a session of an account, leaving its other sessions.
+     *
+     * @param account the account of the session.
+     * @param token the token of the session.
+     * @return <code>true</code> if the account had a session with the token.
+     * @throws DataAccessException if the sessions could not be changed.
+     */
+    boolean remove(Account account, String token) throws DataAccessException;
+
+    /**
+     * end every session of an account, logging it out everywhere.
+     *
+     * @param account the account of the sessions.
+     * @return the number of sessions ended.
+     * @throws DataAccessException if the sessions could not be changed.
+     */
+    int remove(Account account) throws DataAccessException;
+
+    /**
+     * list the sessions of an account that have not expired.
+     *
+     * @param account the account of the sessions.
+     * @return the last time each session was used by its token.
+     * @throws DataAccessException if the sessions could not be read.
+     */
+    Map<String, Long> getSessions(Account account) throws DataAccessException;
+
+    /**
+     * remove every expired session straight away.
+     *
+     * @return <code>true</code> if any sessions were removed.
+     * @throws DataAccessException if the sessions could not be changed.
+     */
+    boolean removeExpired() throws DataAccessException;
+
+    /**
+     * Writes the store metrics as a JSON object.
+     *
+     * @param json the builder to append to.
+     * @return the builder.
+     */
+    StringBuilder appendJson(StringBuilder json);
+
+    /**
+     * generate a new random token, 32 hex characters.
+     *
+     * @return the token.
+     */
+    static String generateToken()
+    {
+        return UUID.randomUUID().toString().replaceAll("-", "");
+    }
+
+    /**
+     * an account is known by its business and userName, the same userName can be used by many businesses.
+     *
+     * @param account the account.
+     * @return the key the stores track the account by.
+     */
+    static String accountKey(final Account account)
+    {
+        return account.getBusinessTag() + '\u0000' + account.getUserName();
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ *
+ */
+package codecs;
+
+import java.io.IOException;
+
+import models.Account;
+
+/**
+ * Writes and reads accounts as JSON without reflection, in the same form as
+ * the JAXB provider: the members in the order they are declared, the email
+ * written even when null as it is nillable. The stored password is marked
+ * transient, it is never written and is skipped if a client sends one.
+ *
+ * @author Lawrence
+ */
+public final class AccountCodec
+{
+	/**
+	 * CLASS CONSTRUCTOR
+	 */
+	private AccountCodec()
+	{
+	}
+
+	/**
+	 * Writes an account as a JSON object.
+	 *
+	 * @param json - the writer to write to.
+	 * @param account - the account to write.
+	 * @throws IOException if the stream cannot be written to.
+	 */
+	public static void write(JsonWriter json, Account account) throws IOException
+	{
+		json.beginObject()
+			.member("userName", account.getUserName())
+			.member("businessTag", account.getBusinessTag())
+			.name("email").value(account.getEmail())
+			.endObject();
+	}
+
+	/**
+	 * Reads an account from a JSON object, members it does not have are skipped.
+	 *
+	 * @param json - the reader to read from.
+	 * @return the account read, without a stored password.
+	 * @throws IOException if the stream cannot be read or does not hold an account.
+	 */
+	public static Account read(JsonReader json) throws IOException
+	{
+		Account account = new Account();
+		json.beginObject();
+
+		while (json.hasNext())
+		{
+			switch (json.nextName())
+			{
+				case "userName":
+					account.setUserName(json.nextString());
+					break;
+				case "businessTag":
+					account.setBusinessTag(json.nextString());
+					break;
+				case "email":
+					account.setEmail(json.nextString());
+					break;
+				default:
+					json.skipValue();
+			}
+		}
+
+		json.endObject();
+		return account;
+	}
+}
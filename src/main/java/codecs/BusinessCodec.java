@@ -0,0 +1,88 @@
+/**
+ *
+ */
+package codecs;
+
+import java.io.IOException;
+
+import models.Business;
+import models.Employee;
+
+/**
+ * Writes and reads businesses as JSON without reflection, in the same form as
+ * the JAXB provider. It maps the initial employee twice, as initialEmployee for
+ * the field and as defaultEmployee for its getter and setter, so it is written
+ * under both names and read from either.
+ *
+ * @author Lawrence
+ */
+public final class BusinessCodec
+{
+	/**
+	 * CLASS CONSTRUCTOR
+	 */
+	private BusinessCodec()
+	{
+	}
+
+	/**
+	 * Writes a business and its initial employee as a JSON object.
+	 *
+	 * @param json - the writer to write to.
+	 * @param business - the business to write.
+	 * @throws IOException if the stream cannot be written to.
+	 */
+	public static void write(JsonWriter json, Business business) throws IOException
+	{
+		json.beginObject()
+			.member("businessTag", business.getBusinessTag())
+			.member("businessName", business.getBusinessName());
+
+		Employee employee = business.getDefaultEmployee();
+
+		if (employee != null)
+		{
+			json.name("initialEmployee");
+			EmployeeCodec.write(json, employee);
+			json.name("defaultEmployee");
+			EmployeeCodec.write(json, employee);
+		}
+
+		json.endObject();
+	}
+
+	/**
+	 * Reads a business and its initial employee from a JSON object, members it does not have are skipped.
+	 *
+	 * @param json - the reader to read from.
+	 * @return the business read.
+	 * @throws IOException if the stream cannot be read or does not hold a business.
+	 */
+	public static Business read(JsonReader json) throws IOException
+	{
+		Business business = new Business();
+		json.beginObject();
+
+		while (json.hasNext())
+		{
+			switch (json.nextName())
+			{
+				case "businessTag":
+					business.setBusinessTag(json.nextString());
+					break;
+				case "businessName":
+					business.setBusinessName(json.nextString());
+					break;
+				case "initialEmployee":
+				case "defaultEmployee":
+					business.setDefaultEmployee(json.nextIfNull() ? null : EmployeeCodec.read(json));
+					break;
+				default:
+					json.skipValue();
+			}
+		}
+
+		json.endObject();
+		return business;
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ *
+ */
+package codecs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import models.Client;
+import models.Location;
+
+/**
+ * Writes and reads clients as JSON without reflection, in the same form as
+ * the JAXB provider: members in alphabetical order and null members left out.
+ *
+ * @author Lawrence
+ */
+public final class ClientCodec
+{
+	/**
+	 * CLASS CONSTRUCTOR
+	 */
+	private ClientCodec()
+	{
+	}
+
+	/**
+	 * Writes a client and its locations as a JSON object.
+	 *
+	 * @param json - the writer to write to.
+	 * @param client - the client to write.
+	 * @throws IOException if the stream cannot be written to.
+	 */
+	public static void write(JsonWriter json, Client client) throws IOException
+	{
+		json.beginObject()
+			.member("businessTag", client.getBusinessTag())
+			.member("clientId", client.getClientId())
+			.member("clientName", client.getClientName())
+			.member("hoursWorked", client.getHoursWorked());
+
+		List<Location> locations = client.getLocations();
+
+		if (locations != null)
+		{
+			json.name("locations").beginArray();
+
+			for (Location location : locations)
+			{
+				if (location != null)
+				{
+					LocationCodec.write(json, location);
+				}
+			}
+			json.endArray();
+		}
+
+		json.endObject();
+	}
+
+	/**
+	 * Reads a client and its locations from a JSON object, members it does not have are skipped.
+	 *
+	 * @param json - the reader to read from.
+	 * @return the client read.
+	 * @throws IOException if the stream cannot be read or does not hold a client.
+	 */
+	public static Client read(JsonReader json) throws IOException
+	{
+		Client client = new Client();
+		json.beginObject();
+
+		while (json.hasNext())
+		{
+			switch (json.nextName())
+			{
+				case "businessTag":
+					client.setBusinessTag(json.nextString());
+					break;
+				case "clientId":
+					client.setClientId(json.nextInt(client.getClientId()));
+					break;
+				case "clientName":
+					client.setClientName(json.nextString());
+					break;
+				case "hoursWorked":
+					client.setHoursWorked(json.nextLong(client.getHoursWorked()));
+					break;
+				case "locations":
+					client.setLocations(json.nextIfNull() ? null : readLocations(json));
+					break;
+				default:
+					json.skipValue();
+			}
+		}
+
+		json.endObject();
+		return client;
+	}
+
+	/**
+	 * Reads the locations of a client from a JSON array, null elements are left out.
+	 *
+	 * @param json - the reader to read from.
+	 * @return the locations read.
+	 * @throws IOException if the stream cannot be read or does not hold locations.
+	 */
+	private static List<Location> readLocations(JsonReader json) throws IOException
+	{
+		List<Location> locations = new ArrayList<Location>();
+		json.beginArray();
+
+		while (json.hasNext())
+		{
+			if (!json.nextIfNull())
+			{
+				locations.add(LocationCodec.read(json));
+			}
+		}
+
+		json.endArray();
+		return locations;
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ *
+ */
+package codecs;
+
+import java.io.IOException;
+
+import models.Account;
+import models.Employee;
+
+/**
+ * Writes and reads employees as JSON without reflection, in the same form as
+ * the JAXB provider: the fields in the order they are declared followed by the
+ * business tag of the account, null members left out unless they are nillable.
+ *
+ * @author Lawrence
+ */
+public final class EmployeeCodec
+{
+	/**
+	 * CLASS CONSTRUCTOR
+	 */
+	private EmployeeCodec()
+	{
+	}
+
+	/**
+	 * Writes an employee and its account as a JSON object.
+	 *
+	 * @param json - the writer to write to.
+	 * @param employee - the employee to write.
+	 * @throws IOException if the stream cannot be written to.
+	 */
+	public static void write(JsonWriter json, Employee employee) throws IOException
+	{
+		json.beginObject()
+			.member("firstName", employee.getFirstName())
+			.member("surName", employee.getSurName())
+			.name("parentUserName").value(employee.getParentUserName())
+			.name("jobRole").value(employee.getJobRole());
+
+		Account account = employee.getAccount();
+
+		if (account != null)
+		{
+			json.name("account");
+			AccountCodec.write(json, account);
+		}
+
+		json.member("hoursWorked", employee.getHoursWorked())
+			.member("requestedPassword", employee.getRequestedPassword());
+
+		if (account != null)
+		{
+			json.member("businessTag", account.getBusinessTag());
+		}
+
+		json.endObject();
+	}
+
+	/**
+	 * Reads an employee and its account from a JSON object, members it does not have are skipped.
+	 *
+	 * @param json - the reader to read from.
+	 * @return the employee read.
+	 * @throws IOException if the stream cannot be read or does not hold an employee.
+	 */
+	public static Employee read(JsonReader json) throws IOException
+	{
+		Employee employee = new Employee();
+		json.beginObject();
+
+		while (json.hasNext())
+		{
+			switch (json.nextName())
+			{
+				case "firstName":
+					employee.setFirstName(json.nextString());
+					break;
+				case "surName":
+					employee.setSurName(json.nextString());
+					break;
+				case "parentUserName":
+					employee.setParentUserName(json.nextString());
+					break;
+				case "jobRole":
+					employee.setJobRole(json.nextString());
+					break;
+				case "account":
+					employee.setAccount(json.nextIfNull() ? null : AccountCodec.read(json));
+					break;
+				case "hoursWorked":
+					employee.setHoursWorked(json.nextLong(employee.getHoursWorked()));
+					break;
+				case "requestedPassword":
+					employee.setRequestedPassword(json.nextString());
+					break;
+				case "businessTag":
+					// Held by the account, so it is lost if the account follows it.
+					if (employee.getAccount() != null)
+					{
+						employee.setBusinessTag(json.nextString());
+					}
+					else
+					{
+						json.skipValue();
+					}
+					break;
+				default:
+					json.skipValue();
+			}
+		}
+
+		json.endObject();
+		return employee;
+	}
+}
@@ -0,0 +1,825 @@
+/**
+ *
+ */
+package codecs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+import exceptions.MalformedJsonException;
+
+/**
+ * Reads JSON straight from a stream, one token at a time, the counterpart of
+ * {@link JsonWriter}. Only the values asked for become objects, members that
+ * are not wanted are skipped over without being kept.
+ *
+ * @author Lawrence
+ */
+public final class JsonReader implements Closeable
+{
+	/**
+	 * The kinds of token that can come next.
+	 */
+	public enum Token
+	{
+		BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+	}
+
+	/** The deepest nesting of objects and arrays supported. **/
+	private static final int MAX_DEPTH = 32;
+
+	/** The characters read from the stream at once. **/
+	private static final int BUFFER_SIZE = 8192;
+
+	/** The number of member names kept, a power of two. **/
+	private static final int NAME_CACHE_SIZE = 64;
+
+	/** Nothing has been read yet. **/
+	private static final int EMPTY_DOCUMENT = 0;
+
+	/** The value of the document has been read. **/
+	private static final int NONEMPTY_DOCUMENT = 1;
+
+	/** In an object before its first member. **/
+	private static final int EMPTY_OBJECT = 2;
+
+	/** In an object after a member. **/
+	private static final int NONEMPTY_OBJECT = 3;
+
+	/** In an object after the name of a member. **/
+	private static final int DANGLING_NAME = 4;
+
+	/** In an array before its first element. **/
+	private static final int EMPTY_ARRAY = 5;
+
+	/** In an array after an element. **/
+	private static final int NONEMPTY_ARRAY = 6;
+
+	/** The stream being read from. **/
+	private final Reader in;
+
+	/** The characters read from the stream and not yet used. **/
+	private final char[] buffer = new char[BUFFER_SIZE];
+
+	/** The position of the next character in the buffer. **/
+	private int pos = 0;
+
+	/** The number of characters in the buffer. **/
+	private int limit = 0;
+
+	/** The number of characters read before those in the buffer, to report where errors are. **/
+	private long offset = 0;
+
+	/** What is expected next at each depth. **/
+	private final int[] scopes = new int[MAX_DEPTH];
+
+	/** The current depth of nesting. **/
+	private int depth = 0;
+
+	/** The token that comes next once peeked, null until then. **/
+	private Token peeked = null;
+
+	/** The value of the last boolean peeked. **/
+	private boolean booleanValue;
+
+	/** Strings that cross the end of the buffer or have escapes, and numbers, are put together here. **/
+	private final StringBuilder text = new StringBuilder();
+
+	/** The member names read by their hash, so each object of a list does not make its names again. **/
+	private final String[] names = new String[NAME_CACHE_SIZE];
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 *
+	 * @param in - the stream to read from, it is buffered by the reader.
+	 */
+	public JsonReader(Reader in)
+	{
+		this.in = in;
+		this.scopes[0] = EMPTY_DOCUMENT;
+	}
+
+	/**
+	 * Finds out what comes next without using it.
+	 *
+	 * @return the kind of token that comes next.
+	 * @throws IOException if the stream cannot be read or is not JSON.
+	 */
+	public Token peek() throws IOException
+	{
+		if (this.peeked == null)
+		{
+			this.peeked = this.next();
+		}
+		return this.peeked;
+	}
+
+	/**
+	 * Whether the current object or array has another member or element.
+	 *
+	 * @return true if there is another.
+	 * @throws IOException if the stream cannot be read or is not JSON.
+	 */
+	public boolean hasNext() throws IOException
+	{
+		Token token = this.peek();
+		return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+	}
+
+	/**
+	 * Starts reading an object.
+	 *
+	 * @throws IOException if the stream cannot be read or an object does not come next.
+	 */
+	public void beginObject() throws IOException
+	{
+		this.expect(Token.BEGIN_OBJECT);
+		this.push(EMPTY_OBJECT);
+	}
+
+	/**
+	 * Finishes reading an object.
+	 *
+	 * @throws IOException if the stream cannot be read or the object has more members.
+	 */
+	public void endObject() throws IOException
+	{
+		this.expect(Token.END_OBJECT);
+		this.depth--;
+	}
+
+	/**
+	 * Starts reading an array.
+	 *
+	 * @throws IOException if the stream cannot be read or an array does not come next.
+	 */
+	public void beginArray() throws IOException
+	{
+		this.expect(Token.BEGIN_ARRAY);
+		this.push(EMPTY_ARRAY);
+	}
+
+	/**
+	 * Finishes reading an array.
+	 *
+	 * @throws IOException if the stream cannot be read or the array has more elements.
+	 */
+	public void endArray() throws IOException
+	{
+		this.expect(Token.END_ARRAY);
+		this.depth--;
+	}
+
+	/**
+	 * Checks that nothing but white space follows the value of the document.
+	 *
+	 * @throws IOException if the stream cannot be read or something else follows.
+	 */
+	public void endDocument() throws IOException
+	{
+		this.expect(Token.END_DOCUMENT);
+	}
+
+	/**
+	 * Reads the name of the next member of the current object.
+	 *
+	 * @return the name.
+	 * @throws IOException if the stream cannot be read or a name does not come next.
+	 */
+	public String nextName() throws IOException
+	{
+		this.expect(Token.NAME);
+		return this.readName();
+	}
+
+	/**
+	 * Reads a string value. A number is read as its text, as the JAXB provider does.
+	 *
+	 * @return the string, or null if the value is null.
+	 * @throws IOException if the stream cannot be read or a string does not come next.
+	 */
+	public String nextString() throws IOException
+	{
+		switch (this.peek())
+		{
+			case STRING:
+				this.peeked = null;
+				return this.readString();
+			case NUMBER:
+				this.peeked = null;
+				return this.readNumber().toString();
+			case NULL:
+				this.peeked = null;
+				return null;
+			default:
+				throw this.syntaxError("Expected a string but was " + this.peeked);
+		}
+	}
+
+	/**
+	 * Reads a whole number value. A string holding one is read too, as the JAXB provider does.
+	 *
+	 * @param ifNull - the value to return if the value is null.
+	 * @return the number.
+	 * @throws IOException if the stream cannot be read or a whole number does not come next.
+	 */
+	public long nextLong(long ifNull) throws IOException
+	{
+		switch (this.peek())
+		{
+			case NUMBER:
+				this.peeked = null;
+				return this.parseLong(this.readNumber());
+			case STRING:
+				this.peeked = null;
+				return this.parseLong(this.readString());
+			case NULL:
+				this.peeked = null;
+				return ifNull;
+			default:
+				throw this.syntaxError("Expected a number but was " + this.peeked);
+		}
+	}
+
+	/**
+	 * Reads a whole number value that fits in an int.
+	 *
+	 * @param ifNull - the value to return if the value is null.
+	 * @return the number.
+	 * @throws IOException if the stream cannot be read or such a number does not come next.
+	 */
+	public int nextInt(int ifNull) throws IOException
+	{
+		long value = this.nextLong(ifNull);
+
+		if ((int) value != value)
+		{
+			throw this.syntaxError("Number out of range " + value);
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Reads a boolean value.
+	 *
+	 * @return the boolean.
+	 * @throws IOException if the stream cannot be read or a boolean does not come next.
+	 */
+	public boolean nextBoolean() throws IOException
+	{
+		this.expect(Token.BOOLEAN);
+		return this.booleanValue;
+	}
+
+	/**
+	 * Reads a null value if one comes next.
+	 *
+	 * @return true if the value was null and has been read.
+	 * @throws IOException if the stream cannot be read or is not JSON.
+	 */
+	public boolean nextIfNull() throws IOException
+	{
+		if (this.peek() == Token.NULL)
+		{
+			this.peeked = null;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Skips over the next value, with all of its members or elements.
+	 *
+	 * @throws IOException if the stream cannot be read or is not JSON.
+	 */
+	public void skipValue() throws IOException
+	{
+		int nested = 0;
+
+		do
+		{
+			switch (this.peek())
+			{
+				case BEGIN_OBJECT:
+					this.beginObject();
+					nested++;
+					break;
+				case BEGIN_ARRAY:
+					this.beginArray();
+					nested++;
+					break;
+				case END_OBJECT:
+					this.endObject();
+					nested--;
+					break;
+				case END_ARRAY:
+					this.endArray();
+					nested--;
+					break;
+				case NAME:
+				case STRING:
+					this.peeked = null;
+					this.skipString();
+					break;
+				case NUMBER:
+					this.peeked = null;
+					this.readNumber();
+					break;
+				case END_DOCUMENT:
+					throw this.syntaxError("Expected a value");
+				default:
+					this.peeked = null;
+			}
+		}
+		while (nested > 0);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		this.in.close();
+	}
+
+	/**
+	 * Uses the token that comes next, which must be of the kind given.
+	 *
+	 * @param token - the kind expected.
+	 * @throws IOException if the stream cannot be read or something else comes next.
+	 */
+	private void expect(Token token) throws IOException
+	{
+		if (this.peek() != token)
+		{
+			throw this.syntaxError("Expected " + token + " but was " + this.peeked);
+		}
+		this.peeked = null;
+	}
+
+	/**
+	 * Goes into an object or array.
+	 *
+	 * @param scope - what is expected first in it.
+	 * @throws MalformedJsonException if it is nested too deeply.
+	 */
+	private void push(int scope) throws MalformedJsonException
+	{
+		if (this.depth == MAX_DEPTH - 1)
+		{
+			throw this.syntaxError("JSON nested too deeply");
+		}
+		this.scopes[++this.depth] = scope;
+	}
+
+	/**
+	 * Reads up to the start of the next token, using the separators before it.
+	 *
+	 * @return the kind of token.
+	 * @throws IOException if the stream cannot be read or is not JSON.
+	 */
+	private Token next() throws IOException
+	{
+		int scope = this.scopes[this.depth];
+		int c;
+
+		switch (scope)
+		{
+			case EMPTY_OBJECT:
+			case NONEMPTY_OBJECT:
+				c = this.nextNonWhitespace();
+
+				if (c == '}')
+				{
+					return Token.END_OBJECT;
+				}
+				if (scope == NONEMPTY_OBJECT)
+				{
+					if (c != ',')
+					{
+						throw this.syntaxError("Expected ',' or '}'");
+					}
+					c = this.nextNonWhitespace();
+				}
+				if (c != '"')
+				{
+					throw this.syntaxError("Expected the name of a member");
+				}
+				this.scopes[this.depth] = DANGLING_NAME;
+				return Token.NAME;
+			case DANGLING_NAME:
+				if (this.nextNonWhitespace() != ':')
+				{
+					throw this.syntaxError("Expected ':'");
+				}
+				this.scopes[this.depth] = NONEMPTY_OBJECT;
+				break;
+			case EMPTY_ARRAY:
+			case NONEMPTY_ARRAY:
+				c = this.nextNonWhitespace();
+
+				if (c == ']')
+				{
+					return Token.END_ARRAY;
+				}
+				if (scope == EMPTY_ARRAY)
+				{
+					this.pos--;
+				}
+				else if (c != ',')
+				{
+					throw this.syntaxError("Expected ',' or ']'");
+				}
+				this.scopes[this.depth] = NONEMPTY_ARRAY;
+				break;
+			case EMPTY_DOCUMENT:
+				this.scopes[this.depth] = NONEMPTY_DOCUMENT;
+				break;
+			default:
+				while (this.pos < this.limit || this.fill())
+				{
+					c = this.buffer[this.pos++];
+
+					if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+					{
+						throw this.syntaxError("Expected the end of the JSON");
+					}
+				}
+				return Token.END_DOCUMENT;
+		}
+
+		return this.value();
+	}
+
+	/**
+	 * Reads up to the start of a value. Literals are read whole.
+	 *
+	 * @return the kind of value.
+	 * @throws IOException if the stream cannot be read or a value does not come next.
+	 */
+	private Token value() throws IOException
+	{
+		int c = this.nextNonWhitespace();
+
+		switch (c)
+		{
+			case '{':
+				return Token.BEGIN_OBJECT;
+			case '[':
+				return Token.BEGIN_ARRAY;
+			case '"':
+				return Token.STRING;
+			case 't':
+				this.literal("rue");
+				this.booleanValue = true;
+				return Token.BOOLEAN;
+			case 'f':
+				this.literal("alse");
+				this.booleanValue = false;
+				return Token.BOOLEAN;
+			case 'n':
+				this.literal("ull");
+				return Token.NULL;
+			default:
+				if (c == '-' || (c >= '0' && c <= '9'))
+				{
+					// Left for the number to be read whole.
+					this.pos--;
+					return Token.NUMBER;
+				}
+				throw this.syntaxError("Unexpected character '" + (char) c + "'");
+		}
+	}
+
+	/**
+	 * Reads the rest of a literal.
+	 *
+	 * @param rest - the characters after the first.
+	 * @throws IOException if the stream cannot be read or holds something else.
+	 */
+	private void literal(String rest) throws IOException
+	{
+		for (int i = 0; i < rest.length(); i++)
+		{
+			if (this.nextChar() != rest.charAt(i))
+			{
+				throw this.syntaxError("Unexpected literal");
+			}
+		}
+	}
+
+	/**
+	 * Reads the rest of a string whose opening quote has been read. A string held
+	 * whole in the buffer without escapes is copied out of it once.
+	 *
+	 * @return the string.
+	 * @throws IOException if the stream cannot be read or the string is not valid.
+	 */
+	private String readString() throws IOException
+	{
+		this.text.setLength(0);
+
+		while (true)
+		{
+			int start = this.pos;
+
+			while (this.pos < this.limit)
+			{
+				char c = this.buffer[this.pos++];
+
+				if (c == '"')
+				{
+					if (this.text.length() == 0)
+					{
+						return new String(this.buffer, start, this.pos - 1 - start);
+					}
+					this.text.append(this.buffer, start, this.pos - 1 - start);
+					return this.text.toString();
+				}
+				if (c == '\\')
+				{
+					this.text.append(this.buffer, start, this.pos - 1 - start);
+					this.text.append(this.escape());
+					start = this.pos;
+				}
+				else if (c < 0x20)
+				{
+					throw this.syntaxError("Unescaped control character in a string");
+				}
+			}
+
+			this.text.append(this.buffer, start, this.pos - start);
+
+			if (!this.fill())
+			{
+				throw this.syntaxError("Unterminated string");
+			}
+		}
+	}
+
+	/**
+	 * Reads the rest of a member name whose opening quote has been read. A name held
+	 * whole in the buffer without escapes is the same string as when it was last read.
+	 *
+	 * @return the name.
+	 * @throws IOException if the stream cannot be read or the name is not valid.
+	 */
+	private String readName() throws IOException
+	{
+		int hash = 0;
+
+		for (int i = this.pos; i < this.limit; i++)
+		{
+			char c = this.buffer[i];
+
+			if (c == '"')
+			{
+				int length = i - this.pos;
+				int slot = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+				String name = this.names[slot];
+
+				if (name == null || !this.isInBuffer(name, length))
+				{
+					name = new String(this.buffer, this.pos, length);
+					this.names[slot] = name;
+				}
+				this.pos = i + 1;
+				return name;
+			}
+			if (c == '\\' || c < 0x20)
+			{
+				break;
+			}
+			hash = 31 * hash + c;
+		}
+		return this.readString();
+	}
+
+	/**
+	 * @param name - a name read before.
+	 * @param length - the length of the name at the position in the buffer.
+	 * @return true if the name is the one at the position in the buffer.
+	 */
+	private boolean isInBuffer(String name, int length)
+	{
+		if (name.length() != length)
+		{
+			return false;
+		}
+		for (int i = 0; i < length; i++)
+		{
+			if (name.charAt(i) != this.buffer[this.pos + i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Skips the rest of a string whose opening quote has been read.
+	 *
+	 * @throws IOException if the stream cannot be read or the string is not valid.
+	 */
+	private void skipString() throws IOException
+	{
+		while (true)
+		{
+			char c = this.nextChar();
+
+			if (c == '"')
+			{
+				return;
+			}
+			if (c == '\\')
+			{
+				this.escape();
+			}
+		}
+	}
+
+	/**
+	 * Reads the rest of an escape whose backslash has been read.
+	 *
+	 * @return the character escaped.
+	 * @throws IOException if the stream cannot be read or the escape is not valid.
+	 */
+	private char escape() throws IOException
+	{
+		char c = this.nextChar();
+
+		switch (c)
+		{
+			case '"':
+			case '\\':
+			case '/':
+				return c;
+			case 'b':
+				return '\b';
+			case 'f':
+				return '\f';
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 't':
+				return '\t';
+			case 'u':
+				int value = 0;
+
+				for (int i = 0; i < 4; i++)
+				{
+					char h = this.nextChar();
+					int digit = h >= '0' && h <= '9' ? h - '0'
+							: h >= 'a' && h <= 'f' ? h - 'a' + 10
+							: h >= 'A' && h <= 'F' ? h - 'A' + 10 : -1;
+
+					if (digit < 0)
+					{
+						throw this.syntaxError("Invalid unicode escape");
+					}
+					value = (value << 4) | digit;
+				}
+				return (char) value;
+			default:
+				throw this.syntaxError("Invalid escape '\\" + c + "'");
+		}
+	}
+
+	/**
+	 * Reads the characters of a number, which are checked when it is parsed.
+	 *
+	 * @return the characters, only valid until the next string or number is read.
+	 * @throws IOException if the stream cannot be read.
+	 */
+	private CharSequence readNumber() throws IOException
+	{
+		this.text.setLength(0);
+
+		while (this.pos < this.limit || this.fill())
+		{
+			char c = this.buffer[this.pos];
+
+			if ((c < '0' || c > '9') && c != '-' && c != '+' && c != '.' && c != 'e' && c != 'E')
+			{
+				break;
+			}
+			this.text.append(c);
+			this.pos++;
+		}
+		return this.text;
+	}
+
+	/**
+	 * Parses a whole number without making a string of it.
+	 *
+	 * @param digits - the characters of the number.
+	 * @return the number.
+	 * @throws MalformedJsonException if it is not a whole number or is too large.
+	 */
+	private long parseLong(CharSequence digits) throws MalformedJsonException
+	{
+		int length = digits.length();
+		boolean negative = length > 0 && digits.charAt(0) == '-';
+		int i = negative ? 1 : 0;
+
+		if (i == length)
+		{
+			throw this.syntaxError("Expected a whole number but was '" + digits + "'");
+		}
+
+		// Added up below zero, which has room for the most negative long.
+		long value = 0;
+
+		for (; i < length; i++)
+		{
+			int digit = digits.charAt(i) - '0';
+
+			if (digit < 0 || digit > 9 || value < (Long.MIN_VALUE + digit) / 10)
+			{
+				throw this.syntaxError("Expected a whole number but was '" + digits + "'");
+			}
+			value = value * 10 - digit;
+		}
+
+		if (negative)
+		{
+			return value;
+		}
+		if (value == Long.MIN_VALUE)
+		{
+			throw this.syntaxError("Expected a whole number but was '" + digits + "'");
+		}
+		return -value;
+	}
+
+	/**
+	 * Reads the next character that is not white space.
+	 *
+	 * @return the character.
+	 * @throws IOException if the stream cannot be read or has ended.
+	 */
+	private char nextNonWhitespace() throws IOException
+	{
+		while (true)
+		{
+			char c = this.nextChar();
+
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+			{
+				return c;
+			}
+		}
+	}
+
+	/**
+	 * Reads the next character.
+	 *
+	 * @return the character.
+	 * @throws IOException if the stream cannot be read or has ended.
+	 */
+	private char nextChar() throws IOException
+	{
+		if (this.pos == this.limit && !this.fill())
+		{
+			throw this.syntaxError("Unexpected end of the JSON");
+		}
+		return this.buffer[this.pos++];
+	}
+
+	/**
+	 * Replaces the buffer with the next characters of the stream.
+	 *
+	 * @return false if the stream has ended.
+	 * @throws IOException if the stream cannot be read.
+	 */
+	private boolean fill() throws IOException
+	{
+		this.offset += this.limit;
+		this.pos = 0;
+		this.limit = 0;
+
+		int read;
+
+		do
+		{
+			read = this.in.read(this.buffer, 0, this.buffer.length);
+		}
+		while (read == 0);
+
+		if (read < 0)
+		{
+			return false;
+		}
+		this.limit = read;
+		return true;
+	}
+
+	/**
+	 * @param message - what is wrong.
+	 * @return an exception saying what is wrong and where.
+	 */
+	private MalformedJsonException syntaxError(String message)
+	{
+		return new MalformedJsonException(message + " at character " + (this.offset + this.pos));
+	}
+}
@@ -0,0 +1,330 @@
+/**
+ *
+ */
+package codecs;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes JSON straight to a stream, one token at a time, so that large
+ * responses never have to be held in memory. Separators between members
+ * and elements are added automatically.
+ *
+ * @author Lawrence
+ */
+public final class JsonWriter implements Closeable, Flushable
+{
+	/** The deepest nesting of objects and arrays supported. **/
+	private static final int MAX_DEPTH = 32;
+
+	/** The hex digits used to escape control characters, in upper case as the JAXB provider writes them. **/
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	/** The stream being written to. **/
+	private final Writer out;
+
+	/** Whether the object or array at each depth has had a value written to it. **/
+	private final boolean[] hasValue = new boolean[MAX_DEPTH];
+
+	/** The current depth of nesting. **/
+	private int depth = 0;
+
+	/** Whether a member name has just been written and is waiting for its value. **/
+	private boolean afterName = false;
+
+	/** The digits of a number being written, so that no string is made of it. **/
+	private final char[] digits = new char[20];
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 *
+	 * @param out - the stream to write to, should be buffered.
+	 */
+	public JsonWriter(Writer out)
+	{
+		this.out = out;
+	}
+
+	/**
+	 * Starts an object.
+	 *
+	 * @return this writer.
+	 * @throws IOException if the stream cannot be written to.
+	 */
+	public JsonWriter beginObject() throws IOException
+	{
+		return this.open('{');
+	}
+
+	/**
+	 * Ends the current object.
+	 *
+	 * @return this writer.
+	 * @throws IOException if the stream cannot be written to.
+	 */
+	public JsonWriter endObject() throws IOException
+	{
+		return this.close('}');
+	}
+
+	/**
+	 * Starts an array.
+	 *
+	 * @return this writer.
+	 * @throws IOException if the stream cannot be written to.
+	 */
+	public JsonWriter beginArray() throws IOException
+	{
+		return this.open('[');
+	}
+
+	/**
+	 * Ends the current array.
+	 *
+	 * @return this writer.
+	 * @throws IOException if the stream cannot be written to.
+	 */
+	public JsonWriter endArray() throws IOException
+	{
+		return this.close(']');
+	}
+
+	/**
+	 * Writes the name of the next member of the current object.
+	 *
+	 * @param name - the name of the member.
+	 * @return this writer.
+	 * @throws IOException if the stream cannot be written to.
+	 */
+	public JsonWriter name(String name) throws IOException
+	{
+		this.separate();
+		this.string(name);
+		this.out.write(':');
+		this.afterName = true;
+		return this;
+	}
+
+	/**
+	 * Writes a string value, or null.
+	 *
+	 * @param value - the value to write.
+	 * @return this writer.
+	 * @throws IOException if the stream cannot be written to.
+	 */
+	public JsonWriter value(String value) throws IOException
+	{
+		this.separate();
+
+		if (value == null)
+		{
+			this.out.write("null");
+		}
+		else
+		{
+			this.string(value);
+		}
+		return this;
+	}
+
+	/**
+	 * Writes a number value.
+	 *
+	 * @param value - the value to write.
+	 * @return this writer.
+	 * @throws IOException if the stream cannot be written to.
+	 */
+	public JsonWriter value(long value) throws IOException
+	{
+		this.separate();
+
+		// Worked out below zero, which has room for the most negative long.
+		long remaining = value < 0 ? value : -value;
+		int start = this.digits.length;
+
+		do
+		{
+			this.digits[--start] = (char) ('0' - remaining % 10);
+			remaining /= 10;
+		}
+		while (remaining != 0);
+
+		if (value < 0)
+		{
+			this.digits[--start] = '-';
+		}
+		this.out.write(this.digits, start, this.digits.length - start);
+		return this;
+	}
+
+	/**
+	 * Writes a boolean value.
+	 *
+	 * @param value - the value to write.
+	 * @return this writer.
+	 * @throws IOException if the stream cannot be written to.
+	 */
+	public JsonWriter value(boolean value) throws IOException
+	{
+		this.separate();
+		this.out.write(value ? "true" : "false");
+		return this;
+	}
+
+	/**
+	 * Writes a member whose value is a string, omitting it if the value is null.
+	 *
+	 * @param name - the name of the member.
+	 * @param value - the value of the member.
+	 * @return this writer.
+	 * @throws IOException if the stream cannot be written to.
+	 */
+	public JsonWriter member(String name, String value) throws IOException
+	{
+		return value == null ? this : this.name(name).value(value);
+	}
+
+	/**
+	 * Writes a member whose value is a number.
+	 *
+	 * @param name - the name of the member.
+	 * @param value - the value of the member.
+	 * @return this writer.
+	 * @throws IOException if the stream cannot be written to.
+	 */
+	public JsonWriter member(String name, long value) throws IOException
+	{
+		return this.name(name).value(value);
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		this.out.flush();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		this.out.close();
+	}
+
+	/**
+	 * Starts an object or array.
+	 *
+	 * @param bracket - the opening bracket.
+	 * @return this writer.
+	 * @throws IOException if the stream cannot be written to.
+	 */
+	private JsonWriter open(char bracket) throws IOException
+	{
+		if (this.depth == MAX_DEPTH - 1)
+		{
+			throw new IllegalStateException("JSON nested too deeply");
+		}
+		this.separate();
+		this.out.write(bracket);
+		this.hasValue[++this.depth] = false;
+		return this;
+	}
+
+	/**
+	 * Ends an object or array.
+	 *
+	 * @param bracket - the closing bracket.
+	 * @return this writer.
+	 * @throws IOException if the stream cannot be written to.
+	 */
+	private JsonWriter close(char bracket) throws IOException
+	{
+		if (this.depth == 0)
+		{
+			throw new IllegalStateException("No object or array to end");
+		}
+		this.depth--;
+		this.out.write(bracket);
+		return this;
+	}
+
+	/**
+	 * Writes the comma before a member or element if it is not the first.
+	 *
+	 * @throws IOException if the stream cannot be written to.
+	 */
+	private void separate() throws IOException
+	{
+		if (this.afterName)
+		{
+			this.afterName = false;
+			return;
+		}
+		if (this.hasValue[this.depth])
+		{
+			this.out.write(',');
+		}
+		this.hasValue[this.depth] = true;
+	}
+
+	/**
+	 * Writes a quoted and escaped string.
+	 *
+	 * @param value - the string to write.
+	 * @throws IOException if the stream cannot be written to.
+	 */
+	private void string(String value) throws IOException
+	{
+		this.out.write('"');
+		int start = 0;
+		int length = value.length();
+
+		for (int i = 0; i < length; i++)
+		{
+			char c = value.charAt(i);
+
+			if (c >= 0x20 && (c < 0x7f || c > 0x9f) && c != '"' && c != '\\')
+			{
+				continue;
+			}
+
+			this.out.write(value, start, i - start);
+			start = i + 1;
+
+			switch (c)
+			{
+				case '"':
+					this.out.write("\\\"");
+					break;
+				case '\\':
+					this.out.write("\\\\");
+					break;
+				case '\n':
+					this.out.write("\\n");
+					break;
+				case '\r':
+					this.out.write("\\r");
+					break;
+				case '\t':
+					this.out.write("\\t");
+					break;
+				case '\b':
+					this.out.write("\\b");
+					break;
+				case '\f':
+					this.out.write("\\f");
+					break;
+				default:
+					this.out.write("\\u");
+					this.out.write(HEX[(c >> 12) & 0xf]);
+					this.out.write(HEX[(c >> 8) & 0xf]);
+					this.out.write(HEX[(c >> 4) & 0xf]);
+					this.out.write(HEX[c & 0xf]);
+			}
+		}
+
+		this.out.write(value, start, length - start);
+		this.out.write('"');
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ *
+ */
+package codecs;
+
+import java.io.IOException;
+
+import models.Location;
+
+/**
+ * Writes and reads locations as JSON without reflection, in the same form as
+ * the JAXB provider: members in alphabetical order and null members left out.
+ *
+ * @author Lawrence
+ */
+public final class LocationCodec
+{
+	/**
+	 * CLASS CONSTRUCTOR
+	 */
+	private LocationCodec()
+	{
+	}
+
+	/**
+	 * Writes a location as a JSON object.
+	 *
+	 * @param json - the writer to write to.
+	 * @param location - the location to write.
+	 * @throws IOException if the stream cannot be written to.
+	 */
+	public static void write(JsonWriter json, Location location) throws IOException
+	{
+		json.beginObject()
+			.member("description", location.getDescription())
+			.member("postCode", location.getPostCode())
+			.endObject();
+	}
+
+	/**
+	 * Reads a location from a JSON object, members it does not have are skipped.
+	 *
+	 * @param json - the reader to read from.
+	 * @return the location read.
+	 * @throws IOException if the stream cannot be read or does not hold a location.
+	 */
+	public static Location read(JsonReader json) throws IOException
+	{
+		Location location = new Location();
+		json.beginObject();
+
+		while (json.hasNext())
+		{
+			switch (json.nextName())
+			{
+				case "description":
+					location.setDescription(json.nextString());
+					break;
+				case "postCode":
+					location.setPostCode(json.nextString());
+					break;
+				default:
+					json.skipValue();
+			}
+		}
+
+		json.endObject();
+		return location;
+	}
+}
@@ -0,0 +1,130 @@
+/**
+ *
+ */
+package codecs;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import models.Account;
+import models.Business;
+import models.Client;
+import models.Employee;
+import models.Location;
+import models.WorkLog;
+
+/**
+ * Finds the codec of a model, so that a model of any of the types the API
+ * sends and receives can be written or read without reflection.
+ *
+ * @author Lawrence
+ */
+public final class ModelCodecs
+{
+	/** The models that have a codec. **/
+	private static final Set<Class<?>> MODELS = new HashSet<Class<?>>(Arrays.asList(
+			WorkLog.class, Client.class, Employee.class, Location.class, Account.class, Business.class));
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 */
+	private ModelCodecs()
+	{
+	}
+
+	/**
+	 * Whether a type is a model with a codec. Subclasses are not, as they may have more members.
+	 *
+	 * @param type - the type to check.
+	 * @return true if it has a codec.
+	 */
+	public static boolean hasCodec(Class<?> type)
+	{
+		return MODELS.contains(type);
+	}
+
+	/**
+	 * Writes a model as a JSON object.
+	 *
+	 * @param json - the writer to write to.
+	 * @param model - the model to write, of a type with a codec.
+	 * @throws IOException if the stream cannot be written to.
+	 */
+	public static void write(JsonWriter json, Object model) throws IOException
+	{
+		// The most common first.
+		if (model instanceof WorkLog)
+		{
+			WorkLogCodec.write(json, (WorkLog) model);
+		}
+		else if (model instanceof Client)
+		{
+			ClientCodec.write(json, (Client) model);
+		}
+		else if (model instanceof Employee)
+		{
+			EmployeeCodec.write(json, (Employee) model);
+		}
+		else if (model instanceof Location)
+		{
+			LocationCodec.write(json, (Location) model);
+		}
+		else if (model instanceof Account)
+		{
+			AccountCodec.write(json, (Account) model);
+		}
+		else if (model instanceof Business)
+		{
+			BusinessCodec.write(json, (Business) model);
+		}
+		else
+		{
+			throw new IllegalArgumentException("No codec for " + model.getClass().getName());
+		}
+	}
+
+	/**
+	 * Reads a model from a JSON object.
+	 *
+	 * @param json - the reader to read from.
+	 * @param type - the type of the model, one with a codec.
+	 * @return the model read.
+	 * @throws IOException if the stream cannot be read or does not hold the model.
+	 */
+	public static <T> T read(JsonReader json, Class<T> type) throws IOException
+	{
+		Object model;
+
+		if (type == WorkLog.class)
+		{
+			model = WorkLogCodec.read(json);
+		}
+		else if (type == Client.class)
+		{
+			model = ClientCodec.read(json);
+		}
+		else if (type == Employee.class)
+		{
+			model = EmployeeCodec.read(json);
+		}
+		else if (type == Location.class)
+		{
+			model = LocationCodec.read(json);
+		}
+		else if (type == Account.class)
+		{
+			model = AccountCodec.read(json);
+		}
+		else if (type == Business.class)
+		{
+			model = BusinessCodec.read(json);
+		}
+		else
+		{
+			throw new IllegalArgumentException("No codec for " + type.getName());
+		}
+		return type.cast(model);
+	}
+}
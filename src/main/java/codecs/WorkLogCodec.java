@@ -0,0 +1,103 @@
+/**
+ *
+ */
+package codecs;
+
+import java.io.IOException;
+
+import models.Location;
+import models.WorkLog;
+
+/**
+ * Writes and reads worklogs as JSON without reflection, in the same form as
+ * the JAXB provider: members in alphabetical order and null members left out.
+ *
+ * @author Lawrence
+ */
+public final class WorkLogCodec
+{
+	/**
+	 * CLASS CONSTRUCTOR
+	 */
+	private WorkLogCodec()
+	{
+	}
+
+	/**
+	 * Writes a worklog as a JSON object.
+	 *
+	 * @param json - the writer to write to.
+	 * @param workLog - the worklog to write.
+	 * @throws IOException if the stream cannot be written to.
+	 */
+	public static void write(JsonWriter json, WorkLog workLog) throws IOException
+	{
+		json.beginObject()
+			.member("businessTag", workLog.getBusinessTag())
+			.member("clientId", workLog.getClientId())
+			.member("description", workLog.getDescription())
+			.member("endTime", workLog.getEndTime());
+
+		Location location = workLog.getLocation();
+
+		if (location != null)
+		{
+			json.name("location");
+			LocationCodec.write(json, location);
+		}
+
+		json.member("startTime", workLog.getStartTime())
+			.member("userName", workLog.getUserName())
+			.member("workLogId", workLog.getWorkLogId())
+			.endObject();
+	}
+
+	/**
+	 * Reads a worklog from a JSON object, members it does not have are skipped.
+	 *
+	 * @param json - the reader to read from.
+	 * @return the worklog read.
+	 * @throws IOException if the stream cannot be read or does not hold a worklog.
+	 */
+	public static WorkLog read(JsonReader json) throws IOException
+	{
+		WorkLog workLog = new WorkLog();
+		json.beginObject();
+
+		while (json.hasNext())
+		{
+			switch (json.nextName())
+			{
+				case "businessTag":
+					workLog.setBusinessTag(json.nextString());
+					break;
+				case "clientId":
+					workLog.setClientId(json.nextInt(workLog.getClientId()));
+					break;
+				case "description":
+					workLog.setDescription(json.nextString());
+					break;
+				case "endTime":
+					workLog.setEndTime(json.nextLong(workLog.getEndTime()));
+					break;
+				case "location":
+					workLog.setLocation(json.nextIfNull() ? null : LocationCodec.read(json));
+					break;
+				case "startTime":
+					workLog.setStartTime(json.nextLong(workLog.getStartTime()));
+					break;
+				case "userName":
+					workLog.setUserName(json.nextString());
+					break;
+				case "workLogId":
+					workLog.setWorkLogId(json.nextInt(workLog.getWorkLogId()));
+					break;
+				default:
+					json.skipValue();
+			}
+		}
+
+		json.endObject();
+		return workLog;
+	}
+}
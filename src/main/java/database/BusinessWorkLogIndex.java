@@ -0,0 +1,364 @@
+/**
+ *
+ */
+package database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The start and end times of the recent worklogs of one business, held in primitive arrays
+ * ordered by start time and then id, the order pages of worklogs are listed in.
+ * <br />
+ * Holds every worklog of the business starting at or after {@link #getRetainedFrom()},
+ * so a time range starting no earlier than that can be answered without the datastore.
+ *
+ * @author Lawrence
+ */
+final class BusinessWorkLogIndex
+{
+	/** The bytes held for each worklog in the arrays. **/
+	static final int BYTES_PER_ENTRY = 8 + 8 + 4 + 4;
+
+	/** The capacity of the arrays of a new index. **/
+	private static final int INITIAL_CAPACITY = 256;
+
+	/** Guards the arrays, many pages may be read at once while worklogs are added. **/
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/** The start time of each worklog. **/
+	private long[] startTimes = new long[INITIAL_CAPACITY];
+
+	/** The end time of each worklog. **/
+	private long[] endTimes = new long[INITIAL_CAPACITY];
+
+	/** The id of each worklog. **/
+	private int[] workLogIds = new int[INITIAL_CAPACITY];
+
+	/** The employee of each worklog, as their position in {@link #userNames}. **/
+	private int[] users = new int[INITIAL_CAPACITY];
+
+	/** The number of worklogs held. **/
+	private int size = 0;
+
+	/** The employees of the business in the order they were first seen. **/
+	private final List<String> userNames = new ArrayList<String>();
+
+	/** The position of each employee in {@link #userNames}. **/
+	private final Map<String, Integer> userPositions = new HashMap<String, Integer>();
+
+	/** Every worklog starting at or after this time is held. **/
+	private volatile long retainedFrom;
+
+	/** Whether the worklogs already in the datastore have been read. **/
+	private volatile boolean ready = false;
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 *
+	 * @param retainedFrom - the earliest start time of the worklogs to hold.
+	 */
+	BusinessWorkLogIndex(long retainedFrom)
+	{
+		this.retainedFrom = retainedFrom;
+	}
+
+	/**
+	 * Adds a worklog unless it is already held or starts before the retained range.
+	 *
+	 * @param workLogId - the id of the worklog.
+	 * @param userName - the employee of the worklog.
+	 * @param startTime - the start time of the worklog.
+	 * @param endTime - the end time of the worklog.
+	 * @return whether the worklog was added.
+	 */
+	boolean add(int workLogId, String userName, long startTime, long endTime)
+	{
+		if (startTime < this.retainedFrom)
+		{
+			return false;
+		}
+
+		this.lock.writeLock().lock();
+
+		try
+		{
+			int position = this.positionOf(startTime, workLogId);
+
+			if (position < this.size
+					&& this.startTimes[position] == startTime && this.workLogIds[position] == workLogId)
+			{
+				return false;
+			}
+
+			if (this.size == this.startTimes.length)
+			{
+				this.resize(this.size + (this.size >> 1));
+			}
+
+			// New worklogs are mostly the latest, so little is moved along.
+			int moved = this.size - position;
+			System.arraycopy(this.startTimes, position, this.startTimes, position + 1, moved);
+			System.arraycopy(this.endTimes, position, this.endTimes, position + 1, moved);
+			System.arraycopy(this.workLogIds, position, this.workLogIds, position + 1, moved);
+			System.arraycopy(this.users, position, this.users, position + 1, moved);
+
+			this.startTimes[position] = startTime;
+			this.endTimes[position] = endTime;
+			this.workLogIds[position] = workLogId;
+			this.users[position] = this.userPosition(userName);
+			this.size++;
+
+			return true;
+		}
+		finally
+		{
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds a page of the worklogs starting and ending within a time range, newest first.
+	 *
+	 * @param userName - the employee of the worklogs, null for every employee.
+	 * @param startTime - the earliest time a worklog may start.
+	 * @param endTime - the latest time a worklog may end.
+	 * @param after - the last worklog of the previous page, null for the first page.
+	 * @param limit - the most worklogs to return.
+	 * @return the ids of the worklogs, or null if the range is not all held.
+	 */
+	int[] find(String userName, long startTime, long endTime, WorkLogCursor after, int limit)
+	{
+		if (!this.ready || startTime < this.retainedFrom)
+		{
+			return null;
+		}
+
+		this.lock.readLock().lock();
+
+		try
+		{
+			int user = -1;
+
+			if (userName != null)
+			{
+				Integer position = this.userPositions.get(userName);
+
+				if (position == null)
+				{
+					return new int[0];
+				}
+				user = position;
+			}
+
+			// Every worklog in the range starts before it ends, so no later than the end of the range.
+			int end = this.positionOf(endTime, Integer.MAX_VALUE);
+
+			if (end < this.size && this.startTimes[end] == endTime)
+			{
+				end++;
+			}
+
+			if (after != null)
+			{
+				end = Math.min(end, this.positionOf(after.getStartTime(), after.getWorkLogId()));
+			}
+
+			int[] result = new int[Math.min(limit, end)];
+			int found = 0;
+
+			for (int i = end - 1; i >= 0 && found < result.length && this.startTimes[i] >= startTime; i--)
+			{
+				if (this.endTimes[i] <= endTime && (user < 0 || this.users[i] == user))
+				{
+					result[found++] = this.workLogIds[i];
+				}
+			}
+
+			return found == result.length ? result : Arrays.copyOf(result, found);
+		}
+		finally
+		{
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Drops the worklogs starting before the given time, they are read from the datastore from then on.
+	 *
+	 * @param time - the earliest start time to keep.
+	 * @return the number of worklogs dropped.
+	 */
+	int trimBefore(long time)
+	{
+		if (time <= this.retainedFrom)
+		{
+			return 0;
+		}
+
+		this.lock.writeLock().lock();
+
+		try
+		{
+			// Raised first so that the range is not answered while it is incomplete.
+			this.retainedFrom = time;
+
+			int dropped = this.positionOf(time, Integer.MIN_VALUE);
+			int kept = this.size - dropped;
+
+			this.startTimes = Arrays.copyOfRange(this.startTimes, dropped, dropped + capacityFor(kept));
+			this.endTimes = Arrays.copyOfRange(this.endTimes, dropped, dropped + capacityFor(kept));
+			this.workLogIds = Arrays.copyOfRange(this.workLogIds, dropped, dropped + capacityFor(kept));
+			this.users = Arrays.copyOfRange(this.users, dropped, dropped + capacityFor(kept));
+			this.size = kept;
+
+			return dropped;
+		}
+		finally
+		{
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the start time of the worklog a fraction of the way through those held,
+	 * used to drop the oldest part of the index.
+	 *
+	 * @param fraction - how far through the worklogs, from 0 to 1.
+	 * @return the start time or the time the index is retained from if it is empty.
+	 */
+	long startTimeAt(double fraction)
+	{
+		this.lock.readLock().lock();
+
+		try
+		{
+			if (this.size == 0)
+			{
+				return this.retainedFrom;
+			}
+			return this.startTimes[Math.min(this.size - 1, (int) (this.size * fraction))];
+		}
+		finally
+		{
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Marks the worklogs already in the datastore as read, ranges are answered from then on.
+	 */
+	void setReady()
+	{
+		this.ready = true;
+	}
+
+	/**
+	 * @return whether the worklogs already in the datastore have been read.
+	 */
+	boolean isReady()
+	{
+		return this.ready;
+	}
+
+	/**
+	 * @return the earliest start time of the worklogs held.
+	 */
+	long getRetainedFrom()
+	{
+		return this.retainedFrom;
+	}
+
+	/**
+	 * @return the number of worklogs held.
+	 */
+	int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * @return the number of bytes held by the arrays.
+	 */
+	long bytes()
+	{
+		return (long) this.startTimes.length * BYTES_PER_ENTRY;
+	}
+
+	/**
+	 * Finds the position of the first worklog at or after the given start time and id.
+	 * Must be called with the lock held.
+	 *
+	 * @param startTime - the start time.
+	 * @param workLogId - the id.
+	 * @return the position, the size if every worklog is before.
+	 */
+	private int positionOf(long startTime, int workLogId)
+	{
+		int low = 0;
+		int high = this.size;
+
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+
+			if (this.startTimes[middle] < startTime
+					|| (this.startTimes[middle] == startTime && this.workLogIds[middle] < workLogId))
+			{
+				low = middle + 1;
+			}
+			else
+			{
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the position of an employee, adding them if they are new.
+	 * Must be called with the write lock held.
+	 *
+	 * @param userName - the employee.
+	 * @return the position of the employee in {@link #userNames}.
+	 */
+	private int userPosition(String userName)
+	{
+		Integer position = this.userPositions.get(userName);
+
+		if (position == null)
+		{
+			position = this.userNames.size();
+			this.userNames.add(userName);
+			this.userPositions.put(userName, position);
+		}
+		return position;
+	}
+
+	/**
+	 * Changes the capacity of the arrays. Must be called with the write lock held.
+	 *
+	 * @param capacity - the new capacity.
+	 */
+	private void resize(int capacity)
+	{
+		this.startTimes = Arrays.copyOf(this.startTimes, capacity);
+		this.endTimes = Arrays.copyOf(this.endTimes, capacity);
+		this.workLogIds = Arrays.copyOf(this.workLogIds, capacity);
+		this.users = Arrays.copyOf(this.users, capacity);
+	}
+
+	/**
+	 * @param size - the number of worklogs to hold.
+	 * @return the capacity to give the arrays, leaving room for new worklogs.
+	 */
+	private static int capacityFor(int size)
+	{
+		return Math.max(INITIAL_CAPACITY, size + (size >> 2));
+	}
+}
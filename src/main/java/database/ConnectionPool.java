@@ -0,0 +1,570 @@
+/**
+ *
+ */
+package database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+
+import utilities.LatencyHistogram;
+
+/**
+ * Pool of connections to the database. Physical connections are taken from a
+ * datasource, kept open between requests and handed out as wrappers that return
+ * the connection to the pool when closed.
+ * <br />
+ * The pool is filled to its minimum on start and topped back up in the background,
+ * idle connections are only validated if they have not been used recently.
+ *
+ * @author Lawrence
+ */
+public final class ConnectionPool
+{
+	/** Logger **/
+	private final static Logger logger = Logger.getLogger(ConnectionPool.class);
+
+	/** How often the background maintenance runs in milliseconds. **/
+	private static final long MAINTENANCE_INTERVAL = 30000;
+
+	/** The source of physical connections. **/
+	private final DataSource dataSource;
+
+	/** The number of connections to keep open when the pool is quiet. **/
+	private final int minIdle;
+
+	/** The most connections that may be open at once. **/
+	private final int maxTotal;
+
+	/** How long to wait for a connection in milliseconds. **/
+	private final long acquireTimeout;
+
+	/** How long a connection can be idle before it is checked on checkout, in milliseconds. **/
+	private final long validationInterval;
+
+	/** How long to wait for a connection to answer a validation, in seconds. **/
+	private final int validationTimeout;
+
+	/** How long a connection above the minimum can stay idle before it is closed, in milliseconds. **/
+	private final long idleTimeout;
+
+	/** The idle connections, most recently used first. **/
+	private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+
+	/** One permit for each connection that can be checked out. **/
+	private final Semaphore permits;
+
+	/** The number of connections checked out. **/
+	private final AtomicInteger active = new AtomicInteger();
+
+	/** The number of physical connections open. **/
+	private final AtomicInteger open = new AtomicInteger();
+
+	/** The number of connections handed out since the pool started. **/
+	private final AtomicLong checkouts = new AtomicLong();
+
+	/** The number of times a caller gave up waiting for a connection. **/
+	private final AtomicLong timeouts = new AtomicLong();
+
+	/** How long callers wait to be given a connection. **/
+	private final LatencyHistogram acquireLatency = new LatencyHistogram();
+
+	/** Runs the maintenance of the pool. **/
+	private final ScheduledExecutorService maintenance;
+
+	/** Whether the pool has been shut down. **/
+	private volatile boolean closed = false;
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 *
+	 * @param dataSource - the source of physical connections.
+	 * @param minIdle - the number of connections to keep open when the pool is quiet.
+	 * @param maxTotal - the most connections that may be open at once.
+	 * @param acquireTimeout - how long to wait for a connection in milliseconds.
+	 * @param validationInterval - how long a connection can be idle before it is checked, in milliseconds.
+	 * @param validationTimeout - how long to wait for a connection to answer a validation, in seconds.
+	 * @param idleTimeout - how long connections above the minimum can stay idle, in milliseconds.
+	 */
+	public ConnectionPool(DataSource dataSource, int minIdle, int maxTotal, long acquireTimeout,
+			long validationInterval, int validationTimeout, long idleTimeout)
+	{
+		this.dataSource = dataSource;
+		this.minIdle = Math.min(minIdle, maxTotal);
+		this.maxTotal = maxTotal;
+		this.acquireTimeout = acquireTimeout;
+		this.validationInterval = validationInterval;
+		this.validationTimeout = validationTimeout;
+		this.idleTimeout = idleTimeout;
+		this.permits = new Semaphore(maxTotal, true);
+
+		this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable ->
+		{
+			Thread thread = new Thread(runnable, "connection-pool-maintenance");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.maintenance.scheduleWithFixedDelay(this::maintain,
+				MAINTENANCE_INTERVAL, MAINTENANCE_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Opens connections until the pool holds its minimum.
+	 *
+	 * @throws SQLException if a connection cannot be opened.
+	 */
+	public void fill() throws SQLException
+	{
+		while (!this.closed && this.idle.size() + this.active.get() < this.minIdle
+				&& this.permits.tryAcquire())
+		{
+			try
+			{
+				this.idle.offerLast(this.open());
+			}
+			finally
+			{
+				this.permits.release();
+			}
+		}
+	}
+
+	/**
+	 * Returns a connection from the pool, waiting for one to be returned if the pool is exhausted.
+	 * The connection must be closed to return it to the pool.
+	 *
+	 * @return the connection.
+	 * @throws SQLException if no connection becomes available in time or one cannot be opened.
+	 */
+	public Connection getConnection() throws SQLException
+	{
+		final long start = System.nanoTime();
+
+		if (this.closed)
+		{
+			throw new SQLException("The connection pool has been shut down");
+		}
+
+		try
+		{
+			if (!this.permits.tryAcquire(this.acquireTimeout, TimeUnit.MILLISECONDS))
+			{
+				this.timeouts.incrementAndGet();
+				throw new SQLException("Timed out waiting for a connection from the pool");
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted waiting for a connection from the pool", e);
+		}
+
+		try
+		{
+			PooledConnection pooled;
+
+			while ((pooled = this.idle.pollFirst()) != null && !this.validate(pooled))
+			{
+				this.discard(pooled);
+			}
+
+			if (pooled == null)
+			{
+				pooled = this.open();
+			}
+
+			this.active.incrementAndGet();
+			this.checkouts.incrementAndGet();
+			this.acquireLatency.record(System.nanoTime() - start);
+
+			return pooled.checkout();
+		}
+		catch (SQLException | RuntimeException e)
+		{
+			this.permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Closes every connection and stops the pool.
+	 */
+	public void shutdown()
+	{
+		this.closed = true;
+		this.maintenance.shutdownNow();
+
+		PooledConnection pooled;
+		while ((pooled = this.idle.pollFirst()) != null)
+		{
+			this.discard(pooled);
+		}
+	}
+
+	/**
+	 * @return the number of connections checked out.
+	 */
+	public int getActive()
+	{
+		return this.active.get();
+	}
+
+	/**
+	 * @return the number of open connections waiting to be checked out.
+	 */
+	public int getIdle()
+	{
+		return this.idle.size();
+	}
+
+	/**
+	 * @return the number of callers waiting for a connection.
+	 */
+	public int getWaiting()
+	{
+		return this.permits.getQueueLength();
+	}
+
+	/**
+	 * @return the number of physical connections open.
+	 */
+	public int getOpen()
+	{
+		return this.open.get();
+	}
+
+	/**
+	 * @return the most connections that may be open at once.
+	 */
+	public int getMaxTotal()
+	{
+		return this.maxTotal;
+	}
+
+	/**
+	 * @return the number of connections handed out since the pool started.
+	 */
+	public long getCheckouts()
+	{
+		return this.checkouts.get();
+	}
+
+	/**
+	 * @return the number of times a caller gave up waiting for a connection.
+	 */
+	public long getTimeouts()
+	{
+		return this.timeouts.get();
+	}
+
+	/**
+	 * @return how long callers wait to be given a connection.
+	 */
+	public LatencyHistogram getAcquireLatency()
+	{
+		return this.acquireLatency;
+	}
+
+	/**
+	 * Writes the metrics of the pool as a JSON object.
+	 *
+	 * @param json - the builder to append to.
+	 * @return the builder.
+	 */
+	public StringBuilder appendJson(StringBuilder json)
+	{
+		json.append("{\"active\":").append(this.getActive())
+			.append(",\"idle\":").append(this.getIdle())
+			.append(",\"waiting\":").append(this.getWaiting())
+			.append(",\"open\":").append(this.getOpen())
+			.append(",\"maxTotal\":").append(this.getMaxTotal())
+			.append(",\"checkouts\":").append(this.getCheckouts())
+			.append(",\"timeouts\":").append(this.getTimeouts())
+			.append(",\"acquireLatency\":");
+
+		return this.acquireLatency.appendJson(json).append("}");
+	}
+
+	/**
+	 * Whether a connection was handed out by this pool.
+	 *
+	 * @param connection - the connection to check.
+	 * @return true if the connection came from this pool.
+	 */
+	public boolean owns(Connection connection)
+	{
+		if (!Proxy.isProxyClass(connection.getClass()))
+		{
+			return false;
+		}
+
+		InvocationHandler handler = Proxy.getInvocationHandler(connection);
+		return handler instanceof Handle && ((Handle) handler).getPool() == this;
+	}
+
+	/**
+	 * Opens a new physical connection.
+	 *
+	 * @return the pooled connection.
+	 * @throws SQLException if the connection cannot be opened.
+	 */
+	private PooledConnection open() throws SQLException
+	{
+		PooledConnection pooled = new PooledConnection(this.dataSource.getConnection());
+		this.open.incrementAndGet();
+		return pooled;
+	}
+
+	/**
+	 * Checks the connection can still be used. Connections used recently are assumed to be fine.
+	 *
+	 * @param pooled - the connection to check.
+	 * @return true if the connection can be used.
+	 */
+	private boolean validate(PooledConnection pooled)
+	{
+		if (System.currentTimeMillis() - pooled.lastUsed < this.validationInterval)
+		{
+			return true;
+		}
+
+		try
+		{
+			return pooled.connection.isValid(this.validationTimeout);
+		}
+		catch (SQLException e)
+		{
+			logger.warn("Failed to validate a pooled connection", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Takes a connection back from a caller.
+	 *
+	 * @param pooled - the connection being returned.
+	 */
+	private void release(PooledConnection pooled)
+	{
+		this.active.decrementAndGet();
+
+		if (!this.closed && pooled.reset())
+		{
+			this.idle.offerFirst(pooled);
+		}
+		else
+		{
+			this.discard(pooled);
+		}
+
+		this.permits.release();
+	}
+
+	/**
+	 * Closes the physical connection.
+	 *
+	 * @param pooled - the connection to close.
+	 */
+	private void discard(PooledConnection pooled)
+	{
+		this.open.decrementAndGet();
+
+		try
+		{
+			pooled.connection.close();
+		}
+		catch (SQLException e)
+		{
+			logger.warn("Failed to close a pooled connection", e);
+		}
+	}
+
+	/**
+	 * Closes connections above the minimum that have been idle too long and tops the pool back up.
+	 */
+	private void maintain()
+	{
+		long now = System.currentTimeMillis();
+
+		for (Iterator<PooledConnection> i = this.idle.descendingIterator(); i.hasNext();)
+		{
+			PooledConnection pooled = i.next();
+
+			if (this.idle.size() + this.active.get() > this.minIdle
+					&& now - pooled.lastUsed > this.idleTimeout
+					&& this.idle.removeLastOccurrence(pooled))
+			{
+				this.discard(pooled);
+			}
+		}
+
+		try
+		{
+			this.fill();
+		}
+		catch (SQLException | RuntimeException e)
+		{
+			logger.error("Failed to top up the connection pool", e);
+		}
+	}
+
+	/**
+	 * A physical connection owned by the pool.
+	 */
+	private final class PooledConnection
+	{
+		/** The physical connection. **/
+		private final Connection connection;
+
+		/** When the connection was last returned to the pool. **/
+		private volatile long lastUsed;
+
+		/** Whether the connection failed in a way that means it cannot be reused. **/
+		private volatile boolean broken;
+
+		/**
+		 * CLASS CONSTRUCTOR
+		 *
+		 * @param connection - the physical connection.
+		 */
+		private PooledConnection(Connection connection)
+		{
+			this.connection = connection;
+			this.lastUsed = System.currentTimeMillis();
+			this.broken = false;
+		}
+
+		/**
+		 * Wraps the connection for a caller, closing the wrapper returns the connection to the pool.
+		 *
+		 * @return the wrapper to hand to the caller.
+		 */
+		private Connection checkout()
+		{
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, new Handle(this));
+		}
+
+		/**
+		 * Puts the connection back into its default state for the next caller.
+		 *
+		 * @return true if the connection can be reused.
+		 */
+		private boolean reset()
+		{
+			this.lastUsed = System.currentTimeMillis();
+
+			if (this.broken)
+			{
+				return false;
+			}
+
+			try
+			{
+				if (!this.connection.getAutoCommit())
+				{
+					this.connection.rollback();
+					this.connection.setAutoCommit(true);
+				}
+				return true;
+			}
+			catch (SQLException e)
+			{
+				logger.warn("Failed to reset a pooled connection", e);
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * The connection a caller holds, only valid until it is closed.
+	 */
+	private final class Handle implements InvocationHandler
+	{
+		/** The connection being used, null once the handle is closed. **/
+		private PooledConnection pooled;
+
+		/**
+		 * CLASS CONSTRUCTOR
+		 *
+		 * @param pooled - the connection being used.
+		 */
+		private Handle(PooledConnection pooled)
+		{
+			this.pooled = pooled;
+		}
+
+		/**
+		 * @return the pool the connection belongs to.
+		 */
+		private ConnectionPool getPool()
+		{
+			return ConnectionPool.this;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+		{
+			String name = method.getName();
+			PooledConnection current = this.pooled;
+
+			if ("close".equals(name))
+			{
+				if (current != null)
+				{
+					this.pooled = null;
+					ConnectionPool.this.release(current);
+				}
+				return null;
+			}
+			if ("isClosed".equals(name))
+			{
+				return current == null || current.connection.isClosed();
+			}
+			if ("equals".equals(name))
+			{
+				return proxy == args[0];
+			}
+			if ("hashCode".equals(name))
+			{
+				return System.identityHashCode(proxy);
+			}
+			if (current == null)
+			{
+				throw new SQLException("The connection has already been returned to the pool");
+			}
+
+			try
+			{
+				return method.invoke(current.connection, args);
+			}
+			catch (InvocationTargetException e)
+			{
+				Throwable cause = e.getCause();
+
+				if (cause instanceof SQLException && ((SQLException) cause).getSQLState() != null
+						&& ((SQLException) cause).getSQLState().startsWith("08"))
+				{
+					// Connection exceptions mean the physical connection is gone
+					current.broken = true;
+				}
+				throw cause;
+			}
+		}
+	}
+}
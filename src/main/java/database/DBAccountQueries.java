@@ -6,6 +6,7 @@ package database;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.List;
 
 import exceptions.BadKeyException;
 import exceptions.DataAccessException;
@@ -29,6 +30,16 @@ public class DBAccountQueries extends DBQueries {
 	{
 		super();
 	}
+	
+	/**
+	 * Accounts are read to log in, so must be read from the primary
+	 * for a new account to be usable straight away.
+	 */
+	@Override
+	protected boolean allowsReplicaReads()
+	{
+		return false;
+	}
 
 	/**
 	 * Creates the given account in the datastore.
@@ -103,7 +114,7 @@ public class DBAccountQueries extends DBQueries {
 				+ "userName, userPassword, businessTag, email) "
 				+ "VALUES (?, ?, ?, ?);";
 		
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query);
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
 		
 		int index = 1;
 		
@@ -115,6 +126,38 @@ public class DBAccountQueries extends DBQueries {
 		stmt.executeUpdate();
 	}
 	
+	/**
+	 * Creates accounts in the database in one batch.
+	 * 
+	 * @param accounts - the accounts to create.
+	 * @param queryRunner - the DB query runner.
+	 * @throws SQLIntegrityConstraintViolationException - If a given key is not unique.
+	 * @throws SQLException - If a connection cannot be made to the store.
+	 */
+	public static void createAccountsSQL(List<Account> accounts, DBQueries queryRunner) 
+			throws SQLException, SQLIntegrityConstraintViolationException
+	{
+		String query = "INSERT INTO Account("
+				+ "userName, userPassword, businessTag, email) "
+				+ "VALUES (?, ?, ?, ?);";
+		
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
+		
+		for (Account account : accounts)
+		{
+			int index = 1;
+			
+			stmt.setString(index++, account.getUserName());
+			stmt.setString(index++, account.getStoredPassword().toString());
+			stmt.setString(index++, account.getBusinessTag());
+			stmt.setString(index++, account.getEmail());
+			
+			stmt.addBatch();
+		}
+		
+		stmt.executeBatch();
+	}
+	
 	/**
 	 * Gets an account in the database with the given parameters.
 	 * 
@@ -133,7 +176,7 @@ public class DBAccountQueries extends DBQueries {
 		String query = "SELECT userName, userPassword, businessTag, email "
 				+ "FROM Account WHERE Account.userName = ? AND Account.businessTag = ?;";
 		
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query);
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
 
 		int i = 1;
 		stmt.setString(i++, userName);
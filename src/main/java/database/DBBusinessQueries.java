@@ -7,10 +7,14 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import exceptions.BadKeyException;
 import exceptions.DataAccessException;
 import models.Business;
+import models.Employee;
+import models.ImportResult;
 
 /**
  * Class to contain helper functions for interaction with the database.
@@ -68,6 +72,22 @@ public final class DBBusinessQueries extends DBQueries
 	    }
 	}
 	
+	/**
+	 * Creates the given businesses and their initial employees in the datastore, a chunk at a time
+	 * with each chunk in its own transaction. If a chunk fails its businesses are retried one at a time
+	 * to find those at fault, the rest of the chunk is still stored.
+	 * 
+	 * @param businesses - The businesses to store, with passwords hashed, by their position in the import.
+	 * @param result - Receives the positions of the businesses that failed.
+	 * @throws DataAccessException if a connection to the datastore cannot be made, earlier chunks remain stored.
+	 */
+	public void createBusinesses(Map<Integer, Business> businesses, ImportResult result) 
+			throws DataAccessException
+	{
+		this.importInChunks(businesses, DBBusinessQueries::createBusinessesSQL, business -> null, 
+				"Business with given businessTag already exists", result);
+	}
+	
 	/**
 	 * Returns a business by its given business tag. 
 	 * Returns null if no business is found.
@@ -124,6 +144,36 @@ public final class DBBusinessQueries extends DBQueries
 	    return result;
 	}
 	
+	/**
+	 * Creates businesses and their initial employees in the database with one batch per table.
+	 * 
+	 * @param businesses - the businesses to create.
+	 * @param queryRunner - the DB query runner.
+	 * @throws SQLException if the DB cannot be reached.
+	 * @throws SQLIntegrityConstraintViolationException if a key breaks the constraints of the DB.
+	 */
+	private static void createBusinessesSQL(List<Business> businesses, DBQueries queryRunner) 
+			throws SQLException, SQLIntegrityConstraintViolationException
+	{
+		String query = "INSERT INTO Business(businessTag, businessName) VALUES (?, ?);";
+		
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
+		List<Employee> employees = new ArrayList<Employee>(businesses.size());
+		
+		for (Business business : businesses)
+		{
+			stmt.setString(1, business.getBusinessTag());
+			stmt.setString(2, business.getBusinessName());
+			stmt.addBatch();
+			
+			employees.add(business.getDefaultEmployee());
+		}
+		
+		stmt.executeBatch();
+		
+		DBEmployeeQueries.createEmployeeAccountsSQL(employees, queryRunner);
+	}
+	
 	/**
 	 * Creates a business in the database with the given business and DB runner.
 	 * 
@@ -137,7 +187,7 @@ public final class DBBusinessQueries extends DBQueries
 	{
 		String query = "INSERT INTO Business(businessTag, businessName) VALUES (?, ?);";
 		
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query);
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
 		stmt.setString(1, business.getBusinessTag());
 		stmt.setString(2, business.getBusinessName());
 		
@@ -159,7 +209,7 @@ public final class DBBusinessQueries extends DBQueries
 
 		String query = "SELECT businessTag, businessName FROM Business WHERE Business.businessTag = ?;";
 		
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query);
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
 		stmt.setString(1, businessTag);
 		
 		queryRunner.resultSet = stmt.executeQuery();
@@ -187,7 +237,7 @@ public final class DBBusinessQueries extends DBQueries
 
 		String query = "SELECT businessTag, businessName FROM Business ORDER BY businessTag ASC;";
 		
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query);
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
 		
 		queryRunner.resultSet = stmt.executeQuery();
 		while (queryRunner.resultSet.next())
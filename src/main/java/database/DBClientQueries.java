@@ -9,11 +9,17 @@ import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import exceptions.BadKeyException;
 import exceptions.DataAccessException;
 import models.Client;
+import models.ImportResult;
+import models.Location;
 
 /**
  * Class to contain helper functions for interaction with the database. Each instance should only be
@@ -71,6 +77,22 @@ public final class DBClientQueries extends DBQueries
 	    }
 	}
 	
+	/**
+	 * Creates the given clients and their locations in the datastore, a chunk at a time with each 
+	 * chunk in its own transaction. If a chunk fails its clients are retried one at a time to find 
+	 * those at fault, the rest of the chunk is still stored.
+	 * 
+	 * @param clients - The clients to store, by their position in the import.
+	 * @param result - Receives the ids of the stored clients and the positions of those that failed.
+	 * @throws DataAccessException - If a connection cannot be made to the store, earlier chunks remain stored.
+	 */
+	public void createClients(Map<Integer, Client> clients, ImportResult result) 
+			throws DataAccessException
+	{
+		this.importInChunks(clients, DBClientQueries::createClientsSQL, Client::getClientId, 
+				"A key used already exists in the database", result);
+	}
+	
 	/**
 	 * Returns a client by its given clientId. 
 	 * Returns null if no client is found.
@@ -86,13 +108,6 @@ public final class DBClientQueries extends DBQueries
 	    try
 	    {
 	    	result = getClientSQL(clientId, this);
-	    	
-	    	if (result != null)
-	    	{
-		    	result.setLocations(
-		    			DBLocationQueries.getLocationsForIdSQL(
-		    			DBClientQueries.getClientLocationOwnerIdSQL(result, this), this));
-	    	}
 		} 
 	    catch (SQLException e) 
 	    {
@@ -148,13 +163,6 @@ public final class DBClientQueries extends DBQueries
 	    try
 	    {		
 	    	result = getAllClientsSQL(businessTag, this);
-	    	
-	    	for (Client client : result)
-	    	{
-	    		client.setLocations(
-		    			DBLocationQueries.getLocationsForIdSQL(
-		    	    	DBClientQueries.getClientLocationOwnerIdSQL(client, this), this));
-	    	}
 		}
 	    catch (SQLException e) 
 	    {
@@ -187,13 +195,6 @@ public final class DBClientQueries extends DBQueries
 	    	result = 
 	    		getAllClientsbyMostWorkedRangeBetweenTimesSQL(
 	    				businessTag, startRange, endRange, startTimeRange, endTimeRange, this);
-	    	
-	    	for (Client client : result)
-	    	{
-	    		client.setLocations(
-		    			DBLocationQueries.getLocationsForIdSQL(
-		    	    	DBClientQueries.getClientLocationOwnerIdSQL(client, this), this));
-	    	}
 		}
 	    catch (SQLException e) 
 	    {
@@ -224,7 +225,7 @@ public final class DBClientQueries extends DBQueries
 		
 		String query = "INSERT INTO BusinessClient(clientName, businessTag, locationOwnerId) VALUES (?, ?, ?);";
 		
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query, PreparedStatement.RETURN_GENERATED_KEYS);
+		final PreparedStatement stmt = queryRunner.prepareStatement(query, PreparedStatement.RETURN_GENERATED_KEYS);
 		int index = 1;
 		
 		stmt.setString(index++, client.getClientName());
@@ -233,11 +234,78 @@ public final class DBClientQueries extends DBQueries
 		
 		stmt.executeUpdate();
 
-		ResultSet resultSet = stmt.getGeneratedKeys();
+		try (ResultSet resultSet = stmt.getGeneratedKeys())
+		{
+			if (resultSet.next()) 
+			{
+			    client.setClientId(resultSet.getInt(1));
+			}
+		}
+	}
+	
+	/**
+	 * Creates clients and their locations in the database with one batch per table,
+	 * setting the id of each client. The location owners are created up front so the
+	 * owner of each client does not have to be read back.
+	 * 
+	 * @param clients - the clients to create.
+	 * @param queryRunner - the DB query runner.
+	 * @throws SQLException if the DB cannot be reached or a key breaks the constraints of the DB.
+	 */
+	public static void createClientsSQL(List<Client> clients, DBQueries queryRunner) 
+			throws SQLException
+	{
+		List<Integer> locationOwnerIds = DBLocationQueries.createLocationOwnersSQL(clients.size(), queryRunner);
+		
+		String query = "INSERT INTO BusinessClient(clientName, businessTag, locationOwnerId) VALUES (?, ?, ?);";
+		
+		final PreparedStatement stmt = queryRunner.prepareStatement(query, PreparedStatement.RETURN_GENERATED_KEYS);
+		
+		List<Location> locations = new ArrayList<Location>();
+		List<Integer> locationsOwnerIds = new ArrayList<Integer>();
+		
+		for (int i = 0; i < clients.size(); i++)
+		{
+			Client client = clients.get(i);
+			int index = 1;
+			
+			stmt.setString(index++, client.getClientName());
+			stmt.setString(index++, client.getBusinessTag());
+			stmt.setInt(index++, locationOwnerIds.get(i));
+			
+			stmt.addBatch();
+			
+			if (client.getLocations() != null)
+			{
+				for (Location location : client.getLocations())
+				{
+					locations.add(location);
+					locationsOwnerIds.add(locationOwnerIds.get(i));
+				}
+			}
+		}
+		
+		stmt.executeBatch();
+
+		Iterator<Client> created = clients.iterator();
 
-		if (resultSet.next()) 
+		try (ResultSet resultSet = stmt.getGeneratedKeys())
+		{
+			while (resultSet.next() && created.hasNext()) 
+			{
+				created.next().setClientId(resultSet.getInt(1));
+			}
+		}
+		
+		if (created.hasNext())
+		{
+			throw new SQLException("Not every created client was given a key");
+		}
+		
+		if (!locations.isEmpty())
 		{
-		    client.setClientId(resultSet.getInt(1));
+			List<Integer> locationIds = DBLocationQueries.createLocationsSQL(locations, queryRunner);
+			DBLocationQueries.createLocationOwnerToLocationsSQL(locationsOwnerIds, locationIds, queryRunner);
 		}
 	}
 	
@@ -274,10 +342,13 @@ public final class DBClientQueries extends DBQueries
 			throws SQLException, DataAccessException
 	{
 		Client result = null;
+		Map<Integer, Client> clients = new LinkedHashMap<Integer, Client>();
+		Map<Integer, List<Client>> clientsByLocationOwner = new HashMap<Integer, List<Client>>();
 
-		String query = "SELECT clientName, businessTag FROM BusinessClient WHERE BusinessClient.clientId = ?;";
+		String query = "SELECT clientName, businessTag, locationOwnerId FROM BusinessClient "
+				+ "WHERE BusinessClient.clientId = ?;";
 		
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query);
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
 		int index = 1;
 		
 		stmt.setInt(index++, clientId);
@@ -290,8 +361,11 @@ public final class DBClientQueries extends DBQueries
 					queryRunner.resultSet.getString("clientName"),
 					queryRunner.resultSet.getString("businessTag")
 			);
+			addClient(clients, clientsByLocationOwner, queryRunner.resultSet.getInt("locationOwnerId"), result);
 		}
 		
+		setLocationsForClientsSQL(clientsByLocationOwner, queryRunner);
+		
 		return result;
 	}
 	
@@ -308,24 +382,27 @@ public final class DBClientQueries extends DBQueries
 	public static ArrayList<Client> getAllClientsSQL(final String businessTag, final DBQueries queryRunner)
 			throws SQLException, DataAccessException
 	{
-		ArrayList<Client> result = new ArrayList<Client>();
+		Map<Integer, Client> clients = new LinkedHashMap<Integer, Client>();
+		Map<Integer, List<Client>> clientsByLocationOwner = new HashMap<Integer, List<Client>>();
 
-		String query = "SELECT clientId, clientName, businessTag FROM BusinessClient "
+		String query = "SELECT clientId, clientName, businessTag, locationOwnerId FROM BusinessClient "
 				+ "WHERE BusinessClient.businessTag = ? ORDER BY clientName ASC;";
 		
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query);
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
 		stmt.setString(1, businessTag);
 		
 		queryRunner.resultSet = stmt.executeQuery();
 		while (queryRunner.resultSet.next())
 		{
-			result.add(new Client(
+			addClient(clients, clientsByLocationOwner, queryRunner.resultSet.getInt("locationOwnerId"), new Client(
 					queryRunner.resultSet.getInt("clientId"),
 					queryRunner.resultSet.getString("clientName"),
 					queryRunner.resultSet.getString("businessTag")));
 		}
 		
-		return result;
+		setLocationsForClientsSQL(clientsByLocationOwner, queryRunner);
+		
+		return new ArrayList<Client>(clients.values());
 	}
 	
 	/**
@@ -343,7 +420,7 @@ public final class DBClientQueries extends DBQueries
 		
 		String query = "SELECT locationOwnerId FROM BusinessClient WHERE BusinessClient.clientId = ?;";
 		
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query);
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
 		int index = 1;
 		
 		stmt.setInt(index++, client.getClientId());
@@ -355,6 +432,8 @@ public final class DBClientQueries extends DBQueries
 		    result = resultSet.getInt(1);
 		}
 		
+		resultSet.close();
+		
 		return result;
 	}
 	
@@ -372,23 +451,24 @@ public final class DBClientQueries extends DBQueries
 			String businessTag, int startRange, int endRange, long startTimeRange, long endTimeRange,
 			DBQueries queryRunner) throws SQLException, DataAccessException 
 	{
-		Collection<Client> result = new ArrayList<Client>();
+		Map<Integer, Client> clients = new LinkedHashMap<Integer, Client>();
+		Map<Integer, List<Client>> clientsByLocationOwner = new HashMap<Integer, List<Client>>();
 		
 		String query = "SELECT clientName, BusinessClient.clientId, BusinessClient.businessTag, "
-			+ "SUM(WorkLog.endTime - WorkLog.startTime) as hoursWorked "
+			+ "BusinessClient.locationOwnerId, "
+			+ "HoursWorked.hoursWorked "
 			+ "FROM BusinessClient "
-			+ "LEFT JOIN WorkLog ON BusinessClient.clientId = WorkLog.clientId AND BusinessClient.businessTag = WorkLog.businessTag "
-			+ "AND WorkLog.startTime >= ? AND WorkLog.endTime <= ? "
+			+ "LEFT JOIN " + DBDailyHoursQueries.hoursWorkedTable("clientId")
+			+ "ON BusinessClient.clientId = HoursWorked.clientId "
 			+ "WHERE BusinessClient.businessTag = ? "
-			+ "GROUP BY BusinessClient.clientId "
 			+ "ORDER BY hoursWorked DESC "
 			+ "LIMIT ? OFFSET ?;";
 		
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query);
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
 		int columnIndex = 1;
 		
-		stmt.setLong(columnIndex++, startTimeRange);
-		stmt.setLong(columnIndex++, endTimeRange);
+		columnIndex = DBDailyHoursQueries.setHoursWorkedRange(
+				stmt, columnIndex, businessTag, startTimeRange, endTimeRange);
 		stmt.setString(columnIndex++, businessTag);
 		stmt.setInt(columnIndex++, endRange - startRange);
 		stmt.setInt(columnIndex++, startRange);
@@ -396,13 +476,58 @@ public final class DBClientQueries extends DBQueries
 		queryRunner.resultSet = stmt.executeQuery();
 		while (queryRunner.resultSet.next())
 		{
-			result.add(new Client(
+			addClient(clients, clientsByLocationOwner, queryRunner.resultSet.getInt("locationOwnerId"), new Client(
 					queryRunner.resultSet.getInt("clientId"),
 					queryRunner.resultSet.getString("clientName"),
 					queryRunner.resultSet.getString("businessTag"),
-					queryRunner.resultSet.getInt("hoursWorked")));
+					queryRunner.resultSet.getLong("hoursWorked")));
 		}
 		
-		return result;
+		setLocationsForClientsSQL(clientsByLocationOwner, queryRunner);
+		
+		return new ArrayList<Client>(clients.values());
+	}
+	
+	/**
+	 * Adds a client read from the database, by its id and under its location owner. Nothing
+	 * stops clients sharing a location owner, so an owner can have several clients.
+	 * 
+	 * @param clients - the clients read, by their id.
+	 * @param clientsByLocationOwner - the clients read, by their location owner id.
+	 * @param locationOwnerId - the location owner id of the client.
+	 * @param client - the client.
+	 */
+	private static void addClient(Map<Integer, Client> clients, Map<Integer, List<Client>> clientsByLocationOwner,
+			int locationOwnerId, Client client)
+	{
+		clients.put(client.getClientId(), client);
+		clientsByLocationOwner.computeIfAbsent(locationOwnerId, owner -> new ArrayList<Client>()).add(client);
+	}
+	
+	/**
+	 * Loads the locations of all of the given clients in as few queries as possible
+	 * and sets them on each client.
+	 * 
+	 * @param clientsByLocationOwner - the clients by their location owner id.
+	 * @param queryRunner - the DB query runner.
+	 * @throws SQLException if the DB cannot be reached.
+	 * @throws SQLIntegrityConstraintViolationException if a key breaks the constraints of the DB.
+	 */
+	private static void setLocationsForClientsSQL(Map<Integer, List<Client>> clientsByLocationOwner, 
+			DBQueries queryRunner) throws SQLException, SQLIntegrityConstraintViolationException
+	{
+		Map<Integer, List<Location>> locations = 
+				DBLocationQueries.getLocationsForIdsSQL(clientsByLocationOwner.keySet(), queryRunner);
+		
+		for (Map.Entry<Integer, List<Client>> owner : clientsByLocationOwner.entrySet())
+		{
+			List<Location> ownerLocations = locations.get(owner.getKey());
+			
+			for (Client client : owner.getValue())
+			{
+				client.setLocations(ownerLocations != null 
+						? new ArrayList<Location>(ownerLocations) : new ArrayList<Location>());
+			}
+		}
 	}
 }
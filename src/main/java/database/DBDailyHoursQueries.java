@@ -0,0 +1,336 @@
+/**
+ *
+ */
+package database;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import exceptions.DataAccessException;
+import models.WorkLog;
+
+/**
+ * Class to contain the queries of the daily hours rollups, which hold the time worked by
+ * each employee and for each client summed by the day their worklogs start and end on.
+ * <br />
+ * The rollups are kept up to date in the same transaction as the worklogs are created, so that
+ * the most worked rankings can sum whole days from the rollups and only read the worklogs
+ * starting or ending on the partial days at the edges of the range asked for.
+ * Each instance should only be used once.
+ *
+ * @author Lawrence
+ */
+public class DBDailyHoursQueries extends DBQueries
+{
+	/** The length of a rollup day, worklog times are in milliseconds since the epoch so days are in UTC. **/
+	public static final long DAY = 24L * 60L * 60L * 1000L;
+
+	/**
+	 * The time worked in a range, summed by employee or client, as a derived table with the
+	 * columns owner and hoursWorked. The owner column is filled in by {@link #hoursWorkedTable(String)}.
+	 * Whole days come from the rollup, worklogs starting before the first whole day or ending
+	 * after the last come from the worklogs, none are counted twice.
+	 */
+	private static final String HOURS_WORKED_TABLE =
+			"(SELECT %2$s, SUM(hoursWorked) AS hoursWorked FROM ("
+			+ "SELECT %2$s, hoursWorked FROM %1$s "
+			+ "WHERE businessTag = ? AND startDay >= ? AND startDay < ? AND endDay < ? "
+			+ "UNION ALL "
+			+ "SELECT %2$s, endTime - startTime AS hoursWorked FROM WorkLog "
+			+ "WHERE businessTag = ? AND startTime >= ? AND startTime < ? AND endTime <= ? "
+			+ "UNION ALL "
+			+ "SELECT %2$s, endTime - startTime AS hoursWorked FROM WorkLog "
+			+ "WHERE businessTag = ? AND endTime >= ? AND endTime <= ? AND startTime >= ?"
+			+ ") AS Worked GROUP BY %2$s) AS HoursWorked ";
+
+	/**
+	 * The time worked by one employee or for one client on worklogs that start and end
+	 * on the same pair of days.
+	 */
+	private static final class DayBucket
+	{
+		/** The business of the worklogs. **/
+		private final String businessTag;
+
+		/** The employee userName or the client id. **/
+		private final Object owner;
+
+		/** The day the worklogs start on. **/
+		private final long startDay;
+
+		/** The day the worklogs end on. **/
+		private final long endDay;
+
+		/**
+		 * CLASS CONSTRUCTOR
+		 *
+		 * @param businessTag - the business of the worklogs.
+		 * @param owner - the employee userName or the client id.
+		 * @param workLog - a worklog in the bucket.
+		 */
+		private DayBucket(String businessTag, Object owner, WorkLog workLog)
+		{
+			this.businessTag = businessTag;
+			this.owner = owner;
+			this.startDay = dayOf(workLog.getStartTime());
+			this.endDay = dayOf(workLog.getEndTime());
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			if (!(other instanceof DayBucket))
+			{
+				return false;
+			}
+
+			DayBucket bucket = (DayBucket) other;
+			return this.startDay == bucket.startDay && this.endDay == bucket.endDay
+					&& this.businessTag.equals(bucket.businessTag) && this.owner.equals(bucket.owner);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(this.businessTag, this.owner, this.startDay, this.endDay);
+		}
+	}
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 *
+	 * @throws DataAccessException
+	 */
+	public DBDailyHoursQueries() throws DataAccessException
+	{
+		super();
+	}
+
+	/**
+	 * Rebuilds the rollups of a business from its worklogs, in a single transaction so that
+	 * worklogs created at the same time are either counted by the rebuild or wait for it.
+	 *
+	 * @param businessTag - the business to rebuild the rollups of.
+	 * @return the number of rollup rows written.
+	 * @throws DataAccessException if the datastore cannot be reached.
+	 */
+	public int rebuild(String businessTag) throws DataAccessException
+	{
+		int result = 0;
+
+		try
+		{
+			this.setAutoCommit(false);
+
+			result = rebuildSQL(businessTag, this);
+
+			this.commit();
+		}
+	    catch (SQLException e)
+	    {
+	    	this.rollback();
+	    	this.handleSQLException(e);
+		}
+	    finally
+	    {
+	    	this.setAutoCommit(true);
+	    	this.closeConnection();
+	    }
+
+		return result;
+	}
+
+	/**
+	 * Adds the time of the given worklogs to the rollups. Must run in the transaction
+	 * that creates the worklogs.
+	 *
+	 * @param workLogs - the worklogs created.
+	 * @param queryRunner - the DB query runner.
+	 * @throws SQLException if the DB cannot be reached.
+	 */
+	public static void addWorkLogsSQL(Collection<WorkLog> workLogs, DBQueries queryRunner)
+			throws SQLException
+	{
+		// A chunk of worklogs mostly falls on a few days, sum them before writing.
+		Map<DayBucket, Long> employeeHours = new LinkedHashMap<DayBucket, Long>();
+		Map<DayBucket, Long> clientHours = new LinkedHashMap<DayBucket, Long>();
+
+		for (WorkLog workLog : workLogs)
+		{
+			long worked = workLog.getEndTime() - workLog.getStartTime();
+
+			employeeHours.merge(
+					new DayBucket(workLog.getBusinessTag(), workLog.getUserName(), workLog), worked, Long::sum);
+			clientHours.merge(
+					new DayBucket(workLog.getBusinessTag(), workLog.getClientId(), workLog), worked, Long::sum);
+		}
+
+		addHoursSQL("EmployeeDailyHours", "userName", employeeHours, queryRunner);
+		addHoursSQL("ClientDailyHours", "clientId", clientHours, queryRunner);
+	}
+
+	/**
+	 * Returns the derived table of the time worked in a range, joined to by the most worked
+	 * queries on its owner column and hoursWorked. Its parameters are set by
+	 * {@link #setHoursWorkedRange(PreparedStatement, int, String, long, long)}.
+	 *
+	 * @param owner - userName for employees or clientId for clients.
+	 * @return the derived table, named HoursWorked.
+	 */
+	public static String hoursWorkedTable(String owner)
+	{
+		String rollup = "userName".equals(owner) ? "EmployeeDailyHours" : "ClientDailyHours";
+		return String.format(HOURS_WORKED_TABLE, rollup, owner);
+	}
+
+	/**
+	 * Sets the parameters of a table from {@link #hoursWorkedTable(String)} to count the worklogs
+	 * starting and ending within the given range.
+	 *
+	 * @param stmt - the statement using the table.
+	 * @param index - the index of the first parameter of the table.
+	 * @param businessTag - the business to count the worklogs of.
+	 * @param startTime - the earliest time a worklog may start.
+	 * @param endTime - the latest time a worklog may end.
+	 * @return the index of the parameter after the table.
+	 * @throws SQLException if the DB cannot be reached.
+	 */
+	public static int setHoursWorkedRange(PreparedStatement stmt, int index, String businessTag,
+			long startTime, long endTime) throws SQLException
+	{
+		// The whole days of the range run from the start of firstDay up to the start of lastDay.
+		long firstDay = -Math.floorDiv(-startTime, DAY);
+		long lastDay = Math.floorDiv(endTime, DAY);
+
+		stmt.setString(index++, businessTag);
+		stmt.setLong(index++, firstDay);
+		stmt.setLong(index++, lastDay);
+		stmt.setLong(index++, lastDay);
+
+		// Worklogs starting before the first whole day.
+		stmt.setString(index++, businessTag);
+		stmt.setLong(index++, startTime);
+		stmt.setLong(index++, firstDay * DAY);
+		stmt.setLong(index++, endTime);
+
+		// Worklogs starting on a whole day and ending after the last whole day.
+		stmt.setString(index++, businessTag);
+		stmt.setLong(index++, lastDay * DAY);
+		stmt.setLong(index++, endTime);
+		stmt.setLong(index++, firstDay * DAY);
+
+		return index;
+	}
+
+	/**
+	 * Returns the rollup day a time falls on.
+	 *
+	 * @param time - the time in milliseconds since the epoch.
+	 * @return the number of days since the epoch.
+	 */
+	public static long dayOf(long time)
+	{
+		return Math.floorDiv(time, DAY);
+	}
+
+	/**
+	 * Rebuilds the rollups of a business from its worklogs.
+	 *
+	 * @param businessTag - the business to rebuild the rollups of.
+	 * @param queryRunner - the DB query runner.
+	 * @return the number of rollup rows written.
+	 * @throws SQLException if the DB cannot be reached.
+	 */
+	private static int rebuildSQL(String businessTag, DBQueries queryRunner) throws SQLException
+	{
+		return rebuildSQL("EmployeeDailyHours", "userName", businessTag, queryRunner)
+				+ rebuildSQL("ClientDailyHours", "clientId", businessTag, queryRunner);
+	}
+
+	/**
+	 * Rebuilds one rollup of a business from its worklogs.
+	 *
+	 * @param rollup - the rollup table.
+	 * @param owner - the column the rollup sums by.
+	 * @param businessTag - the business to rebuild the rollup of.
+	 * @param queryRunner - the DB query runner.
+	 * @return the number of rollup rows written.
+	 * @throws SQLException if the DB cannot be reached.
+	 */
+	private static int rebuildSQL(String rollup, String owner, String businessTag, DBQueries queryRunner)
+			throws SQLException
+	{
+		final PreparedStatement delete =
+				queryRunner.prepareStatement("DELETE FROM " + rollup + " WHERE businessTag = ?;");
+		delete.setString(1, businessTag);
+		delete.executeUpdate();
+
+		String startDay = "FLOOR(startTime / " + DAY + ")";
+		String endDay = "FLOOR(endTime / " + DAY + ")";
+		String query = "INSERT INTO " + rollup + "(businessTag, " + owner + ", startDay, endDay, hoursWorked) "
+				+ "SELECT businessTag, " + owner + ", " + startDay + ", " + endDay + ", "
+				+ "SUM(endTime - startTime) FROM WorkLog WHERE businessTag = ? "
+				+ "GROUP BY businessTag, " + owner + ", " + startDay + ", " + endDay + ";";
+
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
+		stmt.setString(1, businessTag);
+
+		return stmt.executeUpdate();
+	}
+
+	/**
+	 * Adds summed time to the buckets of a rollup, creating those that do not exist yet.
+	 *
+	 * @param rollup - the rollup table.
+	 * @param owner - the column the rollup sums by.
+	 * @param hours - the time to add to each bucket.
+	 * @param queryRunner - the DB query runner.
+	 * @throws SQLException if the DB cannot be reached.
+	 */
+	private static void addHoursSQL(String rollup, String owner, Map<DayBucket, Long> hours,
+			DBQueries queryRunner) throws SQLException
+	{
+		if (hours.isEmpty())
+		{
+			return;
+		}
+
+		String query = "INSERT INTO " + rollup + "(businessTag, " + owner + ", startDay, endDay, hoursWorked) "
+				+ "VALUES (?, ?, ?, ?, ?) "
+				+ "ON DUPLICATE KEY UPDATE hoursWorked = hoursWorked + VALUES(hoursWorked);";
+
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
+
+		// Always lock the buckets in the same order so concurrent imports cannot deadlock.
+		List<Map.Entry<DayBucket, Long>> entries = new ArrayList<Map.Entry<DayBucket, Long>>(hours.entrySet());
+		entries.sort((a, b) ->
+		{
+			int compare = a.getKey().businessTag.compareTo(b.getKey().businessTag);
+			compare = compare != 0 ? compare : Long.compare(a.getKey().startDay, b.getKey().startDay);
+			compare = compare != 0 ? compare : String.valueOf(a.getKey().owner).compareTo(String.valueOf(b.getKey().owner));
+			return compare != 0 ? compare : Long.compare(a.getKey().endDay, b.getKey().endDay);
+		});
+
+		for (Map.Entry<DayBucket, Long> entry : entries)
+		{
+			DayBucket bucket = entry.getKey();
+			int index = 1;
+
+			stmt.setString(index++, bucket.businessTag);
+			stmt.setObject(index++, bucket.owner);
+			stmt.setLong(index++, bucket.startDay);
+			stmt.setLong(index++, bucket.endDay);
+			stmt.setLong(index++, entry.getValue());
+
+			stmt.addBatch();
+		}
+
+		stmt.executeBatch();
+	}
+}
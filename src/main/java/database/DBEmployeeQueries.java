@@ -3,13 +3,19 @@
  */
 package database;
 
+import models.Account;
 import models.Employee;
+import models.ImportResult;
+import models.Password;
 
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 import exceptions.BadKeyException;
 import exceptions.DataAccessException;
@@ -22,6 +28,12 @@ import exceptions.DataAccessException;
  */
 public final class DBEmployeeQueries extends DBQueries 
 {	
+	/** Selects an employee along with the columns of its account. **/
+	private static final String EMPLOYEE_WITH_ACCOUNT_SELECT = 
+			"SELECT Employee.userName, Employee.businessTag, firstName, surName, parentUser, jobRole, "
+			+ "Account.userName AS accountUserName, Account.userPassword, Account.email "
+			+ "FROM Employee "
+			+ "LEFT JOIN Account ON Employee.userName = Account.userName AND Employee.businessTag = Account.businessTag ";
 	
 	/**
 	 * CLASS CONSTRUCTOR
@@ -80,6 +92,22 @@ public final class DBEmployeeQueries extends DBQueries
 	    }
 	}
 	
+	/**
+	 * Creates the given employees and their accounts in the datastore, a chunk at a time with
+	 * each chunk in its own transaction. If a chunk fails its employees are retried one at a time 
+	 * to find those at fault, the rest of the chunk is still stored.
+	 * 
+	 * @param employees - the employees to store, with their passwords hashed, by their position in the import.
+	 * @param result - receives the positions of the employees that failed.
+	 * @throws DataAccessException if a connection to the datastore cannot be made, earlier chunks remain stored.
+	 */
+	public void createEmployeeAccounts(Map<Integer, Employee> employees, ImportResult result)
+			throws DataAccessException
+	{
+		this.importInChunks(employees, DBEmployeeQueries::createEmployeeAccountsSQL, employee -> null, 
+				"Employee with given username already exists", result);
+	}
+	
 	/**
 	 * Returns an employee by its given userName. 
 	 * Returns null if no employee is found.
@@ -184,7 +212,7 @@ public final class DBEmployeeQueries extends DBQueries
 				+ "userName, firstName, surName, businessTag, parentUser, jobRole) "
 				+ "VALUES (?, ?, ?, ?, ?, ?);";
 		
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query);
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
 		
 		int index = 1;
 		
@@ -198,6 +226,48 @@ public final class DBEmployeeQueries extends DBQueries
 		stmt.executeUpdate();
 	}
 	
+	/**
+	 * Creates employees and their accounts in the database with one batch per table.
+	 * 
+	 * @param employees - the employees to create in the database.
+	 * @param queryRunner - the DB query runner.
+	 * @throws SQLException if the DB cannot be reached.
+	 * @throws SQLIntegrityConstraintViolationException if a key breaks the constraints of the DB.
+	 */
+	public static void createEmployeeAccountsSQL(List<Employee> employees, DBQueries queryRunner) 
+			throws SQLException, SQLIntegrityConstraintViolationException
+	{
+		List<Account> accounts = new ArrayList<Account>(employees.size());
+		
+		for (Employee employee : employees)
+		{
+			accounts.add(employee.getAccount());
+		}
+		DBAccountQueries.createAccountsSQL(accounts, queryRunner);
+		
+		String query = "INSERT INTO Employee("
+				+ "userName, firstName, surName, businessTag, parentUser, jobRole) "
+				+ "VALUES (?, ?, ?, ?, ?, ?);";
+		
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
+		
+		for (Employee employee : employees)
+		{
+			int index = 1;
+			
+			stmt.setString(index++, employee.getUserName());
+			stmt.setString(index++, employee.getFirstName());
+			stmt.setString(index++, employee.getSurName());
+			stmt.setString(index++, employee.getBusinessTag());
+			stmt.setString(index++, employee.hasParent() ? employee.getParentUserName() : null);
+			stmt.setString(index++, employee.getJobRole());
+			
+			stmt.addBatch();
+		}
+		
+		stmt.executeBatch();
+	}
+	
 	/**
 	 * Gets an employee from the database with the given userName and DB runner.
 	 * 
@@ -211,11 +281,11 @@ public final class DBEmployeeQueries extends DBQueries
 	{
 		Employee result = null;
 		
-		String query = "SELECT userName, firstName, surName, parentUser, jobRole "
-				+ "FROM Employee WHERE Employee.userName = ? AND Employee.businessTag = ? "
-				+ "ORDER BY userName ASC;";
+		String query = EMPLOYEE_WITH_ACCOUNT_SELECT
+				+ "WHERE Employee.userName = ? AND Employee.businessTag = ? "
+				+ "ORDER BY Employee.userName ASC;";
 		
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query);
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
 		int i = 1;
 		stmt.setString(i++, userName);
 		stmt.setString(i++, businessTag);
@@ -223,12 +293,7 @@ public final class DBEmployeeQueries extends DBQueries
 		queryRunner.resultSet = stmt.executeQuery();
 		while (queryRunner.resultSet.next())
 		{
-			result = new Employee(
-					new DBAccountQueries().getAccount(userName, businessTag),
-					queryRunner.resultSet.getString("firstName"),
-					queryRunner.resultSet.getString("surName"),
-					queryRunner.resultSet.getString("parentUser"),
-					queryRunner.resultSet.getString("jobRole"));
+			result = readEmployee(queryRunner.resultSet);
 		}
 		
 		return result;
@@ -246,23 +311,16 @@ public final class DBEmployeeQueries extends DBQueries
 	{
 		ArrayList<Employee> result = new ArrayList<Employee>();
 		
-		String query = "SELECT userName, firstName, surName, businessTag, parentUser, jobRole "
-				+ "FROM Employee WHERE Employee.businessTag = ? ORDER BY userName ASC;";
+		String query = EMPLOYEE_WITH_ACCOUNT_SELECT
+				+ "WHERE Employee.businessTag = ? ORDER BY Employee.userName ASC;";
 		
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query);
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
 		stmt.setString(1, businessTag);
 		
 		queryRunner.resultSet = stmt.executeQuery();
 		while (queryRunner.resultSet.next())
 		{
-			result.add(new Employee(
-					new DBAccountQueries().getAccount(
-							queryRunner.resultSet.getString("userName"),
-							queryRunner.resultSet.getString("businessTag")),
-					queryRunner.resultSet.getString("firstName"),
-					queryRunner.resultSet.getString("surName"),
-					queryRunner.resultSet.getString("parentUser"),
-					queryRunner.resultSet.getString("jobRole")));
+			result.add(readEmployee(queryRunner.resultSet));
 		}
 		
 		return result;
@@ -285,21 +343,22 @@ public final class DBEmployeeQueries extends DBQueries
 	{
 		Collection<Employee> result = new ArrayList<Employee>();
 		
-		String query = "SELECT Employee.userName, firstName, surName, Employee.businessTag, parentUser, jobRole, "
-			+ "SUM(WorkLog.endTime - WorkLog.startTime) as hoursWorked "
+		String query = "SELECT Employee.userName, Employee.businessTag, firstName, surName, parentUser, jobRole, "
+			+ "Account.userName AS accountUserName, Account.userPassword, Account.email, "
+			+ "HoursWorked.hoursWorked "
 			+ "FROM Employee "
-			+ "LEFT JOIN WorkLog ON Employee.userName = WorkLog.userName AND Employee.businessTag = WorkLog.businessTag "
-			+ "AND WorkLog.startTime >= ? AND WorkLog.endTime <= ? "
+			+ "LEFT JOIN Account ON Employee.userName = Account.userName AND Employee.businessTag = Account.businessTag "
+			+ "LEFT JOIN " + DBDailyHoursQueries.hoursWorkedTable("userName")
+			+ "ON Employee.userName = HoursWorked.userName "
 			+ "WHERE Employee.businessTag = ? "
-			+ "GROUP BY Employee.userName "
 			+ "ORDER BY hoursWorked DESC "
 			+ "LIMIT ? OFFSET ?;";
 		
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query);
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
 		int columnIndex = 1;
 		
-		stmt.setLong(columnIndex++, startTimeRange);
-		stmt.setLong(columnIndex++, endTimeRange);
+		columnIndex = DBDailyHoursQueries.setHoursWorkedRange(
+				stmt, columnIndex, businessTag, startTimeRange, endTimeRange);
 		stmt.setString(columnIndex++, businessTag);
 		stmt.setInt(columnIndex++, endRange - startRange);
 		stmt.setInt(columnIndex++, startRange);
@@ -307,17 +366,41 @@ public final class DBEmployeeQueries extends DBQueries
 		queryRunner.resultSet = stmt.executeQuery();
 		while (queryRunner.resultSet.next())
 		{
-			result.add(new Employee(
-					new DBAccountQueries().getAccount(
-							queryRunner.resultSet.getString("userName"),
-							queryRunner.resultSet.getString("businessTag")),
-					queryRunner.resultSet.getString("firstName"),
-					queryRunner.resultSet.getString("surName"),
-					queryRunner.resultSet.getString("parentUser"),
-					queryRunner.resultSet.getString("jobRole"),
-					queryRunner.resultSet.getInt("hoursWorked")));
+			Employee employee = readEmployee(queryRunner.resultSet);
+			employee.setHoursWorked(queryRunner.resultSet.getLong("hoursWorked"));
+			
+			result.add(employee);
 		}
 		
 		return result;
 	}
+	
+	/**
+	 * Builds an employee, along with its account, from the current row of a result set
+	 * that selects the columns of {@link #EMPLOYEE_WITH_ACCOUNT_SELECT}.
+	 * 
+	 * @param resultSet - the result set positioned on the row to read.
+	 * @return the employee on the current row.
+	 * @throws SQLException if the DB cannot be reached.
+	 */
+	private static Employee readEmployee(ResultSet resultSet) throws SQLException
+	{
+		Account account = null;
+		
+		if (resultSet.getString("accountUserName") != null)
+		{
+			account = new Account(
+					resultSet.getString("accountUserName"),
+					Password.fromHash(resultSet.getString("userPassword")),
+					resultSet.getString("businessTag"),
+					resultSet.getString("email"));
+		}
+		
+		return new Employee(
+				account,
+				resultSet.getString("firstName"),
+				resultSet.getString("surName"),
+				resultSet.getString("parentUser"),
+				resultSet.getString("jobRole"));
+	}
 }
@@ -9,7 +9,10 @@ import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import exceptions.BadKeyException;
 import exceptions.DataAccessException;
@@ -23,6 +26,8 @@ import models.Location;
  */
 public class DBLocationQueries extends DBQueries 
 {
+	/** The most owner ids to put in a single IN list. **/
+	private static final int MAX_IDS_PER_QUERY = 1000;
 
 	/**
 	 * CLASS CONSTRUCTOR
@@ -81,15 +86,56 @@ public class DBLocationQueries extends DBQueries
 		
 		String query = "INSERT INTO LocationOwner() VALUES ();";
 		
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query, PreparedStatement.RETURN_GENERATED_KEYS);
+		final PreparedStatement stmt = queryRunner.prepareStatement(query, PreparedStatement.RETURN_GENERATED_KEYS);
 		
 		stmt.executeUpdate();
 		
-		ResultSet resultSet = stmt.getGeneratedKeys();
-
-		if (resultSet.next()) 
+		try (ResultSet resultSet = stmt.getGeneratedKeys())
+		{
+			if (resultSet.next()) 
+			{
+			    result = resultSet.getInt(1);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Creates location owners in the database in one batch.
+	 * 
+	 * @param count - the number of location owners to create.
+	 * @param queryRunner - the DB query runner.
+	 * @return the keys of the created location owners.
+	 * @throws SQLException if the DB cannot be reached.
+	 * @throws SQLIntegrityConstraintViolationException if a key breaks the constraints of the DB.
+	 */
+	public static List<Integer> createLocationOwnersSQL(int count, DBQueries queryRunner) 
+			throws SQLException, SQLIntegrityConstraintViolationException
+	{
+		List<Integer> result = new ArrayList<Integer>();
+		
+		String query = "INSERT INTO LocationOwner() VALUES ();";
+		final PreparedStatement stmt = queryRunner.prepareStatement(query, PreparedStatement.RETURN_GENERATED_KEYS);
+		
+		for (int i = 0; i < count; i++)
 		{
-		    result = resultSet.getInt(1);
+			stmt.addBatch();
+		}
+		
+		stmt.executeBatch();
+		
+		try (ResultSet resultSet = stmt.getGeneratedKeys())
+		{
+			while (resultSet.next()) 
+			{
+			    result.add(resultSet.getInt(1));
+			}
+		}
+		
+		if (result.size() != count)
+		{
+			throw new SQLException("Created " + count + " location owners but " + result.size() + " keys were returned");
 		}
 		
 		return result;
@@ -109,7 +155,7 @@ public class DBLocationQueries extends DBQueries
 		List<Integer> result = new ArrayList<Integer>();
 		
 		String query = "INSERT INTO Location(postcode, description) VALUES (?, ?);";
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query, PreparedStatement.RETURN_GENERATED_KEYS);
+		final PreparedStatement stmt = queryRunner.prepareStatement(query, PreparedStatement.RETURN_GENERATED_KEYS);
 
 		for (Location location : locations)
 		{
@@ -123,11 +169,12 @@ public class DBLocationQueries extends DBQueries
 		
 		stmt.executeBatch();
 		
-		ResultSet resultSet = stmt.getGeneratedKeys();
-
-		while (resultSet.next()) 
+		try (ResultSet resultSet = stmt.getGeneratedKeys())
 		{
-		    result.add(resultSet.getInt(1));
+			while (resultSet.next()) 
+			{
+			    result.add(resultSet.getInt(1));
+			}
 		}
 
 		return result;
@@ -146,7 +193,7 @@ public class DBLocationQueries extends DBQueries
 			throws SQLException, SQLIntegrityConstraintViolationException
 	{		
 		String query = "INSERT INTO LocationOwnertoLocation(locationOwnerId, locationId) VALUES (?, ?);";
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query);
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
 
 		for (Integer locationId : locationIds)
 		{
@@ -161,6 +208,36 @@ public class DBLocationQueries extends DBQueries
 		stmt.executeBatch();
 	}
 	
+	/**
+	 * Creates the links between locations and owners in the database, pairing each 
+	 * location with the owner at the same position.
+	 * 
+	 * @param locationOwnerIds - The IDs of the owners of each location.
+	 * @param locationIds - The IDs of the locations.
+	 * @param queryRunner - the DB query runner.
+	 * @throws SQLException if the DB cannot be reached.
+	 * @throws SQLIntegrityConstraintViolationException if a key breaks the constraints of the DB.
+	 */
+	public static void createLocationOwnerToLocationsSQL(List<Integer> locationOwnerIds, List<Integer> locationIds, 
+			DBQueries queryRunner) 
+			throws SQLException, SQLIntegrityConstraintViolationException
+	{		
+		String query = "INSERT INTO LocationOwnertoLocation(locationOwnerId, locationId) VALUES (?, ?);";
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
+
+		for (int i = 0; i < locationIds.size(); i++)
+		{
+			int index = 1;
+			
+			stmt.setInt(index++, locationOwnerIds.get(i));
+			stmt.setInt(index++, locationIds.get(i));
+			
+			stmt.addBatch();
+		}
+		
+		stmt.executeBatch();
+	}
+	
 	/**
 	 * Get the locations for an owner id.
 	 * 
@@ -180,7 +257,7 @@ public class DBLocationQueries extends DBQueries
 				+ "LEFT JOIN LocationOwner ON LocationOwnertoLocation.locationOwnerId = LocationOwner.locationOwnerId "
 				+ "WHERE LocationOwner.locationOwnerId = ? ORDER BY postcode ASC;";
 		
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query);
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
 		int index = 1;
 		
 		stmt.setInt(index, locationOwnerId);
@@ -194,6 +271,77 @@ public class DBLocationQueries extends DBQueries
 		    		resultSet.getString("description")));
 		}
 		
+		resultSet.close();
+		
+		return result;
+	}
+	
+	/**
+	 * Get the locations for many owner ids at once, the ids are queried in batches
+	 * rather than one statement per owner.
+	 * 
+	 * @param locationOwnerIds - the owners to locate.
+	 * @param queryRunner - the DB query runner.
+	 * @return the locations of each owner keyed by owner id, owners without locations are not present.
+	 * @throws SQLException if the DB cannot be reached.
+	 * @throws SQLIntegrityConstraintViolationException if a key breaks the constraints of the DB.
+	 */
+	public static Map<Integer, List<Location>> getLocationsForIdsSQL(Collection<Integer> locationOwnerIds, 
+			DBQueries queryRunner) throws SQLException, SQLIntegrityConstraintViolationException
+	{
+		Map<Integer, List<Location>> result = new HashMap<Integer, List<Location>>();
+		
+		Iterator<Integer> ids = locationOwnerIds.iterator();
+		
+		while (ids.hasNext())
+		{
+			List<Integer> batch = new ArrayList<Integer>();
+			
+			while (ids.hasNext() && batch.size() < MAX_IDS_PER_QUERY)
+			{
+				batch.add(ids.next());
+			}
+			
+			StringBuilder query = new StringBuilder("SELECT LocationOwnertoLocation.locationOwnerId, postcode, description "
+					+ "FROM Location "
+					+ "JOIN LocationOwnertoLocation ON Location.locationId = LocationOwnertoLocation.locationId "
+					+ "WHERE LocationOwnertoLocation.locationOwnerId IN (?");
+			
+			for (int i = 1; i < batch.size(); i++)
+			{
+				query.append(", ?");
+			}
+			query.append(") ORDER BY postcode ASC;");
+			
+			final PreparedStatement stmt = queryRunner.prepareStatement(query.toString());
+			int index = 1;
+			
+			for (Integer locationOwnerId : batch)
+			{
+				stmt.setInt(index++, locationOwnerId);
+			}
+			
+			ResultSet resultSet = stmt.executeQuery();
+			
+			while (resultSet.next()) 
+			{
+				int locationOwnerId = resultSet.getInt("locationOwnerId");
+				List<Location> locations = result.get(locationOwnerId);
+				
+				if (locations == null)
+				{
+					locations = new ArrayList<Location>();
+					result.put(locationOwnerId, locations);
+				}
+				
+			    locations.add(new Location(
+			    		resultSet.getString("postcode"),
+			    		resultSet.getString("description")));
+			}
+			
+			resultSet.close();
+		}
+		
 		return result;
 	}
 }
@@ -4,16 +4,27 @@
 package database;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 
 import org.apache.log4j.Logger;
 
 import exceptions.BadKeyException;
 import exceptions.DataAccessException;
+import models.ImportResult;
 
 /**
+ * The connection is taken when the first statement is prepared. Reads made outside
+ * of a transaction may be served by a read replica, everything else uses the primary.
+ * 
  * @author Lawrence
  *
  */
@@ -22,12 +33,42 @@ public class DBQueries {
 	/** Logger **/
 	private final static Logger logger = Logger.getLogger(DBQueries.class);
 	
-	/** The connection to the DB **/
-	protected final Connection connection;
+	/** The number of items stored in each transaction of an import **/
+	public static final int IMPORT_CHUNK_SIZE = DatabasePool.getInt("db.import.chunkSize");
+	
+	/**
+	 * Stores a chunk of an import.
+	 * 
+	 * @param <T> the type of item imported.
+	 */
+	protected interface ChunkWriter<T>
+	{
+		/**
+		 * @param chunk - the items to store.
+		 * @param queryRunner - the DB query runner.
+		 * @throws SQLException if the DB cannot be reached or a key breaks the constraints of the DB.
+		 */
+		void write(List<T> chunk, DBQueries queryRunner) throws SQLException;
+	}
+	
+	/** The connection to the DB, null until the first statement is prepared **/
+	private Connection connection;
 	
 	/** The resultSet from the query **/
 	protected ResultSet resultSet;
 	
+	/** The statements prepared on the connection **/
+	private StatementRegistry statements;
+	
+	/** Whether autocommit is on for the connection **/
+	private boolean autoCommit = true;
+	
+	/** Whether the connection is to a read replica **/
+	private boolean readOnly = false;
+	
+	/** Whether a statement that writes has been prepared **/
+	private boolean wrote = false;
+	
 	/**
 	 * CLASS CONSTRUCTOR
 	 * 
@@ -35,18 +76,217 @@ public class DBQueries {
 	 */
 	public DBQueries() throws DataAccessException
 	{
-    	try 
-    	{
-			this.connection = DatabasePool.getConnection();
+		this.connection = null;
+		this.statements = null;
+		this.resultSet = null;
+	}
+	
+	/**
+	 * Whether reads made outside of a transaction may be served by a read replica.
+	 * Queries whose reads must always see the latest writes should return false.
+	 * 
+	 * @return true if reads may use the replica.
+	 */
+	protected boolean allowsReplicaReads()
+	{
+		return true;
+	}
+	
+	/**
+	 * Takes a connection from the pool if one is not already held.
+	 * 
+	 * @param read - whether the first statement only reads.
+	 * @throws SQLException if no connections available.
+	 */
+	private void connect(boolean read) throws SQLException
+	{
+		if (this.connection == null)
+		{
+			try 
+			{
+				if (read && this.autoCommit && this.allowsReplicaReads())
+				{
+					this.connection = DatabasePool.getReadConnection();
+				}
+				else
+				{
+					this.connection = DatabasePool.getConnection();
+				}
+			} 
+			catch (SQLException e) 
+			{
+				logger.error("Failed to get a connection to the database" + e);
+				throw e;
+			}
+			this.statements = new StatementRegistry(this.connection);
+			this.readOnly = !isPrimary(this.connection);
+		}
+	}
+	
+	/**
+	 * Returns the statement registry of the connection, taking the connection if needed.
+	 * 
+	 * @param query - the SQL of the statement that will be prepared.
+	 * @return the registry.
+	 * @throws SQLException if no connections available or the query writes to a replica.
+	 */
+	private StatementRegistry statementsFor(String query) throws SQLException
+	{
+		boolean read = isRead(query);
+		this.connect(read);
+		
+		if (!read)
+		{
+			if (this.readOnly)
+			{
+				throw new SQLException("Tried to write to a read replica: " + query);
+			}
+			this.wrote = true;
+		}
+		return this.statements;
+	}
+	
+	/**
+	 * @param query - the SQL of a statement.
+	 * @return true if the statement only reads.
+	 */
+	private static boolean isRead(String query)
+	{
+		String trimmed = query.trim();
+		return trimmed.regionMatches(true, 0, "SELECT", 0, 6);
+	}
+	
+	/**
+	 * @param connection - a connection from the pool.
+	 * @return true if the connection was taken from the primary pool.
+	 */
+	private static boolean isPrimary(Connection connection)
+	{
+		ReplicaRouter router = DatabasePool.getRouter();
+		return router == null || !router.getPool().owns(connection);
+	}
+	
+	/**
+	 * Returns a prepared statement for the query on this connection. The statement
+	 * is reused if the query has already been prepared and is closed when the connection is.
+	 * Callers should not close the statement themselves.
+	 * 
+	 * @param query - the SQL of the statement.
+	 * @return the prepared statement.
+	 * @throws SQLException if the statement cannot be prepared.
+	 */
+	protected PreparedStatement prepareStatement(String query) throws SQLException
+	{
+		return this.statementsFor(query).prepare(query, Statement.NO_GENERATED_KEYS);
+	}
+	
+	/**
+	 * Returns a prepared statement for the query on this connection. The statement
+	 * is reused if the query has already been prepared and is closed when the connection is.
+	 * Callers should not close the statement themselves.
+	 * 
+	 * @param query - the SQL of the statement.
+	 * @param autoGeneratedKeys - whether generated keys should be returned.
+	 * @return the prepared statement.
+	 * @throws SQLException if the statement cannot be prepared.
+	 */
+	protected PreparedStatement prepareStatement(String query, int autoGeneratedKeys) throws SQLException
+	{
+		return this.statementsFor(query).prepare(query, autoGeneratedKeys);
+	}
+	
+	/**
+	 * Stores the items of an import a chunk at a time, with each chunk in its own transaction.
+	 * If a chunk fails its items are retried one at a time to find those that break a constraint,
+	 * the rest of the chunk is still stored. Closes the connection when done.
+	 * 
+	 * @param <T> the type of item imported.
+	 * @param items - the items to store, by their position in the import.
+	 * @param writer - stores a chunk of items.
+	 * @param idOf - the id of a stored item, or null if it has none to report.
+	 * @param rejectedMessage - the failure reported for an item that breaks a constraint.
+	 * @param result - receives the ids of the stored items and the positions of those that failed.
+	 * @throws DataAccessException when the datastore cannot be reached, earlier chunks remain stored.
+	 */
+	protected <T> void importInChunks(Map<Integer, T> items, ChunkWriter<T> writer, Function<T, Integer> idOf,
+			String rejectedMessage, ImportResult result) throws DataAccessException
+	{
+		List<Map.Entry<Integer, T>> entries = new ArrayList<Map.Entry<Integer, T>>(items.entrySet());
+		
+		try
+		{
+			this.setAutoCommit(false);
 			
-			this.resultSet = null;
-		} 
-    	catch (SQLException e) 
-    	{
-    		logger.error("Failed to get a connection to the database" + e);
-    		throw new DataAccessException ("Failed to get a connection"
-    				+ " to the database.", e);
-    	}
+			for (int from = 0; from < entries.size(); from += IMPORT_CHUNK_SIZE)
+			{
+				List<Map.Entry<Integer, T>> chunk = 
+						entries.subList(from, Math.min(from + IMPORT_CHUNK_SIZE, entries.size()));
+				List<T> chunkItems = new ArrayList<T>(chunk.size());
+				
+				for (Map.Entry<Integer, T> entry : chunk)
+				{
+					chunkItems.add(entry.getValue());
+				}
+				
+				try
+				{
+					writer.write(chunkItems, this);
+					this.commit();
+					
+					for (T item : chunkItems)
+					{
+						addId(result, idOf.apply(item));
+					}
+				}
+				catch (SQLException e)
+				{
+					this.rollback();
+					logger.warn("Failed to import a chunk, storing its items one at a time", e);
+					
+					for (Map.Entry<Integer, T> entry : chunk)
+					{
+						try
+						{
+							writer.write(Collections.singletonList(entry.getValue()), this);
+							this.commit();
+							addId(result, idOf.apply(entry.getValue()));
+						}
+						catch (SQLException itemException)
+						{
+							this.rollback();
+							
+							if (!isConstraintViolation(itemException))
+							{
+								throw itemException;
+							}
+							result.addFailure(entry.getKey(), rejectedMessage);
+						}
+					}
+				}
+			}
+		}
+		catch (SQLException e)
+		{
+			this.handleSQLException(e);
+		}
+	    finally
+	    {
+	    	this.setAutoCommit(true);
+	    	this.closeResultSet();
+	    	this.closeConnection();
+	    }
+	}
+	
+	/**
+	 * @param result - the result of an import.
+	 * @param id - the id of a stored item, or null if it has none to report.
+	 */
+	private static void addId(ImportResult result, Integer id)
+	{
+		if (id != null)
+		{
+			result.addId(id);
+		}
 	}
 	
 	/**
@@ -75,6 +315,30 @@ public class DBQueries {
 		throw new BadKeyException ("Tried to insert a primary or foreign key that does not abide to constraints.", e);
 	}
 	
+	/**
+	 * Whether an exception, or one chained to it, was caused by breaking a constraint
+	 * of the DB. Batches report the failures of their statements as chained exceptions.
+	 * 
+	 * @param e the exception thrown.
+	 * @return true if a constraint was broken.
+	 */
+	protected static boolean isConstraintViolation(SQLException e)
+	{
+		for (Throwable cause = e; cause != null; cause = cause.getCause())
+		{
+			for (SQLException next = cause instanceof SQLException ? (SQLException) cause : null; 
+					next != null; next = next.getNextException())
+			{
+				if (next instanceof SQLIntegrityConstraintViolationException
+						|| (next.getSQLState() != null && next.getSQLState().startsWith("23")))
+				{
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
 	/**
 	 * Turn the autocommit function on and off.
 	 * 
@@ -82,9 +346,19 @@ public class DBQueries {
 	 */
 	protected void setAutoCommit(boolean toggle)
 	{
+		this.autoCommit = toggle;
+		
     	try 
     	{
-			this.connection.setAutoCommit(toggle);
+    		if (!toggle)
+    		{
+    			// Transactions always run on the primary.
+    			this.connect(false);
+    		}
+    		if (this.connection != null)
+    		{
+    			this.connection.setAutoCommit(toggle);
+    		}
 		} 
     	catch (SQLException e)
     	{
@@ -110,7 +384,7 @@ public class DBQueries {
 	{
 		try 
 		{
-			if (this.connection.getAutoCommit())
+			if (this.connection == null || this.connection.getAutoCommit())
 			{
 				logger.error("Tried to commit a transaction with autocommit enabled.");
 			}
@@ -134,7 +408,7 @@ public class DBQueries {
 	{
 		try 
 		{
-			if (this.connection.getAutoCommit())
+			if (this.connection == null || this.connection.getAutoCommit())
 			{
 				logger.error("Tried to rollback a transaction with autocommit enabled.");
 			}
@@ -168,10 +442,16 @@ public class DBQueries {
     }
 	
 	/**
-	 * Close the database connection.
+	 * Close the prepared statements and the database connection.
 	 */
 	protected void closeConnection()
 	{
+		if (this.connection == null)
+		{
+			return;
+		}
+		this.statements.closeAll();
+		
 		try 
 		{
 			this.connection.close();
@@ -180,5 +460,11 @@ public class DBQueries {
 		{
 			logger.error("Database elements failed to close, resources may be leaking.", e);
 		}
+		
+		// After the connection is returned, sharing the write may take another.
+		if (this.wrote)
+		{
+			DatabasePool.recordWrite();
+		}
 	}
 }
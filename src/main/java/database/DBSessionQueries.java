@@ -0,0 +1,513 @@
+/**
+ *
+ */
+package database;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import exceptions.BadKeyException;
+import exceptions.DataAccessException;
+import models.Account;
+import models.Password;
+
+/**
+ * Class to contain the queries of the sessions, and of the revocations of signed tokens, shared
+ * by every replica of the API, see sql/session.sql. Each instance should only be used once.
+ *
+ * @author Lawrence
+ */
+public class DBSessionQueries extends DBQueries
+{
+	/**
+	 * A session read from the datastore with the account it belongs to.
+	 */
+	public static final class Session
+	{
+		/** The account logged in. **/
+		private final Account account;
+
+		/** The last time the session was used, as last written back. **/
+		private final long lastUsed;
+
+		/**
+		 * CLASS CONSTRUCTOR
+		 *
+		 * @param account - the account logged in.
+		 * @param lastUsed - the last time the session was used.
+		 */
+		private Session(Account account, long lastUsed)
+		{
+			this.account = account;
+			this.lastUsed = lastUsed;
+		}
+
+		/**
+		 * @return the account logged in.
+		 */
+		public Account getAccount()
+		{
+			return this.account;
+		}
+
+		/**
+		 * @return the last time the session was used.
+		 */
+		public long getLastUsed()
+		{
+			return this.lastUsed;
+		}
+	}
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 *
+	 * @throws DataAccessException
+	 */
+	public DBSessionQueries() throws DataAccessException
+	{
+		super();
+	}
+
+	/**
+	 * Sessions are read on other replicas as soon as they are created, so must be read from the primary.
+	 */
+	@Override
+	protected boolean allowsReplicaReads()
+	{
+		return false;
+	}
+
+	/**
+	 * Creates a session for an account.
+	 *
+	 * @param token - the token of the session.
+	 * @param account - the account logged in.
+	 * @param lastUsed - the time the session was created.
+	 * @throws BadKeyException - The token is already used or the account does not exist.
+	 * @throws DataAccessException - The datastore cannot be reached.
+	 */
+	public void createSession(String token, Account account, long lastUsed)
+			throws BadKeyException, DataAccessException
+	{
+		try
+		{
+			String query = "INSERT INTO Session(token, userName, businessTag, lastUsed) VALUES (?, ?, ?, ?);";
+
+			final PreparedStatement stmt = this.prepareStatement(query);
+
+			int index = 1;
+			stmt.setString(index++, token);
+			stmt.setString(index++, account.getUserName());
+			stmt.setString(index++, account.getBusinessTag());
+			stmt.setLong(index++, lastUsed);
+
+			stmt.executeUpdate();
+		}
+		catch (SQLIntegrityConstraintViolationException e)
+		{
+			this.handleIntegrityConstaitViolation(e);
+		}
+		catch (SQLException e)
+		{
+			this.handleSQLException(e);
+		}
+		finally
+		{
+			this.closeConnection();
+		}
+	}
+
+	/**
+	 * Returns a session and its account by the token of the session.
+	 *
+	 * @param token - the token of the session.
+	 * @return the session, or null if there is no session with the token.
+	 * @throws DataAccessException - The datastore cannot be reached.
+	 */
+	public Session getSession(String token) throws DataAccessException
+	{
+		Session result = null;
+
+		try
+		{
+			String query = "SELECT Session.lastUsed, Account.userName, Account.userPassword, "
+					+ "Account.businessTag, Account.email "
+					+ "FROM Session JOIN Account ON Account.userName = Session.userName "
+					+ "AND Account.businessTag = Session.businessTag "
+					+ "WHERE Session.token = ?;";
+
+			final PreparedStatement stmt = this.prepareStatement(query);
+			stmt.setString(1, token);
+
+			this.resultSet = stmt.executeQuery();
+			if (this.resultSet.next())
+			{
+				result = new Session(new Account(
+						this.resultSet.getString("userName"),
+						Password.fromHash(this.resultSet.getString("userPassword")),
+						this.resultSet.getString("businessTag"),
+						this.resultSet.getString("email")),
+						this.resultSet.getLong("lastUsed"));
+			}
+		}
+		catch (SQLException e)
+		{
+			this.handleSQLException(e);
+		}
+		finally
+		{
+			this.closeResultSet();
+			this.closeConnection();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the sessions of an account used since the given time.
+	 *
+	 * @param userName - the user of the account.
+	 * @param businessTag - the business of the account.
+	 * @param since - the earliest last used time of the sessions.
+	 * @return the last time each session was used by its token.
+	 * @throws DataAccessException - The datastore cannot be reached.
+	 */
+	public Map<String, Long> getSessions(String userName, String businessTag, long since)
+			throws DataAccessException
+	{
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+
+		try
+		{
+			String query = "SELECT token, lastUsed FROM Session "
+					+ "WHERE businessTag = ? AND userName = ? AND lastUsed >= ? ORDER BY lastUsed DESC;";
+
+			final PreparedStatement stmt = this.prepareStatement(query);
+
+			int index = 1;
+			stmt.setString(index++, businessTag);
+			stmt.setString(index++, userName);
+			stmt.setLong(index++, since);
+
+			this.resultSet = stmt.executeQuery();
+			while (this.resultSet.next())
+			{
+				result.put(this.resultSet.getString("token"), this.resultSet.getLong("lastUsed"));
+			}
+		}
+		catch (SQLException e)
+		{
+			this.handleSQLException(e);
+		}
+		finally
+		{
+			this.closeResultSet();
+			this.closeConnection();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Writes back the last time each session was used, in one batch. A session is never
+	 * moved back in time, another replica may have written a later use.
+	 *
+	 * @param lastUsed - the last time each session was used by its token.
+	 * @throws DataAccessException - The datastore cannot be reached.
+	 */
+	public void touchSessions(Map<String, Long> lastUsed) throws DataAccessException
+	{
+		if (lastUsed.isEmpty())
+		{
+			this.closeConnection();
+			return;
+		}
+
+		try
+		{
+			String query = "UPDATE Session SET lastUsed = GREATEST(lastUsed, ?) WHERE token = ?;";
+
+			final PreparedStatement stmt = this.prepareStatement(query);
+
+			// Always lock the sessions in the same order so replicas writing back at once cannot deadlock.
+			List<String> tokens = new ArrayList<String>(lastUsed.keySet());
+			tokens.sort(null);
+
+			for (String token : tokens)
+			{
+				stmt.setLong(1, lastUsed.get(token));
+				stmt.setString(2, token);
+				stmt.addBatch();
+			}
+
+			stmt.executeBatch();
+		}
+		catch (SQLException e)
+		{
+			this.handleSQLException(e);
+		}
+		finally
+		{
+			this.closeConnection();
+		}
+	}
+
+	/**
+	 * Deletes a session.
+	 *
+	 * @param token - the token of the session.
+	 * @param userName - the user the session must belong to, null for any.
+	 * @param businessTag - the business the session must belong to, null for any.
+	 * @return whether there was a session to delete.
+	 * @throws DataAccessException - The datastore cannot be reached.
+	 */
+	public boolean deleteSession(String token, String userName, String businessTag) throws DataAccessException
+	{
+		int result = 0;
+
+		try
+		{
+			String query = userName == null
+					? "DELETE FROM Session WHERE token = ?;"
+					: "DELETE FROM Session WHERE token = ? AND userName = ? AND businessTag = ?;";
+
+			final PreparedStatement stmt = this.prepareStatement(query);
+
+			int index = 1;
+			stmt.setString(index++, token);
+			if (userName != null)
+			{
+				stmt.setString(index++, userName);
+				stmt.setString(index++, businessTag);
+			}
+
+			result = stmt.executeUpdate();
+		}
+		catch (SQLException e)
+		{
+			this.handleSQLException(e);
+		}
+		finally
+		{
+			this.closeConnection();
+		}
+
+		return result > 0;
+	}
+
+	/**
+	 * Deletes every session of an account.
+	 *
+	 * @param userName - the user of the account.
+	 * @param businessTag - the business of the account.
+	 * @return the number of sessions deleted.
+	 * @throws DataAccessException - The datastore cannot be reached.
+	 */
+	public int deleteSessions(String userName, String businessTag) throws DataAccessException
+	{
+		int result = 0;
+
+		try
+		{
+			String query = "DELETE FROM Session WHERE businessTag = ? AND userName = ?;";
+
+			final PreparedStatement stmt = this.prepareStatement(query);
+
+			int index = 1;
+			stmt.setString(index++, businessTag);
+			stmt.setString(index++, userName);
+
+			result = stmt.executeUpdate();
+		}
+		catch (SQLException e)
+		{
+			this.handleSQLException(e);
+		}
+		finally
+		{
+			this.closeConnection();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Deletes the sessions that have not been used since the given time.
+	 *
+	 * @param before - the last used time before which sessions have timed out.
+	 * @return the number of sessions deleted.
+	 * @throws DataAccessException - The datastore cannot be reached.
+	 */
+	public int deleteExpiredSessions(long before) throws DataAccessException
+	{
+		int result = 0;
+
+		try
+		{
+			final PreparedStatement stmt = this.prepareStatement("DELETE FROM Session WHERE lastUsed < ?;");
+			stmt.setLong(1, before);
+
+			result = stmt.executeUpdate();
+		}
+		catch (SQLException e)
+		{
+			this.handleSQLException(e);
+		}
+		finally
+		{
+			this.closeConnection();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Records that a signed token has been redeemed or revoked, unless it already has been.
+	 *
+	 * @param tokenId - the id of the token.
+	 * @param expires - when the last token with the id expires, the record is kept until then.
+	 * @return whether the token was recorded, false if it had been redeemed or revoked already.
+	 * @throws DataAccessException - The datastore cannot be reached.
+	 */
+	public boolean revokeToken(long tokenId, long expires) throws DataAccessException
+	{
+		boolean result = false;
+
+		try
+		{
+			final PreparedStatement stmt = this.prepareStatement(
+					"INSERT INTO RevokedToken(tokenId, expires) VALUES (?, ?);");
+			stmt.setLong(1, tokenId);
+			stmt.setLong(2, expires);
+
+			result = stmt.executeUpdate() > 0;
+		}
+		catch (SQLException e)
+		{
+			// The id is the key, so only a token already recorded breaks a constraint.
+			if (!isConstraintViolation(e))
+			{
+				this.handleSQLException(e);
+			}
+		}
+		finally
+		{
+			this.closeConnection();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Records when an account logged out everywhere, signed tokens issued to it before then are not valid.
+	 *
+	 * @param userName - the user of the account.
+	 * @param businessTag - the business of the account.
+	 * @param loggedOut - when the account logged out.
+	 * @throws DataAccessException - The datastore cannot be reached.
+	 */
+	public void logoutAccount(String userName, String businessTag, long loggedOut) throws DataAccessException
+	{
+		try
+		{
+			String query = "INSERT INTO AccountLogout(userName, businessTag, loggedOut) VALUES (?, ?, ?) "
+					+ "ON DUPLICATE KEY UPDATE loggedOut = GREATEST(loggedOut, VALUES(loggedOut));";
+
+			final PreparedStatement stmt = this.prepareStatement(query);
+
+			int index = 1;
+			stmt.setString(index++, userName);
+			stmt.setString(index++, businessTag);
+			stmt.setLong(index++, loggedOut);
+
+			stmt.executeUpdate();
+		}
+		catch (SQLException e)
+		{
+			this.handleSQLException(e);
+		}
+		finally
+		{
+			this.closeConnection();
+		}
+	}
+
+	/**
+	 * Returns when an account last logged out everywhere.
+	 *
+	 * @param userName - the user of the account.
+	 * @param businessTag - the business of the account.
+	 * @return the time, or -1 if it has not logged out everywhere since the record was deleted.
+	 * @throws DataAccessException - The datastore cannot be reached.
+	 */
+	public long getLoggedOut(String userName, String businessTag) throws DataAccessException
+	{
+		long result = -1;
+
+		try
+		{
+			final PreparedStatement stmt = this.prepareStatement(
+					"SELECT loggedOut FROM AccountLogout WHERE businessTag = ? AND userName = ?;");
+			stmt.setString(1, businessTag);
+			stmt.setString(2, userName);
+
+			this.resultSet = stmt.executeQuery();
+			if (this.resultSet.next())
+			{
+				result = this.resultSet.getLong("loggedOut");
+			}
+		}
+		catch (SQLException e)
+		{
+			this.handleSQLException(e);
+		}
+		finally
+		{
+			this.closeResultSet();
+			this.closeConnection();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Deletes the records of revoked tokens that have expired and of accounts that logged out
+	 * long enough ago that every token issued before then has expired.
+	 *
+	 * @param now - the current time.
+	 * @param loggedOutBefore - the time before which the logouts no longer apply to any token.
+	 * @return the number of records deleted.
+	 * @throws DataAccessException - The datastore cannot be reached.
+	 */
+	public int deleteExpiredRevocations(long now, long loggedOutBefore) throws DataAccessException
+	{
+		int result = 0;
+
+		try
+		{
+			PreparedStatement stmt = this.prepareStatement("DELETE FROM RevokedToken WHERE expires < ?;");
+			stmt.setLong(1, now);
+			result += stmt.executeUpdate();
+
+			stmt = this.prepareStatement("DELETE FROM AccountLogout WHERE loggedOut < ?;");
+			stmt.setLong(1, loggedOutBefore);
+			result += stmt.executeUpdate();
+		}
+		catch (SQLException e)
+		{
+			this.handleSQLException(e);
+		}
+		finally
+		{
+			this.closeConnection();
+		}
+
+		return result;
+	}
+}
@@ -3,17 +3,23 @@
  */
 package database;
 
+import java.io.IOException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import exceptions.BadKeyException;
 import exceptions.DataAccessException;
+import models.ImportResult;
 import models.Location;
 import models.WorkLog;
 
@@ -25,6 +31,57 @@ import models.WorkLog;
  */
 public class DBWorkLogQueries extends DBQueries {
 	
+	/**
+	 * Receives the worklogs of a query one at a time as they are read.
+	 */
+	public interface WorkLogConsumer
+	{
+		/**
+		 * @param workLog - the next worklog read.
+		 * @throws IOException if the worklog cannot be passed on.
+		 */
+		void accept(WorkLog workLog) throws IOException;
+	}
+	
+	/**
+	 * Receives the times of worklogs one at a time as they are read, used to fill the {@link WorkLogIndex}.
+	 */
+	public interface WorkLogTimesConsumer
+	{
+		/**
+		 * @param workLogId - the id of the worklog.
+		 * @param businessTag - the business of the worklog.
+		 * @param userName - the employee of the worklog.
+		 * @param startTime - the start time of the worklog.
+		 * @param endTime - the end time of the worklog.
+		 */
+		void accept(int workLogId, String businessTag, String userName, long startTime, long endTime);
+	}
+	
+	/** The number of rows the driver reads from the database at a time when streaming. **/
+	private static final int STREAM_FETCH_SIZE = DatabasePool.getInt("db.stream.fetchSize");
+	
+	/** The ids read by each statement of {@link #readWorkLogTimes(int[], WorkLogTimesConsumer)} **/
+	private static final int ID_BATCH_SIZE = 100;
+	
+	/** The ids read by the statement of {@link #getWorkLogsSQL(int[], DBQueries)} when only a few are missing. **/
+	private static final int SMALL_ID_BATCH_SIZE = 10;
+	
+	/** The columns of a worklog along with its location. **/
+	private static final String WORKLOG_WITH_LOCATION_COLUMNS = 
+			"SELECT WorkLog.workLogId, WorkLog.userName, WorkLog.businessTag, WorkLog.clientId, "
+			+ "WorkLog.startTime, WorkLog.endTime, WorkLog.description, "
+			+ "Location.locationId, Location.postcode, Location.description AS locationDescription ";
+	
+	/** Joins a worklog to its location, if it has one. **/
+	private static final String LOCATION_JOIN = 
+			"LEFT JOIN LocationOwnertoLocation ON WorkLog.locationOwnerId = LocationOwnertoLocation.locationOwnerId "
+			+ "LEFT JOIN Location ON LocationOwnertoLocation.locationId = Location.locationId ";
+	
+	/** Selects a worklog along with its location, if it has one. **/
+	private static final String WORKLOG_WITH_LOCATION_SELECT = 
+			WORKLOG_WITH_LOCATION_COLUMNS + "FROM WorkLog " + LOCATION_JOIN;
+	
 	/**
 	 * CLASS CONSTRUCTOR
 	 * 
@@ -57,6 +114,7 @@ public class DBWorkLogQueries extends DBQueries {
 			}
 
 	    	this.commit();
+	    	WorkLogIndex.added(Collections.singleton(workLog));
 		}
 	    catch (SQLIntegrityConstraintViolationException e)
 	    {
@@ -77,34 +135,65 @@ public class DBWorkLogQueries extends DBQueries {
 	}
 	
 	/**
-	 * Returns all worklogs in a time range by an employee. 
+	 * Creates the given worklogs in the datastore, a chunk at a time with each chunk in its own
+	 * transaction. If a chunk fails its worklogs are retried one at a time to find those at fault,
+	 * the rest of the chunk is still stored.
+	 * 
+	 * @param workLogs - The worklogs to store, by their position in the import.
+	 * @param result - Receives the ids of the stored worklogs and the positions of those that failed.
+	 * @throws DataAccessException - The datastore cannot be reached, earlier chunks remain stored.
+	 */
+	public void createWorkLogs(Map<Integer, WorkLog> workLogs, ImportResult result)
+			throws DataAccessException
+	{
+		this.importInChunks(workLogs, DBWorkLogQueries::createWorkLogsSQL, WorkLog::getWorkLogId, 
+				"Client or employee does not correspond to existing records", result);
+		
+		// A worklog that failed keeps any id given to it by a rolled back chunk.
+		Set<Integer> stored = new HashSet<Integer>(result.getIds());
+		List<WorkLog> created = new ArrayList<WorkLog>();
+		
+		for (WorkLog workLog : workLogs.values())
+		{
+			if (stored.contains(workLog.getWorkLogId()))
+			{
+				created.add(workLog);
+			}
+		}
+		WorkLogIndex.added(created);
+	}
+	
+	/**
+	 * Returns a page of the worklogs in a time range by an employee, newest first. 
 	 * 
 	 * @param businessTag - The business to find the worklogs for.
 	 * @param employee - The employee of the worklogs to find.
 	 * @param startTime - The time to start searching from.
 	 * @param endTime - The time to end searching from.
+	 * @param after - The last worklog of the previous page, null for the first page.
+	 * @param limit - The most worklogs to return.
 	 * @return The requested worklog.
 	 * @throws DataAccessException If a connection cannot be made to the store.
 	 */
-	public ArrayList<WorkLog> getAllWorkLogsForTimeRangeAndEmployee(String userName, String businessTag, long startTime, long endTime) 
+	public ArrayList<WorkLog> getAllWorkLogsForTimeRangeAndEmployee(String userName, String businessTag, 
+			long startTime, long endTime, WorkLogCursor after, int limit) 
 			throws DataAccessException
 	{
 		ArrayList<WorkLog> result = new ArrayList<WorkLog>();
 		
 	    try
 	    {		
-	    	result = getAllWorkLogsForTimeRangeAndEmployeeSQL(userName, businessTag, startTime, endTime, this);
+	    	int[] workLogIds = WorkLogIndex.find(businessTag, userName, startTime, endTime, after, limit);
 	    	
-	    	for (WorkLog workLog : result)
+	    	if (workLogIds != null)
 	    	{
-	    		Iterator<Location> location = DBLocationQueries.getLocationsForIdSQL(
-		    			DBWorkLogQueries.getWorkLogLocationOwnerIdSQL(workLog, this), this)
-		    			.iterator();
-	    		
-	    		if (location.hasNext())
-	    		{
-	    			workLog.setLocation(location.next());
-	    		}
+	    		result = getWorkLogsSQL(workLogIds, this);
+	    	}
+	    	
+	    	if (!WorkLogIndex.isComplete(workLogIds, result))
+	    	{
+	    		this.closeResultSet();
+	    		result = getAllWorkLogsForTimeRangeAndEmployeeSQL(userName, businessTag, startTime, endTime, after, limit, this);
 	    	}
 		} 
 	    catch (SQLException e) 
@@ -121,33 +210,35 @@ public class DBWorkLogQueries extends DBQueries {
 	}
 	
 	/**
-	 * Returns all worklogs in a time range. 
+	 * Returns a page of the worklogs in a time range, newest first. 
 	 * 
 	 * @param businessTag - The business to find the worklogs for.
 	 * @param startTime - The time to start searching from.
 	 * @param endTime - The time to end searching from.
+	 * @param after - The last worklog of the previous page, null for the first page.
+	 * @param limit - The most worklogs to return.
 	 * @return The requested worklog.
 	 * @throws DataAccessException If a connection cannot be made to the store.
 	 */
-	public ArrayList<WorkLog> getAllWorkLogsForTimeRange(String businessTag, long startTime, long endTime) 
+	public ArrayList<WorkLog> getAllWorkLogsForTimeRange(String businessTag, long startTime, long endTime, 
+			WorkLogCursor after, int limit) 
 			throws DataAccessException
 	{
 		ArrayList<WorkLog> result = new ArrayList<WorkLog>();
 		
 	    try
 	    {		
-	    	result = getAllWorkLogsForTimeRangeSQL(businessTag, startTime, endTime, this);
+	    	int[] workLogIds = WorkLogIndex.find(businessTag, null, startTime, endTime, after, limit);
 	    	
-	    	for (WorkLog workLog : result)
+	    	if (workLogIds != null)
 	    	{
-	    		Iterator<Location> location = DBLocationQueries.getLocationsForIdSQL(
-		    			DBWorkLogQueries.getWorkLogLocationOwnerIdSQL(workLog, this), this)
-		    			.iterator();
-	    		
-	    		if (location.hasNext())
-	    		{
-	    			workLog.setLocation(location.next());
-	    		}
+	    		result = getWorkLogsSQL(workLogIds, this);
+	    	}
+	    	
+	    	if (!WorkLogIndex.isComplete(workLogIds, result))
+	    	{
+	    		this.closeResultSet();
+	    		result = getAllWorkLogsForTimeRangeSQL(businessTag, startTime, endTime, after, limit, this);
 	    	}
 		} 
 	    catch (SQLException e) 
@@ -163,6 +254,37 @@ public class DBWorkLogQueries extends DBQueries {
 		return result;
 	}
 	
+	/**
+	 * Passes every worklog in a time range to the consumer as it is read, newest first.
+	 * Only one worklog is held in memory at a time and the connection is only held
+	 * until the last worklog has been passed on.
+	 * 
+	 * @param businessTag - The business to find the worklogs for.
+	 * @param startTime - The time to start searching from.
+	 * @param endTime - The time to end searching from.
+	 * @param consumer - Receives the worklogs.
+	 * @throws DataAccessException If a connection cannot be made to the store.
+	 * @throws IOException If the consumer cannot take a worklog.
+	 */
+	public void streamAllWorkLogsForTimeRange(String businessTag, long startTime, long endTime, 
+			WorkLogConsumer consumer) 
+			throws DataAccessException, IOException
+	{
+	    try
+	    {		
+	    	streamAllWorkLogsForTimeRangeSQL(businessTag, startTime, endTime, consumer, this);
+		} 
+	    catch (SQLException e) 
+	    {
+			this.handleSQLException(e);
+		}
+	    finally
+	    {
+	    	this.closeResultSet();
+	    	this.closeConnection();
+	    }
+	}
+	
 	/**
 	 * Returns a worklog by its given id. 
 	 * Returns null if no worklog is found.
@@ -178,18 +300,6 @@ public class DBWorkLogQueries extends DBQueries {
 	    try
 	    {		
 	    	result = getWorkLogSQL(workLogId, this);
-	    	
-	    	if (result != null)
-	    	{
-	    		Iterator<Location> location = DBLocationQueries.getLocationsForIdSQL(
-		    			DBWorkLogQueries.getWorkLogLocationOwnerIdSQL(result, this), this)
-		    			.iterator();
-	    		
-	    		if (location.hasNext())
-	    		{
-	    			result.setLocation(location.next());
-	    		}
-	    	}
 		} 
 	    catch (SQLException e) 
 	    {
@@ -205,30 +315,54 @@ public class DBWorkLogQueries extends DBQueries {
 	}
 	
 	/**
-	 * Returns a worklog by a given user. 
+	 * Returns a page of the worklogs by a given user, newest first. 
 	 * 
 	 * @param username - The user of the worklogs to find.
+	 * @param after - The last worklog of the previous page, null for the first page.
+	 * @param limit - The most worklogs to return.
 	 * @return The requested worklogs.
 	 * @throws DataAccessException If a connection cannot be made to the store.
 	 */
-	public ArrayList<WorkLog> getWorkLogbyUser(String username, String businessTag) throws DataAccessException
+	public ArrayList<WorkLog> getWorkLogbyUser(String username, String businessTag, WorkLogCursor after, int limit) 
+			throws DataAccessException
 	{
 		ArrayList<WorkLog> result = new ArrayList<WorkLog>();
 		
 	    try
 	    {		
-	    	result = getWorkLogbyUserSQL(username, businessTag, this);
+	    	result = getWorkLogbyUserSQL(username, businessTag, after, limit, this);
+		} 
+	    catch (SQLException e) 
+	    {
+			this.handleSQLException(e);
+		}
+	    finally
+	    {
+	    	this.closeResultSet();
+	    	this.closeConnection();
+	    }
+	    
+		return result;
+	}
+	
+	/**
+	 * Returns the highest worklog id given out so far.
+	 * 
+	 * @return the id or 0 if there are no worklogs.
+	 * @throws DataAccessException If a connection cannot be made to the store.
+	 */
+	public int getLastWorkLogId() throws DataAccessException
+	{
+		int result = 0;
+		
+	    try
+	    {		
+	    	final PreparedStatement stmt = this.prepareStatement("SELECT MAX(workLogId) AS lastId FROM WorkLog;");
 	    	
-	    	for (WorkLog workLog : result)
+	    	this.resultSet = stmt.executeQuery();
+	    	if (this.resultSet.next())
 	    	{
-	    		Iterator<Location> location = DBLocationQueries.getLocationsForIdSQL(
-		    			DBWorkLogQueries.getWorkLogLocationOwnerIdSQL(workLog, this), this)
-		    			.iterator();
-	    		
-	    		if (location.hasNext())
-	    		{
-	    			workLog.setLocation(location.next());
-	    		}
+	    		result = this.resultSet.getInt("lastId");
 	    	}
 		} 
 	    catch (SQLException e) 
@@ -244,6 +378,115 @@ public class DBWorkLogQueries extends DBQueries {
 		return result;
 	}
 	
+	/**
+	 * Passes the times of every worklog of a business starting at or after the given time
+	 * to the consumer as they are read, earliest first.
+	 * 
+	 * @param businessTag - The business of the worklogs.
+	 * @param startTime - The earliest start time to read.
+	 * @param consumer - Receives the worklog times.
+	 * @throws DataAccessException If a connection cannot be made to the store.
+	 */
+	public void readWorkLogTimes(String businessTag, long startTime, WorkLogTimesConsumer consumer) 
+			throws DataAccessException
+	{
+	    try
+	    {		
+	    	final PreparedStatement stmt = this.prepareStatement(
+	    			"SELECT workLogId, businessTag, userName, startTime, endTime FROM WorkLog "
+	    			+ "WHERE businessTag = ? AND startTime >= ? ORDER BY startTime ASC, workLogId ASC;");
+	    	stmt.setFetchSize(STREAM_FETCH_SIZE);
+	    	stmt.setString(1, businessTag);
+	    	stmt.setLong(2, startTime);
+	    	
+	    	this.resultSet = stmt.executeQuery();
+	    	readWorkLogTimesSQL(consumer, this);
+		} 
+	    catch (SQLException e) 
+	    {
+			this.handleSQLException(e);
+		}
+	    finally
+	    {
+	    	this.closeResultSet();
+	    	this.closeConnection();
+	    }
+	}
+	
+	/**
+	 * Passes the times of every worklog with an id above the given one to the consumer 
+	 * as they are read, lowest id first.
+	 * 
+	 * @param workLogId - The id to read the worklogs after.
+	 * @param consumer - Receives the worklog times.
+	 * @throws DataAccessException If a connection cannot be made to the store.
+	 */
+	public void readWorkLogTimesAfter(int workLogId, WorkLogTimesConsumer consumer) 
+			throws DataAccessException
+	{
+	    try
+	    {		
+	    	final PreparedStatement stmt = this.prepareStatement(
+	    			"SELECT workLogId, businessTag, userName, startTime, endTime FROM WorkLog "
+	    			+ "WHERE workLogId > ? ORDER BY workLogId ASC;");
+	    	stmt.setFetchSize(STREAM_FETCH_SIZE);
+	    	stmt.setInt(1, workLogId);
+	    	
+	    	this.resultSet = stmt.executeQuery();
+	    	readWorkLogTimesSQL(consumer, this);
+		} 
+	    catch (SQLException e) 
+	    {
+			this.handleSQLException(e);
+		}
+	    finally
+	    {
+	    	this.closeResultSet();
+	    	this.closeConnection();
+	    }
+	}
+	
+	/**
+	 * Passes the times of those of the given worklogs that exist to the consumer as they are read.
+	 * The ids are read a batch at a time, the last batch padded with its last id, so that
+	 * every statement has the same text and is prepared once.
+	 * 
+	 * @param workLogIds - The ids of the worklogs to read.
+	 * @param consumer - Receives the worklog times.
+	 * @throws DataAccessException If a connection cannot be made to the store.
+	 */
+	public void readWorkLogTimes(int[] workLogIds, WorkLogTimesConsumer consumer) 
+			throws DataAccessException
+	{
+	    try
+	    {		
+	    	final PreparedStatement stmt = this.prepareStatement(
+	    			"SELECT workLogId, businessTag, userName, startTime, endTime FROM WorkLog "
+	    			+ "WHERE workLogId IN (" + parameters(ID_BATCH_SIZE) + ");");
+	    	
+	    	for (int from = 0; from < workLogIds.length; from += ID_BATCH_SIZE)
+	    	{
+	    		for (int i = 0; i < ID_BATCH_SIZE; i++)
+	    		{
+	    			stmt.setInt(i + 1, workLogIds[Math.min(from + i, workLogIds.length - 1)]);
+	    		}
+	    		
+	    		this.resultSet = stmt.executeQuery();
+	    		readWorkLogTimesSQL(consumer, this);
+	    		this.closeResultSet();
+	    	}
+		} 
+	    catch (SQLException e) 
+	    {
+			this.handleSQLException(e);
+		}
+	    finally
+	    {
+	    	this.closeResultSet();
+	    	this.closeConnection();
+	    }
+	}
+	
 	/**
 	 * Get the owner location for the given worklog.
 	 * 
@@ -273,7 +516,8 @@ public class DBWorkLogQueries extends DBQueries {
 	}
 	
 	/**
-	 * Creates a worklog in the database with the given parameters.
+	 * Creates a worklog in the database with the given parameters and adds its time to the daily
+	 * hours rollups, must run in a transaction.
 	 * 
 	 * @param workLog - the worklog details to create.
 	 * @param queryRunner - the DB query runner.
@@ -292,7 +536,7 @@ public class DBWorkLogQueries extends DBQueries {
 				+ "VALUES (?, ?, ?, ?, ?, ?, ?);";
 		
 		final PreparedStatement stmt = 
-				queryRunner.connection.prepareStatement(query, PreparedStatement.RETURN_GENERATED_KEYS);
+				queryRunner.prepareStatement(query, PreparedStatement.RETURN_GENERATED_KEYS);
 		
 		int index = 1;
 		
@@ -306,12 +550,86 @@ public class DBWorkLogQueries extends DBQueries {
 		
 		stmt.executeUpdate();
 
-		ResultSet resultSet = stmt.getGeneratedKeys();
+		try (ResultSet resultSet = stmt.getGeneratedKeys())
+		{
+			if (resultSet.next()) 
+			{
+			    workLog.setWorkLogId(resultSet.getInt(1));
+			}
+		}
+		
+		DBDailyHoursQueries.addWorkLogsSQL(Collections.singleton(workLog), queryRunner);
+	}
+	
+	/**
+	 * Creates worklogs and their locations in the database with one batch per table,
+	 * setting the id of each worklog and adding their time to the daily hours rollups.
+	 * 
+	 * @param workLogs - the worklogs to create.
+	 * @param queryRunner - the DB query runner.
+	 * @throws SQLException if the DB cannot be reached or a key breaks the constraints of the DB.
+	 */
+	public static void createWorkLogsSQL(List<WorkLog> workLogs, DBQueries queryRunner) 
+			throws SQLException
+	{
+		List<Integer> locationOwnerIds = DBLocationQueries.createLocationOwnersSQL(workLogs.size(), queryRunner);
+				
+		String query = "INSERT INTO WorkLog("
+				+ "userName, businessTag, clientId, startTime, endTime, description, locationOwnerId) "
+				+ "VALUES (?, ?, ?, ?, ?, ?, ?);";
+		
+		final PreparedStatement stmt = 
+				queryRunner.prepareStatement(query, PreparedStatement.RETURN_GENERATED_KEYS);
+		
+		List<Location> locations = new ArrayList<Location>();
+		List<Integer> locationsOwnerIds = new ArrayList<Integer>();
+		
+		for (int i = 0; i < workLogs.size(); i++)
+		{
+			WorkLog workLog = workLogs.get(i);
+			int index = 1;
+			
+			stmt.setString(index++, workLog.getUserName());
+			stmt.setString(index++, workLog.getBusinessTag());
+			stmt.setInt(index++, workLog.getClientId());
+			stmt.setLong(index++, workLog.getStartTime());
+			stmt.setLong(index++, workLog.getEndTime());
+			stmt.setString(index++, workLog.getDescription());
+			stmt.setInt(index++, locationOwnerIds.get(i));
+			
+			stmt.addBatch();
+			
+			if (workLog.getLocation() != null)
+			{
+				locations.add(workLog.getLocation());
+				locationsOwnerIds.add(locationOwnerIds.get(i));
+			}
+		}
+		
+		stmt.executeBatch();
 
-		if (resultSet.next()) 
+		Iterator<WorkLog> created = workLogs.iterator();
+
+		try (ResultSet resultSet = stmt.getGeneratedKeys())
 		{
-		    workLog.setWorkLogId(resultSet.getInt(1));
-		}	
+			while (resultSet.next() && created.hasNext()) 
+			{
+				created.next().setWorkLogId(resultSet.getInt(1));
+			}
+		}
+		
+		if (created.hasNext())
+		{
+			throw new SQLException("Not every created worklog was given a key");
+		}
+		
+		DBDailyHoursQueries.addWorkLogsSQL(workLogs, queryRunner);
+		
+		if (!locations.isEmpty())
+		{
+			List<Integer> locationIds = DBLocationQueries.createLocationsSQL(locations, queryRunner);
+			DBLocationQueries.createLocationOwnerToLocationsSQL(locationsOwnerIds, locationIds, queryRunner);
+		}
 	}
 	
 	/**
@@ -343,134 +661,220 @@ public class DBWorkLogQueries extends DBQueries {
 	public static WorkLog getWorkLogSQL(int workLogId, DBQueries queryRunner) 
 			throws SQLException, DataAccessException
 	{
-		WorkLog result = null;
+		String query = WORKLOG_WITH_LOCATION_SELECT
+				+ "WHERE WorkLog.workLogId = ? "
+				+ "ORDER BY Location.postcode ASC;";
 		
-		String query = "SELECT userName, businessTag, clientId, startTime, endTime, description "
-				+ "FROM WorkLog WHERE WorkLog.workLogId = ?;";
-		
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query);
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
 		int index = 1;
 		
 		stmt.setInt(index++, workLogId);
 		
 		queryRunner.resultSet = stmt.executeQuery();
-		while (queryRunner.resultSet.next())
-		{
-			result = new WorkLog(
-					workLogId,
-					queryRunner.resultSet.getString("userName"),
-					queryRunner.resultSet.getString("businessTag"),
-					queryRunner.resultSet.getInt("clientId"),
-					queryRunner.resultSet.getLong("startTime"),
-					queryRunner.resultSet.getLong("endtime"),
-					queryRunner.resultSet.getString("description"));
-		}
 		
-		return result;
+		Iterator<WorkLog> result = readWorkLogsWithLocation(queryRunner).iterator();
+		
+		return result.hasNext() ? result.next() : null;
 	}
 	
 	/**
-	 * Gets a WorkLog from the database with the given workLog user.
+	 * Gets a page of WorkLogs from the database with the given workLog user.
 	 * 
 	 * @param workLogUser - the user to search for.
+	 * @param after - the last worklog of the previous page, null for the first page.
+	 * @param limit - the most worklogs to return.
 	 * @param queryRunner - the DB query runner.
 	 * @throws SQLException - if the DB cannot be reached.
 	 * @throws DataAccessException - if the DB cannot be reached.
 	 */
-	public static ArrayList<WorkLog> getWorkLogbyUserSQL(String username, String businessTag, DBQueries queryRunner) 
+	public static ArrayList<WorkLog> getWorkLogbyUserSQL(String username, String businessTag, 
+			WorkLogCursor after, int limit, DBQueries queryRunner) 
 			throws SQLException, DataAccessException
 	{
-		ArrayList<WorkLog> result = new ArrayList<WorkLog>();
-		
-		String query = "SELECT workLogId, userName, businessTag, clientId, startTime, endTime, description "
-				+ "FROM WorkLog WHERE WorkLog.userName = ? AND WorkLog.businessTag = ? ORDER BY startime DESC;";
+		String query = workLogPageQuery("WorkLog.userName = ? AND WorkLog.businessTag = ? ", after);
 		
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query);
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
 		int index = 1;
 		
 		stmt.setString(index++, username);
 		stmt.setString(index++, businessTag);
+		setPage(stmt, index, after, limit);
 		
 		queryRunner.resultSet = stmt.executeQuery();
-		while (queryRunner.resultSet.next())
-		{
-			result.add(new WorkLog(
-					queryRunner.resultSet.getInt("workLogId"),
-					username,
-					queryRunner.resultSet.getString("businessTag"),
-					queryRunner.resultSet.getInt("clientId"),
-					queryRunner.resultSet.getLong("startTime"),
-					queryRunner.resultSet.getLong("endtime"),
-					queryRunner.resultSet.getString("description")));
-		}
 		
-		return result;
+		return readWorkLogsWithLocation(queryRunner);
 	}
 	
 	/**
-	 * Gets all worklogs for the given time range and employee.
+	 * Gets a page of the worklogs for the given time range and employee.
 	 * 
 	 * @param employee - the given employee to check.
 	 * @param startTime - the given startTime to work from.
 	 * @param endTime - the given endTime to work from.
+	 * @param after - the last worklog of the previous page, null for the first page.
+	 * @param limit - the most worklogs to return.
 	 * @param queryRunner - the DB query runner.
 	 * @throws SQLException - if the DB cannot be reached.
 	 * @throws DataAccessException - if the DB cannot be reached.
 	 */
 	public static ArrayList<WorkLog> getAllWorkLogsForTimeRangeAndEmployeeSQL(
-			String userName, String businessTag, long startTime, long endTime, DBQueries queryRunner) 
+			String userName, String businessTag, long startTime, long endTime, 
+			WorkLogCursor after, int limit, DBQueries queryRunner) 
 			throws DataAccessException, SQLException
 	{
-		ArrayList<WorkLog> result = new ArrayList<WorkLog>();
-		
-		String query = "SELECT workLogId, userName, businessTag, clientId, startTime, endTime, description "
-				+ "FROM WorkLog WHERE startTime >= ? AND endTime <= ? AND userName = ? AND businessTag = ? "
-				+ "ORDER BY startTime DESC;";
+		String query = workLogPageQuery("WorkLog.startTime >= ? AND WorkLog.endTime <= ? "
+				+ "AND WorkLog.userName = ? AND WorkLog.businessTag = ? ", after);
 		
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query);
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
 		int index = 1;
 		
 		stmt.setLong(index++, startTime);
 		stmt.setLong(index++, endTime);
 		stmt.setString(index++, userName);
 		stmt.setString(index++, businessTag);
+		setPage(stmt, index, after, limit);
 
 		queryRunner.resultSet = stmt.executeQuery();
-		while (queryRunner.resultSet.next())
-		{
-			result.add(new WorkLog(
-					queryRunner.resultSet.getInt("workLogId"),
-					queryRunner.resultSet.getString("userName"),
-					queryRunner.resultSet.getString("businessTag"),
-					queryRunner.resultSet.getInt("clientId"),
-					queryRunner.resultSet.getLong("startTime"),
-					queryRunner.resultSet.getLong("endtime"),
-					queryRunner.resultSet.getString("description")));
-		}
 		
-		return result;
+		return readWorkLogsWithLocation(queryRunner);
 	}
 	
 	/**
-	 * Gets all worklogs for the given time range.
+	 * Gets a page of the worklogs for the given time range.
 	 * 
 	 * @param businessTag - the given business to check.
 	 * @param startTime - the given startTime to work from.
 	 * @param endTime - the given endTime to work from.
+	 * @param after - the last worklog of the previous page, null for the first page.
+	 * @param limit - the most worklogs to return.
 	 * @param queryRunner - the DB query runner.
 	 * @throws SQLException - if the DB cannot be reached.
 	 * @throws DataAccessException - if the DB cannot be reached.
 	 */
 	public static ArrayList<WorkLog> getAllWorkLogsForTimeRangeSQL(
-			String businessTag, long startTime, long endTime, DBQueries queryRunner) 
+			String businessTag, long startTime, long endTime, 
+			WorkLogCursor after, int limit, DBQueries queryRunner) 
 			throws DataAccessException, SQLException
 	{
+		String query = workLogPageQuery(
+				"WorkLog.startTime >= ? AND WorkLog.endTime <= ? AND WorkLog.businessTag = ? ", after);
+		
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
+		int index = 1;
+		
+		stmt.setLong(index++, startTime);
+		stmt.setLong(index++, endTime);
+		stmt.setString(index++, businessTag);
+		setPage(stmt, index, after, limit);
+
+		queryRunner.resultSet = stmt.executeQuery();
+		
+		return readWorkLogsWithLocation(queryRunner);
+	}
+	
+	/**
+	 * Gets the worklogs with the given ids, in the order of the ids. Worklogs in the
+	 * cache of the {@link WorkLogIndex} are not read again.
+	 * <br />
+	 * The missing ids are read a batch at a time, a few of them in a small batch, and the last
+	 * batch is padded with its last id, so that the statements only ever have one of two texts
+	 * and stay in the statement cache whatever the number missing.
+	 * 
+	 * @param workLogIds - the ids of the worklogs.
+	 * @param queryRunner - the DB query runner.
+	 * @throws SQLException - if the DB cannot be reached.
+	 */
+	public static ArrayList<WorkLog> getWorkLogsSQL(int[] workLogIds, DBQueries queryRunner) 
+			throws SQLException
+	{
+		Map<Integer, WorkLog> workLogs = WorkLogIndex.getCached(workLogIds);
+		int[] missing = new int[workLogIds.length];
+		int count = 0;
+		
+		for (int workLogId : workLogIds)
+		{
+			if (!workLogs.containsKey(workLogId))
+			{
+				missing[count++] = workLogId;
+			}
+		}
+		
+		for (int from = 0; from < count; from += ID_BATCH_SIZE)
+		{
+			int batchSize = count - from <= SMALL_ID_BATCH_SIZE ? SMALL_ID_BATCH_SIZE : ID_BATCH_SIZE;
+			String query = WORKLOG_WITH_LOCATION_SELECT
+					+ "WHERE WorkLog.workLogId IN (" + parameters(batchSize) + ") "
+					+ "ORDER BY WorkLog.workLogId ASC, Location.postcode ASC;";
+			
+			final PreparedStatement stmt = queryRunner.prepareStatement(query);
+			
+			for (int i = 0; i < batchSize; i++)
+			{
+				stmt.setInt(i + 1, missing[Math.min(from + i, count - 1)]);
+			}
+			
+			queryRunner.resultSet = stmt.executeQuery();
+			ArrayList<WorkLog> read = readWorkLogsWithLocation(queryRunner);
+			queryRunner.closeResultSet();
+			
+			for (WorkLog workLog : read)
+			{
+				workLogs.put(workLog.getWorkLogId(), workLog);
+			}
+			WorkLogIndex.cache(read);
+		}
+		
 		ArrayList<WorkLog> result = new ArrayList<WorkLog>();
 		
-		String query = "SELECT workLogId, userName, businessTag, clientId, startTime, endTime, description "
-				+ "FROM WorkLog WHERE startTime >= ? AND endTime <= ? AND businessTag = ? ORDER BY startTime DESC;";
+		for (int workLogId : workLogIds)
+		{
+			if (workLogs.containsKey(workLogId))
+			{
+				result.add(workLogs.get(workLogId));
+			}
+		}
 		
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query);
+		return result;
+	}
+	
+	/**
+	 * @param count - the number of parameters.
+	 * @return the parameters of an IN list of the given length.
+	 */
+	private static String parameters(int count)
+	{
+		StringBuilder parameters = new StringBuilder("?");
+		
+		for (int i = 1; i < count; i++)
+		{
+			parameters.append(", ?");
+		}
+		return parameters.toString();
+	}
+	
+	/**
+	 * Streams all worklogs for the given time range to the consumer. The driver is asked
+	 * to fetch the rows a few at a time rather than reading the whole result up front.
+	 * 
+	 * @param businessTag - the given business to check.
+	 * @param startTime - the given startTime to work from.
+	 * @param endTime - the given endTime to work from.
+	 * @param consumer - receives the worklogs.
+	 * @param queryRunner - the DB query runner.
+	 * @throws SQLException - if the DB cannot be reached.
+	 * @throws IOException - if the consumer cannot take a worklog.
+	 */
+	public static void streamAllWorkLogsForTimeRangeSQL(
+			String businessTag, long startTime, long endTime, 
+			WorkLogConsumer consumer, DBQueries queryRunner) 
+			throws SQLException, IOException
+	{
+		String query = WORKLOG_WITH_LOCATION_SELECT
+				+ "WHERE WorkLog.startTime >= ? AND WorkLog.endTime <= ? AND WorkLog.businessTag = ? "
+				+ "ORDER BY WorkLog.startTime DESC, WorkLog.workLogId DESC, Location.postcode ASC;";
+		
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
+		stmt.setFetchSize(STREAM_FETCH_SIZE);
 		int index = 1;
 		
 		stmt.setLong(index++, startTime);
@@ -478,19 +882,162 @@ public class DBWorkLogQueries extends DBQueries {
 		stmt.setString(index++, businessTag);
 
 		queryRunner.resultSet = stmt.executeQuery();
+		
+		// The rows of a worklog are together, so each is complete once the next one starts.
+		WorkLog current = null;
+		
+		while (queryRunner.resultSet.next())
+		{
+			int workLogId = queryRunner.resultSet.getInt("workLogId");
+			
+			if (current == null || current.getWorkLogId() != workLogId)
+			{
+				if (current != null)
+				{
+					consumer.accept(current);
+				}
+				current = readWorkLog(workLogId, queryRunner);
+			}
+			
+			readLocation(current, queryRunner);
+		}
+		
+		if (current != null)
+		{
+			consumer.accept(current);
+		}
+	}
+	
+	/**
+	 * Builds the query for a page of worklogs, newest first. The page is taken from
+	 * WorkLog before joining the locations so that the limit counts worklogs rather than rows,
+	 * and continues after the cursor on (startTime, workLogId) rather than skipping an offset.
+	 * 
+	 * @param filter - the conditions on WorkLog.
+	 * @param after - the last worklog of the previous page, null for the first page.
+	 * @return the query, the filter parameters are followed by those set by {@link #setPage}.
+	 */
+	private static String workLogPageQuery(String filter, WorkLogCursor after)
+	{
+		return WORKLOG_WITH_LOCATION_COLUMNS
+				+ "FROM (SELECT * FROM WorkLog WHERE " + filter
+				+ (after == null ? "" : "AND WorkLog.startTime <= ? "
+						+ "AND (WorkLog.startTime < ? OR WorkLog.workLogId < ?) ")
+				+ "ORDER BY WorkLog.startTime DESC, WorkLog.workLogId DESC LIMIT ?) AS WorkLog "
+				+ LOCATION_JOIN
+				+ "ORDER BY WorkLog.startTime DESC, WorkLog.workLogId DESC, Location.postcode ASC;";
+	}
+	
+	/**
+	 * Sets the parameters of a query built by {@link #workLogPageQuery}.
+	 * 
+	 * @param stmt - the statement to set the parameters of.
+	 * @param index - the index of the first page parameter.
+	 * @param after - the last worklog of the previous page, null for the first page.
+	 * @param limit - the most worklogs to return.
+	 * @throws SQLException - if the DB cannot be reached.
+	 */
+	private static void setPage(PreparedStatement stmt, int index, WorkLogCursor after, int limit) 
+			throws SQLException
+	{
+		if (after != null)
+		{
+			stmt.setLong(index++, after.getStartTime());
+			stmt.setLong(index++, after.getStartTime());
+			stmt.setInt(index++, after.getWorkLogId());
+		}
+		stmt.setInt(index++, limit);
+	}
+	
+	/**
+	 * Reads the worklogs from a result set built on {@link #WORKLOG_WITH_LOCATION_SELECT}.
+	 * A worklog joined to more than one location appears on several rows, only the first
+	 * location seen is kept so the rows should be ordered by postcode within a worklog.
+	 * 
+	 * @param queryRunner - the DB query runner holding the result set.
+	 * @return the worklogs in the order they were first seen.
+	 * @throws SQLException - if the DB cannot be reached.
+	 */
+	private static ArrayList<WorkLog> readWorkLogsWithLocation(DBQueries queryRunner) 
+			throws SQLException
+	{
+		Map<Integer, WorkLog> workLogs = new LinkedHashMap<Integer, WorkLog>();
+		
 		while (queryRunner.resultSet.next())
 		{
-			result.add(new WorkLog(
+			int workLogId = queryRunner.resultSet.getInt("workLogId");
+			WorkLog workLog = workLogs.get(workLogId);
+			
+			if (workLog == null)
+			{
+				workLog = readWorkLog(workLogId, queryRunner);
+				workLogs.put(workLogId, workLog);
+			}
+			
+			readLocation(workLog, queryRunner);
+		}
+		
+		return new ArrayList<WorkLog>(workLogs.values());
+	}
+	
+	/**
+	 * Passes the worklog times of each row of the result set to the consumer.
+	 * 
+	 * @param consumer - receives the worklog times.
+	 * @param queryRunner - the DB query runner holding the result set.
+	 * @throws SQLException - if the DB cannot be reached.
+	 */
+	private static void readWorkLogTimesSQL(WorkLogTimesConsumer consumer, DBQueries queryRunner) 
+			throws SQLException
+	{
+		while (queryRunner.resultSet.next())
+		{
+			consumer.accept(
 					queryRunner.resultSet.getInt("workLogId"),
-					queryRunner.resultSet.getString("userName"),
 					queryRunner.resultSet.getString("businessTag"),
-					queryRunner.resultSet.getInt("clientId"),
+					queryRunner.resultSet.getString("userName"),
 					queryRunner.resultSet.getLong("startTime"),
-					queryRunner.resultSet.getLong("endtime"),
-					queryRunner.resultSet.getString("description")));
+					queryRunner.resultSet.getLong("endTime"));
+		}
+	}
+	
+	/**
+	 * Reads the worklog on the current row of a result set built on {@link #WORKLOG_WITH_LOCATION_SELECT}.
+	 * 
+	 * @param workLogId - the id of the worklog on the row.
+	 * @param queryRunner - the DB query runner holding the result set.
+	 * @return the worklog without its location.
+	 * @throws SQLException - if the DB cannot be reached.
+	 */
+	private static WorkLog readWorkLog(int workLogId, DBQueries queryRunner) 
+			throws SQLException
+	{
+		return new WorkLog(
+				workLogId,
+				queryRunner.resultSet.getString("userName"),
+				queryRunner.resultSet.getString("businessTag"),
+				queryRunner.resultSet.getInt("clientId"),
+				queryRunner.resultSet.getLong("startTime"),
+				queryRunner.resultSet.getLong("endTime"),
+				queryRunner.resultSet.getString("description"));
+	}
+	
+	/**
+	 * Sets the location on the current row on the worklog, unless it already has one.
+	 * 
+	 * @param workLog - the worklog the row belongs to.
+	 * @param queryRunner - the DB query runner holding the result set.
+	 * @throws SQLException - if the DB cannot be reached.
+	 */
+	private static void readLocation(WorkLog workLog, DBQueries queryRunner) 
+			throws SQLException
+	{
+		if (workLog.getLocation() == null && queryRunner.resultSet.getObject("locationId") != null)
+		{
+			workLog.setLocation(new Location(
+					queryRunner.resultSet.getString("postcode"),
+					queryRunner.resultSet.getString("locationDescription")));
 		}
-		
-		return result;
 	}
 	
 	/**
@@ -508,7 +1055,7 @@ public class DBWorkLogQueries extends DBQueries {
 		
 		String query = "SELECT locationOwnerId FROM WorkLog WHERE WorkLog.workLogId = ?;";
 		
-		final PreparedStatement stmt = queryRunner.connection.prepareStatement(query);
+		final PreparedStatement stmt = queryRunner.prepareStatement(query);
 		int index = 1;
 		
 		stmt.setInt(index++, worklog.getWorkLogId());
@@ -520,6 +1067,8 @@ public class DBWorkLogQueries extends DBQueries {
 		    result = resultSet.getInt(1);
 		}
 		
+		resultSet.close();
+		
 		return result;
 	}
 }
@@ -0,0 +1,83 @@
+/**
+ *
+ */
+package database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import exceptions.DataAccessException;
+import models.Business;
+
+/**
+ * Fills the daily hours rollups from the worklogs already stored, run once after creating
+ * the rollup tables (see sql/dailyHours.sql) or to repair them. Each business is rebuilt
+ * in its own transaction and the application can keep running while it does.
+ * <br />
+ * Connects with the database settings, for example:
+ * <pre>
+ * java -Ddb.source=driver -Ddb.url=jdbc:mariadb://host/api -Ddb.username=u -Ddb.password=p \
+ *     -cp ... database.DailyHoursBackfill [businessTag...]
+ * </pre>
+ * Every business is rebuilt when no business tags are given.
+ *
+ * @author Lawrence
+ */
+public final class DailyHoursBackfill
+{
+	/** Logger **/
+	private final static Logger logger = Logger.getLogger(DailyHoursBackfill.class);
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 */
+	private DailyHoursBackfill()
+	{
+	}
+
+	/**
+	 * Rebuilds the rollups of the given businesses, or of every business.
+	 *
+	 * @param args - the business tags to rebuild.
+	 * @throws Exception if the datastore cannot be reached.
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		try
+		{
+			for (String businessTag : businessTags(args))
+			{
+				int rows = new DBDailyHoursQueries().rebuild(businessTag);
+				logger.info("Rebuilt the daily hours of " + businessTag + ", " + rows + " rows");
+			}
+		}
+		finally
+		{
+			DatabasePool.shutdown();
+		}
+	}
+
+	/**
+	 * @param args - the business tags given.
+	 * @return the business tags to rebuild.
+	 * @throws DataAccessException if the datastore cannot be reached.
+	 */
+	private static List<String> businessTags(String[] args) throws DataAccessException
+	{
+		if (args.length > 0)
+		{
+			return Arrays.asList(args);
+		}
+
+		List<String> result = new ArrayList<String>();
+
+		for (Business business : new DBBusinessQueries().getAllBusinesses())
+		{
+			result.add(business.getBusinessTag());
+		}
+		return result;
+	}
+}
@@ -1,10 +1,12 @@
 /**
- * 
+ *
  */
 package database;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
@@ -12,54 +14,305 @@ import javax.naming.NamingException;
 import javax.sql.DataSource;
 
 import org.apache.log4j.Logger;
+import org.mariadb.jdbc.MariaDbDataSource;
+
+import utilities.Settings;
 
 /**
- * Singleton object of the database connection pool. 
- * 
+ * Singleton object of the database connection pool.
+ * The pool is configured by the database resource bundle, any setting can be
+ * overridden with a system property of the same name.
+ * <br />
+ * If a read replica is configured, reads made outside of a transaction can be
+ * routed to it through {@link #getReadConnection()}.
+ *
  * @author Lawrence
  */
 final public class DatabasePool {
-		
+
 	/** Logger **/
 	private final static Logger logger = Logger.getLogger(DatabasePool.class);
-	
-	/** The instance of the singleton object **/
-	private static DatabasePool instance;
-	
-	/** The datasource object **/
-	private DataSource dataSource;
+
+	/** The configuration of the pool **/
+	private static final Settings DB_SETTINGS = new Settings("database"); //NON-NLS
+
+	/** The instance of the pool **/
+	private static volatile ConnectionPool instance;
+
+	/** Routes reads to the replica, null if there is no replica **/
+	private static volatile ReplicaRouter router;
+
+	/**
+	 * Guards starting and stopping the pool. A lock rather than synchronized, the first
+	 * request to start the pool opens its connections and would otherwise pin the carrier
+	 * of a virtual thread while every other request waited on it.
+	 */
+	private static final Lock LIFECYCLE = new ReentrantLock();
 
 	/**
 	 * CLASS CONSTRUCTOR
-	 * 
+	 */
+	private DatabasePool()
+	{
+	}
+
+	/**
+	 * Creates the pool and fills it to its minimum size. Called when the application starts
+	 * so that the first requests do not pay for opening connections.
+	 *
+	 * @return the pool.
 	 * @throws SQLException if the configured details do not correspond with a database.
 	 */
-	private DatabasePool() throws SQLException 
+	public static ConnectionPool initialise() throws SQLException
 	{
-		try 
+		LIFECYCLE.lock();
+
+		try
 		{
-			final Context init = new InitialContext();
-			dataSource = (DataSource) init.lookup("java:/comp/env/jdbc/api");
-		} 
-		catch (NamingException e) 
+			if (instance != null)
+			{
+				return instance;
+			}
+
+			ConnectionPool pool = createPool(createDataSource("db."), getInt("db.pool.minIdle"));
+			pool.fill();
+
+			instance = pool;
+			logger.info("Database pool started with " + pool.getOpen() + " connections");
+
+			if (!"none".equalsIgnoreCase(getString("db.replica.source")))
+			{
+				ConnectionPool replica = createPool(createDataSource("db.replica."), getInt("db.replica.pool.minIdle"));
+
+				try
+				{
+					replica.fill();
+				}
+				catch (SQLException e)
+				{
+					// Reads use the primary until the replica answers.
+					logger.error("Failed to open connections to the replica", e);
+				}
+
+				router = new ReplicaRouter(pool, replica,
+						getLong("db.replica.maxLag"),
+						getLong("db.replica.readYourWritesWindow"),
+						getLong("db.replica.lagCheckInterval"),
+						Boolean.parseBoolean(getString("db.replica.sharedWindow").trim()));
+				logger.info("Replica pool started with " + replica.getOpen() + " connections");
+			}
+			return instance;
+		}
+		finally
 		{
-			logger.error("The pool was not set up correctly", e);
-			throw new SQLException("The pool was not set up correctly", e);
+			LIFECYCLE.unlock();
 		}
 	}
-	
+
+	/**
+	 * Closes all of the connections in the pool and forgets the worklog index read through them.
+	 */
+	public static void shutdown()
+	{
+		LIFECYCLE.lock();
+
+		try
+		{
+			WorkLogIndex.shutdown();
+
+			if (router != null)
+			{
+				router.shutdown();
+				router = null;
+			}
+			if (instance != null)
+			{
+				instance.shutdown();
+				instance = null;
+			}
+		}
+		finally
+		{
+			LIFECYCLE.unlock();
+		}
+	}
+
 	/**
 	 * Returns a connection from the database pool.
-	 * 
+	 *
 	 * @return the connection.
 	 * @throws SQLException if no connections available.
 	 */
 	public static Connection getConnection() throws SQLException
+	{
+		ConnectionPool pool = instance;
+
+		if (pool == null)
+		{
+			pool = initialise();
+		}
+		return pool.getConnection();
+	}
+
+	/**
+	 * Returns a connection for reads made outside of a transaction. The connection is
+	 * to the replica when one is configured and it is safe to read from, otherwise it
+	 * is to the primary.
+	 *
+	 * @return the connection.
+	 * @throws SQLException if no connections available.
+	 */
+	public static Connection getReadConnection() throws SQLException
 	{
 		if (instance == null)
 		{
-			instance = new DatabasePool();
+			initialise();
+		}
+
+		ReplicaRouter replicaRouter = router;
+
+		if (replicaRouter != null)
+		{
+			Connection connection = replicaRouter.getReadConnection();
+
+			if (connection != null)
+			{
+				return connection;
+			}
 		}
-		return instance.dataSource.getConnection();
+		return getConnection();
+	}
+
+	/**
+	 * Records that the current request wrote to the primary, so that its
+	 * following reads are not sent to a replica that has not caught up.
+	 */
+	static void recordWrite()
+	{
+		ReplicaRouter replicaRouter = router;
+
+		if (replicaRouter != null)
+		{
+			replicaRouter.recordWrite();
+		}
+	}
+
+	/**
+	 * Returns the replica router, for reporting its metrics.
+	 *
+	 * @return the router or null if there is no replica.
+	 */
+	public static ReplicaRouter getRouter()
+	{
+		return router;
+	}
+
+	/**
+	 * Returns the pool, for reporting its metrics.
+	 *
+	 * @return the pool or null if it has not been started.
+	 */
+	public static ConnectionPool getPool()
+	{
+		return instance;
+	}
+
+	/**
+	 * Replaces the pool with one that takes its connections from the given datasource
+	 * rather than the configured one. Allows the queries to be run against an embedded database.
+	 *
+	 * @param dataSource - the datasource to take connections from.
+	 */
+	static void useDataSource(DataSource dataSource)
+	{
+		LIFECYCLE.lock();
+
+		try
+		{
+			shutdown();
+			instance = createPool(dataSource, 0);
+		}
+		finally
+		{
+			LIFECYCLE.unlock();
+		}
+	}
+
+	/**
+	 * Creates a pool with the configured settings.
+	 *
+	 * @param dataSource - the source of physical connections.
+	 * @param minIdle - the number of connections to keep open.
+	 * @return the pool.
+	 */
+	private static ConnectionPool createPool(DataSource dataSource, int minIdle)
+	{
+		return new ConnectionPool(dataSource, minIdle,
+				getInt("db.pool.maxTotal"),
+				getLong("db.pool.acquireTimeout"),
+				getLong("db.pool.validationInterval"),
+				getInt("db.pool.validationTimeout"),
+				getLong("db.pool.idleTimeout"));
+	}
+
+	/**
+	 * Creates the source of physical connections, either looked up from the container
+	 * or connecting straight to the configured url.
+	 *
+	 * @param prefix - the prefix of the settings for the database, db. or db.replica.
+	 * @return the datasource.
+	 * @throws SQLException if the configured details do not correspond with a database.
+	 */
+	private static DataSource createDataSource(String prefix) throws SQLException
+	{
+		if ("jndi".equalsIgnoreCase(getString(prefix + "source")))
+		{
+			try
+			{
+				final Context init = new InitialContext();
+				return (DataSource) init.lookup(getString(prefix + "jndi.name"));
+			}
+			catch (NamingException e)
+			{
+				logger.error("The pool was not set up correctly", e);
+				throw new SQLException("The pool was not set up correctly", e);
+			}
+		}
+
+		final MariaDbDataSource dataSource = new MariaDbDataSource();
+		dataSource.setUrl(getString(prefix + "url"));
+		dataSource.setUser(getString(prefix + "username"));
+		dataSource.setPassword(getString(prefix + "password"));
+
+		return dataSource;
+	}
+
+	/**
+	 * Reads a setting, preferring a system property over the resource bundle.
+	 *
+	 * @param key - the name of the setting.
+	 * @return the value of the setting.
+	 */
+	static String getString(String key)
+	{
+		return DB_SETTINGS.getString(key);
+	}
+
+	/**
+	 * @param key - the name of the setting.
+	 * @return the value of the setting as an int.
+	 */
+	public static int getInt(String key)
+	{
+		return DB_SETTINGS.getInt(key);
+	}
+
+	/**
+	 * @param key - the name of the setting.
+	 * @return the value of the setting as a long.
+	 */
+	static long getLong(String key)
+	{
+		return DB_SETTINGS.getLong(key);
 	}
 }
@@ -0,0 +1,42 @@
+/**
+ *
+ */
+package database;
+
+import java.sql.SQLException;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Starts the database pool with the application and closes it when the application stops.
+ *
+ * @author Lawrence
+ */
+public class DatabasePoolListener implements ServletContextListener
+{
+	/** Logger **/
+	private final static Logger logger = Logger.getLogger(DatabasePoolListener.class);
+
+	@Override
+	public void contextInitialized(ServletContextEvent event)
+	{
+		try
+		{
+			DatabasePool.initialise();
+		}
+		catch (SQLException e)
+		{
+			// The pool will be started by the first request instead.
+			logger.error("Failed to start the database pool", e);
+		}
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent event)
+	{
+		DatabasePool.shutdown();
+	}
+}
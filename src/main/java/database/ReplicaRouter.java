@@ -0,0 +1,466 @@
+/**
+ *
+ */
+package database;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Sends reads made outside of a transaction to a read replica.
+ * <br />
+ * Reads go to the primary instead when the replica is further behind than the allowed lag,
+ * when its lag is not known, or when the token making the request has written recently
+ * so that a user always sees their own changes.
+ * <br />
+ * Behind a load balancer the next request with a token may reach another server, so the end
+ * of the window of each token is also kept in the RecentWrite table of the primary, see
+ * sql/session.sql. A request with a token that has not written on this server reads the table
+ * once before its first read goes to the replica. Only a digest of the token is stored.
+ *
+ * @author Lawrence
+ */
+public final class ReplicaRouter
+{
+	/** Logger **/
+	private final static Logger logger = Logger.getLogger(ReplicaRouter.class);
+
+	/** The lag reported when the replica has not answered or is not replicating. **/
+	private static final long UNKNOWN_LAG = -1;
+
+	/** The token of the request being served by this thread. **/
+	private static final ThreadLocal<String> TOKEN = new ThreadLocal<String>();
+
+	/** When the shared window of the token of this thread ends, read once per request. **/
+	private static final ThreadLocal<Long> SHARED_WINDOW = new ThreadLocal<Long>();
+
+	/** The pool of connections to the primary, holding the shared windows. **/
+	private final ConnectionPool primary;
+
+	/** The pool of connections to the replica. **/
+	private final ConnectionPool replica;
+
+	/** How far behind the primary the replica may be, in seconds. **/
+	private final long maxLag;
+
+	/** How long reads with a token go to the primary after a write, in milliseconds. **/
+	private final long readYourWritesWindow;
+
+	/** When each token that wrote recently may read from the replica again. **/
+	private final Map<String, Long> recentWrites = new ConcurrentHashMap<String, Long>();
+
+	/** Whether the windows are shared with the other servers through the primary. **/
+	private final boolean sharedWindow;
+
+	/** When expired shared windows were last deleted. **/
+	private long lastPurge;
+
+	/** The last lag reported by the replica in seconds. **/
+	private volatile long lag = UNKNOWN_LAG;
+
+	/** The number of reads served by the replica. **/
+	private final AtomicLong replicaReads = new AtomicLong();
+
+	/** The number of reads sent to the primary because the token wrote recently. **/
+	private final AtomicLong windowReads = new AtomicLong();
+
+	/** The number of reads sent to the primary because the replica was behind. **/
+	private final AtomicLong lagFallbacks = new AtomicLong();
+
+	/** The number of reads sent to the primary because the replica could not be reached. **/
+	private final AtomicLong errorFallbacks = new AtomicLong();
+
+	/** The number of shared windows read from the primary. **/
+	private final AtomicLong windowLookups = new AtomicLong();
+
+	/** The number of shared windows that could not be read or written. **/
+	private final AtomicLong windowErrors = new AtomicLong();
+
+	/** Checks the replica lag. **/
+	private final ScheduledExecutorService monitor;
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 *
+	 * @param primary - the pool of connections to the primary.
+	 * @param replica - the pool of connections to the replica.
+	 * @param maxLag - how far behind the primary the replica may be, in seconds.
+	 * @param readYourWritesWindow - how long a token reads from the primary after a write, in milliseconds.
+	 * @param lagCheckInterval - how often to check the replica lag, in milliseconds.
+	 * @param sharedWindow - whether the windows are kept in the primary for every server to see.
+	 */
+	public ReplicaRouter(ConnectionPool primary, ConnectionPool replica, long maxLag, long readYourWritesWindow,
+			long lagCheckInterval, boolean sharedWindow)
+	{
+		this.primary = primary;
+		this.replica = replica;
+		this.maxLag = maxLag;
+		this.readYourWritesWindow = readYourWritesWindow;
+		this.sharedWindow = sharedWindow;
+
+		this.monitor = Executors.newSingleThreadScheduledExecutor(runnable ->
+		{
+			Thread thread = new Thread(runnable, "replica-lag-monitor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.monitor.scheduleWithFixedDelay(this::checkLag, 0, lagCheckInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Sets the token of the request being served by this thread, used to find the
+	 * writes made by the same user.
+	 *
+	 * @param token - the token of the request or null if it is not authenticated.
+	 */
+	public static void bindToken(String token)
+	{
+		SHARED_WINDOW.remove();
+
+		if (token == null)
+		{
+			TOKEN.remove();
+		}
+		else
+		{
+			TOKEN.set(token);
+		}
+	}
+
+	/**
+	 * @return the token of the request being served by this thread or null.
+	 */
+	public static String getBoundToken()
+	{
+		return TOKEN.get();
+	}
+
+	/**
+	 * Returns a connection to the replica if it is safe to read from it.
+	 *
+	 * @return the connection or null if the read should go to the primary.
+	 */
+	Connection getReadConnection()
+	{
+		String token = TOKEN.get();
+
+		if (token != null)
+		{
+			long now = System.currentTimeMillis();
+			Long until = this.recentWrites.get(token);
+
+			if (until != null && until > now || this.sharedWindow && this.getSharedWindow(token) > now)
+			{
+				this.windowReads.incrementAndGet();
+				return null;
+			}
+		}
+
+		long currentLag = this.lag;
+
+		if (currentLag == UNKNOWN_LAG || currentLag > this.maxLag)
+		{
+			this.lagFallbacks.incrementAndGet();
+			return null;
+		}
+
+		try
+		{
+			Connection connection = this.replica.getConnection();
+			this.replicaReads.incrementAndGet();
+			return connection;
+		}
+		catch (SQLException e)
+		{
+			logger.warn("Failed to get a connection to the replica, reading from the primary", e);
+			this.errorFallbacks.incrementAndGet();
+			return null;
+		}
+	}
+
+	/**
+	 * Records that the request being served by this thread wrote to the primary,
+	 * its reads will go to the primary until the replica has had time to catch up.
+	 */
+	void recordWrite()
+	{
+		String token = TOKEN.get();
+
+		if (token == null)
+		{
+			return;
+		}
+
+		long until = System.currentTimeMillis() + this.readYourWritesWindow;
+		this.recentWrites.put(token, until);
+
+		if (!this.sharedWindow)
+		{
+			return;
+		}
+		SHARED_WINDOW.set(until);
+
+		Connection connection = null;
+		PreparedStatement statement = null;
+
+		try
+		{
+			connection = this.primary.getConnection();
+			statement = connection.prepareStatement("INSERT INTO RecentWrite(tokenDigest, expires) VALUES (?, ?) "
+					+ "ON DUPLICATE KEY UPDATE expires = GREATEST(expires, VALUES(expires));");
+			statement.setString(1, digest(token));
+			statement.setLong(2, until);
+			statement.executeUpdate();
+		}
+		catch (SQLException e)
+		{
+			// Other servers may read from the replica before it has caught up.
+			logger.warn("Failed to share the window of a write", e);
+			this.windowErrors.incrementAndGet();
+		}
+		finally
+		{
+			close(statement, connection);
+		}
+	}
+
+	/**
+	 * Reads when the shared window of a token ends, once for each request.
+	 *
+	 * @param token - the token of the request.
+	 * @return when the window ends, 0 if the token has not written, or the longest time
+	 *         possible if the window could not be read so that the read goes to the primary.
+	 */
+	private long getSharedWindow(String token)
+	{
+		Long cached = SHARED_WINDOW.get();
+
+		if (cached != null)
+		{
+			return cached;
+		}
+
+		this.windowLookups.incrementAndGet();
+
+		long until = 0;
+		Connection connection = null;
+		PreparedStatement statement = null;
+		ResultSet resultSet = null;
+
+		try
+		{
+			connection = this.primary.getConnection();
+			statement = connection.prepareStatement("SELECT expires FROM RecentWrite WHERE tokenDigest = ?;");
+			statement.setString(1, digest(token));
+			resultSet = statement.executeQuery();
+
+			if (resultSet.next())
+			{
+				until = resultSet.getLong(1);
+			}
+		}
+		catch (SQLException e)
+		{
+			logger.warn("Failed to read the window of a token, reading from the primary", e);
+			this.windowErrors.incrementAndGet();
+			until = Long.MAX_VALUE;
+		}
+		finally
+		{
+			close(resultSet, statement, connection);
+		}
+
+		SHARED_WINDOW.set(until);
+		return until;
+	}
+
+	/**
+	 * Stops checking the lag and closes the connections to the replica.
+	 */
+	void shutdown()
+	{
+		this.monitor.shutdownNow();
+		this.replica.shutdown();
+	}
+
+	/**
+	 * @return the pool of connections to the replica.
+	 */
+	public ConnectionPool getPool()
+	{
+		return this.replica;
+	}
+
+	/**
+	 * @return the last lag reported by the replica in seconds, -1 if it is not known.
+	 */
+	public long getLag()
+	{
+		return this.lag;
+	}
+
+	/**
+	 * Writes the routing metrics as a JSON object.
+	 *
+	 * @param json - the builder to append to.
+	 * @return the builder.
+	 */
+	public StringBuilder appendJson(StringBuilder json)
+	{
+		json.append("{\"lagSeconds\":").append(this.lag)
+			.append(",\"maxLagSeconds\":").append(this.maxLag)
+			.append(",\"replicaReads\":").append(this.replicaReads.get())
+			.append(",\"readYourWritesReads\":").append(this.windowReads.get())
+			.append(",\"lagFallbacks\":").append(this.lagFallbacks.get())
+			.append(",\"errorFallbacks\":").append(this.errorFallbacks.get())
+			.append(",\"sharedWindow\":").append(this.sharedWindow)
+			.append(",\"windowLookups\":").append(this.windowLookups.get())
+			.append(",\"windowErrors\":").append(this.windowErrors.get())
+			.append(",\"pool\":");
+
+		return this.replica.appendJson(json).append("}");
+	}
+
+	/**
+	 * Asks the replica how far behind the primary it is and forgets writes
+	 * that the replica has had time to catch up with.
+	 */
+	private void checkLag()
+	{
+		long now = System.currentTimeMillis();
+		this.recentWrites.values().removeIf(until -> until <= now);
+
+		if (this.sharedWindow && now - this.lastPurge >= this.readYourWritesWindow)
+		{
+			this.purgeSharedWindows(now);
+		}
+
+		Connection connection = null;
+		Statement statement = null;
+		ResultSet resultSet = null;
+
+		try
+		{
+			connection = this.replica.getConnection();
+			statement = connection.createStatement();
+			resultSet = statement.executeQuery("SHOW SLAVE STATUS");
+
+			long reported = UNKNOWN_LAG;
+
+			if (resultSet.next())
+			{
+				reported = resultSet.getLong("Seconds_Behind_Master");
+
+				if (resultSet.wasNull())
+				{
+					// Replication is stopped.
+					reported = UNKNOWN_LAG;
+				}
+			}
+
+			if (reported == UNKNOWN_LAG && this.lag != UNKNOWN_LAG)
+			{
+				logger.warn("The replica is not replicating, reading from the primary");
+			}
+			this.lag = reported;
+		}
+		catch (SQLException e)
+		{
+			logger.warn("Failed to check the replica lag, reading from the primary", e);
+			this.lag = UNKNOWN_LAG;
+		}
+		finally
+		{
+			close(resultSet, statement, connection);
+		}
+	}
+
+	/**
+	 * Deletes the shared windows that have ended. Runs on the lag monitor.
+	 *
+	 * @param now - the current time.
+	 */
+	private void purgeSharedWindows(long now)
+	{
+		Connection connection = null;
+		PreparedStatement statement = null;
+
+		try
+		{
+			connection = this.primary.getConnection();
+			statement = connection.prepareStatement("DELETE FROM RecentWrite WHERE expires <= ?;");
+			statement.setLong(1, now);
+			statement.executeUpdate();
+			this.lastPurge = now;
+		}
+		catch (SQLException e)
+		{
+			logger.warn("Failed to delete the windows of old writes", e);
+		}
+		finally
+		{
+			close(statement, connection);
+		}
+	}
+
+	/**
+	 * @param token - the token of a request.
+	 * @return the hex SHA-256 digest of the token, so the tokens themselves are not stored.
+	 */
+	static String digest(String token)
+	{
+		try
+		{
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder(hash.length * 2);
+
+			for (byte b : hash)
+			{
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// Every Java platform has SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Closes the elements of a query, ignoring any that were not opened.
+	 *
+	 * @param elements - the elements to close.
+	 */
+	private static void close(AutoCloseable... elements)
+	{
+		for (AutoCloseable element : elements)
+		{
+			if (element != null)
+			{
+				try
+				{
+					element.close();
+				}
+				catch (Exception e)
+				{
+					logger.error("Database elements failed to close, resources may be leaking.", e);
+				}
+			}
+		}
+	}
+}
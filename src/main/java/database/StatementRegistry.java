@@ -0,0 +1,177 @@
+/**
+ *
+ */
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Registry of the prepared statements made on a single connection.
+ * Statements are cached by their SQL so that repeated queries on the same connection
+ * reuse the statement rather than preparing it again, and they are all closed
+ * together when the connection is released.
+ *
+ * @author Lawrence
+ */
+public final class StatementRegistry
+{
+	/** Logger **/
+	private final static Logger logger = Logger.getLogger(StatementRegistry.class);
+
+	/** The most statements kept open on a single connection. **/
+	static final int MAX_STATEMENTS = 32;
+
+	/** Number of statements served from the cache. **/
+	private static final AtomicLong HITS = new AtomicLong();
+
+	/** Number of statements that had to be prepared. **/
+	private static final AtomicLong MISSES = new AtomicLong();
+
+	/** Number of statements closed to make room for another. **/
+	private static final AtomicLong EVICTIONS = new AtomicLong();
+
+	/** Number of statements still holding an open result set, or failing to close, when reclaimed. **/
+	private static final AtomicLong LEAKED = new AtomicLong();
+
+	/** The connection the statements are prepared on. **/
+	private final Connection connection;
+
+	/** The open statements, least recently used first. **/
+	private final Map<String, PreparedStatement> statements;
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 *
+	 * @param connection - the connection to prepare statements on.
+	 */
+	StatementRegistry(Connection connection)
+	{
+		this.connection = connection;
+		this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest)
+			{
+				if (size() > MAX_STATEMENTS)
+				{
+					EVICTIONS.incrementAndGet();
+					reclaim(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns a prepared statement for the query, reusing the open one if the
+	 * query has already been prepared on this connection.
+	 *
+	 * @param query - the SQL of the statement.
+	 * @param autoGeneratedKeys - whether generated keys should be returned,
+	 * 		one of the {@link java.sql.Statement} constants.
+	 * @return the statement with its parameters cleared.
+	 * @throws SQLException if the statement cannot be prepared.
+	 */
+	PreparedStatement prepare(String query, int autoGeneratedKeys) throws SQLException
+	{
+		String key = autoGeneratedKeys + query;
+		PreparedStatement stmt = this.statements.get(key);
+
+		if (stmt != null && !stmt.isClosed())
+		{
+			HITS.incrementAndGet();
+			stmt.clearParameters();
+			stmt.clearBatch();
+		}
+		else
+		{
+			MISSES.incrementAndGet();
+			stmt = this.connection.prepareStatement(query, autoGeneratedKeys);
+			this.statements.put(key, stmt);
+		}
+
+		return stmt;
+	}
+
+	/**
+	 * Closes all of the statements, should be called before the connection is released.
+	 */
+	void closeAll()
+	{
+		for (Iterator<PreparedStatement> i = this.statements.values().iterator(); i.hasNext();)
+		{
+			reclaim(i.next());
+			i.remove();
+		}
+	}
+
+	/**
+	 * Closes the given statement, counting it as leaked if its result set was left open.
+	 * The generated keys of a statement are not its result set and cannot be seen here,
+	 * they are closed where they are read.
+	 *
+	 * @param stmt - the statement to close.
+	 */
+	private static void reclaim(PreparedStatement stmt)
+	{
+		try
+		{
+			ResultSet resultSet = stmt.getResultSet();
+
+			if (resultSet != null && !resultSet.isClosed())
+			{
+				LEAKED.incrementAndGet();
+			}
+			stmt.close();
+		}
+		catch (SQLException e)
+		{
+			LEAKED.incrementAndGet();
+			logger.error("Database elements failed to close, resources may be leaking.", e);
+		}
+	}
+
+	/**
+	 * @return the number of statements served from the cache.
+	 */
+	public static long getHits()
+	{
+		return HITS.get();
+	}
+
+	/**
+	 * @return the number of statements that had to be prepared.
+	 */
+	public static long getMisses()
+	{
+		return MISSES.get();
+	}
+
+	/**
+	 * @return the number of statements closed to make room for another.
+	 */
+	public static long getEvictions()
+	{
+		return EVICTIONS.get();
+	}
+
+	/**
+	 * @return the number of statements reclaimed with an open result set, or that failed to close.
+	 */
+	public static long getLeaked()
+	{
+		return LEAKED.get();
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ *
+ */
+package database;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import models.WorkLog;
+
+/**
+ * Position in a list of worklogs ordered by newest start time first, used to
+ * continue a listing from the last worklog returned rather than by an offset.
+ * Handed to clients as an opaque string.
+ *
+ * @author Lawrence
+ */
+public final class WorkLogCursor
+{
+	/** The start time of the last worklog returned. **/
+	private final long startTime;
+
+	/** The id of the last worklog returned, breaks ties between equal start times. **/
+	private final int workLogId;
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 *
+	 * @param startTime - the start time of the last worklog returned.
+	 * @param workLogId - the id of the last worklog returned.
+	 */
+	public WorkLogCursor(long startTime, int workLogId)
+	{
+		this.startTime = startTime;
+		this.workLogId = workLogId;
+	}
+
+	/**
+	 * Creates the cursor that continues after the given worklog.
+	 *
+	 * @param workLog - the last worklog returned.
+	 * @return the cursor.
+	 */
+	public static WorkLogCursor after(WorkLog workLog)
+	{
+		return new WorkLogCursor(workLog.getStartTime(), workLog.getWorkLogId());
+	}
+
+	/**
+	 * Reads a cursor given out by {@link #encode()}.
+	 *
+	 * @param cursor - the encoded cursor.
+	 * @return the cursor.
+	 * @throws IllegalArgumentException if the cursor was not given out by this API.
+	 */
+	public static WorkLogCursor decode(String cursor)
+	{
+		try
+		{
+			String position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+			int separator = position.indexOf(':');
+
+			return new WorkLogCursor(
+					Long.parseLong(position.substring(0, separator)),
+					Integer.parseInt(position.substring(separator + 1)));
+		}
+		catch (RuntimeException e)
+		{
+			throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+		}
+	}
+
+	/**
+	 * @return the cursor as an opaque string safe to use in a url.
+	 */
+	public String encode()
+	{
+		String position = this.startTime + ":" + this.workLogId;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * @return the start time of the last worklog returned.
+	 */
+	public long getStartTime()
+	{
+		return this.startTime;
+	}
+
+	/**
+	 * @return the id of the last worklog returned.
+	 */
+	public int getWorkLogId()
+	{
+		return this.workLogId;
+	}
+
+	@Override
+	public String toString()
+	{
+		return this.encode();
+	}
+}
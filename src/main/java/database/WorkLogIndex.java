@@ -0,0 +1,479 @@
+/**
+ *
+ */
+package database;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import exceptions.DataAccessException;
+import models.WorkLog;
+
+/**
+ * Optional in memory index of the recent worklogs of each business, answering which worklogs
+ * fall in a time range without scanning the indexes of the datastore. The worklogs themselves
+ * are then read by id, or from a small cache of those read recently.
+ * <br />
+ * A business is read from the datastore the first time its worklogs are listed, going back as
+ * far as the configured horizon, and its ranges go to the datastore until that has finished.
+ * Worklogs created by this server are added as they are committed and those created by other
+ * servers are found by polling for new ids. Ids are given out before their transactions commit,
+ * so an id a poll skips over is looked for again by every poll until it is found or is old enough
+ * to have been rolled back. When the index grows past its memory budget the
+ * oldest worklogs of the largest business are dropped, ranges reaching further back than
+ * an index holds always go to the datastore, as do pages whose worklogs could not all be read by id.
+ *
+ * @author Lawrence
+ */
+public final class WorkLogIndex
+{
+	/** Logger **/
+	private final static Logger logger = Logger.getLogger(WorkLogIndex.class);
+
+	/** Whether the index is used at all. **/
+	private static final boolean ENABLED = Boolean.parseBoolean(DatabasePool.getString("db.worklogIndex.enabled"));
+
+	/** How far back, in milliseconds, the worklogs of a business are held. **/
+	private static final long HORIZON = DatabasePool.getLong("db.worklogIndex.horizon");
+
+	/** The most bytes the worklogs of every business may take. **/
+	private static final long MEMORY_BUDGET = DatabasePool.getLong("db.worklogIndex.memoryBudget");
+
+	/** The milliseconds between polls for worklogs created by other servers. **/
+	private static final long POLL_INTERVAL = DatabasePool.getLong("db.worklogIndex.pollInterval");
+
+	/** The most worklogs kept in the cache of those read by id. **/
+	private static final int ROW_CACHE_SIZE = DatabasePool.getInt("db.worklogIndex.rowCacheSize");
+
+	/** The milliseconds an id skipped by the polls is looked for before it is taken to have been rolled back. **/
+	private static final long GAP_TIMEOUT = DatabasePool.getLong("db.worklogIndex.gapTimeout");
+
+	/**
+	 * How far behind the highest id the first poll starts, so that the ids given out but not yet
+	 * committed when the index started are looked for as skipped ids.
+	 */
+	private static final int POLL_OVERLAP = 1000;
+
+	/** The most skipped ids looked for at once, the lowest are given up on past it. **/
+	private static final int MAX_GAPS = 10000;
+
+	/** The share of the largest business dropped at a time when over the memory budget. **/
+	private static final double TRIM_FRACTION = 0.1;
+
+	/** The index of each business whose worklogs have been listed. **/
+	private static final Map<String, BusinessWorkLogIndex> businesses =
+			new ConcurrentHashMap<String, BusinessWorkLogIndex>();
+
+	/** The worklogs read by id most recently, worklogs are never changed once created. **/
+	private static final Map<Integer, WorkLog> rows = new LinkedHashMap<Integer, WorkLog>(16, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, WorkLog> eldest)
+		{
+			return this.size() > ROW_CACHE_SIZE;
+		}
+	};
+
+	/** Reads businesses and polls for new worklogs, one at a time. **/
+	private static ScheduledExecutorService maintenance;
+
+	/** The highest worklog id seen by a poll, -1 until the first business is read. **/
+	private static volatile int lastSeen = -1;
+
+	/** When each id below the highest seen that has not been found was first skipped. **/
+	private static final ConcurrentSkipListMap<Integer, Long> gaps = new ConcurrentSkipListMap<Integer, Long>();
+
+	/** The number of ranges answered by the index. **/
+	private static final AtomicLong hits = new AtomicLong();
+
+	/** The number of ranges sent to the datastore. **/
+	private static final AtomicLong fallbacks = new AtomicLong();
+
+	/** The number of worklogs taken from the cache. **/
+	private static final AtomicLong rowHits = new AtomicLong();
+
+	/** The number of worklogs read by id from the datastore. **/
+	private static final AtomicLong rowMisses = new AtomicLong();
+
+	/** The number of pages read from the datastore because some of their worklogs could not be read by id. **/
+	private static final AtomicLong shortReads = new AtomicLong();
+
+	/** The number of skipped ids found by a later poll. **/
+	private static final AtomicLong gapsFilled = new AtomicLong();
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 */
+	private WorkLogIndex()
+	{
+	}
+
+	/**
+	 * Finds a page of the worklogs of a business starting and ending within a time range, newest first.
+	 *
+	 * @param businessTag - the business of the worklogs.
+	 * @param userName - the employee of the worklogs, null for every employee.
+	 * @param startTime - the earliest time a worklog may start.
+	 * @param endTime - the latest time a worklog may end.
+	 * @param after - the last worklog of the previous page, null for the first page.
+	 * @param limit - the most worklogs to return.
+	 * @return the ids of the worklogs, or null if the range should be read from the datastore.
+	 */
+	public static int[] find(String businessTag, String userName, long startTime, long endTime,
+			WorkLogCursor after, int limit)
+	{
+		if (!ENABLED)
+		{
+			return null;
+		}
+
+		BusinessWorkLogIndex index = businesses.get(businessTag);
+
+		if (index == null)
+		{
+			index = startIndex(businessTag);
+		}
+
+		int[] result = index.find(userName, startTime, endTime, after, limit);
+		(result == null ? fallbacks : hits).incrementAndGet();
+
+		return result;
+	}
+
+	/**
+	 * Adds worklogs that have been committed to the indexes of their businesses.
+	 *
+	 * @param workLogs - the worklogs created.
+	 */
+	public static void added(Collection<WorkLog> workLogs)
+	{
+		if (!ENABLED)
+		{
+			return;
+		}
+
+		for (WorkLog workLog : workLogs)
+		{
+			BusinessWorkLogIndex index = businesses.get(workLog.getBusinessTag());
+
+			if (index != null && workLog.getWorkLogId() > 0)
+			{
+				index.add(workLog.getWorkLogId(), workLog.getUserName(), workLog.getStartTime(), workLog.getEndTime());
+			}
+		}
+	}
+
+	/**
+	 * Checks that every worklog the index found was read. One missing has been committed on the
+	 * primary but not yet reached the replica it was read from, so the page is read by its range.
+	 *
+	 * @param workLogIds - the ids found by the index, null if it did not answer.
+	 * @param workLogs - the worklogs read by id.
+	 * @return whether the page can be returned as read.
+	 */
+	static boolean isComplete(int[] workLogIds, List<WorkLog> workLogs)
+	{
+		if (workLogIds == null)
+		{
+			return false;
+		}
+
+		if (workLogs.size() < workLogIds.length)
+		{
+			shortReads.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns those of the given worklogs that are cached.
+	 *
+	 * @param workLogIds - the ids of the worklogs.
+	 * @return the cached worklogs by id.
+	 */
+	static Map<Integer, WorkLog> getCached(int[] workLogIds)
+	{
+		Map<Integer, WorkLog> result = new HashMap<Integer, WorkLog>();
+
+		synchronized (rows)
+		{
+			for (int workLogId : workLogIds)
+			{
+				WorkLog workLog = rows.get(workLogId);
+
+				if (workLog != null)
+				{
+					result.put(workLogId, workLog);
+				}
+			}
+		}
+
+		rowHits.addAndGet(result.size());
+		rowMisses.addAndGet(workLogIds.length - result.size());
+
+		return result;
+	}
+
+	/**
+	 * Caches worklogs read by id from the datastore.
+	 *
+	 * @param workLogs - the worklogs read.
+	 */
+	static void cache(Collection<WorkLog> workLogs)
+	{
+		synchronized (rows)
+		{
+			for (WorkLog workLog : workLogs)
+			{
+				rows.put(workLog.getWorkLogId(), workLog);
+			}
+		}
+	}
+
+	/**
+	 * Stops polling and forgets every index.
+	 */
+	static synchronized void shutdown()
+	{
+		if (maintenance != null)
+		{
+			maintenance.shutdownNow();
+			maintenance = null;
+		}
+
+		businesses.clear();
+		lastSeen = -1;
+		gaps.clear();
+
+		synchronized (rows)
+		{
+			rows.clear();
+		}
+	}
+
+	/**
+	 * Writes the index metrics as a JSON object.
+	 *
+	 * @param json - the builder to append to.
+	 * @return the builder.
+	 */
+	public static StringBuilder appendJson(StringBuilder json)
+	{
+		long entries = 0;
+		long bytes = 0;
+
+		for (BusinessWorkLogIndex index : businesses.values())
+		{
+			entries += index.size();
+			bytes += index.bytes();
+		}
+
+		return json.append("{\"enabled\":").append(ENABLED)
+			.append(",\"businesses\":").append(businesses.size())
+			.append(",\"worklogs\":").append(entries)
+			.append(",\"bytes\":").append(bytes)
+			.append(",\"memoryBudget\":").append(MEMORY_BUDGET)
+			.append(",\"hits\":").append(hits.get())
+			.append(",\"fallbacks\":").append(fallbacks.get())
+			.append(",\"rowHits\":").append(rowHits.get())
+			.append(",\"rowMisses\":").append(rowMisses.get())
+			.append(",\"shortReads\":").append(shortReads.get())
+			.append(",\"gaps\":").append(gaps.size())
+			.append(",\"gapsFilled\":").append(gapsFilled.get())
+			.append("}");
+	}
+
+	/**
+	 * Creates the index of a business and has it read from the datastore in the background.
+	 *
+	 * @param businessTag - the business.
+	 * @return the index, not ready until it has been read.
+	 */
+	private static synchronized BusinessWorkLogIndex startIndex(String businessTag)
+	{
+		BusinessWorkLogIndex index = businesses.get(businessTag);
+
+		if (index == null)
+		{
+			if (maintenance == null)
+			{
+				maintenance = Executors.newSingleThreadScheduledExecutor(runnable ->
+				{
+					Thread thread = new Thread(runnable, "worklog-index");
+					thread.setDaemon(true);
+					return thread;
+				});
+				maintenance.scheduleWithFixedDelay(WorkLogIndex::poll, POLL_INTERVAL, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+			}
+
+			index = new BusinessWorkLogIndex(System.currentTimeMillis() - HORIZON);
+			businesses.put(businessTag, index);
+
+			final BusinessWorkLogIndex warming = index;
+			maintenance.execute(() -> warm(businessTag, warming));
+		}
+		return index;
+	}
+
+	/**
+	 * Reads the recent worklogs of a business from the datastore. Runs on the maintenance thread.
+	 *
+	 * @param businessTag - the business.
+	 * @param index - the index to fill.
+	 */
+	private static void warm(String businessTag, BusinessWorkLogIndex index)
+	{
+		try
+		{
+			// Anything committed after the read is found by the polls from here on, the first
+			// poll reads back a little way to find the ids still to commit.
+			if (lastSeen < 0)
+			{
+				lastSeen = Math.max(0, new DBWorkLogQueries().getLastWorkLogId() - POLL_OVERLAP);
+			}
+
+			new DBWorkLogQueries().readWorkLogTimes(businessTag, index.getRetainedFrom(),
+					(workLogId, tag, userName, startTime, endTime) -> index.add(workLogId, userName, startTime, endTime));
+
+			index.setReady();
+			logger.info("Indexed " + index.size() + " worklogs of " + businessTag);
+		}
+		catch (DataAccessException | RuntimeException e)
+		{
+			// Tried again the next time the business is listed.
+			logger.error("Failed to index the worklogs of " + businessTag, e);
+			businesses.remove(businessTag, index);
+		}
+	}
+
+	/**
+	 * Adds the worklogs created since the last poll and those skipped by earlier polls, drops
+	 * those past the horizon and keeps the indexes within the memory budget. Runs on the
+	 * maintenance thread.
+	 */
+	private static void poll()
+	{
+		try
+		{
+			if (lastSeen >= 0)
+			{
+				final long now = System.currentTimeMillis();
+
+				fillGaps(now);
+
+				final int[] highest = { lastSeen };
+
+				new DBWorkLogQueries().readWorkLogTimesAfter(lastSeen,
+						(workLogId, businessTag, userName, startTime, endTime) ->
+						{
+							// Read lowest first, so any id between the last read and this one has not committed yet.
+							for (int skipped = Math.max(highest[0] + 1, workLogId - MAX_GAPS); skipped < workLogId; skipped++)
+							{
+								gaps.put(skipped, now);
+							}
+							add(workLogId, businessTag, userName, startTime, endTime);
+							highest[0] = workLogId;
+						});
+
+				lastSeen = highest[0];
+
+				while (gaps.size() > MAX_GAPS)
+				{
+					gaps.pollFirstEntry();
+				}
+			}
+
+			long horizon = System.currentTimeMillis() - HORIZON;
+			long bytes = 0;
+
+			for (BusinessWorkLogIndex index : businesses.values())
+			{
+				index.trimBefore(horizon);
+				bytes += index.bytes();
+			}
+
+			while (bytes > MEMORY_BUDGET)
+			{
+				BusinessWorkLogIndex largest = null;
+
+				for (BusinessWorkLogIndex index : businesses.values())
+				{
+					if (largest == null || index.bytes() > largest.bytes())
+					{
+						largest = index;
+					}
+				}
+
+				long before = largest.bytes();
+				int dropped = largest.trimBefore(largest.startTimeAt(TRIM_FRACTION) + 1);
+				bytes -= before - largest.bytes();
+
+				if (dropped == 0 && before == largest.bytes())
+				{
+					logger.warn("The worklog index cannot be trimmed within its memory budget");
+					break;
+				}
+			}
+		}
+		catch (DataAccessException | RuntimeException e)
+		{
+			logger.error("Failed to poll for new worklogs", e);
+		}
+	}
+
+	/**
+	 * Looks again for the ids skipped by earlier polls, giving up on those skipped longer ago
+	 * than the gap timeout. Runs on the maintenance thread.
+	 *
+	 * @param now - the time of the poll.
+	 * @throws DataAccessException if the datastore cannot be reached.
+	 */
+	private static void fillGaps(long now) throws DataAccessException
+	{
+		gaps.values().removeIf(skipped -> now - skipped > GAP_TIMEOUT);
+
+		if (gaps.isEmpty())
+		{
+			return;
+		}
+
+		int[] workLogIds = gaps.keySet().stream().mapToInt(Integer::intValue).toArray();
+
+		new DBWorkLogQueries().readWorkLogTimes(workLogIds,
+				(workLogId, businessTag, userName, startTime, endTime) ->
+				{
+					if (gaps.remove(workLogId) != null)
+					{
+						gapsFilled.incrementAndGet();
+					}
+					add(workLogId, businessTag, userName, startTime, endTime);
+				});
+	}
+
+	/**
+	 * Adds a worklog read by a poll to the index of its business, if it has one.
+	 */
+	private static void add(int workLogId, String businessTag, String userName, long startTime, long endTime)
+	{
+		BusinessWorkLogIndex index = businesses.get(businessTag);
+
+		if (index != null)
+		{
+			index.add(workLogId, userName, startTime, endTime);
+		}
+	}
+}
@@ -0,0 +1,26 @@
+/**
+ *
+ */
+package exceptions;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request body is not the JSON expected, so that it can be
+ * told apart from the stream failing.
+ *
+ * @author Lawrence
+ */
+@SuppressWarnings("serial")
+public class MalformedJsonException extends IOException
+{
+	/**
+	 * CLASS CONSTRUCTOR
+	 *
+	 * @param message - what was wrong with the JSON.
+	 */
+	public MalformedJsonException(String message)
+	{
+		super(message);
+	}
+}
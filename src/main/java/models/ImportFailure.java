@@ -0,0 +1,79 @@
+package models;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Class representing an item of an import that could not be stored.
+ * 
+ * @author Lawrence
+ */
+@XmlRootElement
+public class ImportFailure
+{
+	/** The position of the item in the import, starting from 0 */
+	private int index;
+
+	/** Why the item could not be stored */
+	private String message;
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 */
+	public ImportFailure()
+	{
+		this.index = -1;
+		this.message = "";
+	}
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 * 
+	 * @param index - the position of the item in the import.
+	 * @param message - why the item could not be stored.
+	 */
+	public ImportFailure(final int index, final String message)
+	{
+		this.index = index;
+		this.message = message;
+	}
+
+	/**
+	 * Getter for the position of the item in the import.
+	 * 
+	 * @return the position of the item.
+	 */
+	public int getIndex()
+	{
+		return this.index;
+	}
+
+	/**
+	 * Setter for the position of the item in the import.
+	 * 
+	 * @param index the position of the item.
+	 */
+	public void setIndex(int index)
+	{
+		this.index = index;
+	}
+
+	/**
+	 * Getter for why the item could not be stored.
+	 * 
+	 * @return the reason.
+	 */
+	public String getMessage()
+	{
+		return this.message;
+	}
+
+	/**
+	 * Setter for why the item could not be stored.
+	 * 
+	 * @param message the reason.
+	 */
+	public void setMessage(String message)
+	{
+		this.message = message;
+	}
+}
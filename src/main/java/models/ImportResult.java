@@ -0,0 +1,92 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Class representing the outcome of an import, the ids of the items
+ * stored and the items that could not be.
+ * 
+ * @author Lawrence
+ */
+@XmlRootElement
+public class ImportResult
+{
+	/** The ids of the stored items, in the order they were given */
+	private List<Integer> ids;
+
+	/** The items that could not be stored */
+	private List<ImportFailure> failures;
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 */
+	public ImportResult()
+	{
+		this.ids = new ArrayList<Integer>();
+		this.failures = new ArrayList<ImportFailure>();
+	}
+
+	/**
+	 * Records an item that was stored.
+	 * 
+	 * @param id - the id of the item.
+	 */
+	public void addId(final int id)
+	{
+		this.ids.add(id);
+	}
+
+	/**
+	 * Records an item that could not be stored.
+	 * 
+	 * @param index - the position of the item in the import.
+	 * @param message - why the item could not be stored.
+	 */
+	public void addFailure(final int index, final String message)
+	{
+		this.failures.add(new ImportFailure(index, message));
+	}
+
+	/**
+	 * Getter for the ids of the stored items.
+	 * 
+	 * @return the ids.
+	 */
+	public List<Integer> getIds()
+	{
+		return this.ids;
+	}
+
+	/**
+	 * Setter for the ids of the stored items.
+	 * 
+	 * @param ids the ids.
+	 */
+	public void setIds(List<Integer> ids)
+	{
+		this.ids = ids;
+	}
+
+	/**
+	 * Getter for the items that could not be stored.
+	 * 
+	 * @return the failures.
+	 */
+	public List<ImportFailure> getFailures()
+	{
+		return this.failures;
+	}
+
+	/**
+	 * Setter for the items that could not be stored.
+	 * 
+	 * @param failures the failures.
+	 */
+	public void setFailures(List<ImportFailure> failures)
+	{
+		this.failures = failures;
+	}
+}
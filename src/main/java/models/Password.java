@@ -12,17 +12,18 @@ import java.util.ResourceBundle;
  */
 public class Password
 {
-    private static CredentialHandler ch = null;
+    private static volatile CredentialHandler ch = null;
 
     private final String value;
 
     /**
      * checks the credential handler has been created, if it has not then it creates it.
+     * Synchronized as passwords are hashed by several threads during imports.
      *
      * @return the credential handler
      * @throws NoSuchAlgorithmException if the credential handler algorithm is not supported
      */
-    private static CredentialHandler checkCredentialHandler() throws NoSuchAlgorithmException
+    private static synchronized CredentialHandler checkCredentialHandler() throws NoSuchAlgorithmException
     {
         if (ch == null)
         {
@@ -44,8 +45,7 @@ public class Password
      */
     public static String mutate(final String input) throws NoSuchAlgorithmException
     {
-        checkCredentialHandler();
-        return ch.mutate(input);
+        return (ch == null ? checkCredentialHandler() : ch).mutate(input);
     }
 
     /**
@@ -90,8 +90,7 @@ public class Password
      */
     public boolean matches(final String plainText) throws NoSuchAlgorithmException
     {
-        checkCredentialHandler();
-        return ch.matches(plainText, this.value);
+        return (ch == null ? checkCredentialHandler() : ch).matches(plainText, this.value);
     }
 
     @Override
@@ -0,0 +1,70 @@
+package models;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Class representing the signed tokens given to an account that logs in.
+ *
+ * @author Matt Rayner
+ */
+@XmlRootElement
+public class TokenPair
+{
+	/** The token to access the API with **/
+	@XmlElement
+	private String accessToken;
+
+	/** The token to get a new pair with once the access token has expired **/
+	@XmlElement
+	private String refreshToken;
+
+	/** When the access token expires, in milliseconds since the epoch **/
+	@XmlElement
+	private long expires;
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 */
+	public TokenPair()
+	{
+	}
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 *
+	 * @param accessToken - the token to access the API with.
+	 * @param refreshToken - the token to get a new pair with.
+	 * @param expires - when the access token expires.
+	 */
+	public TokenPair(String accessToken, String refreshToken, long expires)
+	{
+		this.accessToken = accessToken;
+		this.refreshToken = refreshToken;
+		this.expires = expires;
+	}
+
+	/**
+	 * @return the token to access the API with.
+	 */
+	public String getAccessToken()
+	{
+		return this.accessToken;
+	}
+
+	/**
+	 * @return the token to get a new pair with.
+	 */
+	public String getRefreshToken()
+	{
+		return this.refreshToken;
+	}
+
+	/**
+	 * @return when the access token expires.
+	 */
+	public long getExpires()
+	{
+		return this.expires;
+	}
+}
@@ -0,0 +1,296 @@
+/**
+ *
+ */
+package utilities;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import exceptions.DataAccessException;
+import models.ImportResult;
+
+/**
+ * Pipeline for imports whose items carry a password to hash. The hashing is CPU bound,
+ * so it is spread over a small pool of workers, half the cores unless configured, while the thread
+ * running the import takes the hashed items from a bounded queue and stores them in chunks.
+ * Hashing and storing overlap, and at most a fixed number of items are hashed ahead of the store.
+ *
+ * @author Lawrence
+ */
+public final class CredentialPipeline
+{
+	/** Logger **/
+	private final static Logger logger = Logger.getLogger(CredentialPipeline.class);
+
+	/** The settings of the pipeline. **/
+	private static final Settings AUTH_SETTINGS = new Settings("auth"); //NON-NLS
+
+	/** The number of workers, left below the cores so an import cannot take every one from the requests. **/
+	private static final int THREADS = AUTH_SETTINGS.getThreads("auth.import.threads", Settings.halfTheCores());
+
+	/** The workers shared by every import. **/
+	private static final ExecutorService HASHERS;
+
+	static
+	{
+		final AtomicInteger count = new AtomicInteger();
+
+		HASHERS = Executors.newFixedThreadPool(THREADS, runnable ->
+		{
+			Thread thread = new Thread(runnable, "credential-hasher-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Prepares an item for storing, hashing its password.
+	 *
+	 * @param <T> the type of item imported.
+	 */
+	public interface Hasher<T>
+	{
+		/**
+		 * @param item - the item to prepare.
+		 * @return null if the item can be stored, otherwise why it cannot be.
+		 * @throws Exception if the password cannot be hashed.
+		 */
+		String hash(T item) throws Exception;
+	}
+
+	/**
+	 * Stores a chunk of prepared items.
+	 *
+	 * @param <T> the type of item imported.
+	 */
+	public interface ChunkStore<T>
+	{
+		/**
+		 * @param chunk - the items to store, by their position in the import.
+		 * @param result - receives the ids of the stored items and the positions of those that failed.
+		 * @throws DataAccessException if the datastore cannot be reached.
+		 */
+		void store(Map<Integer, T> chunk, ImportResult result) throws DataAccessException;
+	}
+
+	/**
+	 * An item that has been through the hashers.
+	 *
+	 * @param <T> the type of item imported.
+	 */
+	private static final class Hashed<T>
+	{
+		/** The order the item was given to the hashers in. **/
+		private final int ordinal;
+
+		/** The position of the item in the import. **/
+		private final int position;
+
+		/** The item. **/
+		private final T item;
+
+		/** Why the item cannot be stored, null if it can. **/
+		private final String failure;
+
+		/**
+		 * CLASS CONSTRUCTOR
+		 *
+		 * @param ordinal - the order the item was given to the hashers in.
+		 * @param position - the position of the item in the import.
+		 * @param item - the item.
+		 * @param failure - why the item cannot be stored, null if it can.
+		 */
+		private Hashed(int ordinal, int position, T item, String failure)
+		{
+			this.ordinal = ordinal;
+			this.position = position;
+			this.item = item;
+			this.failure = failure;
+		}
+	}
+
+	/**
+	 * Puts the hashed items back in the order of the import and stores them a chunk at a time.
+	 *
+	 * @param <T> the type of item imported.
+	 */
+	private static final class Chunker<T>
+	{
+		/** Stores the chunks. **/
+		private final ChunkStore<T> store;
+
+		/** The number of items given to the store at once. **/
+		private final int chunkSize;
+
+		/** Receives the ids of the stored items and the positions of those that failed. **/
+		private final ImportResult result;
+
+		/** Items that finished hashing ahead of an item before them, by ordinal. **/
+		private final Map<Integer, Hashed<T>> pending = new TreeMap<Integer, Hashed<T>>();
+
+		/** The items of the next chunk, in order of position. **/
+		private Map<Integer, T> chunk = new LinkedHashMap<Integer, T>();
+
+		/** The ordinal of the next item to go into a chunk. **/
+		private int next = 0;
+
+		/**
+		 * CLASS CONSTRUCTOR
+		 *
+		 * @param store - stores the chunks.
+		 * @param chunkSize - the number of items given to the store at once.
+		 * @param result - receives the ids of the stored items and the positions of those that failed.
+		 */
+		private Chunker(ChunkStore<T> store, int chunkSize, ImportResult result)
+		{
+			this.store = store;
+			this.chunkSize = chunkSize;
+			this.result = result;
+		}
+
+		/**
+		 * Adds a hashed item, along with those after it that were waiting for it,
+		 * storing the chunk each time it is full.
+		 *
+		 * @param hashed - the item.
+		 * @throws DataAccessException if the datastore cannot be reached.
+		 */
+		private void add(Hashed<T> hashed) throws DataAccessException
+		{
+			this.pending.put(hashed.ordinal, hashed);
+
+			for (Hashed<T> ready; (ready = this.pending.remove(this.next)) != null; this.next++)
+			{
+				if (ready.failure == null)
+				{
+					this.chunk.put(ready.position, ready.item);
+				}
+				else
+				{
+					this.result.addFailure(ready.position, ready.failure);
+				}
+
+				if (this.chunk.size() >= this.chunkSize)
+				{
+					this.flush();
+				}
+			}
+		}
+
+		/**
+		 * Stores the items of the chunk so far.
+		 *
+		 * @throws DataAccessException if the datastore cannot be reached.
+		 */
+		private void flush() throws DataAccessException
+		{
+			if (!this.chunk.isEmpty())
+			{
+				this.store.store(this.chunk, this.result);
+				this.chunk = new LinkedHashMap<Integer, T>();
+			}
+		}
+	}
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 */
+	private CredentialPipeline()
+	{
+	}
+
+	/**
+	 * Hashes and stores the items of an import. Returns once every item has been stored or has failed.
+	 * The store is given the items in the order of the import, however they finish hashing.
+	 *
+	 * @param <T> the type of item imported.
+	 * @param items - the items to import, by their position in the import.
+	 * @param hasher - prepares each item, called on the workers.
+	 * @param store - stores the prepared items, called on this thread.
+	 * @param chunkSize - the number of items given to the store at once.
+	 * @param result - receives the ids of the stored items and the positions of those that failed.
+	 * @throws DataAccessException if the datastore cannot be reached, earlier chunks remain stored.
+	 */
+	public static <T> void run(Map<Integer, T> items, Hasher<T> hasher, ChunkStore<T> store,
+			int chunkSize, ImportResult result) throws DataAccessException
+	{
+		run(items, hasher, store, chunkSize, result, HASHERS);
+	}
+
+	/**
+	 * Hashes the items of an import on the given workers and stores them.
+	 *
+	 * @param hashers - the workers the hasher is called on.
+	 * @see #run(Map, Hasher, ChunkStore, int, ImportResult)
+	 */
+	static <T> void run(Map<Integer, T> items, Hasher<T> hasher, ChunkStore<T> store,
+			int chunkSize, ImportResult result, Executor hashers) throws DataAccessException
+	{
+		// Twice a chunk keeps the workers busy while a chunk is stored without holding the whole import.
+		int capacity = 2 * chunkSize;
+		BlockingQueue<Hashed<T>> hashed = new ArrayBlockingQueue<Hashed<T>>(capacity);
+		Chunker<T> chunker = new Chunker<T>(store, chunkSize, result);
+		int submitted = 0;
+		int taken = 0;
+
+		try
+		{
+			for (Map.Entry<Integer, T> entry : items.entrySet())
+			{
+				// Only hash as far ahead as the queue can hold, so the workers never block on it.
+				while (submitted - taken >= capacity)
+				{
+					chunker.add(hashed.take());
+					taken++;
+				}
+
+				final int ordinal = submitted;
+				final int position = entry.getKey();
+				final T item = entry.getValue();
+
+				hashers.execute(() -> hashed.add(hash(ordinal, position, item, hasher)));
+				submitted++;
+			}
+
+			while (taken < submitted)
+			{
+				chunker.add(hashed.take());
+				taken++;
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new DataAccessException("Interrupted while importing", e);
+		}
+
+		chunker.flush();
+	}
+
+	/**
+	 * Runs the hasher on a worker.
+	 *
+	 * @return the hashed item.
+	 */
+	private static <T> Hashed<T> hash(int ordinal, int position, T item, Hasher<T> hasher)
+	{
+		try
+		{
+			return new Hashed<T>(ordinal, position, item, hasher.hash(item));
+		}
+		catch (Exception e)
+		{
+			logger.error("Failed to hash a password", e);
+			return new Hashed<T>(ordinal, position, item, "Server could not authenticate password");
+		}
+	}
+}
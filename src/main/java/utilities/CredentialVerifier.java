@@ -0,0 +1,212 @@
+/**
+ *
+ */
+package utilities;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import models.Account;
+
+/**
+ * Checks the passwords of accounts logging in. Checking a password derives its key again, which
+ * is CPU bound and slow by design, so it runs on a small pool of its own rather than on the threads
+ * answering requests. A storm of logins can then only take those threads, the rest of the API keeps
+ * its share of the cores. Logins queue for a thread up to a limit, past it they are turned away.
+ * <br />
+ * A password that has matched is remembered for a short time, so a client that logs in again and
+ * again is not checked in full each time. Only a digest of the account, its stored hash and the
+ * password is kept, salted with a secret made when the server starts so the digests are of no use
+ * outside of it. A changed password has a different stored hash and so is never matched by the cache.
+ *
+ * @author Lawrence
+ */
+public final class CredentialVerifier
+{
+	/** Logger **/
+	private final static Logger logger = Logger.getLogger(CredentialVerifier.class);
+
+	/** The settings of the verifier. **/
+	private static final Settings AUTH_SETTINGS = new Settings("auth"); //NON-NLS
+
+	/** The number of threads checking passwords. **/
+	private static final int THREADS = AUTH_SETTINGS.getThreads("auth.login.threads", Settings.halfTheCores());
+
+	/** The most logins that may wait for a thread. **/
+	private static final int QUEUE_SIZE = AUTH_SETTINGS.getInt("auth.login.queueSize");
+
+	/** The milliseconds a matched password is remembered for. **/
+	private static final long CACHE_TTL = AUTH_SETTINGS.getLong("auth.login.cacheTtl");
+
+	/** The most matched passwords remembered at once. **/
+	private static final int CACHE_SIZE = AUTH_SETTINGS.getInt("auth.login.cacheSize");
+
+	/** The threads checking passwords. **/
+	private static final ThreadPoolExecutor HASHERS;
+
+	/** The secret the digests of matched passwords are salted with. **/
+	private static final byte[] SALT = new byte[32];
+
+	/** When each matched password is forgotten by its digest. **/
+	private static final Map<String, Long> matched = new ConcurrentHashMap<String, Long>();
+
+	/** The number of passwords checked in full. **/
+	private static final AtomicLong hashed = new AtomicLong();
+
+	/** The number of passwords matched from the cache. **/
+	private static final AtomicLong cacheHits = new AtomicLong();
+
+	/** The number of logins turned away because the queue was full. **/
+	private static final AtomicLong rejected = new AtomicLong();
+
+	static
+	{
+		new SecureRandom().nextBytes(SALT);
+
+		final AtomicInteger count = new AtomicInteger();
+
+		HASHERS = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), runnable ->
+				{
+					Thread thread = new Thread(runnable, "login-hasher-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		HASHERS.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 */
+	private CredentialVerifier()
+	{
+	}
+
+	/**
+	 * Checks the password of an account, on the hashing threads unless it matched recently.
+	 *
+	 * @param account - the account logging in.
+	 * @param password - the plain text password given.
+	 * @return completes with whether the password matches, or with the NoSuchAlgorithmException
+	 *         if the credential handler algorithm is not supported.
+	 * @throws RejectedExecutionException if too many logins are already waiting.
+	 */
+	public static CompletableFuture<Boolean> matches(final Account account, final String password)
+	{
+		final String digest = digest(account, password);
+		final Long expires = matched.get(digest);
+
+		if (expires != null && expires > System.currentTimeMillis())
+		{
+			cacheHits.incrementAndGet();
+			return CompletableFuture.completedFuture(true);
+		}
+
+		final CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+
+		try
+		{
+			HASHERS.execute(() ->
+			{
+				try
+				{
+					boolean matches = account.getStoredPassword().matches(password);
+					hashed.incrementAndGet();
+
+					if (matches)
+					{
+						remember(digest);
+					}
+					result.complete(matches);
+				}
+				catch (NoSuchAlgorithmException | RuntimeException e)
+				{
+					result.completeExceptionally(e);
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			rejected.incrementAndGet();
+			logger.warn("Login turned away, " + QUEUE_SIZE + " logins are already waiting");
+			throw e;
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the verifier metrics as a JSON object.
+	 *
+	 * @param json - the builder to append to.
+	 * @return the builder.
+	 */
+	public static StringBuilder appendJson(StringBuilder json)
+	{
+		return json.append("{\"threads\":").append(THREADS)
+			.append(",\"active\":").append(HASHERS.getActiveCount())
+			.append(",\"queued\":").append(HASHERS.getQueue().size())
+			.append(",\"queueSize\":").append(QUEUE_SIZE)
+			.append(",\"hashed\":").append(hashed.get())
+			.append(",\"cached\":").append(matched.size())
+			.append(",\"cacheHits\":").append(cacheHits.get())
+			.append(",\"rejected\":").append(rejected.get())
+			.append("}");
+	}
+
+	/**
+	 * Remembers a matched password, unless the cache is full of passwords that have not expired.
+	 *
+	 * @param digest - the digest of the account, stored hash and password.
+	 */
+	private static void remember(String digest)
+	{
+		long now = System.currentTimeMillis();
+
+		if (matched.size() >= CACHE_SIZE)
+		{
+			matched.values().removeIf(expires -> expires <= now);
+		}
+		if (matched.size() < CACHE_SIZE)
+		{
+			matched.put(digest, now + CACHE_TTL);
+		}
+	}
+
+	/**
+	 * @param account - the account logging in.
+	 * @param password - the plain text password given.
+	 * @return the salted SHA-256 of the account, its stored hash and the password.
+	 */
+	private static String digest(Account account, String password)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(SALT);
+			// Separated so that no two different logins digest the same text.
+			digest.update((account.getBusinessTag() + '\u0000' + account.getUserName() + '\u0000'
+					+ account.getStoredPassword() + '\u0000' + password).getBytes(StandardCharsets.UTF_8));
+
+			return Base64.getEncoder().encodeToString(digest.digest());
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// Every Java platform has SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+}
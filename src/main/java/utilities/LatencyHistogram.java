@@ -0,0 +1,133 @@
+/**
+ *
+ */
+package utilities;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies using fixed millisecond buckets.
+ * Cheap enough to record on every request, percentiles are estimated
+ * as the upper bound of the bucket they fall in.
+ *
+ * @author Lawrence
+ */
+public final class LatencyHistogram
+{
+	/** The upper bounds of each bucket in milliseconds, the last bucket is unbounded. **/
+	private static final double[] BOUNDS =
+		{0.1, 0.5, 1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+	/** The number of recordings in each bucket. **/
+	private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+
+	/** The number of recordings. **/
+	private final AtomicLong count = new AtomicLong();
+
+	/** The sum of the recordings in nanoseconds. **/
+	private final AtomicLong totalNanos = new AtomicLong();
+
+	/**
+	 * Records a latency.
+	 *
+	 * @param nanos - the latency in nanoseconds.
+	 */
+	public void record(long nanos)
+	{
+		double millis = nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+		int bucket = 0;
+
+		while (bucket < BOUNDS.length && millis > BOUNDS[bucket])
+		{
+			bucket++;
+		}
+
+		this.counts.incrementAndGet(bucket);
+		this.count.incrementAndGet();
+		this.totalNanos.addAndGet(nanos);
+	}
+
+	/**
+	 * @return the number of recordings.
+	 */
+	public long getCount()
+	{
+		return this.count.get();
+	}
+
+	/**
+	 * @return the mean of the recordings in milliseconds.
+	 */
+	public double getMeanMillis()
+	{
+		long recorded = this.count.get();
+		return recorded == 0 ? 0 : this.totalNanos.get() / (double) recorded / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	/**
+	 * Estimates a percentile of the recordings.
+	 *
+	 * @param percentile - the percentile to find, between 0 and 100.
+	 * @return the upper bound in milliseconds of the bucket the percentile falls in,
+	 * 		infinity if it falls in the last bucket and 0 if nothing has been recorded.
+	 */
+	public double getPercentileMillis(double percentile)
+	{
+		long recorded = this.count.get();
+
+		if (recorded == 0)
+		{
+			return 0;
+		}
+
+		long rank = (long) Math.ceil(recorded * percentile / 100);
+		long seen = 0;
+
+		for (int bucket = 0; bucket < BOUNDS.length; bucket++)
+		{
+			seen += this.counts.get(bucket);
+
+			if (seen >= rank)
+			{
+				return BOUNDS[bucket];
+			}
+		}
+
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Writes the histogram as a JSON object.
+	 *
+	 * @param json - the builder to append to.
+	 * @return the builder.
+	 */
+	public StringBuilder appendJson(StringBuilder json)
+	{
+		json.append("{\"count\":").append(this.getCount())
+			.append(",\"meanMs\":").append(this.getMeanMillis())
+			.append(",\"p50Ms\":").append(jsonNumber(this.getPercentileMillis(50)))
+			.append(",\"p99Ms\":").append(jsonNumber(this.getPercentileMillis(99)))
+			.append(",\"buckets\":{");
+
+		for (int bucket = 0; bucket <= BOUNDS.length; bucket++)
+		{
+			json.append(bucket == 0 ? "" : ",")
+				.append("\"le_").append(bucket < BOUNDS.length ? String.valueOf(BOUNDS[bucket]) : "inf")
+				.append("\":").append(this.counts.get(bucket));
+		}
+
+		return json.append("}}");
+	}
+
+	/**
+	 * @param value - the number to write.
+	 * @return the number as JSON, which has no infinity.
+	 */
+	private static String jsonNumber(double value)
+	{
+		return Double.isInfinite(value) ? "null" : String.valueOf(value);
+	}
+}
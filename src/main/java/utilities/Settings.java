@@ -0,0 +1,88 @@
+/**
+ *
+ */
+package utilities;
+
+import java.util.ResourceBundle;
+
+/**
+ * The settings in one of the resource bundles of the API, any setting can be overridden with a
+ * system property of the same name.
+ *
+ * @author Lawrence
+ */
+public final class Settings
+{
+	/** The settings when no system property overrides them. **/
+	private final ResourceBundle bundle;
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 *
+	 * @param bundleName - the name of the resource bundle.
+	 */
+	public Settings(String bundleName)
+	{
+		this.bundle = ResourceBundle.getBundle(bundleName);
+	}
+
+	/**
+	 * Reads a setting, preferring a system property over the resource bundle.
+	 *
+	 * @param key - the name of the setting.
+	 * @return the value of the setting.
+	 */
+	public String getString(String key)
+	{
+		return System.getProperty(key, this.bundle.getString(key));
+	}
+
+	/**
+	 * @param key - the name of the setting.
+	 * @return the value of the setting as an int.
+	 */
+	public int getInt(String key)
+	{
+		return Integer.parseInt(this.getString(key).trim());
+	}
+
+	/**
+	 * @param key - the name of the setting.
+	 * @return the value of the setting as a long.
+	 */
+	public long getLong(String key)
+	{
+		return Long.parseLong(this.getString(key).trim());
+	}
+
+	/**
+	 * @param key - the name of the setting.
+	 * @return the value of the setting as a boolean.
+	 */
+	public boolean getBoolean(String key)
+	{
+		return Boolean.parseBoolean(this.getString(key).trim());
+	}
+
+	/**
+	 * Reads the number of threads of a pool, where 0 or less leaves it to the pool.
+	 *
+	 * @param key - the name of the setting.
+	 * @param otherwise - the number of threads if the setting leaves it to the pool.
+	 * @return the number of threads.
+	 */
+	public int getThreads(String key, int otherwise)
+	{
+		int threads = this.getInt(key);
+
+		return threads > 0 ? threads : otherwise;
+	}
+
+	/**
+	 * @return half the cores, the share of a pool doing CPU bound work that leaves the rest for requests.
+	 */
+	public static int halfTheCores()
+	{
+		return Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	}
+}
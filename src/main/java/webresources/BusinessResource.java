@@ -4,14 +4,21 @@
 package webresources;
 
 import database.DBBusinessQueries;
+import database.DBQueries;
 import exceptions.BadKeyException;
 import exceptions.DataAccessException;
 import models.Business;
 import models.Employee;
+import models.ImportFailure;
+import models.ImportResult;
 import models.Password;
+import utilities.CredentialPipeline;
 import utilities.PasswordUtils;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
@@ -20,7 +27,10 @@ import org.apache.log4j.Logger;
 
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author Lawrence
@@ -37,53 +47,59 @@ public class BusinessResource
 	/**
 	 * Get a business from the API, will return the business for the given tag
 	 * 
-	 * @return the requested business.
+	 * @param response - resumed with the requested business.
 	 */
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
 	@Path("{businessTag}")
-	public Business getBusiness(@PathParam("businessTag") String businessTag) 
-	{	   		
-		try
+	public void getBusiness(@PathParam("businessTag") String businessTag, @Suspended final AsyncResponse response)
+	{
+		DatabaseExecutor.submit(response, () ->
 		{
-			Business result = new DBBusinessQueries().getBusiness(businessTag);
-			
-			if (result != null)
+			try
 			{
-				return result;
+				Business result = new DBBusinessQueries().getBusiness(businessTag);
+			
+				if (result != null)
+				{
+					return result;
+				}
+				else
+				{
+					throw new WebApplicationException(Response.Status.NOT_FOUND);
+				}
 			}
-			else
+			catch (DataAccessException e) 
 			{
-				throw new WebApplicationException(Response.Status.NOT_FOUND);
+				throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
 			}
-		}
-		catch (DataAccessException e) 
-		{
-			throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
-		}
+		});
 	}
 	
 	/**
 	 * Returns all businesses if no tag is given.
 	 * 
-	 * @return the requested business.
+	 * @param response - resumed with the requested business.
 	 */
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
-	public ArrayList<Business> getBusinesss() 
-	{	
-		ArrayList<Business> result = new ArrayList<Business>();
-		
-		try
-		{
-			result = new DBBusinessQueries().getAllBusinesses();
-		}
-		catch (DataAccessException e) 
+	public void getBusinesss(@Suspended final AsyncResponse response)
+	{
+		DatabaseExecutor.submit(response, () ->
 		{
-			throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
-		}
+			ArrayList<Business> result = new ArrayList<Business>();
+		
+			try
+			{
+				result = new DBBusinessQueries().getAllBusinesses();
+			}
+			catch (DataAccessException e) 
+			{
+				throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
+			}
 		
-		return result;
+			return new GenericEntity<List<Business>>(result) {};
+		});
 	}
 	
 	/**
@@ -91,90 +107,138 @@ public class BusinessResource
 	 */
 	@POST
 	@Consumes(MediaType.APPLICATION_JSON)
-	public String postBusiness(Business business)
+	public void postBusiness(Business business, @Suspended final AsyncResponse response)
 	{
-		String returnMessage;
-		
-		try 
+		DatabaseExecutor.submit(response, () ->
 		{
-			Employee employee = business.getDefaultEmployee();
+			String returnMessage;
+		
+			try 
+			{
+				Employee employee = business.getDefaultEmployee();
 			
-			employee.setBusinessTag(business.getBusinessTag());
+				employee.setBusinessTag(business.getBusinessTag());
 
-			// Check the requested password is okay
-			if (employee.getRequestedPassword() != null 
-					&& PasswordUtils.conformsToSecurityRules(employee.getRequestedPassword()))
-			{
-				// Generate the salted hash for the password
-				employee.getAccount().setStoredPassword(
-						Password.fromPlainText(employee.getRequestedPassword()));
-				
-				if (business.isValid())
+				// Check the requested password is okay
+				if (employee.getRequestedPassword() != null 
+						&& PasswordUtils.conformsToSecurityRules(employee.getRequestedPassword()))
 				{
-					new DBBusinessQueries().createBusiness(business);
+					// Generate the salted hash for the password
+					employee.getAccount().setStoredPassword(
+							Password.fromPlainText(employee.getRequestedPassword()));
+				
+					if (business.isValid())
+					{
+						new DBBusinessQueries().createBusiness(business);
 					
-					returnMessage = "Business created succesfully";
-		            LOGGER.info(returnMessage);
-		            return returnMessage;
+						returnMessage = "Business created succesfully";
+			            LOGGER.info(returnMessage);
+			            return returnMessage;
+					}
+					{
+						returnMessage = "Invalid business supplied";
+					}
 				}
+				else
 				{
-					returnMessage = "Invalid business supplied";
+					returnMessage = "Password needs at least 8 characters; one upper case, one lower case and a digit";
 				}
+			
+	            LOGGER.error(returnMessage);
+	            throw new WebApplicationException(returnMessage, 
+	            		Response.status(Status.BAD_REQUEST).entity(returnMessage).build());
 			}
-			else
+			catch (final BadKeyException e)
 			{
-				returnMessage = "Password needs at least 8 characters; one upper case, one lower case and a digit";
+				returnMessage = "Business with given businessTag already exists";
+	            LOGGER.error(returnMessage);
+	            throw new WebApplicationException(returnMessage, e, 
+	            		Response.status(Status.BAD_REQUEST).entity(returnMessage).build());
 			}
-			
-            LOGGER.error(returnMessage);
-            throw new WebApplicationException(returnMessage, 
-            		Response.status(Status.BAD_REQUEST).entity(returnMessage).build());
-		}
-		catch (final BadKeyException e)
-		{
-			returnMessage = "Business with given businessTag already exists";
-            LOGGER.error(returnMessage);
-            throw new WebApplicationException(returnMessage, e, 
-            		Response.status(Status.BAD_REQUEST).entity(returnMessage).build());
-		}
-		catch (final DataAccessException e)
-		{
-			returnMessage = "No data store found";
-            LOGGER.error(returnMessage, e);
-            throw new WebApplicationException(returnMessage, e, 
-            		Response.status(Status.SERVICE_UNAVAILABLE).entity(returnMessage).build());
-		} 
-		catch (NoSuchAlgorithmException e) 
-		{
-            returnMessage = "Server could not authenticate password";
-            LOGGER.error(returnMessage, e);
-            throw new WebApplicationException(returnMessage, e, 
-            		Response.status(Status.INTERNAL_SERVER_ERROR).entity(returnMessage).build());
-		}
+			catch (final DataAccessException e)
+			{
+				returnMessage = "No data store found";
+	            LOGGER.error(returnMessage, e);
+	            throw new WebApplicationException(returnMessage, e, 
+	            		Response.status(Status.SERVICE_UNAVAILABLE).entity(returnMessage).build());
+			} 
+			catch (NoSuchAlgorithmException e) 
+			{
+	            returnMessage = "Server could not authenticate password";
+	            LOGGER.error(returnMessage, e);
+	            throw new WebApplicationException(returnMessage, e, 
+	            		Response.status(Status.INTERNAL_SERVER_ERROR).entity(returnMessage).build());
+			}
+		});
 	}
 	
 	/**
-	 * Create new businesses in the database with the given business objects.
+	 * Create new businesses in the database with the given business objects. The passwords 
+	 * of the initial employees are hashed in parallel while earlier businesses are stored 
+	 * in batches, those that cannot be stored are reported by their position in the list.
+	 * 
+	 * @param response - resumed with the failures.
 	 */
 	@POST
 	@Path("/import")
 	@Consumes(MediaType.APPLICATION_JSON)
-	public String postBusinesses(List<Business> businesses)
+	@Produces(MediaType.APPLICATION_JSON)
+	public void postBusinesses(List<Business> businesses, @Suspended final AsyncResponse response)
 	{
-		for (Business business : businesses)
+		DatabaseExecutor.submit(response, () ->
 		{
-			try {
-				postBusiness(business);
+			ImportResult result = new ImportResult();
+			Map<Integer, Business> valid = new LinkedHashMap<Integer, Business>();
+		
+			for (int i = 0; i < businesses.size(); i++)
+			{
+				Business business = businesses.get(i);
+				Employee employee = business.getDefaultEmployee();
+			
+				if (employee == null)
+				{
+					result.addFailure(i, "Invalid business supplied");
+					continue;
+				}
+			
+				employee.setBusinessTag(business.getBusinessTag());
+			
+				if (employee.getRequestedPassword() != null 
+						&& PasswordUtils.conformsToSecurityRules(employee.getRequestedPassword()))
+				{
+					valid.put(i, business);
+				}
+				else
+				{
+					result.addFailure(i, "Password needs at least 8 characters; one upper case, one lower case and a digit");
+				}
 			}
-			catch (WebApplicationException e)
+		
+			try
 			{
-				LOGGER.info("Failed to add: " + business);
-				LOGGER.info(e.getMessage());
+				CredentialPipeline.run(valid, 
+						business -> 
+						{
+							Employee employee = business.getDefaultEmployee();
+							employee.getAccount().setStoredPassword(
+									Password.fromPlainText(employee.getRequestedPassword()));
+							return business.isValid() ? null : "Invalid business supplied";
+						},
+						(chunk, chunkResult) -> new DBBusinessQueries().createBusinesses(chunk, chunkResult),
+						DBQueries.IMPORT_CHUNK_SIZE, result);
 			}
-		}
-
-		String returnMessage = "All businesses created succesfully";
-        LOGGER.info(returnMessage);
-        return returnMessage;
+			catch (final DataAccessException e)
+			{
+				String returnMessage = "No data store found";
+	            LOGGER.error(returnMessage, e);
+	            throw new WebApplicationException(returnMessage, e, 
+	            		Response.status(Status.SERVICE_UNAVAILABLE).entity(returnMessage).build());
+			}
+		
+			result.getFailures().sort(Comparator.comparingInt(ImportFailure::getIndex));
+			LOGGER.info("Imported " + (businesses.size() - result.getFailures().size()) + " businesses, " 
+					+ result.getFailures().size() + " failed");
+			return result;
+		});
     }
 }
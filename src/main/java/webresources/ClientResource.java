@@ -9,7 +9,10 @@ import exceptions.DataAccessException;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
@@ -18,6 +21,9 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
@@ -25,6 +31,8 @@ import javax.ws.rs.core.Response.Status;
 import org.apache.log4j.Logger;
 
 import models.Client;
+import models.ImportFailure;
+import models.ImportResult;
 
 /**
  * Client resource to handle client processing.
@@ -45,57 +53,63 @@ public class ClientResource
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
 	@Path("{clientId}")
-	public Client getWorkLog(@PathParam("clientId") int clientId)
-	{	
-		Client result = null;
-		try 
+	public void getWorkLog(@PathParam("clientId") int clientId, @Suspended final AsyncResponse response)
+	{
+		DatabaseExecutor.submit(response, () ->
 		{
-			result = new DBClientQueries().getClient(clientId);
-			
-			if (result != null)
+			Client result = null;
+			try 
 			{
-				return result;
+				result = new DBClientQueries().getClient(clientId);
+			
+				if (result != null)
+				{
+					return result;
+				}
+				else
+				{
+					throw new WebApplicationException(Response.Status.NOT_FOUND);
+				}
 			}
-			else
+			catch (DataAccessException e) 
 			{
-				throw new WebApplicationException(Response.Status.NOT_FOUND);
+				throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
 			}
-		}
-		catch (DataAccessException e) 
-		{
-			throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
-		}
+		});
 	}
 	
 	/**
 	 * Returns all clients.
 	 * 
 	 * @param The business tag to get clients for.
-	 * @return the requested client.
+	 * @param response - resumed with the requested client.
 	 */
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
-    public ArrayList<Client> getClients(@PathParam("businessTag") final String businessTag)
-	{	
-		ArrayList<Client> result;
-		
-		try 
+    public void getClients(@PathParam("businessTag") final String businessTag, @Suspended final AsyncResponse response)
+	{
+		DatabaseExecutor.submit(response, () ->
 		{
-			result = new DBClientQueries().getAllClients(businessTag);
-			
-			if (result != null)
+			ArrayList<Client> result;
+		
+			try 
 			{
-				return result;
+				result = new DBClientQueries().getAllClients(businessTag);
+			
+				if (result != null)
+				{
+					return new GenericEntity<List<Client>>(result) {};
+				}
+				else
+				{
+					throw new WebApplicationException(Response.Status.NOT_FOUND);
+				}
 			}
-			else
+			catch (DataAccessException e) 
 			{
-				throw new WebApplicationException(Response.Status.NOT_FOUND);
+				throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
 			}
-		}
-		catch (DataAccessException e) 
-		{
-			throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
-		}
+		});
 	}
 	
 	/**
@@ -113,24 +127,27 @@ public class ClientResource
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
 	@Path("mostWorked/top/{startRange : \\d+}/{endRange : \\d+}/between/{startTimeRange : \\d+}/{endTimeRange : \\d+}")
-	public Collection<Client> getClientbyMostWorkedRange(@PathParam("businessTag") String businessTag,
+	public void getClientbyMostWorkedRange(@PathParam("businessTag") String businessTag,
 			@PathParam("startRange") int startRange, @PathParam("endRange") int endRange,
-			@PathParam("startTimeRange") long startTimeRange, @PathParam("endTimeRange") long endTimeRange)
-	{	
-		Collection<Client> clients = new ArrayList<Client>();
-		
-		try 
+			@PathParam("startTimeRange") long startTimeRange, @PathParam("endTimeRange") long endTimeRange, @Suspended final AsyncResponse response)
+	{
+		DatabaseExecutor.submit(response, () ->
 		{
-			// Minus one to the given values to account for 0th index.
-			clients = new DBClientQueries().getAllClientsbyMostWorkedRangeBetweenTimes(
-							businessTag, startRange - 1, endRange - 1, startTimeRange, endTimeRange);
+			Collection<Client> clients = new ArrayList<Client>();
+		
+			try 
+			{
+				// Minus one to the given values to account for 0th index.
+				clients = new DBClientQueries().getAllClientsbyMostWorkedRangeBetweenTimes(
+								businessTag, startRange - 1, endRange - 1, startTimeRange, endTimeRange);
 			
-			return clients;
-		}
-		catch (DataAccessException e) 
-		{
-			throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
-		}
+				return new GenericEntity<Collection<Client>>(clients) {};
+			}
+			catch (DataAccessException e) 
+			{
+				throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
+			}
+		});
 	}
 	
 	/**
@@ -141,74 +158,104 @@ public class ClientResource
 	 */
 	@POST
 	@Consumes(MediaType.APPLICATION_JSON)
-	public String putClient(@PathParam("businessTag") String businessTag, 
-			Client client)
+	public void putClient(@PathParam("businessTag") String businessTag, 
+			Client client, @Suspended final AsyncResponse response)
 	{
-		String returnMessage;
-		
-		try 
+		DatabaseExecutor.submit(response, () ->
 		{
-            client.setBusinessTag(businessTag);
+			String returnMessage;
+		
+			try 
+			{
+	            client.setBusinessTag(businessTag);
             
-            if (client.isValid())
-            {
-            	new DBClientQueries().createClient(client);
+	            if (client.isValid())
+	            {
+	            	new DBClientQueries().createClient(client);
             	
-    			returnMessage = "Successfully added new client: " + client.getClientId();
-                LOGGER.info(returnMessage);
-    			return returnMessage;
-            }
-            else
-            {
-            	returnMessage = "Given client is not valid. Must contain a name, businessTag and no id.";
-                LOGGER.error(returnMessage);
-                throw new WebApplicationException(returnMessage,
-                		Response.status(Status.BAD_REQUEST).entity(returnMessage).build());
-            }
-		}
-		catch (BadKeyException e)
-		{
-			returnMessage = "A key used already exists in the database";
-            LOGGER.error(returnMessage, e);
-            throw new WebApplicationException(returnMessage, e,
-            		Response.status(Status.BAD_REQUEST).entity(returnMessage).build());
-		}
-		catch (DataAccessException e)
-		{
-			returnMessage = "No datastore found";
-            LOGGER.error(returnMessage, e);
-            throw new WebApplicationException(returnMessage, e,
-            		Response.status(Status.SERVICE_UNAVAILABLE).entity(returnMessage).build());
-		}
+	    			returnMessage = "Successfully added new client: " + client.getClientId();
+	                LOGGER.info(returnMessage);
+	    			return returnMessage;
+	            }
+	            else
+	            {
+	            	returnMessage = "Given client is not valid. Must contain a name, businessTag and no id.";
+	                LOGGER.error(returnMessage);
+	                throw new WebApplicationException(returnMessage,
+	                		Response.status(Status.BAD_REQUEST).entity(returnMessage).build());
+	            }
+			}
+			catch (BadKeyException e)
+			{
+				returnMessage = "A key used already exists in the database";
+	            LOGGER.error(returnMessage, e);
+	            throw new WebApplicationException(returnMessage, e,
+	            		Response.status(Status.BAD_REQUEST).entity(returnMessage).build());
+			}
+			catch (DataAccessException e)
+			{
+				returnMessage = "No datastore found";
+	            LOGGER.error(returnMessage, e);
+	            throw new WebApplicationException(returnMessage, e,
+	            		Response.status(Status.SERVICE_UNAVAILABLE).entity(returnMessage).build());
+			}
+		});
 	}
 	
 	/**
-	 * Post method for creating a new client.
+	 * Post method for creating many clients at once. The clients and their locations are
+	 * stored in batches, those that cannot be stored are reported by their position in the list.
 	 * 
 	 * @param businessTag the id of the business to add to.
 	 * @param clients the clients to add to the datastore.
+	 * @param response - resumed with the ids of the stored clients and the failures.
 	 */
 	@POST
 	@Path("/import")
 	@Consumes(MediaType.APPLICATION_JSON)
-	public String putClients(@PathParam("businessTag") String businessTag, 
-			List<Client> clients)
+	@Produces(MediaType.APPLICATION_JSON)
+	public void putClients(@PathParam("businessTag") String businessTag, 
+			List<Client> clients, @Suspended final AsyncResponse response)
 	{
-		for (Client client : clients)
+		DatabaseExecutor.submit(response, () ->
 		{
-			try {
-				putClient(businessTag, client);
+			ImportResult result = new ImportResult();
+			Map<Integer, Client> valid = new LinkedHashMap<Integer, Client>();
+		
+			for (int i = 0; i < clients.size(); i++)
+			{
+				Client client = clients.get(i);
+				client.setBusinessTag(businessTag);
+			
+				if (client.isValid())
+				{
+					valid.put(i, client);
+				}
+				else
+				{
+					result.addFailure(i, "Given client is not valid. Must contain a name, businessTag and no id.");
+				}
 			}
-			catch (WebApplicationException e)
+		
+			try 
 			{
-				LOGGER.info("Failed to add: " + client);
-				LOGGER.info(e.getMessage());
+				if (!valid.isEmpty())
+				{
+					new DBClientQueries().createClients(valid, result);
+				}
 			}
-		}
-
-		String returnMessage = "All clients created succesfully";
-        LOGGER.info(returnMessage);
-        return returnMessage;	
+			catch (DataAccessException e)
+			{
+				String returnMessage = "No datastore found, " + result.getIds().size() + " clients were stored";
+	            LOGGER.error(returnMessage, e);
+	            throw new WebApplicationException(returnMessage, e,
+	            		Response.status(Status.SERVICE_UNAVAILABLE).entity(returnMessage).build());
+			}
+		
+			result.getFailures().sort(Comparator.comparingInt(ImportFailure::getIndex));
+			LOGGER.info("Imported " + result.getIds().size() + " clients, " + result.getFailures().size() + " failed");
+			return result;
+		});
     }
 }
 
@@ -0,0 +1,338 @@
+/**
+ *
+ */
+package webresources;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.apache.log4j.Logger;
+
+import database.DatabasePool;
+import database.ReplicaRouter;
+import utilities.Settings;
+
+/**
+ * Runs the work of the resources that use the database off the request threads of the container,
+ * so that a slow database cannot take every request thread and stop the API answering at all.
+ * <br />
+ * There are as many threads as connections in the pool, more could only wait for a connection.
+ * Requests queue for a thread up to a limit, past it they are turned away straight away with
+ * 503 and a Retry-After header. A request still queued when the timeout passes gets the same
+ * response and is never run. A request whose work has started may already have written to the
+ * database, so it is answered with 504 and no Retry-After instead, the outcome is unknown and
+ * retrying it could write twice.
+ * <br />
+ * On Java 21 each request can instead run on its own virtual thread, see executor.virtualThreads.
+ * The same number of requests are let in, those past the size of the pool wait for a connection
+ * rather than for a thread, without holding a platform thread while they wait or query.
+ * Nothing that runs on them holds a monitor across a JDBC call, which would pin the carrier thread,
+ * but log4j 1.2 writes every event inside synchronized blocks so verbose logging on the request
+ * path still does.
+ *
+ * @author Lawrence
+ */
+public final class DatabaseExecutor
+{
+	/** Logger **/
+	private static final Logger LOGGER = Logger.getLogger(DatabaseExecutor.class);
+
+	/** The settings of the executor. **/
+	private static final Settings EXECUTOR_SETTINGS = new Settings("executor"); //NON-NLS
+
+	/** The number of threads, 0 for as many as connections in the pool. **/
+	private static final int THREADS = EXECUTOR_SETTINGS.getThreads("executor.threads",
+			DatabasePool.getInt("db.pool.maxTotal"));
+
+	/** The most requests that may wait for a thread. **/
+	private static final int QUEUE_SIZE = EXECUTOR_SETTINGS.getInt("executor.queueSize");
+
+	/** The milliseconds a request may take before it is answered with 503 if queued, 504 if running. **/
+	private static final long TIMEOUT = EXECUTOR_SETTINGS.getLong("executor.timeout");
+
+	/** The seconds clients are asked to wait before trying again. **/
+	private static final String RETRY_AFTER = EXECUTOR_SETTINGS.getString("executor.retryAfter");
+
+	/** The threads running the requests, a new virtual thread for each or a pool of platform threads. **/
+	private static final ExecutorService EXECUTOR = createExecutor();
+
+	/** Whether the requests run on virtual threads. **/
+	private static final boolean VIRTUAL = !(EXECUTOR instanceof ThreadPoolExecutor);
+
+	/** The requests let in on virtual threads, bounded as the threads and queue bound platform threads. **/
+	private static final Semaphore admitted = new Semaphore(THREADS + QUEUE_SIZE);
+
+	/** The number of requests being run. **/
+	private static final AtomicInteger running = new AtomicInteger();
+
+	/** The number of requests that have been run. **/
+	private static final AtomicLong completed = new AtomicLong();
+
+	/** The number of requests turned away because the queue was full. **/
+	private static final AtomicLong rejected = new AtomicLong();
+
+	/** The number of requests answered with 503 or 504 because they took too long. **/
+	private static final AtomicLong timeouts = new AtomicLong();
+
+	/** The number of requests that timed out before they left the queue and so were never run. **/
+	private static final AtomicLong abandoned = new AtomicLong();
+
+	/** A request waiting for a thread. **/
+	private static final int QUEUED = 0;
+
+	/** A request whose work has started. **/
+	private static final int RUNNING = 1;
+
+	/** A request answered by the timeout before it left the queue. **/
+	private static final int TIMED_OUT = 2;
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 */
+	private DatabaseExecutor()
+	{
+	}
+
+	/**
+	 * Runs the work of a request on the executor and resumes the response with its result,
+	 * or with the exception it throws. The token of the request is carried over to the
+	 * thread running it so that its reads still see its own writes.
+	 * <br />
+	 * A task that hands the rest of its work on to another executor returns a CompletionStage,
+	 * the response is resumed once it completes without holding a thread of this executor.
+	 *
+	 * @param response - the suspended response of the request.
+	 * @param task - the work of the request, returns the entity of the response or a stage completing with it.
+	 */
+	public static void submit(final AsyncResponse response, final Callable<?> task)
+	{
+		final String token = ReplicaRouter.getBoundToken();
+		// Whichever of the timeout and the executor moves the request on first decides how it is answered.
+		final AtomicInteger state = new AtomicInteger(QUEUED);
+
+		response.setTimeoutHandler(timedOut ->
+		{
+			timeouts.incrementAndGet();
+
+			if (state.compareAndSet(QUEUED, TIMED_OUT))
+			{
+				LOGGER.warn("Request timed out after " + TIMEOUT + "ms waiting for a thread");
+				timedOut.resume(unavailable("The server took too long to respond"));
+			}
+			else
+			{
+				LOGGER.warn("Request timed out after " + TIMEOUT + "ms while running");
+				timedOut.resume(Response.status(Status.GATEWAY_TIMEOUT)
+						.type(MediaType.TEXT_PLAIN)
+						.entity("The server took too long to respond, the request may still complete")
+						.build());
+			}
+		});
+		response.setTimeout(TIMEOUT, TimeUnit.MILLISECONDS);
+
+		try
+		{
+			execute(() -> run(response, task, token, state));
+		}
+		catch (RejectedExecutionException e)
+		{
+			rejected.incrementAndGet();
+			LOGGER.warn("Request turned away, " + QUEUE_SIZE + " requests are already waiting");
+			response.resume(unavailable("The server is busy"));
+		}
+	}
+
+	/**
+	 * Writes the executor metrics as a JSON object.
+	 *
+	 * @param json - the builder to append to.
+	 * @return the builder.
+	 */
+	public static StringBuilder appendJson(StringBuilder json)
+	{
+		int active = running.get();
+		int queued = VIRTUAL
+				? THREADS + QUEUE_SIZE - admitted.availablePermits() - active
+				: ((ThreadPoolExecutor) EXECUTOR).getQueue().size();
+
+		return json.append("{\"virtualThreads\":").append(VIRTUAL)
+			.append(",\"threads\":").append(THREADS)
+			.append(",\"active\":").append(active)
+			.append(",\"queued\":").append(Math.max(0, queued))
+			.append(",\"queueSize\":").append(QUEUE_SIZE)
+			.append(",\"completed\":").append(completed.get())
+			.append(",\"rejected\":").append(rejected.get())
+			.append(",\"timeouts\":").append(timeouts.get())
+			.append(",\"abandoned\":").append(abandoned.get())
+			.append("}");
+	}
+
+	/**
+	 * Hands a request to the executor. Virtual threads are not pooled, so the requests they hold
+	 * are counted here instead.
+	 *
+	 * @param runnable - the request.
+	 * @throws RejectedExecutionException if too many requests are waiting.
+	 */
+	private static void execute(Runnable runnable)
+	{
+		if (!VIRTUAL)
+		{
+			EXECUTOR.execute(runnable);
+			return;
+		}
+
+		if (!admitted.tryAcquire())
+		{
+			throw new RejectedExecutionException();
+		}
+
+		try
+		{
+			EXECUTOR.execute(() ->
+			{
+				try
+				{
+					runnable.run();
+				}
+				finally
+				{
+					admitted.release();
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			admitted.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Runs the work of a request on an executor thread.
+	 *
+	 * @param response - the suspended response of the request.
+	 * @param task - the work of the request.
+	 * @param token - the token of the request or null.
+	 * @param state - whether the request is queued, running or answered by the timeout.
+	 */
+	private static void run(AsyncResponse response, Callable<?> task, String token, AtomicInteger state)
+	{
+		if (!state.compareAndSet(QUEUED, RUNNING))
+		{
+			// Already answered by the timeout, there is no one left to run it for.
+			abandoned.incrementAndGet();
+			return;
+		}
+
+		ReplicaRouter.bindToken(token);
+		running.incrementAndGet();
+
+		try
+		{
+			Object result = task.call();
+
+			if (result instanceof CompletionStage)
+			{
+				((CompletionStage<?>) result).whenComplete((entity, e) ->
+						response.resume(e == null ? entity : unwrap(e)));
+			}
+			else
+			{
+				response.resume(result);
+			}
+		}
+		catch (Throwable e)
+		{
+			response.resume(e);
+		}
+		finally
+		{
+			running.decrementAndGet();
+			completed.incrementAndGet();
+			ReplicaRouter.bindToken(null);
+		}
+	}
+
+	/**
+	 * @param e - the exception a stage completed with.
+	 * @return the exception thrown by the work of the stage.
+	 */
+	private static Throwable unwrap(Throwable e)
+	{
+		return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+	}
+
+	/**
+	 * @param message - why the request was not answered.
+	 * @return a 503 response asking the client to try again later.
+	 */
+	static Response unavailable(String message)
+	{
+		return Response.status(Status.SERVICE_UNAVAILABLE)
+				.header(HttpHeaders.RETRY_AFTER, RETRY_AFTER)
+				.type(MediaType.TEXT_PLAIN)
+				.entity(message)
+				.build();
+	}
+
+	/**
+	 * Creates a virtual thread per task executor when asked for and running on Java 21,
+	 * otherwise the pool of platform threads. Virtual threads are reached by reflection
+	 * so that the API still builds and runs on Java 8.
+	 *
+	 * @return the executor.
+	 */
+	private static ExecutorService createExecutor()
+	{
+		if (EXECUTOR_SETTINGS.getBoolean("executor.virtualThreads"))
+		{
+			try
+			{
+				Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+				builder = builderClass.getMethod("name", String.class, long.class)
+						.invoke(builder, "database-executor-", 1L);
+				ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+
+				LOGGER.info("Requests run on virtual threads");
+				return (ExecutorService) Executors.class
+						.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+			}
+			catch (ReflectiveOperationException e)
+			{
+				LOGGER.warn("Virtual threads need Java 21, requests run on platform threads");
+			}
+		}
+
+		final AtomicInteger count = new AtomicInteger();
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), runnable ->
+				{
+					Thread thread = new Thread(runnable, "database-executor-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		executor.allowCoreThreadTimeOut(true);
+
+		return executor;
+	}
+}
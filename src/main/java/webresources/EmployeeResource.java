@@ -1,15 +1,24 @@
 package webresources;
 
 import models.Employee;
+import models.ImportFailure;
+import models.ImportResult;
 import models.Password;
+import utilities.CredentialPipeline;
 import utilities.PasswordUtils;
 
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
@@ -17,6 +26,7 @@ import javax.ws.rs.core.Response.Status;
 import org.apache.log4j.Logger;
 
 import database.DBEmployeeQueries;
+import database.DBQueries;
 import exceptions.BadKeyException;
 import exceptions.DataAccessException;
 
@@ -36,20 +46,23 @@ public class EmployeeResource
 	 */
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
-    public Collection<Employee> getAllEmployees(@PathParam("businessTag") String businessTag)
+    public void getAllEmployees(@PathParam("businessTag") String businessTag, @Suspended final AsyncResponse response)
     {
-		Collection<Employee> employees = new ArrayList<Employee>();
+    	DatabaseExecutor.submit(response, () ->
+    	{
+			Collection<Employee> employees = new ArrayList<Employee>();
 
-		try 
-		{
-			employees = new DBEmployeeQueries().getAllEmployees(businessTag);
+			try 
+			{
+				employees = new DBEmployeeQueries().getAllEmployees(businessTag);
 			
-			return employees;
-		}
-		catch (DataAccessException e) 
-		{
-			throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
-		}
+				return new GenericEntity<Collection<Employee>>(employees) {};
+			}
+			catch (DataAccessException e) 
+			{
+				throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
+			}
+    	});
     }
     
 	/**
@@ -60,28 +73,31 @@ public class EmployeeResource
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
 	@Path("{userName}")
-	public Employee getEmployee(@PathParam("businessTag") String businessTag,
-			@PathParam("userName") String userName)
-	{	
-		Employee employee = new Employee();
-		
-		try 
+	public void getEmployee(@PathParam("businessTag") String businessTag,
+			@PathParam("userName") String userName, @Suspended final AsyncResponse response)
+	{
+		DatabaseExecutor.submit(response, () ->
 		{
-			employee = new DBEmployeeQueries().getEmployee(userName, businessTag);
-			
-			if (employee != null)
+			Employee employee = new Employee();
+		
+			try 
 			{
-				return employee;
+				employee = new DBEmployeeQueries().getEmployee(userName, businessTag);
+			
+				if (employee != null)
+				{
+					return employee;
+				}
+				else
+				{
+					throw new WebApplicationException(Response.Status.NOT_FOUND);
+				}
 			}
-			else
+			catch (DataAccessException e) 
 			{
-				throw new WebApplicationException(Response.Status.NOT_FOUND);
+				throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
 			}
-		}
-		catch (DataAccessException e) 
-		{
-			throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
-		}
+		});
 	}
 	
 	/**
@@ -99,25 +115,28 @@ public class EmployeeResource
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
 	@Path("mostWorked/top/{startRange : \\d+}/{endRange : \\d+}/between/{startTimeRange : \\d+}/{endTimeRange : \\d+}")
-	public Collection<Employee> getEmployeebyMostWorkedRange(@PathParam("businessTag") String businessTag,
+	public void getEmployeebyMostWorkedRange(@PathParam("businessTag") String businessTag,
 			@PathParam("startRange") int startRange, @PathParam("endRange") int endRange,
-			@PathParam("startTimeRange") long startTimeRange, @PathParam("endTimeRange") long endTimeRange)
-	{	
-		Collection<Employee> employees = new ArrayList<Employee>();
-		
-		try 
+			@PathParam("startTimeRange") long startTimeRange, @PathParam("endTimeRange") long endTimeRange, @Suspended final AsyncResponse response)
+	{
+		DatabaseExecutor.submit(response, () ->
 		{
-			// Minus one to the given values to account for 0th index.
-			employees = new DBEmployeeQueries().getAllEmployeesbyMostWorkedRangeBetweenTimes(
-							businessTag, startRange - 1, endRange - 1, startTimeRange, endTimeRange);
+			Collection<Employee> employees = new ArrayList<Employee>();
+		
+			try 
+			{
+				// Minus one to the given values to account for 0th index.
+				employees = new DBEmployeeQueries().getAllEmployeesbyMostWorkedRangeBetweenTimes(
+								businessTag, startRange - 1, endRange - 1, startTimeRange, endTimeRange);
 			
-			return employees;
+				return new GenericEntity<Collection<Employee>>(employees) {};
 
-		}
-		catch (DataAccessException e) 
-		{
-			throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
-		}
+			}
+			catch (DataAccessException e) 
+			{
+				throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
+			}
+		});
 	}
 	
 	/**
@@ -128,96 +147,134 @@ public class EmployeeResource
 	 */
 	@POST
 	@Consumes(MediaType.APPLICATION_JSON)
-	public String postEmployee(@PathParam("businessTag") String businessTag, 
-			Employee employee)
+	public void postEmployee(@PathParam("businessTag") String businessTag, 
+			Employee employee, @Suspended final AsyncResponse response)
 	{
-		String returnMessage;
-		
-		try 
+		DatabaseExecutor.submit(response, () ->
 		{
-			employee.setBusinessTag(businessTag);
-			
-			// Check the requested password is okay
-			if (employee.getRequestedPassword() != null 
-					&& PasswordUtils.conformsToSecurityRules(employee.getRequestedPassword()))
+			String returnMessage;
+		
+			try 
 			{
-				// Generate the salted hash for the password
-				employee.getAccount().setStoredPassword(
-						Password.fromPlainText(employee.getRequestedPassword()));
-				
-				//Ensure the rest of the employee is valid.
-				if (employee.isValid())
+				employee.setBusinessTag(businessTag);
+			
+				// Check the requested password is okay
+				if (employee.getRequestedPassword() != null 
+						&& PasswordUtils.conformsToSecurityRules(employee.getRequestedPassword()))
 				{
-					new DBEmployeeQueries().createEmployeeAccount(employee);
-					returnMessage = employee.getHoursWorked() == -1 
-							? "Successfully added employee" : "Warning! hours worked cannot be set";
-					LOGGER.info(returnMessage);
-					return returnMessage;
+					// Generate the salted hash for the password
+					employee.getAccount().setStoredPassword(
+							Password.fromPlainText(employee.getRequestedPassword()));
+				
+					//Ensure the rest of the employee is valid.
+					if (employee.isValid())
+					{
+						new DBEmployeeQueries().createEmployeeAccount(employee);
+						returnMessage = employee.getHoursWorked() == -1 
+								? "Successfully added employee" : "Warning! hours worked cannot be set";
+						LOGGER.info(returnMessage);
+						return returnMessage;
+					}
+					else
+					{
+						returnMessage = "Invalid employee supplied";
+					}
 				}
 				else
 				{
-					returnMessage = "Invalid employee supplied";
+					returnMessage = "Password needs at least 8 characters; one upper case, one lower case and a digit";
 				}
+			
+	            LOGGER.error(returnMessage);
+	            throw new WebApplicationException(returnMessage, 
+	            		Response.status(Status.BAD_REQUEST).entity(returnMessage).build());
 			}
-			else
+			catch (final BadKeyException e)
 			{
-				returnMessage = "Password needs at least 8 characters; one upper case, one lower case and a digit";
+				returnMessage = "Employee with given username already exists";
+	            LOGGER.error(returnMessage);
+	            throw new WebApplicationException(returnMessage, e, 
+	            		Response.status(Status.BAD_REQUEST).entity(returnMessage).build());
 			}
-			
-            LOGGER.error(returnMessage);
-            throw new WebApplicationException(returnMessage, 
-            		Response.status(Status.BAD_REQUEST).entity(returnMessage).build());
-		}
-		catch (final BadKeyException e)
-		{
-			returnMessage = "Employee with given username already exists";
-            LOGGER.error(returnMessage);
-            throw new WebApplicationException(returnMessage, e, 
-            		Response.status(Status.BAD_REQUEST).entity(returnMessage).build());
-		}
-		catch (final DataAccessException e)
-		{
-			returnMessage = "No data store found";
-            LOGGER.error(returnMessage, e);
-            throw new WebApplicationException(returnMessage, e, 
-            		Response.status(Status.SERVICE_UNAVAILABLE).entity(returnMessage).build());
-		} 
-		catch (NoSuchAlgorithmException e) 
-		{
-            returnMessage = "Server could not authenticate password";
-            LOGGER.error(returnMessage, e);
-            throw new WebApplicationException(returnMessage, e, 
-            		Response.status(Status.INTERNAL_SERVER_ERROR).entity(returnMessage).build());
+			catch (final DataAccessException e)
+			{
+				returnMessage = "No data store found";
+	            LOGGER.error(returnMessage, e);
+	            throw new WebApplicationException(returnMessage, e, 
+	            		Response.status(Status.SERVICE_UNAVAILABLE).entity(returnMessage).build());
+			} 
+			catch (NoSuchAlgorithmException e) 
+			{
+	            returnMessage = "Server could not authenticate password";
+	            LOGGER.error(returnMessage, e);
+	            throw new WebApplicationException(returnMessage, e, 
+	            		Response.status(Status.INTERNAL_SERVER_ERROR).entity(returnMessage).build());
 
-		}
+			}
+		});
 	}
 	
 	/**
-	 * Post method for creating a new employee.
+	 * Post method for creating many employees at once. The passwords are hashed in parallel
+	 * while earlier employees are stored in batches, those that cannot be stored are reported 
+	 * by their position in the list.
 	 * 
 	 * @param businessTag - The business to add the employee to.
 	 * @param employees - The details of the new employees to create.
+	 * @param response - resumed with the failures.
 	 */
 	@POST
 	@Path("/import")
 	@Consumes(MediaType.APPLICATION_JSON)
-	public String postEmployees(@PathParam("businessTag") String businessTag, 
-			List<Employee> employees)
+	@Produces(MediaType.APPLICATION_JSON)
+	public void postEmployees(@PathParam("businessTag") String businessTag, 
+			List<Employee> employees, @Suspended final AsyncResponse response)
 	{
-		for (Employee employee : employees)
+		DatabaseExecutor.submit(response, () ->
 		{
-			try {
-				postEmployee(businessTag, employee);
+			ImportResult result = new ImportResult();
+			Map<Integer, Employee> valid = new LinkedHashMap<Integer, Employee>();
+		
+			for (int i = 0; i < employees.size(); i++)
+			{
+				Employee employee = employees.get(i);
+				employee.setBusinessTag(businessTag);
+			
+				if (employee.getRequestedPassword() != null 
+						&& PasswordUtils.conformsToSecurityRules(employee.getRequestedPassword()))
+				{
+					valid.put(i, employee);
+				}
+				else
+				{
+					result.addFailure(i, "Password needs at least 8 characters; one upper case, one lower case and a digit");
+				}
 			}
-			catch (WebApplicationException e)
+		
+			try
 			{
-				LOGGER.info("Failed to add: " + employee);
-				LOGGER.info(e.getMessage());
+				CredentialPipeline.run(valid, 
+						employee -> 
+						{
+							employee.getAccount().setStoredPassword(
+									Password.fromPlainText(employee.getRequestedPassword()));
+							return employee.isValid() ? null : "Invalid employee supplied";
+						},
+						(chunk, chunkResult) -> new DBEmployeeQueries().createEmployeeAccounts(chunk, chunkResult),
+						DBQueries.IMPORT_CHUNK_SIZE, result);
 			}
-		}
-
-		String returnMessage = "All employees created succesfully";
-        LOGGER.info(returnMessage);
-        return returnMessage;	
+			catch (final DataAccessException e)
+			{
+				String returnMessage = "No data store found";
+	            LOGGER.error(returnMessage, e);
+	            throw new WebApplicationException(returnMessage, e, 
+	            		Response.status(Status.SERVICE_UNAVAILABLE).entity(returnMessage).build());
+			}
+		
+			result.getFailures().sort(Comparator.comparingInt(ImportFailure::getIndex));
+			LOGGER.info("Imported " + (employees.size() - result.getFailures().size()) + " employees, " 
+					+ result.getFailures().size() + " failed");
+			return result;
+		});
 	}
 }
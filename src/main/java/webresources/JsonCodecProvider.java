@@ -0,0 +1,269 @@
+/**
+ *
+ */
+package webresources;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import org.apache.log4j.Logger;
+
+import codecs.JsonReader;
+import codecs.JsonWriter;
+import codecs.ModelCodecs;
+import exceptions.MalformedJsonException;
+import models.Account;
+import models.Business;
+import models.Client;
+import models.Employee;
+import models.Location;
+import models.WorkLog;
+
+/**
+ * Writes and reads the models, and lists of them, as JSON through their codecs
+ * rather than the JAXB provider. The codecs stream straight to and from the
+ * request and response without reflection or a tree of the document, which
+ * matters most for the long lists of worklogs, clients and employees. The
+ * JSON is the same as the JAXB provider's, which still handles every other type.
+ * <br />
+ * Jersey picks the provider declared for the closest type to the entity, and
+ * the JAXB provider is declared for Object, so there is one provider for each
+ * model and one for collections rather than a single one for Object.
+ *
+ * @author Lawrence
+ */
+public abstract class JsonCodecProvider<T> implements MessageBodyWriter<T>, MessageBodyReader<T>
+{
+	/** Logger **/
+	private static final Logger LOGGER = Logger.getLogger(JsonCodecProvider.class);
+
+	/**
+	 * Writes and reads worklogs.
+	 */
+	@Provider
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	public static final class WorkLogs extends JsonCodecProvider<WorkLog>
+	{
+	}
+
+	/**
+	 * Writes and reads clients.
+	 */
+	@Provider
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	public static final class Clients extends JsonCodecProvider<Client>
+	{
+	}
+
+	/**
+	 * Writes and reads locations.
+	 */
+	@Provider
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	public static final class Locations extends JsonCodecProvider<Location>
+	{
+	}
+
+	/**
+	 * Writes and reads employees.
+	 */
+	@Provider
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	public static final class Employees extends JsonCodecProvider<Employee>
+	{
+	}
+
+	/**
+	 * Writes and reads accounts.
+	 */
+	@Provider
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	public static final class Accounts extends JsonCodecProvider<Account>
+	{
+	}
+
+	/**
+	 * Writes and reads businesses.
+	 */
+	@Provider
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	public static final class Businesses extends JsonCodecProvider<Business>
+	{
+	}
+
+	/**
+	 * Writes and reads collections of any of the models.
+	 */
+	@Provider
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	public static final class Lists extends JsonCodecProvider<Collection<?>>
+	{
+	}
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType)
+	{
+		return modelType(type, genericType) != null;
+	}
+
+	@Override
+	public long getSize(T entity, Class<?> type, Type genericType, Annotation[] annotations,
+			MediaType mediaType)
+	{
+		return -1;
+	}
+
+	@Override
+	public void writeTo(T entity, Class<?> type, Type genericType, Annotation[] annotations,
+			MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
+			throws IOException
+	{
+		JsonWriter json = new JsonWriter(new BufferedWriter(new OutputStreamWriter(entityStream, charset(mediaType))));
+
+		if (entity instanceof Collection)
+		{
+			json.beginArray();
+
+			for (Object model : (Collection<?>) entity)
+			{
+				if (model != null)
+				{
+					ModelCodecs.write(json, model);
+				}
+			}
+			json.endArray();
+		}
+		else
+		{
+			ModelCodecs.write(json, entity);
+		}
+
+		// The container closes the stream.
+		json.flush();
+	}
+
+	@Override
+	public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType)
+	{
+		Class<?> model = modelType(type, genericType);
+		return model == type || (model != null && type.isAssignableFrom(ArrayList.class));
+	}
+
+	@Override
+	public T readFrom(Class<T> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+			MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException
+	{
+		JsonReader json = new JsonReader(new InputStreamReader(entityStream, charset(mediaType)));
+		Class<?> model = modelType(type, genericType);
+
+		try
+		{
+			Object result;
+
+			if (model == type)
+			{
+				result = json.nextIfNull() ? null : ModelCodecs.read(json, model);
+			}
+			else
+			{
+				List<Object> models = new ArrayList<Object>();
+
+				if (json.peek() == JsonReader.Token.BEGIN_ARRAY)
+				{
+					json.beginArray();
+
+					while (json.hasNext())
+					{
+						if (!json.nextIfNull())
+						{
+							models.add(ModelCodecs.read(json, model));
+						}
+					}
+					json.endArray();
+				}
+				else
+				{
+					// A single model is taken as a list of one.
+					models.add(ModelCodecs.read(json, model));
+				}
+				result = models;
+			}
+
+			json.endDocument();
+			return type.cast(result);
+		}
+		catch (MalformedJsonException e)
+		{
+			String returnMessage = "The " + model.getSimpleName() + " given is not valid JSON: " + e.getMessage();
+			LOGGER.warn(returnMessage);
+			throw new WebApplicationException(returnMessage, e,
+					Response.status(Status.BAD_REQUEST).entity(returnMessage).build());
+		}
+	}
+
+	/**
+	 * Finds the model written or read, by itself or in a collection.
+	 *
+	 * @param type - the class of the entity.
+	 * @param genericType - the type of the entity with its type arguments.
+	 * @return the model, or null if the entity is neither a model with a codec nor a collection of one.
+	 */
+	private static Class<?> modelType(Class<?> type, Type genericType)
+	{
+		if (ModelCodecs.hasCodec(type))
+		{
+			return type;
+		}
+		if (Collection.class.isAssignableFrom(type) && genericType instanceof ParameterizedType)
+		{
+			Type[] arguments = ((ParameterizedType) genericType).getActualTypeArguments();
+
+			if (arguments.length == 1 && arguments[0] instanceof Class
+					&& ModelCodecs.hasCodec((Class<?>) arguments[0]))
+			{
+				return (Class<?>) arguments[0];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param mediaType - the type of the entity.
+	 * @return the charset it gives, UTF-8 if none.
+	 */
+	private static Charset charset(MediaType mediaType)
+	{
+		String charset = mediaType == null ? null : mediaType.getParameters().get(MediaType.CHARSET_PARAMETER);
+		return charset == null ? StandardCharsets.UTF_8 : Charset.forName(charset);
+	}
+}
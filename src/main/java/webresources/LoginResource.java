@@ -3,19 +3,24 @@ package webresources;
 import database.DBAccountQueries;
 import exceptions.DataAccessException;
 import models.Account;
+import models.TokenPair;
 
 import org.apache.log4j.Logger;
 
 import authentication.AuthenticationFilter;
+import utilities.CredentialVerifier;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.SecurityContext;
 import javax.ws.rs.core.Response.Status;
 
-import java.security.NoSuchAlgorithmException;
 import java.security.Principal;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * The login resource that provides a range of authentication methods. most notably the ability to login accounts.
@@ -42,26 +47,82 @@ public class LoginResource
     }
 
     /**
-     * Attempt to login to the API.
+     * Attempt to login to the API. The password is checked by {@link CredentialVerifier}, when
+     * too many logins are waiting for it the response is 503.
      * 
      * @param businessTag - The business context to login to.
      * @param username - The user to login to.
      * @param password - The password of the user to attempt to match.
-     * @return a session key to use to access the API.
+     * @param response - resumed with a session key to use to access the API,
+     *                   or with a JSON access and refresh token pair if tokens are signed.
      */
     @POST
     @Consumes("application/x-www-form-urlencoded")
-    public String login(@PathParam("businessTag") final String businessTag,
-                        @FormParam("u") final String username,
-                        @FormParam("p") final String password)
+    public void login(@PathParam("businessTag") final String businessTag,
+                      @FormParam("u") final String username,
+                      @FormParam("p") final String password,
+                      @Suspended final AsyncResponse response)
     {
-        try
+        DatabaseExecutor.submit(response, () ->
         {
-            final Account account = new DBAccountQueries().getAccount(username, businessTag);
-            if (account != null && account.getStoredPassword().matches(password))
+            final Account account;
+            try
+            {
+                account = new DBAccountQueries().getAccount(username, businessTag);
+            }
+            catch (final DataAccessException e)
             {
-                return AuthenticationFilter.addAuthenticatedAccount(account);
+                final String msg = "Could not connect to authentication database"; //todo externalise
+                LOGGER.error(msg, e);
+                throw new WebApplicationException(msg, e, 
+                		Response.status(Status.SERVICE_UNAVAILABLE).entity(msg).build());
             }
+            if (account == null)
+            {
+                throw loginFailed(username);
+            }
+
+            try
+            {
+                // checked on the hashing threads, this thread is free for other requests meanwhile.
+                return CredentialVerifier.matches(account, password).handle((matches, e) ->
+                {
+                    if (e != null)
+                    {
+                        final String msg = "Server could not authenticate password"; //todo externalise
+                        LOGGER.error(msg, e);
+                        throw new WebApplicationException(msg, e, 
+                        		Response.status(Status.INTERNAL_SERVER_ERROR).entity(msg).build());
+                    }
+                    if (!matches)
+                    {
+                        throw loginFailed(username);
+                    }
+                    return loggedIn(account);
+                });
+            }
+            catch (final RejectedExecutionException e)
+            {
+                throw new WebApplicationException(e, DatabaseExecutor.unavailable("The server is busy logging in"));
+            }
+        });
+    }
+
+    /**
+     * Starts a session for an account that has logged in.
+     * 
+     * @param account - the account.
+     * @return the session key, or a JSON access and refresh token pair if tokens are signed.
+     */
+    private static Object loggedIn(final Account account)
+    {
+        if (AuthenticationFilter.usesSignedTokens())
+        {
+            return tokens(AuthenticationFilter.issueTokens(account));
+        }
+        try
+        {
+            return AuthenticationFilter.addAuthenticatedAccount(account);
         }
         catch (final DataAccessException e)
         {
@@ -70,16 +131,75 @@ public class LoginResource
             throw new WebApplicationException(msg, e, 
             		Response.status(Status.SERVICE_UNAVAILABLE).entity(msg).build());
         }
-        catch (final NoSuchAlgorithmException e)
-        {
-            final String msg = "Server could not authenticate password"; //todo externalise
-            LOGGER.error(msg, e);
-            throw new WebApplicationException(msg, e, 
-            		Response.status(Status.INTERNAL_SERVER_ERROR).entity(msg).build());
-        }
+    }
+
+    /**
+     * @param username - the user that failed to login.
+     * @return the exception answering that the login failed.
+     */
+    private static WebApplicationException loginFailed(final String username)
+    {
         final String msg = "username or password is incorrect";
         LOGGER.info("user '" + username + "' failed to login"); //NON-NLS
-        throw new WebApplicationException(msg,
+        return new WebApplicationException(msg,
         		Response.status(Status.FORBIDDEN).entity(msg).build());
     }
+
+    /**
+     * Trade a refresh token for a new access and refresh token pair, only when tokens are signed.
+     * The refresh token and the access token issued with it can not be used again.
+     * 
+     * @param businessTag - The business context of the token.
+     * @param refreshToken - The refresh token.
+     * @param response - resumed with a JSON access and refresh token pair.
+     */
+    @POST
+    @Path("refresh")
+    @Consumes("application/x-www-form-urlencoded")
+    public void refresh(@PathParam("businessTag") final String businessTag,
+                        @FormParam("r") final String refreshToken,
+                        @Suspended final AsyncResponse response)
+    {
+        if (!AuthenticationFilter.usesSignedTokens())
+        {
+            response.resume(new WebApplicationException(Status.NOT_FOUND));
+            return;
+        }
+        DatabaseExecutor.submit(response, () ->
+        {
+            try
+            {
+                // redeemed for every replica before anything else, so it can only be traded once.
+                final Account claimed = refreshToken == null ? null : AuthenticationFilter.redeemRefreshToken(refreshToken);
+                if (claimed != null && claimed.getBusinessTag().equals(businessTag))
+                {
+                    // the account may have been deleted since the token was issued.
+                    final Account account = new DBAccountQueries().getAccount(claimed.getUserName(), businessTag);
+                    if (account != null)
+                    {
+                        return tokens(AuthenticationFilter.issueTokens(account));
+                    }
+                }
+            }
+            catch (final DataAccessException e)
+            {
+                final String msg = "Could not connect to authentication database"; //todo externalise
+                LOGGER.error(msg, e);
+                throw new WebApplicationException(msg, e, 
+                		Response.status(Status.SERVICE_UNAVAILABLE).entity(msg).build());
+            }
+            final String msg = "refresh token is not valid";
+            throw new WebApplicationException(msg,
+            		Response.status(Status.FORBIDDEN).entity(msg).build());
+        });
+    }
+
+    /**
+     * @param tokens - the tokens issued.
+     * @return the response carrying the tokens as JSON.
+     */
+    private static Response tokens(final TokenPair tokens)
+    {
+        return Response.ok(tokens, MediaType.APPLICATION_JSON_TYPE).build();
+    }
 }
@@ -0,0 +1,76 @@
+/**
+ *
+ */
+package webresources;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import authentication.AuthenticationFilter;
+import database.ConnectionPool;
+import database.DatabasePool;
+import database.ReplicaRouter;
+import database.StatementRegistry;
+import database.WorkLogIndex;
+import utilities.CredentialVerifier;
+
+/**
+ * Reports the state of the database pool, statement cache, executor, worklog index, sessions and login.
+ * Only requests carrying auth.metrics.key in the X-Metrics-Key header reach it, see AuthenticationFilter.
+ *
+ * @author Lawrence
+ */
+@Path("/metrics")
+public class MetricsResource
+{
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public String getMetrics()
+	{
+		StringBuilder json = new StringBuilder("{\"pool\":");
+		ConnectionPool pool = DatabasePool.getPool();
+
+		if (pool == null)
+		{
+			json.append("null");
+		}
+		else
+		{
+			pool.appendJson(json);
+		}
+
+		json.append(",\"replica\":");
+		ReplicaRouter router = DatabasePool.getRouter();
+
+		if (router == null)
+		{
+			json.append("null");
+		}
+		else
+		{
+			router.appendJson(json);
+		}
+
+		json.append(",\"statements\":{\"hits\":").append(StatementRegistry.getHits())
+			.append(",\"misses\":").append(StatementRegistry.getMisses())
+			.append(",\"evictions\":").append(StatementRegistry.getEvictions())
+			.append(",\"leaked\":").append(StatementRegistry.getLeaked())
+			.append("}");
+
+		json.append(",\"executor\":");
+		DatabaseExecutor.appendJson(json);
+
+		json.append(",\"worklogIndex\":");
+		WorkLogIndex.appendJson(json);
+
+		json.append(",\"sessions\":");
+		AuthenticationFilter.getTokenStore().appendJson(json);
+
+		json.append(",\"login\":");
+		CredentialVerifier.appendJson(json);
+
+		return json.append("}").toString();
+	}
+}
@@ -3,19 +3,35 @@
  */
 package webresources;
 
+import models.ImportFailure;
+import models.ImportResult;
 import models.WorkLog;
 
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.log4j.Logger;
 
+import codecs.JsonWriter;
+import codecs.WorkLogCodec;
 import database.DBWorkLogQueries;
+import database.WorkLogCursor;
 import exceptions.BadKeyException;
 import exceptions.DataAccessException;
 
@@ -30,6 +46,15 @@ public class WorkLogResource
     /** Logger **/
     private static final Logger LOGGER = Logger.getLogger(WorkLogResource.class);
     
+    /** The number of worklogs in a page when the client does not ask for a size **/
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    
+    /** The most worklogs returned in one page, whatever the client asks for **/
+    private static final int MAX_PAGE_SIZE = 500;
+    
+    /** The response header holding the cursor of the next page, absent on the last page **/
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    
 	/**
 	 * Getter for getting a worklog by its id.
 	 * 
@@ -39,59 +64,70 @@ public class WorkLogResource
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
 	@Path("{workLogId : \\d+}")
-	public WorkLog getWorkLog(@PathParam("businessTag") String businessTag,
-			@PathParam("workLogId") int workLogId)
-	{	
-		WorkLog result = null;
-		try 
+	public void getWorkLog(@PathParam("businessTag") String businessTag,
+			@PathParam("workLogId") int workLogId, @Suspended final AsyncResponse response)
+	{
+		DatabaseExecutor.submit(response, () ->
 		{
-			result = new DBWorkLogQueries().getWorkLog(workLogId);
-			
-			if (result != null)
+			WorkLog result = null;
+			try 
 			{
-				return result;
+				result = new DBWorkLogQueries().getWorkLog(workLogId);
+			
+				if (result != null)
+				{
+					return result;
+				}
+				else
+				{
+					throw new WebApplicationException(Response.Status.NOT_FOUND);
+				}
 			}
-			else
+			catch (DataAccessException e) 
 			{
-				throw new WebApplicationException(Response.Status.NOT_FOUND);
+				throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
 			}
-		}
-		catch (DataAccessException e) 
-		{
-			throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
-		}
+		});
 	}
 	
 	/**
-	 * Getter for getting worklogs by user.
+	 * Getter for getting a page of worklogs by user, newest first.
 	 * 
 	 * @param businessTag the id of the business to add to.
 	 * @param username the user of the worklogs to retrieve.
+	 * @param cursor the cursor given with the previous page, absent for the first page.
+	 * @param limit the number of worklogs in the page.
 	 */
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
 	@Path("/user/{username}")
-	public ArrayList<WorkLog> getWorkLog(@PathParam("businessTag") String businessTag,
-			@PathParam("username") String username)
-	{	
-		ArrayList<WorkLog> result = new ArrayList<WorkLog>();
-		try 
+	public void getWorkLog(@PathParam("businessTag") String businessTag,
+			@PathParam("username") String username,
+			@QueryParam("cursor") String cursor,
+			@QueryParam("limit") Integer limit, @Suspended final AsyncResponse response)
+	{
+		DatabaseExecutor.submit(response, () ->
 		{
-			result = new DBWorkLogQueries().getWorkLogbyUser(username, businessTag);
-			
-			if (result != null)
+			ArrayList<WorkLog> result = new ArrayList<WorkLog>();
+			int pageSize = pageSize(limit);
+			try 
 			{
-				return result;
+				result = new DBWorkLogQueries().getWorkLogbyUser(username, businessTag, readCursor(cursor), pageSize + 1);
+			
+				if (result != null)
+				{
+					return page(result, pageSize);
+				}
+				else
+				{
+					throw new WebApplicationException(Response.Status.NOT_FOUND);
+				}
 			}
-			else
+			catch (DataAccessException e) 
 			{
-				throw new WebApplicationException(Response.Status.NOT_FOUND);
+				throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
 			}
-		}
-		catch (DataAccessException e) 
-		{
-			throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
-		}
+		});
 	}
 	
 	/**
@@ -101,33 +137,42 @@ public class WorkLogResource
 	 * @param userName the username of the employee.
 	 * @param startTime the time to start the range from.
 	 * @param endTime the time to end the range to.
+	 * @param cursor the cursor given with the previous page, absent for the first page.
+	 * @param limit the number of worklogs in the page.
 	 */
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
 	@Path("/user/{userName}/range/{startTime : \\d+}/{endTime : \\d+}")
-	public List<WorkLog> getWorkLogInRangeForEmployee(@PathParam("businessTag") String businessTag,
+	public void getWorkLogInRangeForEmployee(@PathParam("businessTag") String businessTag,
 			@PathParam("userName") String userName,
 			@PathParam("startTime") long startTime,
-			@PathParam("endTime") long endTime)
-	{	
-		List<WorkLog> result = new ArrayList<WorkLog>();
-		try 
+			@PathParam("endTime") long endTime,
+			@QueryParam("cursor") String cursor,
+			@QueryParam("limit") Integer limit, @Suspended final AsyncResponse response)
+	{
+		DatabaseExecutor.submit(response, () ->
 		{
-			result = new DBWorkLogQueries().getAllWorkLogsForTimeRangeAndEmployee(userName, businessTag, startTime, endTime);
-			
-			if (result != null)
+			List<WorkLog> result = new ArrayList<WorkLog>();
+			int pageSize = pageSize(limit);
+			try 
 			{
-				return result;
+				result = new DBWorkLogQueries().getAllWorkLogsForTimeRangeAndEmployee(
+						userName, businessTag, startTime, endTime, readCursor(cursor), pageSize + 1);
+			
+				if (result != null)
+				{
+					return page(result, pageSize);
+				}
+				else
+				{
+					throw new WebApplicationException(Response.Status.NOT_FOUND);
+				}
 			}
-			else
+			catch (DataAccessException e) 
 			{
-				throw new WebApplicationException(Response.Status.NOT_FOUND);
+				throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
 			}
-		}
-		catch (DataAccessException e) 
-		{
-			throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
-		}
+		});
 	}
 	
 	/**
@@ -137,32 +182,155 @@ public class WorkLogResource
 	 * @param userName the username of the employee.
 	 * @param startTime the time to start the range from.
 	 * @param endTime the time to end the range to.
+	 * @param cursor the cursor given with the previous page, absent for the first page.
+	 * @param limit the number of worklogs in the page.
 	 */
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
 	@Path("/range/{startTime : \\d+}/{endTime : \\d+}")
-	public List<WorkLog> getWorkLogInRange(@PathParam("businessTag") String businessTag,
+	public void getWorkLogInRange(@PathParam("businessTag") String businessTag,
 			@PathParam("startTime") long startTime,
-			@PathParam("endTime") long endTime)
-	{	
-		List<WorkLog> result = new ArrayList<WorkLog>();
-		try 
+			@PathParam("endTime") long endTime,
+			@QueryParam("cursor") String cursor,
+			@QueryParam("limit") Integer limit, @Suspended final AsyncResponse response)
+	{
+		DatabaseExecutor.submit(response, () ->
 		{
-			result = new DBWorkLogQueries().getAllWorkLogsForTimeRange(businessTag, startTime, endTime);
-			
-			if (result != null)
+			List<WorkLog> result = new ArrayList<WorkLog>();
+			int pageSize = pageSize(limit);
+			try 
 			{
-				return result;
+				result = new DBWorkLogQueries().getAllWorkLogsForTimeRange(
+						businessTag, startTime, endTime, readCursor(cursor), pageSize + 1);
+			
+				if (result != null)
+				{
+					return page(result, pageSize);
+				}
+				else
+				{
+					throw new WebApplicationException(Response.Status.NOT_FOUND);
+				}
 			}
-			else
+			catch (DataAccessException e) 
 			{
-				throw new WebApplicationException(Response.Status.NOT_FOUND);
+				throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
 			}
+		});
+	}
+	
+	/**
+	 * Get all worklogs in a time range as one JSON array, written as they are read
+	 * from the database rather than collected first. The connection is taken when the
+	 * response starts and given back when the last worklog has been written.
+	 * 
+	 * @param businessTag the id of the business to add to.
+	 * @param startTime the time to start the range from.
+	 * @param endTime the time to end the range to.
+	 */
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	@Path("/range/{startTime : \\d+}/{endTime : \\d+}/stream")
+	public void streamWorkLogInRange(@PathParam("businessTag") String businessTag,
+			@PathParam("startTime") long startTime,
+			@PathParam("endTime") long endTime, @Suspended final AsyncResponse response)
+	{
+		DatabaseExecutor.submit(response, () ->
+		{
+			return (StreamingOutput) output ->
+			{
+				JsonWriter json = new JsonWriter(new BufferedWriter(
+						new OutputStreamWriter(output, StandardCharsets.UTF_8)));
+			
+				try
+				{
+					json.beginArray();
+					new DBWorkLogQueries().streamAllWorkLogsForTimeRange(businessTag, startTime, endTime,
+							workLog -> WorkLogCodec.write(json, workLog));
+					json.endArray();
+					json.flush();
+				}
+				catch (DataAccessException e)
+				{
+					// Once the response has started the status cannot change, so the array is left unfinished.
+					LOGGER.error("Failed to stream worklogs", e);
+					throw new WebApplicationException(Response.Status.BAD_GATEWAY);
+				}
+			};
+		});
+	}
+	
+	/**
+	 * Works out the size of a page, no larger than the most the server will return.
+	 * 
+	 * @param limit the size asked for by the client, null if none was given.
+	 * @return the number of worklogs to return.
+	 */
+	private static int pageSize(Integer limit)
+	{
+		if (limit == null)
+		{
+			return DEFAULT_PAGE_SIZE;
 		}
-		catch (DataAccessException e) 
+		if (limit < 1)
 		{
-			throw new WebApplicationException(Response.Status.BAD_GATEWAY);		
+			String message = "Page limit must be at least 1";
+			throw new WebApplicationException(message,
+					Response.status(Status.BAD_REQUEST).entity(message).build());
 		}
+		return Math.min(limit, MAX_PAGE_SIZE);
+	}
+	
+	/**
+	 * Reads the cursor given by the client.
+	 * 
+	 * @param cursor the cursor from the previous page, null for the first page.
+	 * @return the position to continue from, null for the first page.
+	 */
+	private static WorkLogCursor readCursor(String cursor)
+	{
+		if (cursor == null || cursor.isEmpty())
+		{
+			return null;
+		}
+		try
+		{
+			return WorkLogCursor.decode(cursor);
+		}
+		catch (IllegalArgumentException e)
+		{
+			String message = "Invalid cursor supplied";
+			throw new WebApplicationException(message, e,
+					Response.status(Status.BAD_REQUEST).entity(message).build());
+		}
+	}
+	
+	/**
+	 * Builds the response for a page of worklogs. The worklogs should have been read 
+	 * with one more than the page size, if it is there another page follows.
+	 * 
+	 * @param result the worklogs read, up to one more than the page size.
+	 * @param pageSize the number of worklogs in the page.
+	 * @return the page, with the cursor of the next page if there is one.
+	 */
+	private static Response page(List<WorkLog> result, int pageSize)
+	{
+		List<WorkLog> workLogs = result;
+		String next = null;
+		
+		if (workLogs.size() > pageSize)
+		{
+			workLogs = workLogs.subList(0, pageSize);
+			next = WorkLogCursor.after(workLogs.get(pageSize - 1)).encode();
+		}
+		
+		ResponseBuilder response = Response.ok(new GenericEntity<List<WorkLog>>(workLogs) {});
+		
+		if (next != null)
+		{
+			response.header(NEXT_CURSOR_HEADER, next);
+		}
+		return response.build();
 	}
 	
 	/**
@@ -173,71 +341,101 @@ public class WorkLogResource
 	 */
 	@POST
 	@Consumes(MediaType.APPLICATION_JSON)
-	public String putWorkLog(@PathParam("businessTag") String businessTag,
-			WorkLog workLog)
+	public void putWorkLog(@PathParam("businessTag") String businessTag,
+			WorkLog workLog, @Suspended final AsyncResponse response)
 	{
-		String message;
-
-		try 
+		DatabaseExecutor.submit(response, () ->
 		{
-			workLog.setBusinessTag(businessTag);
-			
-			if (workLog.isValid())
+			String message;
+
+			try 
 			{
-				new DBWorkLogQueries().createWorkLog(workLog);
+				workLog.setBusinessTag(businessTag);
+			
+				if (workLog.isValid())
+				{
+					new DBWorkLogQueries().createWorkLog(workLog);
 				
-				message = "Successfully added worklog";
-	            LOGGER.info(message);
-				return message;
-			}
+					message = "Successfully added worklog";
+		            LOGGER.info(message);
+					return message;
+				}
 			
-			message = "Invalid worklog supplied";
-            LOGGER.error(message);
-            throw new WebApplicationException(message,
-            		Response.status(Status.BAD_REQUEST).entity(message).build());
-		}
-		catch (final BadKeyException e)
-		{
-			message = "Client or employee does not correspond to existing records";
-            LOGGER.error(message);
-            throw new WebApplicationException(message, e,
-            		Response.status(Status.BAD_REQUEST).entity(message).build());
-		}
-		catch (final DataAccessException e)
-		{
-			message = "No data store found";
-            LOGGER.error(message, e);
-            throw new WebApplicationException(message, e,
-            		Response.status(Status.SERVICE_UNAVAILABLE).entity(message).build());
-		}
+				message = "Invalid worklog supplied";
+	            LOGGER.error(message);
+	            throw new WebApplicationException(message,
+	            		Response.status(Status.BAD_REQUEST).entity(message).build());
+			}
+			catch (final BadKeyException e)
+			{
+				message = "Client or employee does not correspond to existing records";
+	            LOGGER.error(message);
+	            throw new WebApplicationException(message, e,
+	            		Response.status(Status.BAD_REQUEST).entity(message).build());
+			}
+			catch (final DataAccessException e)
+			{
+				message = "No data store found";
+	            LOGGER.error(message, e);
+	            throw new WebApplicationException(message, e,
+	            		Response.status(Status.SERVICE_UNAVAILABLE).entity(message).build());
+			}
+		});
 	}
 	
 	/**
-	 * Post method for creating a new worklog.
+	 * Post method for creating many worklogs at once. The worklogs are stored in 
+	 * batches, those that cannot be stored are reported by their position in the list.
 	 * 
 	 * @param businessTag the id of the business to add to.
 	 * @param worklogs - the worklogs to add to the datastore.
+	 * @param response - resumed with the ids of the stored worklogs and the failures.
 	 */
 	@POST
 	@Path("/import")
 	@Consumes(MediaType.APPLICATION_JSON)
-	public String putWorkLogs(@PathParam("businessTag") String businessTag,
-			List<WorkLog> worklogs)
+	@Produces(MediaType.APPLICATION_JSON)
+	public void putWorkLogs(@PathParam("businessTag") String businessTag,
+			List<WorkLog> worklogs, @Suspended final AsyncResponse response)
 	{
-		for (WorkLog worklog : worklogs)
+		DatabaseExecutor.submit(response, () ->
 		{
-			try {
-				putWorkLog(businessTag, worklog);
+			ImportResult result = new ImportResult();
+			Map<Integer, WorkLog> valid = new LinkedHashMap<Integer, WorkLog>();
+		
+			for (int i = 0; i < worklogs.size(); i++)
+			{
+				WorkLog workLog = worklogs.get(i);
+				workLog.setBusinessTag(businessTag);
+			
+				if (workLog.isValid())
+				{
+					valid.put(i, workLog);
+				}
+				else
+				{
+					result.addFailure(i, "Invalid worklog supplied");
+				}
 			}
-			catch (WebApplicationException e)
+		
+			try 
 			{
-				LOGGER.info("Failed to add: " + worklog);
-				LOGGER.info(e.getMessage());
+				if (!valid.isEmpty())
+				{
+					new DBWorkLogQueries().createWorkLogs(valid, result);
+				}
 			}
-		}
-
-		String returnMessage = "All worklogs created succesfully";
-        LOGGER.info(returnMessage);
-        return returnMessage;	
+			catch (final DataAccessException e)
+			{
+				String message = "No data store found, " + result.getIds().size() + " worklogs were stored";
+	            LOGGER.error(message, e);
+	            throw new WebApplicationException(message, e,
+	            		Response.status(Status.SERVICE_UNAVAILABLE).entity(message).build());
+			}
+		
+			result.getFailures().sort(Comparator.comparingInt(ImportFailure::getIndex));
+			LOGGER.info("Imported " + result.getIds().size() + " worklogs, " + result.getFailures().size() + " failed");
+			return result;
+		});
 	}
 }
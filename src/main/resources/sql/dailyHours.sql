@@ -0,0 +1,25 @@
+-- Daily hours rollups used by the mostWorked rankings, see database.DBDailyHoursQueries.
+-- Each row holds the milliseconds worked by an employee, or for a client, on the worklogs
+-- that start on startDay and end on endDay, counted in whole UTC days since the epoch.
+-- After creating the tables fill them from the existing worklogs with database.DailyHoursBackfill.
+
+CREATE TABLE IF NOT EXISTS EmployeeDailyHours (
+	businessTag VARCHAR(64) NOT NULL,
+	startDay BIGINT NOT NULL,
+	userName VARCHAR(64) NOT NULL,
+	endDay BIGINT NOT NULL,
+	hoursWorked BIGINT NOT NULL,
+	PRIMARY KEY (businessTag, startDay, userName, endDay)
+) ENGINE=InnoDB;
+
+CREATE TABLE IF NOT EXISTS ClientDailyHours (
+	businessTag VARCHAR(64) NOT NULL,
+	startDay BIGINT NOT NULL,
+	clientId INT NOT NULL,
+	endDay BIGINT NOT NULL,
+	hoursWorked BIGINT NOT NULL,
+	PRIMARY KEY (businessTag, startDay, clientId, endDay)
+) ENGINE=InnoDB;
+
+-- The worklogs ending on the last, partial, day of a range are found by their end time.
+CREATE INDEX WorkLogEndTime ON WorkLog(businessTag, endTime);
@@ -0,0 +1,43 @@
+-- Sessions shared by every replica of the API when auth.token.store=jdbc, see database.DBSessionQueries.
+-- lastUsed is in milliseconds since the epoch, each replica writes it back every few seconds
+-- rather than on every request. Sessions are deleted when they log out or time out.
+
+CREATE TABLE IF NOT EXISTS Session (
+	token CHAR(32) NOT NULL PRIMARY KEY,
+	userName VARCHAR(64) NOT NULL,
+	businessTag VARCHAR(64) NOT NULL,
+	lastUsed BIGINT NOT NULL,
+	INDEX SessionAccount (businessTag, userName),
+	INDEX SessionLastUsed (lastUsed),
+	FOREIGN KEY (userName, businessTag) REFERENCES Account(userName, businessTag) ON DELETE CASCADE
+) ENGINE=InnoDB;
+
+-- Used when auth.token.mode=signed instead. A signed token is checked without the database, but a refresh
+-- token is only redeemed once its id is added to RevokedToken, so it works once on any replica. Tokens revoked
+-- by logging out and when accounts last logged out everywhere are kept here too. Rows are deleted once every
+-- token they apply to has expired.
+
+CREATE TABLE IF NOT EXISTS RevokedToken (
+	tokenId BIGINT NOT NULL PRIMARY KEY,
+	expires BIGINT NOT NULL,
+	INDEX RevokedTokenExpires (expires)
+) ENGINE=InnoDB;
+
+CREATE TABLE IF NOT EXISTS AccountLogout (
+	userName VARCHAR(64) NOT NULL,
+	businessTag VARCHAR(64) NOT NULL,
+	loggedOut BIGINT NOT NULL,
+	PRIMARY KEY (userName, businessTag),
+	INDEX AccountLogoutLoggedOut (loggedOut),
+	FOREIGN KEY (userName, businessTag) REFERENCES Account(userName, businessTag) ON DELETE CASCADE
+) ENGINE=InnoDB;
+
+-- Used when a read replica is configured with db.replica.sharedWindow=true, see database.ReplicaRouter. After a request
+-- with a token writes, reads with the same token go to the primary until expires on every replica, not only the one
+-- that took the write. The token is kept as its SHA-256 digest. Rows are deleted once their window has passed.
+
+CREATE TABLE IF NOT EXISTS RecentWrite (
+	tokenDigest CHAR(64) NOT NULL PRIMARY KEY,
+	expires BIGINT NOT NULL,
+	INDEX RecentWriteExpires (expires)
+) ENGINE=InnoDB;
@@ -0,0 +1,155 @@
+package authentication;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import database.DatabasePool;
+import database.EmbeddedDatabase;
+import models.Account;
+import models.Password;
+
+/**
+ * Tests of the sessions shared through the database, two stores stand in for two replicas of the API.
+ *
+ * @author Matt Rayner
+ */
+public class JdbcTokenStoreTest
+{
+    private static final long TIMEOUT = 60000;
+    private static final long NEAR_CACHE_TTL = 200;
+
+    /** The database the sessions are stored in. **/
+    private static EmbeddedDatabase database;
+
+    private JdbcTokenStore replica1;
+    private JdbcTokenStore replica2;
+
+    @BeforeClass
+    public static void createDatabase() throws Exception
+    {
+        database = new EmbeddedDatabase("sessions").install();
+        database.execute(
+                "INSERT INTO Business VALUES ('ses', 'Session Business');",
+                "INSERT INTO Account VALUES ('alice', 'hash', 'ses', 'alice@ses');",
+                "INSERT INTO Account VALUES ('bob', 'hash', 'ses', 'bob@ses');");
+    }
+
+    @Before
+    public void createStores() throws Exception
+    {
+        database.execute("DELETE FROM Session;");
+        //flushed and swept by the tests themselves.
+        this.replica1 = new JdbcTokenStore(TIMEOUT, NEAR_CACHE_TTL, 100, 3600000, 3600000);
+        this.replica2 = new JdbcTokenStore(TIMEOUT, NEAR_CACHE_TTL, 100, 3600000, 3600000);
+    }
+
+    @Test
+    public void tokenWorksOnEveryReplica() throws Exception
+    {
+        final String token = this.replica1.add(account("alice"));
+
+        final Account account = this.replica2.get(token);
+        Assert.assertNotNull(account);
+        Assert.assertEquals("alice", account.getUserName());
+        Assert.assertEquals("ses", account.getBusinessTag());
+        Assert.assertNull(this.replica2.get("00000000000000000000000000000000"));
+    }
+
+    @Test
+    public void usesAreCachedAndWrittenBackTogether() throws Exception
+    {
+        final String token = this.replica1.add(account("alice"));
+        final long created = this.lastUsed(token);
+        Thread.sleep(5);
+
+        final long checkouts = DatabasePool.getPool().getCheckouts();
+        for (int i = 0; i < 100; i++)
+        {
+            Assert.assertNotNull(this.replica1.get(token));
+        }
+        Assert.assertEquals("lookups read the database", checkouts, DatabasePool.getPool().getCheckouts());
+        Assert.assertEquals("uses written straight away", created, this.lastUsed(token));
+
+        this.replica1.flush();
+        Assert.assertTrue("uses not written back", this.lastUsed(token) > created);
+    }
+
+    @Test
+    public void logoutIsSeenByEveryReplica() throws Exception
+    {
+        final Account alice = account("alice");
+        final String phone = this.replica1.add(alice);
+        final String laptop = this.replica1.add(alice);
+        final String other = this.replica1.add(account("bob"));
+        Assert.assertNotNull(this.replica2.get(phone));
+
+        Assert.assertFalse(this.replica1.remove(account("bob"), phone));
+        Assert.assertTrue(this.replica1.remove(alice, phone));
+        Assert.assertEquals(1, this.replica1.getSessions(alice).size());
+
+        Assert.assertEquals(1, this.replica1.remove(alice));
+        Assert.assertNull(this.replica1.get(laptop));
+        Assert.assertTrue(this.replica1.getSessions(alice).isEmpty());
+
+        //the other replica trusts its near cache until it is too old.
+        Thread.sleep(NEAR_CACHE_TTL);
+        Assert.assertNull(this.replica2.get(phone));
+        Assert.assertNotNull(this.replica2.get(other));
+    }
+
+    @Test
+    public void expiredSessionsAreRemoved() throws Exception
+    {
+        final String token = this.replica1.add(account("alice"));
+        final String used = this.replica1.add(account("bob"));
+
+        //used on the other replica, which has not written it back when the sessions time out.
+        Assert.assertNotNull(this.replica2.get(used));
+        database.execute("UPDATE Session SET lastUsed = lastUsed - " + TIMEOUT + ";");
+
+        Assert.assertTrue(this.replica2.removeExpired());
+        Thread.sleep(NEAR_CACHE_TTL);
+        Assert.assertNull(this.replica1.get(token));
+        Assert.assertNotNull(this.replica1.get(used));
+        Assert.assertEquals(1, this.count("SELECT COUNT(*) FROM Session;"));
+    }
+
+    /**
+     * @param userName the user of the account.
+     * @return an account of the test business.
+     */
+    private static Account account(final String userName)
+    {
+        return new Account(userName, Password.fromHash("hash"), "ses", userName + "@ses");
+    }
+
+    /**
+     * @param token the token of a session.
+     * @return the last used time of the session as stored in the database.
+     */
+    private long lastUsed(final String token) throws Exception
+    {
+        return this.count("SELECT lastUsed FROM Session WHERE token = '" + token + "';");
+    }
+
+    /**
+     * @param query a query of one number.
+     * @return the number.
+     */
+    private long count(final String query) throws Exception
+    {
+        try (Connection connection = database.getConnection();
+                Statement stmt = connection.createStatement();
+                ResultSet resultSet = stmt.executeQuery(query))
+        {
+            Assert.assertTrue(resultSet.next());
+            return resultSet.getLong(1);
+        }
+    }
+}
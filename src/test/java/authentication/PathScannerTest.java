@@ -0,0 +1,228 @@
+package authentication;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.ResourceBundle;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Differential tests of the exempt path scanner, every path should be exempt exactly when java.util.regex matches
+ * it against one of the rules, and its business tag found where splitting the path into segments finds it.
+ *
+ * @author Matt Rayner
+ */
+public class PathScannerTest
+{
+    private static final int PATHS = 20000;
+
+    /**
+     * the pieces random paths are made of, including every line terminator and a surrogate pair.
+     */
+    private static final String[] PIECES = {
+        "/", "/", "/", "business", "login", "refresh", "loaderio", "metrics", "acme", "a", "b", "1", "-", "_",
+        ";", ";v=1", ".", " ", "\t", "\n", "\r", "\u0085", "\u2028", "\u2029", "\u00e9", "\uffff",
+        "\ud83d\ude00", "%2F",
+    };
+
+    @Test
+    public void shippedRulesMatchAsRegex()
+    {
+        final ResourceBundle auth = ResourceBundle.getBundle("auth");
+        final List<String> rules = new ArrayList<>();
+        for (int i = 0; auth.containsKey("auth.exempt." + i); i++)
+        {
+            rules.add(auth.getString("auth.exempt." + i));
+        }
+        Assert.assertFalse(rules.isEmpty());
+
+        this.assertMatchesRegex(rules, Arrays.asList("", "/", "business", "business/acme", "/business/acme/",
+                "business/acme/login", "business/acme/login/", "business/acme/login/refresh",
+                "business/acme/login/refresh/", "business/acme/employee", "loaderio-1234", "metrics", "/metrics/",
+                "business//login", "business/acme/login/refreshx"));
+        this.assertMatchesRegex(rules, randomPaths(1));
+    }
+
+    @Test
+    public void supportedSyntaxMatchesAsRegex()
+    {
+        this.assertMatchesRegex(Arrays.asList("/?a+b*", "(?:x|yz)?/[a-c]+", "[^/]+/\\d*", "\\w+\\.\\W?",
+                "\\s*\\S+", "[-a]|[a-]", "(a|b)*?c?", "\\.\\\\\\[", "[\\d\\-;]+"),
+                Arrays.asList("a", "/aab", "x/abc", "yz/c", "/a", "acme/12", "a_1.", "a_1.-", " \tab", "-", "a-",
+                        "ababc", ".\\[", "12-;", ""));
+        this.assertMatchesRegex(Arrays.asList("/?a+b*", "(?:x|yz)?/[a-c]+", "[^/]+/\\d*", "\\w+\\.\\W?",
+                "\\s*\\S+", "[-a]|[a-]", "(a|b)*?c?"), randomPaths(2));
+    }
+
+    @Test
+    public void unsupportedSyntaxFallsBackToRegex()
+    {
+        final List<List<String>> ruleSets = Arrays.asList(
+                Collections.singletonList("/?a{2}/?"),
+                Collections.singletonList("(?i)/?business/[^/]*/?"),
+                Collections.singletonList("[a-z&&[^b]]+"),
+                Collections.singletonList("^/?metrics$"),
+                Collections.singletonList("/?a++b"),
+                Collections.singletonList("(?=a)a\\p{L}*"),
+                Arrays.asList("/?login/?", "x{1,3}"));
+
+        for (final List<String> rules : ruleSets)
+        {
+            this.assertMatchesRegex(rules, Arrays.asList("aa", "/aa/", "a", "BUSINESS/Acme", "business/acme/",
+                    "acz", "abc", "metrics", "/metrics", "aab", "a\u00e9", "login", "xx", "xxxx"));
+            this.assertMatchesRegex(rules, randomPaths(3));
+        }
+    }
+
+    @Test
+    public void lineTerminatorsMatchAsRegex()
+    {
+        final List<String> rules = Arrays.asList("/a.b", "/c[^/]d", "/e\\se", "/f\\Sf", "/g.*");
+        final List<String> paths = new ArrayList<>();
+        for (final String terminator : new String[] {"\n", "\r", "\r\n", "\u0085", "\u2028", "\u2029", "\u000b"})
+        {
+            for (final String prefix : new String[] {"/a", "/c", "/e", "/f", "/g"})
+            {
+                paths.add(prefix + terminator + prefix.substring(1));
+                paths.add(prefix + terminator);
+            }
+            paths.add("/g" + terminator);
+            paths.add("/gx" + terminator + "y");
+        }
+        this.assertMatchesRegex(rules, paths);
+    }
+
+    @Test
+    public void emptyRulesMatchNothing()
+    {
+        final PathScanner scanner = PathScanner.compile(Collections.<String>emptyList());
+        for (final String path : Arrays.asList("", "/", "business/acme"))
+        {
+            Assert.assertFalse(PathScanner.isExempt(scanner.scan(path)));
+        }
+    }
+
+    @Test
+    public void businessTagIsFoundBySegment()
+    {
+        final PathScanner scanner = PathScanner.compile(Collections.singletonList("/?business/.*"));
+        final List<String> paths = new ArrayList<>(Arrays.asList("business/acme", "business/acme/employee",
+                "/business/acme", "business;v=1/acme;x=2/worklog", "business", "business/", "a/business/acme/b",
+                "businessx/acme", "xbusiness/acme", "a/b/c", "business/business/acme", "business//acme",
+                "business/\ud83d\ude00/x", ""));
+        paths.addAll(randomPaths(4));
+
+        for (final String path : paths)
+        {
+            final long scan = scanner.scan(path);
+            final String expected = businessTag(path);
+            Assert.assertEquals(describe(path), expected != null, PathScanner.hasBusinessTag(scan));
+            if (expected != null)
+            {
+                Assert.assertTrue(describe(path), PathScanner.isBusinessTag(scan, path, expected));
+                Assert.assertFalse(describe(path), PathScanner.isBusinessTag(scan, path, expected + "x"));
+                if (!expected.isEmpty())
+                {
+                    Assert.assertFalse(describe(path),
+                            PathScanner.isBusinessTag(scan, path, expected.substring(1)));
+                }
+            }
+        }
+    }
+
+    /**
+     * check the scanner compiled from the rules against java.util.regex on every path.
+     *
+     * @param rules the rules.
+     * @param paths the paths.
+     */
+    private void assertMatchesRegex(final List<String> rules, final List<String> paths)
+    {
+        final PathScanner scanner = PathScanner.compile(rules);
+        final List<Pattern> patterns = new ArrayList<>();
+        for (final String rule : rules)
+        {
+            patterns.add(Pattern.compile(rule));
+        }
+
+        for (final String path : paths)
+        {
+            boolean expected = false;
+            for (final Pattern pattern : patterns)
+            {
+                expected |= pattern.matcher(path).matches();
+            }
+            Assert.assertEquals(rules + " " + describe(path), expected,
+                    PathScanner.isExempt(scanner.scan(path)));
+        }
+    }
+
+    /**
+     * @param path a path.
+     * @return the business tag of the path found by splitting it into segments, <code>null</code> if it has none.
+     */
+    private static String businessTag(final String path)
+    {
+        final String[] segments = path.split("/", -1);
+        for (int i = 0; i + 1 < segments.length; i++)
+        {
+            if ("business".equals(withoutParameters(segments[i])))
+            {
+                return withoutParameters(segments[i + 1]);
+            }
+        }
+        return null;
+    }
+
+    private static String withoutParameters(final String segment)
+    {
+        final int parameters = segment.indexOf(';');
+        return parameters < 0 ? segment : segment.substring(0, parameters);
+    }
+
+    /**
+     * @param seed the seed of the paths.
+     * @return paths made of random pieces, the same for the same seed.
+     */
+    private static List<String> randomPaths(final long seed)
+    {
+        final Random random = new Random(seed);
+        final List<String> paths = new ArrayList<>();
+        for (int i = 0; i < PATHS; i++)
+        {
+            final StringBuilder path = new StringBuilder();
+            for (int pieces = random.nextInt(8); pieces > 0; pieces--)
+            {
+                path.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            paths.add(path.toString());
+        }
+        return paths;
+    }
+
+    /**
+     * @param path a path.
+     * @return the path with the characters outside printable ASCII escaped, for the messages of failures.
+     */
+    private static String describe(final String path)
+    {
+        final StringBuilder result = new StringBuilder("'");
+        for (final char c : path.toCharArray())
+        {
+            if (c >= ' ' && c < 0x7f)
+            {
+                result.append(c);
+            }
+            else
+            {
+                result.append(String.format("\\u%04x", (int) c));
+            }
+        }
+        return result.append('\'').toString();
+    }
+}
@@ -0,0 +1,73 @@
+package authentication;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the filter of revoked token ids.
+ *
+ * @author Matt Rayner
+ */
+public class RevocationFilterTest
+{
+    private static final int REVOKED = 100000;
+
+    @Test
+    public void revokedIdsAreAlwaysFound()
+    {
+        final RevocationFilter filter = new RevocationFilter(1 << 20, 7);
+        final Random random = new Random(1);
+
+        for (int i = 0; i < REVOKED; i++)
+        {
+            filter.add(random.nextLong());
+        }
+
+        random.setSeed(1);
+        for (int i = 0; i < REVOKED; i++)
+        {
+            Assert.assertTrue(filter.mightContain(random.nextLong()));
+        }
+        Assert.assertEquals(REVOKED, filter.getAdded());
+    }
+
+    @Test
+    public void falsePositiveRateIsAsConfigured()
+    {
+        //the settings shipped in auth.properties, about 1% at 100000 revocations.
+        final RevocationFilter filter = new RevocationFilter(1 << 20, 7);
+        final Random random = new Random(2);
+
+        for (int i = 0; i < REVOKED; i++)
+        {
+            filter.add(random.nextLong());
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < REVOKED; i++)
+        {
+            if (filter.mightContain(random.nextLong()))
+            {
+                falsePositives++;
+            }
+        }
+        final double rate = (double) falsePositives / REVOKED;
+        Assert.assertTrue("false positive rate " + rate, rate < 0.015);
+        Assert.assertTrue(filter.getFill() > 0.4 && filter.getFill() < 0.6);
+    }
+
+    @Test
+    public void idsAreKeptForOneWholeGeneration()
+    {
+        final RevocationFilter filter = new RevocationFilter(1 << 16, 7);
+
+        filter.add(42);
+        filter.rotate();
+        Assert.assertTrue(filter.mightContain(42));
+
+        filter.rotate();
+        Assert.assertFalse(filter.mightContain(42));
+    }
+}
@@ -0,0 +1,172 @@
+package authentication;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import models.Account;
+import models.Password;
+
+/**
+ * Tests of the sessions kept in memory, with a short timeout and a few slots in the timing wheel.
+ *
+ * @author Matt Rayner
+ */
+public class SessionStoreTest
+{
+    private static final long TIMEOUT = 200;
+    private static final int SLOTS = 4;
+
+    /** Long enough for a session to time out and the wheel to reach its slot. **/
+    private static final long EXPIRED = TIMEOUT + 3 * TIMEOUT / SLOTS + 100;
+
+    private final List<SessionStore> stores = new ArrayList<>();
+
+    @After
+    public void shutdownStores()
+    {
+        for (final SessionStore store : this.stores)
+        {
+            store.shutdown();
+        }
+    }
+
+    @Test
+    public void unusedSessionsAreExpiredByTheWheel() throws Exception
+    {
+        final SessionStore store = this.store(TIMEOUT, 100);
+        final Account alice = account("alice");
+        store.add(alice);
+        store.add(alice);
+        Assert.assertEquals(2, store.getSessions(alice).size());
+
+        //nothing is looked up, so only the wheel can remove them.
+        Thread.sleep(EXPIRED);
+        Assert.assertEquals(0, store.size());
+        Assert.assertTrue(store.getSessions(alice).isEmpty());
+        assertJson(store, "\"accounts\":0", "\"expired\":2");
+    }
+
+    @Test
+    public void usedSessionsAreFiledAgain() throws Exception
+    {
+        final SessionStore store = this.store(TIMEOUT, 100);
+        final String used = store.add(account("alice"));
+        final String unused = store.add(account("bob"));
+
+        //used for several timeouts, the wheel files it again each time its slot comes round.
+        final long until = System.currentTimeMillis() + 3 * TIMEOUT;
+        while (System.currentTimeMillis() < until)
+        {
+            Assert.assertNotNull(store.get(used));
+            Thread.sleep(TIMEOUT / SLOTS);
+        }
+        Assert.assertEquals(1, store.size());
+        Assert.assertNull(store.get(unused));
+        Assert.assertEquals(1, store.getSessions(account("alice")).size());
+        Assert.assertTrue(store.getSessions(account("bob")).isEmpty());
+
+        Thread.sleep(EXPIRED);
+        Assert.assertEquals(0, store.size());
+        assertJson(store, "\"accounts\":0");
+    }
+
+    @Test
+    public void lookupOfATimedOutSessionRemovesIt() throws Exception
+    {
+        //the wheel has far too few slots to have reached it.
+        final SessionStore store = this.store(TIMEOUT, 100);
+        final String token = store.add(account("alice"));
+
+        Thread.sleep(TIMEOUT + 10);
+        Assert.assertNull(store.get(token));
+        Assert.assertEquals(0, store.size());
+        Assert.assertTrue(store.getSessions(account("alice")).isEmpty());
+        assertJson(store, "\"accounts\":0");
+    }
+
+    @Test
+    public void sessionsDueSoonestAreEvicted() throws Exception
+    {
+        final SessionStore store = this.store(60000, 3);
+        final List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+        {
+            tokens.add(store.add(account("user" + i)));
+        }
+
+        //all are due on the same tick, so the first filed goes.
+        Assert.assertEquals(3, store.size());
+        Assert.assertNull(store.get(tokens.get(0)));
+        Assert.assertTrue(store.getSessions(account("user0")).isEmpty());
+        for (int i = 1; i < 4; i++)
+        {
+            Assert.assertNotNull(store.get(tokens.get(i)));
+        }
+
+        //the next goes in turn, an account keeps the sessions that were not evicted.
+        final String added = store.add(account("user1"));
+        Assert.assertEquals(3, store.size());
+        Assert.assertNull(store.get(tokens.get(1)));
+        Assert.assertNotNull(store.get(added));
+        Assert.assertEquals(Collections.singleton(added), store.getSessions(account("user1")).keySet());
+        assertJson(store, "\"live\":3", "\"evicted\":2");
+    }
+
+    @Test
+    public void removingKeepsTheIndexInStep() throws Exception
+    {
+        final SessionStore store = this.store(60000, 100);
+        final Account alice = account("alice");
+        final String phone = store.add(alice);
+        final String laptop = store.add(alice);
+        final String bob = store.add(account("bob"));
+        //the same userName in another business is another account.
+        final String other = store.add(new Account("alice", Password.fromHash("hash"), "other", null));
+
+        Assert.assertFalse(store.remove(account("bob"), phone));
+        Assert.assertTrue(store.remove(alice, phone));
+        Assert.assertEquals(1, store.getSessions(alice).size());
+        Assert.assertTrue(store.getSessions(alice).containsKey(laptop));
+
+        Assert.assertEquals(1, store.remove(alice));
+        Assert.assertNull(store.get(laptop));
+        Assert.assertTrue(store.getSessions(alice).isEmpty());
+        Assert.assertEquals(0, store.remove(alice));
+        Assert.assertNotNull(store.get(other));
+
+        Assert.assertTrue(store.remove(bob));
+        Assert.assertFalse(store.remove(bob));
+        Assert.assertTrue(store.getSessions(account("bob")).isEmpty());
+        assertJson(store, "\"live\":1", "\"accounts\":1");
+    }
+
+    private SessionStore store(final long timeout, final int maxSessions)
+    {
+        final SessionStore store = new SessionStore(timeout, maxSessions, SLOTS);
+        this.stores.add(store);
+        return store;
+    }
+
+    private static void assertJson(final SessionStore store, final String... expected)
+    {
+        final String json = store.appendJson(new StringBuilder()).toString();
+        for (final String value : expected)
+        {
+            Assert.assertTrue(json, json.contains(value));
+        }
+    }
+
+    /**
+     * @param userName the user of the account.
+     * @return an account of the test business.
+     */
+    private static Account account(final String userName)
+    {
+        return new Account(userName, Password.fromHash("hash"), "ses", userName + "@ses");
+    }
+}
@@ -0,0 +1,180 @@
+package authentication;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import database.EmbeddedDatabase;
+import models.Account;
+import models.Password;
+import models.TokenPair;
+
+/**
+ * Tests of the signed tokens, two stores with the same key stand in for two replicas of the API.
+ *
+ * @author Matt Rayner
+ */
+public class SignedTokenStoreTest
+{
+    private static final byte[] KEY = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final long ACCESS_TTL = 60000;
+    private static final long REFRESH_TTL = 3600000;
+
+    /** The database the revocations are stored in. **/
+    private static EmbeddedDatabase database;
+
+    private SignedTokenStore replica1;
+    private SignedTokenStore replica2;
+
+    @BeforeClass
+    public static void createDatabase() throws Exception
+    {
+        database = new EmbeddedDatabase("signed").install();
+        database.execute(
+                "INSERT INTO Business VALUES ('sig', 'Signed Business');",
+                "INSERT INTO Account VALUES ('alice', 'hash', 'sig', 'alice@sig');",
+                "INSERT INTO Account VALUES ('bob', 'hash', 'sig', 'bob@sig');");
+    }
+
+    @Before
+    public void createStores() throws Exception
+    {
+        database.execute("DELETE FROM RevokedToken;", "DELETE FROM AccountLogout;");
+        this.replica1 = store(ACCESS_TTL, REFRESH_TTL);
+        this.replica2 = store(ACCESS_TTL, REFRESH_TTL);
+    }
+
+    @After
+    public void shutdownStores()
+    {
+        this.replica1.shutdown();
+        this.replica2.shutdown();
+    }
+
+    @Test
+    public void tokensAreCheckedOnEveryReplica() throws Exception
+    {
+        final TokenPair pair = this.replica1.issue(account("alice"));
+
+        final Account account = this.replica2.get(pair.getAccessToken());
+        Assert.assertNotNull(account);
+        Assert.assertEquals("alice", account.getUserName());
+        Assert.assertEquals("sig", account.getBusinessTag());
+
+        //a refresh token is not an access token.
+        Assert.assertNull(this.replica2.get(pair.getRefreshToken()));
+        Assert.assertTrue(pair.getExpires() > System.currentTimeMillis());
+    }
+
+    @Test
+    public void tamperedTokensAreRejected() throws Exception
+    {
+        final String token = this.replica1.issue(account("alice")).getAccessToken();
+        final String other = this.replica1.issue(account("bob")).getAccessToken();
+        final int dot = token.indexOf('.');
+
+        //each character of the payload changed in turn.
+        for (int i = 0; i < dot; i++)
+        {
+            final char[] changed = token.toCharArray();
+            changed[i] = changed[i] == 'A' ? 'B' : 'A';
+            Assert.assertNull("changed at " + i, this.replica1.get(new String(changed)));
+        }
+        //bob's payload with alice's signature.
+        Assert.assertNull(this.replica1.get(other.substring(0, other.indexOf('.')) + token.substring(dot)));
+        Assert.assertNull(this.replica1.get(token.substring(0, dot)));
+        Assert.assertNull(this.replica1.get("not a token"));
+
+        //signed with another key.
+        final byte[] key = Arrays.copyOf(KEY, KEY.length);
+        key[0]++;
+        final SignedTokenStore otherKey = new SignedTokenStore(key, ACCESS_TTL, REFRESH_TTL, 1 << 16, 7);
+        Assert.assertNull(otherKey.get(token));
+        otherKey.shutdown();
+    }
+
+    @Test
+    public void expiredTokensAreRejected() throws Exception
+    {
+        final SignedTokenStore store = store(1, 500);
+        try
+        {
+            final TokenPair pair = store.issue(account("alice"));
+
+            Thread.sleep(5);
+            Assert.assertNull(store.get(pair.getAccessToken()));
+            Assert.assertNotNull(store.refresh(pair.getRefreshToken()));
+
+            final TokenPair next = store.issue(account("alice"));
+            Thread.sleep(600);
+            Assert.assertNull(store.refresh(next.getRefreshToken()));
+        }
+        finally
+        {
+            store.shutdown();
+        }
+    }
+
+    @Test
+    public void refreshTokenIsRedeemedOnceOnAnyReplica() throws Exception
+    {
+        final TokenPair pair = this.replica1.issue(account("alice"));
+
+        final Account account = this.replica1.refresh(pair.getRefreshToken());
+        Assert.assertNotNull(account);
+        Assert.assertEquals("alice", account.getUserName());
+
+        //the pair is revoked where it was redeemed, and the refresh token everywhere.
+        Assert.assertNull(this.replica1.get(pair.getAccessToken()));
+        Assert.assertNull(this.replica1.refresh(pair.getRefreshToken()));
+        Assert.assertNull(this.replica2.refresh(pair.getRefreshToken()));
+    }
+
+    @Test
+    public void logoutStopsRefreshOnEveryReplica() throws Exception
+    {
+        final TokenPair pair = this.replica1.issue(account("alice"));
+        final TokenPair other = this.replica1.issue(account("alice"));
+        final TokenPair bob = this.replica1.issue(account("bob"));
+
+        Assert.assertTrue(this.replica1.remove(pair.getAccessToken()));
+        Assert.assertNull(this.replica1.get(pair.getAccessToken()));
+        Assert.assertNull(this.replica2.refresh(pair.getRefreshToken()));
+
+        //logged out everywhere on one replica.
+        this.replica1.remove(account("alice"));
+        Assert.assertNull(this.replica1.get(other.getAccessToken()));
+        Assert.assertNull(this.replica2.refresh(other.getRefreshToken()));
+        Assert.assertNotNull(this.replica2.refresh(bob.getRefreshToken()));
+
+        //logging in again afterwards works.
+        Thread.sleep(2);
+        final TokenPair again = this.replica1.issue(account("alice"));
+        Assert.assertNotNull(this.replica2.get(again.getAccessToken()));
+        Assert.assertNotNull(this.replica2.refresh(again.getRefreshToken()));
+    }
+
+    /**
+     * @param accessTtl the milliseconds an access token is valid for.
+     * @param refreshTtl the milliseconds a refresh token is valid for.
+     * @return a store signing with the test key.
+     */
+    private static SignedTokenStore store(final long accessTtl, final long refreshTtl)
+    {
+        return new SignedTokenStore(KEY, accessTtl, refreshTtl, 1 << 16, 7);
+    }
+
+    /**
+     * @param userName the user of the account.
+     * @return an account of the test business.
+     */
+    private static Account account(final String userName)
+    {
+        return new Account(userName, Password.fromHash("hash"), "sig", userName + "@sig");
+    }
+}
@@ -0,0 +1,242 @@
+package database;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import models.WorkLog;
+
+/**
+ * Regression tests for the worklog index, every page it finds should be the page the datastore lists.
+ *
+ * @author Lawrence
+ */
+public class BusinessWorkLogIndexTest
+{
+	/** The number of worklogs stored. **/
+	private static final int WORKLOGS = 150;
+
+	/** The employees of the worklogs. **/
+	private static final String[] USERS = {"user0", "user1", "user2"};
+
+	/** The start time of each worklog by id. **/
+	private static Map<Integer, Long> startTimes;
+
+	/** The end time of each worklog by id. **/
+	private static Map<Integer, Long> endTimes;
+
+	/** The employee of each worklog by id. **/
+	private static Map<Integer, String> users;
+
+	@BeforeClass
+	public static void createDatabase() throws Exception
+	{
+		// Few distinct start times, so many worklogs tie on them.
+		EmbeddedDatabase.SeededWorkLogs workLogs = new EmbeddedDatabase("worklogindex").install()
+				.seedWorkLogs("idx", USERS, WORKLOGS, 40, 100, 5, 7);
+
+		startTimes = workLogs.getStartTimes();
+		endTimes = workLogs.getEndTimes();
+		users = workLogs.getUsers();
+	}
+
+	@Test
+	public void pagesMatchTheDatastore() throws Exception
+	{
+		BusinessWorkLogIndex index = readIndex(0);
+
+		// Ranges with bounds on the start and end times of worklogs, so both are inclusive.
+		assertSamePages(index, null, 0, Long.MAX_VALUE, 7);
+		assertSamePages(index, null, 1500, 3000, 4);
+		assertSamePages(index, null, startTimes.get(10), endTimes.get(20), 5);
+		assertSamePages(index, null, 2000, 2000, 3);
+	}
+
+	@Test
+	public void pagesOfAnEmployeeMatchTheDatastore() throws Exception
+	{
+		BusinessWorkLogIndex index = readIndex(0);
+
+		for (String user : USERS)
+		{
+			assertSamePages(index, user, 0, Long.MAX_VALUE, 6);
+			assertSamePages(index, user, 1800, endTimes.get(30), 3);
+		}
+		Assert.assertEquals(0, index.find("nobody", 0, Long.MAX_VALUE, null, 10).length);
+	}
+
+	@Test
+	public void trimmedRangesGoToTheDatastore() throws Exception
+	{
+		BusinessWorkLogIndex index = readIndex(0);
+
+		int dropped = index.trimBefore(2500);
+
+		Assert.assertEquals(count(0, 2499), dropped);
+		Assert.assertNull(index.find(null, 2499, Long.MAX_VALUE, null, 10));
+		assertSamePages(index, null, 2500, Long.MAX_VALUE, 8);
+		assertSamePages(index, USERS[1], 3000, 4500, 2);
+	}
+
+	@Test
+	public void indexIsNotUsedUntilReady() throws Exception
+	{
+		Assert.assertNull(new BusinessWorkLogIndex(0).find(null, 0, Long.MAX_VALUE, null, 10));
+	}
+
+	@Test
+	public void readWorkLogTimesReadsOnlyThoseThatExist() throws Exception
+	{
+		// More than a batch of ids, with some that were never given out.
+		int[] workLogIds = new int[120];
+
+		for (int i = 0; i < workLogIds.length; i++)
+		{
+			workLogIds[i] = 2 * i + 1;
+		}
+
+		TreeSet<Integer> read = new TreeSet<Integer>();
+		new DBWorkLogQueries().readWorkLogTimes(workLogIds,
+				(workLogId, businessTag, userName, startTime, endTime) ->
+				{
+					Assert.assertTrue(read.add(workLogId));
+					Assert.assertEquals(startTimes.get(workLogId).longValue(), startTime);
+				});
+
+		Assert.assertEquals(WORKLOGS / 2, read.size());
+		Assert.assertEquals(1, read.first().intValue());
+		Assert.assertEquals(WORKLOGS - 1, read.last().intValue());
+	}
+
+	@Test
+	public void worklogsMissingFromTheCacheAreReadByFewStatements() throws Exception
+	{
+		WorkLogIndex.shutdown();
+		DBQueries queries = new DBQueries();
+		long misses = StatementRegistry.getMisses();
+		int next = 1;
+
+		try
+		{
+			// However many are missing, the ids are padded to one of two batch sizes.
+			for (int count : new int[] {1, 7, 10, 11, 2, 100, 5, 17})
+			{
+				int[] workLogIds = new int[count];
+
+				for (int i = 0; i < count; i++)
+				{
+					workLogIds[i] = next + count - 1 - i;
+				}
+				next += count;
+
+				List<WorkLog> read = DBWorkLogQueries.getWorkLogsSQL(workLogIds, queries);
+
+				Assert.assertEquals(Math.min(count, Math.max(0, WORKLOGS + 1 - workLogIds[count - 1])), read.size());
+				for (int i = 0; i < read.size(); i++)
+				{
+					Assert.assertEquals(workLogIds[workLogIds.length - read.size() + i], read.get(i).getWorkLogId());
+					Assert.assertEquals(startTimes.get(read.get(i).getWorkLogId()).longValue(), read.get(i).getStartTime());
+				}
+			}
+			Assert.assertEquals(misses + 2, StatementRegistry.getMisses());
+		}
+		finally
+		{
+			queries.closeConnection();
+			WorkLogIndex.shutdown();
+		}
+	}
+
+	/**
+	 * @return an index of the business read from the datastore, as the worklog index warms it.
+	 */
+	private static BusinessWorkLogIndex readIndex(long retainedFrom) throws Exception
+	{
+		BusinessWorkLogIndex index = new BusinessWorkLogIndex(retainedFrom);
+
+		new DBWorkLogQueries().readWorkLogTimes("idx", retainedFrom,
+				(workLogId, tag, userName, startTime, endTime) -> index.add(workLogId, userName, startTime, endTime));
+		index.setReady();
+
+		Assert.assertEquals(count(retainedFrom, Long.MAX_VALUE), index.size());
+		return index;
+	}
+
+	/**
+	 * Pages through a range with the index and with the range query of the datastore, checking
+	 * that each page has the same worklogs in the same order and every worklog in the range is
+	 * listed exactly once.
+	 */
+	private static void assertSamePages(BusinessWorkLogIndex index, String userName, long startTime, long endTime,
+			int limit) throws Exception
+	{
+		WorkLogCursor after = null;
+		int pages = 0;
+		TreeSet<Integer> listed = new TreeSet<Integer>();
+
+		while (true)
+		{
+			List<WorkLog> page = userName == null
+					? new DBWorkLogQueries().getAllWorkLogsForTimeRange("idx", startTime, endTime, after, limit)
+					: new DBWorkLogQueries().getAllWorkLogsForTimeRangeAndEmployee(userName, "idx", startTime, endTime,
+							after, limit);
+			int[] expected = new int[page.size()];
+
+			for (int i = 0; i < expected.length; i++)
+			{
+				expected[i] = page.get(i).getWorkLogId();
+			}
+
+			int[] found = index.find(userName, startTime, endTime, after, limit);
+
+			Assert.assertArrayEquals("page " + pages + " of " + userName + " " + startTime + "-" + endTime,
+					expected, found);
+
+			for (int workLogId : found)
+			{
+				Assert.assertTrue(listed.add(workLogId));
+			}
+
+			if (found.length < limit)
+			{
+				break;
+			}
+
+			int last = found[found.length - 1];
+			after = new WorkLogCursor(startTimes.get(last), last);
+			pages++;
+		}
+		TreeSet<Integer> inRange = new TreeSet<Integer>();
+
+		for (int workLogId : startTimes.keySet())
+		{
+			if (startTimes.get(workLogId) >= startTime && endTimes.get(workLogId) <= endTime
+					&& (userName == null || userName.equals(users.get(workLogId))))
+			{
+				inRange.add(workLogId);
+			}
+		}
+		Assert.assertEquals(inRange, listed);
+	}
+
+	/**
+	 * @return the number of worklogs starting in the given range.
+	 */
+	private static int count(long from, long to)
+	{
+		int count = 0;
+
+		for (long startTime : startTimes.values())
+		{
+			if (startTime >= from && startTime <= to)
+			{
+				count++;
+			}
+		}
+		return count;
+	}
+}
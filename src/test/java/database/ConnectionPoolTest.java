@@ -0,0 +1,344 @@
+package database;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the connection pool against the embedded database, whose connections can be made to
+ * fail validation or to fail as a lost connection does.
+ *
+ * @author Lawrence
+ */
+public class ConnectionPoolTest
+{
+	/** The database the pool takes its connections from. **/
+	private final FaultyDatabase database = new FaultyDatabase();
+
+	/** The pools made by the test. **/
+	private final List<ConnectionPool> pools = new ArrayList<ConnectionPool>();
+
+	@After
+	public void shutdownPools()
+	{
+		for (ConnectionPool pool : this.pools)
+		{
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void idleConnectionsAreReusedMostRecentFirst() throws Exception
+	{
+		ConnectionPool pool = this.pool(4, 1000, 60000);
+		Connection first = pool.getConnection();
+		Connection second = pool.getConnection();
+		Connection physical = physical(second);
+
+		first.close();
+		second.close();
+		Assert.assertEquals(2, pool.getIdle());
+
+		Connection again = pool.getConnection();
+		Assert.assertSame(physical, physical(again));
+		again.close();
+
+		Assert.assertEquals(3, pool.getCheckouts());
+		Assert.assertEquals(2, pool.getOpen());
+		Assert.assertEquals(2, this.database.getOpen());
+	}
+
+	@Test
+	public void contendedCheckoutsNeverExceedTheMaximum() throws Exception
+	{
+		ConnectionPool pool = this.pool(4, 10000, 60000);
+		ExecutorService callers = Executors.newFixedThreadPool(16);
+		List<Future<?>> results = new ArrayList<Future<?>>();
+
+		try
+		{
+			for (int i = 0; i < 16; i++)
+			{
+				results.add(callers.submit(() ->
+				{
+					for (int j = 0; j < 50; j++)
+					{
+						try (Connection connection = pool.getConnection();
+								Statement stmt = connection.createStatement();
+								ResultSet resultSet = stmt.executeQuery("SELECT 1 FROM DUAL"))
+						{
+							Assert.assertTrue(resultSet.next());
+						}
+					}
+					return null;
+				}));
+			}
+			for (Future<?> result : results)
+			{
+				result.get(30, TimeUnit.SECONDS);
+			}
+		}
+		finally
+		{
+			callers.shutdownNow();
+		}
+
+		Assert.assertTrue(this.database.getMaxOpen() <= 4);
+		Assert.assertEquals(800, pool.getCheckouts());
+		Assert.assertEquals(0, pool.getTimeouts());
+		Assert.assertEquals(0, pool.getActive());
+		Assert.assertEquals(pool.getOpen(), pool.getIdle());
+		Assert.assertEquals(pool.getOpen(), this.database.getOpen());
+	}
+
+	@Test
+	public void waitingCallerIsGivenTheReturnedConnection() throws Exception
+	{
+		ConnectionPool pool = this.pool(1, 10000, 60000);
+		Connection held = pool.getConnection();
+		Connection physical = physical(held);
+		ExecutorService caller = Executors.newSingleThreadExecutor();
+
+		try
+		{
+			Future<Connection> waiter = caller.submit(pool::getConnection);
+
+			awaitWaiting(pool, 1);
+			assertJson(pool, "\"active\":1", "\"idle\":0", "\"waiting\":1", "\"open\":1");
+
+			held.close();
+			Connection given = waiter.get(5, TimeUnit.SECONDS);
+			Assert.assertSame(physical, physical(given));
+			Assert.assertEquals(0, pool.getWaiting());
+			given.close();
+		}
+		finally
+		{
+			caller.shutdownNow();
+		}
+	}
+
+	@Test
+	public void callerGivesUpAfterTheAcquireTimeout() throws Exception
+	{
+		ConnectionPool pool = this.pool(1, 100, 60000);
+		Connection held = pool.getConnection();
+		long start = System.nanoTime();
+
+		try
+		{
+			pool.getConnection();
+			Assert.fail("A second connection was handed out");
+		}
+		catch (SQLException e)
+		{
+			Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+		}
+		Assert.assertEquals(1, pool.getTimeouts());
+		Assert.assertEquals(1, pool.getActive());
+
+		// The permit of the caller that gave up is not lost.
+		held.close();
+		pool.getConnection().close();
+		Assert.assertEquals(2, pool.getCheckouts());
+	}
+
+	@Test
+	public void connectionFailingValidationIsReplaced() throws Exception
+	{
+		// Validated on every checkout.
+		ConnectionPool pool = this.pool(2, 1000, 0);
+		Connection first = pool.getConnection();
+		Connection physical = physical(first);
+		first.close();
+
+		this.database.valid = false;
+		Connection second = pool.getConnection();
+		this.database.valid = true;
+
+		Assert.assertNotSame(physical, physical(second));
+		Assert.assertTrue(physical.isClosed());
+		Assert.assertEquals(1, pool.getOpen());
+		Assert.assertEquals(1, this.database.getOpen());
+		second.close();
+	}
+
+	@Test
+	public void brokenConnectionIsDiscarded() throws Exception
+	{
+		ConnectionPool pool = this.pool(2, 1000, 60000);
+		Connection connection = pool.getConnection();
+
+		this.database.lost = true;
+		try
+		{
+			connection.createStatement();
+			Assert.fail("The lost connection was used");
+		}
+		catch (SQLException e)
+		{
+			Assert.assertEquals("08S01", e.getSQLState());
+		}
+		finally
+		{
+			this.database.lost = false;
+		}
+		connection.close();
+
+		Assert.assertEquals(0, pool.getIdle());
+		Assert.assertEquals(0, pool.getOpen());
+		Assert.assertEquals(0, this.database.getOpen());
+	}
+
+	@Test
+	public void openTransactionIsRolledBackOnRelease() throws Exception
+	{
+		ConnectionPool pool = this.pool(1, 1000, 60000);
+		Connection connection = pool.getConnection();
+
+		connection.setAutoCommit(false);
+		try (Statement stmt = connection.createStatement())
+		{
+			stmt.executeUpdate("INSERT INTO Business VALUES ('rol', 'Rolled Back');");
+		}
+		connection.close();
+
+		try (Connection again = pool.getConnection();
+				Statement stmt = again.createStatement();
+				ResultSet resultSet = stmt.executeQuery("SELECT COUNT(*) FROM Business WHERE businessTag = 'rol'"))
+		{
+			Assert.assertTrue(again.getAutoCommit());
+			Assert.assertTrue(resultSet.next());
+			Assert.assertEquals(0, resultSet.getInt(1));
+		}
+		Assert.assertEquals(1, pool.getOpen());
+	}
+
+	@Test
+	public void closedHandleCannotBeUsed() throws Exception
+	{
+		ConnectionPool pool = this.pool(2, 1000, 60000);
+		Connection connection = pool.getConnection();
+		connection.close();
+
+		Assert.assertTrue(connection.isClosed());
+		try
+		{
+			connection.createStatement();
+			Assert.fail("A returned connection was used");
+		}
+		catch (SQLException expected)
+		{
+		}
+
+		// Closing again does not return the connection twice.
+		connection.close();
+		Assert.assertEquals(1, pool.getIdle());
+		Assert.assertEquals(0, pool.getActive());
+	}
+
+	/**
+	 * @return a pool of the test database, opening connections as they are needed.
+	 */
+	private ConnectionPool pool(int maxTotal, long acquireTimeout, long validationInterval)
+	{
+		ConnectionPool pool = new ConnectionPool(this.database, 0, maxTotal, acquireTimeout,
+				validationInterval, 1, 600000);
+		this.pools.add(pool);
+		return pool;
+	}
+
+	/**
+	 * @return the physical connection behind a connection of the pool.
+	 */
+	private static Connection physical(Connection connection) throws SQLException
+	{
+		return connection.unwrap(Connection.class);
+	}
+
+	/**
+	 * Waits for the given number of callers to be waiting for a connection.
+	 */
+	private static void awaitWaiting(ConnectionPool pool, int waiting) throws InterruptedException
+	{
+		long until = System.currentTimeMillis() + 5000;
+
+		while (pool.getWaiting() < waiting && System.currentTimeMillis() < until)
+		{
+			Thread.sleep(5);
+		}
+		Assert.assertEquals(waiting, pool.getWaiting());
+	}
+
+	private static void assertJson(ConnectionPool pool, String... expected)
+	{
+		String json = pool.appendJson(new StringBuilder()).toString();
+
+		for (String value : expected)
+		{
+			Assert.assertTrue(json, json.contains(value));
+		}
+	}
+
+	/**
+	 * The embedded database with connections that can be made to fail validation, or to fail
+	 * every call with the SQLState of a lost connection.
+	 */
+	private static final class FaultyDatabase extends EmbeddedDatabase
+	{
+		/** Whether connections pass validation. **/
+		private volatile boolean valid = true;
+
+		/** Whether calls fail as if the connection was lost. **/
+		private volatile boolean lost = false;
+
+		/**
+		 * CLASS CONSTRUCTOR
+		 */
+		private FaultyDatabase()
+		{
+			super("pool");
+		}
+
+		@Override
+		public Connection getConnection() throws SQLException
+		{
+			final Connection connection = super.getConnection();
+
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, (proxy, method, args) ->
+			{
+				if ("isValid".equals(method.getName()) && !this.valid)
+				{
+					return false;
+				}
+				if (this.lost && !"close".equals(method.getName()) && !"isClosed".equals(method.getName()))
+				{
+					throw new SQLException("Communications link failure", "08S01");
+				}
+
+				try
+				{
+					return method.invoke(connection, args);
+				}
+				catch (InvocationTargetException e)
+				{
+					throw e.getCause();
+				}
+			});
+		}
+	}
+}
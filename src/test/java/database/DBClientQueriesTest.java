@@ -0,0 +1,133 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import models.Client;
+import models.ImportFailure;
+import models.ImportResult;
+import models.Location;
+
+/**
+ * Regression tests for client hydration, clients sharing a location owner are each returned.
+ * Imports should store every client that can be stored, in order, with their locations.
+ *
+ * @author Lawrence
+ */
+public class DBClientQueriesTest
+{
+	@BeforeClass
+	public static void createDatabase() throws Exception
+	{
+		EmbeddedDatabase database = new EmbeddedDatabase("clients").install();
+
+		database.execute(
+				"INSERT INTO Business VALUES ('cli', 'Client Business');",
+				"INSERT INTO LocationOwner VALUES (1);",
+				"INSERT INTO LocationOwner VALUES (2);",
+				"INSERT INTO Location VALUES (1, 'AB1 2CD', 'Site');",
+				"INSERT INTO LocationOwnertoLocation VALUES (1, 1);",
+				"INSERT INTO BusinessClient VALUES (1, 'alpha', 'cli', 1);",
+				"INSERT INTO BusinessClient VALUES (2, 'beta', 'cli', 1);",
+				"INSERT INTO BusinessClient VALUES (3, 'gamma', 'cli', 2);",
+				"INSERT INTO Business VALUES ('imp', 'Import Business');");
+	}
+
+	@Test
+	public void clientsSharingALocationOwnerAreAllListed() throws Exception
+	{
+		Collection<Client> clients = new DBClientQueries().getAllClients("cli");
+
+		Assert.assertEquals(3, clients.size());
+		Iterator<Client> iterator = clients.iterator();
+		assertClient(iterator.next(), 1, "alpha", 1);
+		assertClient(iterator.next(), 2, "beta", 1);
+		assertClient(iterator.next(), 3, "gamma", 0);
+	}
+
+	@Test
+	public void mostWorkedListsClientsSharingALocationOwner() throws Exception
+	{
+		Collection<Client> clients =
+				new DBClientQueries().getAllClientsbyMostWorkedRangeBetweenTimes("cli", 0, 10, 0, 1000);
+
+		Assert.assertEquals(3, clients.size());
+	}
+
+	@Test
+	public void getClientHasTheLocationsOfItsOwner() throws Exception
+	{
+		assertClient(new DBClientQueries().getClient(2), 2, "beta", 1);
+	}
+
+	@Test
+	public void importStoresAllButTheClientsAtFault() throws Exception
+	{
+		// Two chunks and a bit, with a client of no business in the first and last, keyed by position.
+		int chunk = DatabasePool.getInt("db.import.chunkSize");
+		int count = 2 * chunk + 7;
+		List<Integer> faults = Arrays.asList(chunk - 1, 2 * chunk + 3);
+		Map<Integer, Client> imported = new LinkedHashMap<Integer, Client>();
+
+		for (int i = 0; i < count; i++)
+		{
+			Client client = new Client(-1, "imported" + i, faults.contains(i) ? "none" : "imp");
+			List<Location> locations = new ArrayList<Location>();
+
+			for (int j = 0; j < i % 3; j++)
+			{
+				locations.add(new Location("AB" + i, "site " + j));
+			}
+			client.setLocations(locations);
+			imported.put(10 * i, client);
+		}
+
+		ImportResult result = new ImportResult();
+		new DBClientQueries().createClients(imported, result);
+
+		List<Integer> failed = new ArrayList<Integer>();
+
+		for (ImportFailure failure : result.getFailures())
+		{
+			failed.add(failure.getIndex() / 10);
+		}
+		Assert.assertEquals(faults, failed);
+		Assert.assertEquals(count - faults.size(), result.getIds().size());
+
+		// Each id is of the client at the next position that was stored, with its own locations.
+		Iterator<Integer> ids = result.getIds().iterator();
+
+		for (int i = 0; i < count; i++)
+		{
+			if (!faults.contains(i))
+			{
+				Client client = new DBClientQueries().getClient(ids.next());
+
+				Assert.assertEquals("imported" + i, client.getClientName());
+				Assert.assertEquals(i % 3, client.getLocations().size());
+
+				for (Location location : client.getLocations())
+				{
+					Assert.assertEquals("AB" + i, location.getPostCode());
+				}
+			}
+		}
+		Assert.assertEquals(count - faults.size(), new DBClientQueries().getAllClients("imp").size());
+	}
+
+	private static void assertClient(Client client, int clientId, String clientName, int locations)
+	{
+		Assert.assertEquals(clientId, client.getClientId());
+		Assert.assertEquals(clientName, client.getClientName());
+		Assert.assertEquals(locations, client.getLocations().size());
+	}
+}
@@ -0,0 +1,249 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import models.Client;
+import models.Employee;
+import models.ImportResult;
+import models.WorkLog;
+
+/**
+ * Regression tests for the daily hours rollups, the most worked rankings should give the same
+ * time as summing the worklogs in the range, however the range cuts through the days.
+ *
+ * @author Lawrence
+ */
+public class DBDailyHoursQueriesTest
+{
+	/** The number of worklogs stored. **/
+	private static final int WORKLOGS = 200;
+
+	/** The first day of the worklogs. **/
+	private static final long FIRST_DAY = 20000 * DBDailyHoursQueries.DAY;
+
+	/** The length of an hour. **/
+	private static final long HOUR = 60L * 60L * 1000L;
+
+	/** The employees of the worklogs. **/
+	private static final String[] USERS = {"user0", "user1", "user2", "user3", "idle"};
+
+	/** The clients of the worklogs. **/
+	private static final int[] CLIENTS = {1, 2, 3, 4};
+
+	/** The database the worklogs are stored in. **/
+	private static EmbeddedDatabase database;
+
+	/**
+	 * Ranges starting and ending part way through days, on the boundaries of days, within one
+	 * day and across a single midnight.
+	 */
+	private static final long[][] RANGES = {
+		{FIRST_DAY + 36 * HOUR, FIRST_DAY + 150 * HOUR},
+		{FIRST_DAY + 51 * HOUR + 1234, FIRST_DAY + 68 * HOUR - 1},
+		{FIRST_DAY + 48 * HOUR, FIRST_DAY + 101 * HOUR},
+		{FIRST_DAY + 13 * HOUR, FIRST_DAY + 120 * HOUR},
+		{FIRST_DAY + 72 * HOUR - 2 * HOUR, FIRST_DAY + 72 * HOUR + 2 * HOUR},
+		{FIRST_DAY + 5 * HOUR, FIRST_DAY + 7 * HOUR},
+		{0, Long.MAX_VALUE},
+	};
+
+	@BeforeClass
+	public static void createDatabase() throws Exception
+	{
+		database = new EmbeddedDatabase("dailyhours").install();
+
+		List<String> inserts = new ArrayList<String>();
+		inserts.add("INSERT INTO Business VALUES ('day', 'Daily Business');");
+
+		for (String user : USERS)
+		{
+			inserts.add("INSERT INTO Account VALUES ('" + user + "', 'hash', 'day', '" + user + "@day');");
+			inserts.add("INSERT INTO Employee VALUES ('" + user + "', 'first', 'last', 'day', NULL, 'role');");
+		}
+		inserts.add("INSERT INTO LocationOwner VALUES (1000);");
+
+		for (int clientId : CLIENTS)
+		{
+			inserts.add("INSERT INTO BusinessClient VALUES (" + clientId + ", 'client', 'day', 1000);");
+		}
+		database.execute(inserts.toArray(new String[inserts.size()]));
+
+		// Worklogs over eight days, from minutes long to more than a day, some starting or ending at midnight.
+		Random random = new Random(3);
+		Map<Integer, WorkLog> imported = new LinkedHashMap<Integer, WorkLog>();
+
+		for (int i = 0; i < WORKLOGS; i++)
+		{
+			long startTime = FIRST_DAY + (long) (random.nextDouble() * 8 * DBDailyHoursQueries.DAY);
+			long endTime = startTime + 60000 + (long) (random.nextDouble() * 30 * HOUR);
+
+			if (i % 10 == 0)
+			{
+				startTime = DBDailyHoursQueries.dayOf(startTime) * DBDailyHoursQueries.DAY;
+			}
+			else if (i % 10 == 1)
+			{
+				endTime = (DBDailyHoursQueries.dayOf(endTime) + 1) * DBDailyHoursQueries.DAY;
+			}
+
+			WorkLog workLog = new WorkLog(-1, USERS[random.nextInt(USERS.length - 1)], "day",
+					CLIENTS[random.nextInt(CLIENTS.length - 1)], startTime, endTime, "work");
+
+			// Half are created one at a time and half imported in chunks, both add to the rollups.
+			if (i % 2 == 0)
+			{
+				new DBWorkLogQueries().createWorkLog(workLog);
+			}
+			else
+			{
+				imported.put(i, workLog);
+			}
+		}
+		ImportResult result = new ImportResult();
+		new DBWorkLogQueries().createWorkLogs(imported, result);
+
+		Assert.assertTrue(result.getFailures().isEmpty());
+	}
+
+	@Test
+	public void mostWorkedEmployeesMatchTheWorkLogs() throws Exception
+	{
+		for (long[] range : RANGES)
+		{
+			assertEmployeesMatch(range);
+		}
+	}
+
+	@Test
+	public void mostWorkedClientsMatchTheWorkLogs() throws Exception
+	{
+		for (long[] range : RANGES)
+		{
+			assertClientsMatch(range);
+		}
+	}
+
+	@Test
+	public void rebuildMatchesTheRollupsKeptUpToDate() throws Exception
+	{
+		List<String> employeeRows = readRollup("EmployeeDailyHours", "userName");
+		List<String> clientRows = readRollup("ClientDailyHours", "clientId");
+
+		int written = new DBDailyHoursQueries().rebuild("day");
+
+		Assert.assertEquals(employeeRows.size() + clientRows.size(), written);
+		Assert.assertEquals(employeeRows, readRollup("EmployeeDailyHours", "userName"));
+		Assert.assertEquals(clientRows, readRollup("ClientDailyHours", "clientId"));
+
+		for (long[] range : RANGES)
+		{
+			assertEmployeesMatch(range);
+			assertClientsMatch(range);
+		}
+	}
+
+	/**
+	 * Checks the most worked employees are every employee ranked by the raw sum of their worklogs in the range.
+	 */
+	private static void assertEmployeesMatch(long[] range) throws Exception
+	{
+		Map<Object, Long> expected = sumWorkLogs("userName", range);
+		Collection<Employee> employees = new DBEmployeeQueries().getAllEmployeesbyMostWorkedRangeBetweenTimes(
+				"day", 0, USERS.length, range[0], range[1]);
+		long previous = Long.MAX_VALUE;
+
+		Assert.assertEquals(USERS.length, employees.size());
+		for (Employee employee : employees)
+		{
+			long hoursWorked = expected.getOrDefault(employee.getUserName(), 0L);
+
+			Assert.assertEquals(employee.getUserName() + " " + range[0] + "-" + range[1], hoursWorked,
+					employee.getHoursWorked());
+			Assert.assertTrue(hoursWorked <= previous);
+			previous = hoursWorked;
+		}
+	}
+
+	/**
+	 * Checks the most worked clients are every client ranked by the raw sum of their worklogs in the range.
+	 */
+	private static void assertClientsMatch(long[] range) throws Exception
+	{
+		Map<Object, Long> expected = sumWorkLogs("clientId", range);
+		Collection<Client> clients = new DBClientQueries().getAllClientsbyMostWorkedRangeBetweenTimes(
+				"day", 0, CLIENTS.length, range[0], range[1]);
+		long previous = Long.MAX_VALUE;
+
+		Assert.assertEquals(CLIENTS.length, clients.size());
+		for (Client client : clients)
+		{
+			long hoursWorked = expected.getOrDefault(client.getClientId(), 0L);
+
+			Assert.assertEquals(client.getClientId() + " " + range[0] + "-" + range[1], hoursWorked,
+					client.getHoursWorked());
+			Assert.assertTrue(hoursWorked <= previous);
+			previous = hoursWorked;
+		}
+	}
+
+	/**
+	 * @return the time worked by each owner on the worklogs starting and ending within the range,
+	 *         summed straight from the worklogs.
+	 */
+	private static Map<Object, Long> sumWorkLogs(String owner, long[] range) throws Exception
+	{
+		Map<Object, Long> result = new HashMap<Object, Long>();
+
+		try (Connection connection = database.getConnection();
+				PreparedStatement stmt = connection.prepareStatement("SELECT " + owner + ", "
+						+ "SUM(endTime - startTime) FROM WorkLog "
+						+ "WHERE businessTag = 'day' AND startTime >= ? AND endTime <= ? GROUP BY " + owner))
+		{
+			stmt.setLong(1, range[0]);
+			stmt.setLong(2, range[1]);
+
+			try (ResultSet resultSet = stmt.executeQuery())
+			{
+				while (resultSet.next())
+				{
+					result.put(resultSet.getObject(1), resultSet.getLong(2));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the rows of a rollup, in the order of its key.
+	 */
+	private static List<String> readRollup(String rollup, String owner) throws Exception
+	{
+		List<String> result = new ArrayList<String>();
+
+		try (Connection connection = database.getConnection();
+				PreparedStatement stmt = connection.prepareStatement("SELECT businessTag, " + owner
+						+ ", startDay, endDay, hoursWorked FROM " + rollup + " ORDER BY 1, 2, 3, 4");
+				ResultSet resultSet = stmt.executeQuery())
+		{
+			while (resultSet.next())
+			{
+				result.add(resultSet.getString(1) + " " + resultSet.getString(2) + " " + resultSet.getLong(3)
+						+ " " + resultSet.getLong(4) + " " + resultSet.getLong(5));
+			}
+		}
+		return result;
+	}
+}
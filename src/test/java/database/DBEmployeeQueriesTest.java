@@ -0,0 +1,104 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import models.Employee;
+
+/**
+ * Regression tests for employee hydration, each request should only hold one connection.
+ *
+ * @author Lawrence
+ */
+public class DBEmployeeQueriesTest
+{
+	/** The database the queries are run against. **/
+	private static EmbeddedDatabase database;
+
+	/** The pool checkouts before each test. **/
+	private long checkouts;
+
+	@BeforeClass
+	public static void createDatabase() throws Exception
+	{
+		database = new EmbeddedDatabase("employees").install();
+
+		List<String> inserts = new ArrayList<String>();
+		inserts.add("INSERT INTO Business VALUES ('emp', 'Employee Business');");
+
+		for (int i = 0; i < 20; i++)
+		{
+			inserts.add("INSERT INTO Account VALUES ('user" + i + "', 'hash" + i + "', 'emp', 'user" + i + "@emp');");
+			inserts.add("INSERT INTO Employee VALUES ('user" + i + "', 'first', 'last', 'emp', NULL, 'role');");
+		}
+		inserts.add("INSERT INTO LocationOwner VALUES (1);");
+		inserts.add("INSERT INTO BusinessClient VALUES (1, 'client', 'emp', 1);");
+		inserts.add("INSERT INTO WorkLog VALUES (1, 'user3', 'emp', 1, 100, 600, 'work', 1);");
+
+		database.execute(inserts.toArray(new String[inserts.size()]));
+	}
+
+	@Before
+	public void resetCounts()
+	{
+		database.resetCounts();
+		this.checkouts = DatabasePool.getPool().getCheckouts();
+	}
+
+	@Test
+	public void getAllEmployeesUsesOneConnection() throws Exception
+	{
+		Collection<Employee> employees = new DBEmployeeQueries().getAllEmployees("emp");
+
+		Assert.assertEquals(20, employees.size());
+		for (Employee employee : employees)
+		{
+			Assert.assertNotNull(employee.getAccount());
+			Assert.assertEquals(employee.getUserName() + "@emp", employee.getAccount().getEmail());
+			Assert.assertEquals("emp", employee.getBusinessTag());
+		}
+		this.assertSingleConnection();
+	}
+
+	@Test
+	public void getEmployeeUsesOneConnection() throws Exception
+	{
+		Employee employee = new DBEmployeeQueries().getEmployee("user7", "emp");
+
+		Assert.assertEquals("user7", employee.getUserName());
+		Assert.assertEquals("hash7", employee.getAccount().getStoredPassword().toString());
+		this.assertSingleConnection();
+	}
+
+	@Test
+	public void getMostWorkedUsesOneConnection() throws Exception
+	{
+		Collection<Employee> employees =
+				new DBEmployeeQueries().getAllEmployeesbyMostWorkedRangeBetweenTimes("emp", 0, 5, 0, 1000);
+
+		Assert.assertEquals(5, employees.size());
+		Employee top = employees.iterator().next();
+		Assert.assertEquals("user3", top.getUserName());
+		Assert.assertEquals(500, top.getHoursWorked());
+		Assert.assertNotNull(top.getAccount());
+		this.assertSingleConnection();
+	}
+
+	/**
+	 * Checks the request checked out exactly one connection and gave it back.
+	 */
+	private void assertSingleConnection()
+	{
+		ConnectionPool pool = DatabasePool.getPool();
+
+		Assert.assertEquals("connections checked out", 1, pool.getCheckouts() - this.checkouts);
+		Assert.assertEquals("connections not returned", 0, pool.getActive());
+		Assert.assertTrue("connections opened at once", database.getMaxOpen() <= 1);
+	}
+}
@@ -0,0 +1,137 @@
+package database;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests of the statements DBQueries keeps open on its connection, reused on a hit, the least
+ * recently used closed past the most kept and all of them closed when the connection is released.
+ *
+ * @author Lawrence
+ */
+public class DBQueriesTest
+{
+	@BeforeClass
+	public static void createDatabase() throws Exception
+	{
+		new EmbeddedDatabase("queries").install();
+	}
+
+	@Test
+	public void statementIsReusedOnAHit() throws Exception
+	{
+		DBQueries queries = new DBQueries();
+		long hits = StatementRegistry.getHits();
+		long misses = StatementRegistry.getMisses();
+
+		try
+		{
+			PreparedStatement first = queries.prepareStatement("SELECT ? FROM DUAL");
+			first.setInt(1, 7);
+
+			PreparedStatement second = queries.prepareStatement("SELECT ? FROM DUAL");
+			Assert.assertSame(first, second);
+			Assert.assertEquals(hits + 1, StatementRegistry.getHits());
+			Assert.assertEquals(misses + 1, StatementRegistry.getMisses());
+
+			// The parameters of the last use are cleared, so running it unset fails.
+			try
+			{
+				second.executeQuery();
+				Assert.fail("The parameters were not cleared");
+			}
+			catch (SQLException expected)
+			{
+			}
+
+			// Asking for generated keys is another statement.
+			Assert.assertNotSame(first, queries.prepareStatement("SELECT ? FROM DUAL",
+					PreparedStatement.RETURN_GENERATED_KEYS));
+		}
+		finally
+		{
+			queries.closeConnection();
+		}
+	}
+
+	@Test
+	public void leastRecentlyUsedStatementIsEvicted() throws Exception
+	{
+		DBQueries queries = new DBQueries();
+		long evictions = StatementRegistry.getEvictions();
+
+		try
+		{
+			List<PreparedStatement> statements = new ArrayList<PreparedStatement>();
+
+			for (int i = 0; i < StatementRegistry.MAX_STATEMENTS; i++)
+			{
+				statements.add(queries.prepareStatement("SELECT " + i + " FROM DUAL"));
+			}
+			Assert.assertEquals(evictions, StatementRegistry.getEvictions());
+
+			// Using the eldest makes the second the least recently used.
+			Assert.assertSame(statements.get(0), queries.prepareStatement("SELECT 0 FROM DUAL"));
+			queries.prepareStatement("SELECT -1 FROM DUAL");
+
+			Assert.assertEquals(evictions + 1, StatementRegistry.getEvictions());
+			Assert.assertTrue(statements.get(1).isClosed());
+			Assert.assertFalse(statements.get(0).isClosed());
+			Assert.assertFalse(statements.get(2).isClosed());
+
+			// An evicted query is prepared again.
+			PreparedStatement again = queries.prepareStatement("SELECT 1 FROM DUAL");
+			Assert.assertNotSame(statements.get(1), again);
+			Assert.assertFalse(again.isClosed());
+		}
+		finally
+		{
+			queries.closeConnection();
+		}
+	}
+
+	@Test
+	public void statementsAreClosedOnRelease() throws Exception
+	{
+		DBQueries queries = new DBQueries();
+		long leaked = StatementRegistry.getLeaked();
+		List<PreparedStatement> statements = new ArrayList<PreparedStatement>();
+
+		for (int i = 0; i < 5; i++)
+		{
+			statements.add(queries.prepareStatement("SELECT " + i + " FROM DUAL"));
+		}
+
+		try (ResultSet resultSet = statements.get(0).executeQuery())
+		{
+			Assert.assertTrue(resultSet.next());
+		}
+		queries.closeConnection();
+
+		for (PreparedStatement stmt : statements)
+		{
+			Assert.assertTrue(stmt.isClosed());
+		}
+		Assert.assertEquals(leaked, StatementRegistry.getLeaked());
+	}
+
+	@Test
+	public void openResultSetIsCountedAsLeaked() throws Exception
+	{
+		DBQueries queries = new DBQueries();
+		long leaked = StatementRegistry.getLeaked();
+
+		ResultSet resultSet = queries.prepareStatement("SELECT 1 FROM DUAL").executeQuery();
+		queries.closeConnection();
+
+		Assert.assertTrue(resultSet.isClosed());
+		Assert.assertEquals(leaked + 1, StatementRegistry.getLeaked());
+	}
+}
@@ -0,0 +1,296 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import exceptions.DataAccessException;
+import models.ImportFailure;
+import models.ImportResult;
+import models.WorkLog;
+
+/**
+ * Regression tests for paging through worklogs, following the cursor of each page should list
+ * every worklog exactly once even when many of them start at the same time. Imports should store
+ * every worklog that can be stored, in order, whichever chunk the worklogs at fault are in.
+ *
+ * @author Lawrence
+ */
+public class DBWorkLogQueriesTest
+{
+	/** The number of worklogs stored. **/
+	private static final int WORKLOGS = 120;
+
+	/** The employees of the worklogs. **/
+	private static final String[] USERS = {"user0", "user1"};
+
+	/** The number of worklogs stored in each transaction of an import. **/
+	private static final int CHUNK = DatabasePool.getInt("db.import.chunkSize");
+
+	/** The worklogs stored. **/
+	private static EmbeddedDatabase.SeededWorkLogs workLogs;
+
+	/** The database the worklogs are stored in. **/
+	private static EmbeddedDatabase database;
+
+	@BeforeClass
+	public static void createDatabase() throws Exception
+	{
+		// Only a handful of start times, so every page boundary falls among worklogs that tie.
+		database = new EmbeddedDatabase("worklogpages").install();
+		workLogs = database.seedWorkLogs("pag", USERS, WORKLOGS, 6, 1000, 1, 11);
+
+		// A business of its own for imports, so they are not listed in the pages.
+		database.execute(
+				"INSERT INTO Business VALUES ('imp', 'Import Business');",
+				"INSERT INTO Account VALUES ('importer', 'hash', 'imp', 'importer@imp');",
+				"INSERT INTO Employee VALUES ('importer', 'first', 'last', 'imp', NULL, 'role');",
+				"INSERT INTO BusinessClient VALUES (2, 'client', 'imp', 1);");
+	}
+
+	@Test
+	public void rangePagesListEveryWorkLogOnce() throws Exception
+	{
+		for (int limit : new int[] {1, 7, 20, WORKLOGS})
+		{
+			assertPagesListOnce(null, 0, Long.MAX_VALUE, limit);
+			assertPagesListOnce(null, 2000, 4500, limit);
+		}
+	}
+
+	@Test
+	public void rangePagesOfAnEmployeeListEveryWorkLogOnce() throws Exception
+	{
+		for (String user : USERS)
+		{
+			for (int limit : new int[] {1, 6, 25})
+			{
+				assertPagesListOnce(user, 0, Long.MAX_VALUE, limit);
+				assertPagesListOnce(user, 3000, 5500, limit);
+			}
+		}
+	}
+
+	@Test
+	public void userPagesListEveryWorkLogOnce() throws Exception
+	{
+		for (String user : USERS)
+		{
+			for (int limit : new int[] {1, 9, 40})
+			{
+				assertPagesListOnce(user, null, limit);
+			}
+		}
+		Assert.assertTrue(new DBWorkLogQueries().getWorkLogbyUser("nobody", "pag", null, 10).isEmpty());
+	}
+
+	@Test
+	public void importStoresAllButTheWorkLogsAtFault() throws Exception
+	{
+		// Three chunks, with a worklog at fault in the first and last, keyed by their position.
+		int count = 3 * CHUNK - 17;
+		List<Integer> faults = Arrays.asList(3, CHUNK + 1, 3 * CHUNK - 20);
+		Map<Integer, WorkLog> imported = new LinkedHashMap<Integer, WorkLog>();
+
+		for (int i = 0; i < count; i++)
+		{
+			imported.put(10 * i, importedWorkLog(i, "import"));
+		}
+		imported.get(10 * faults.get(0)).setClientId(99);
+		imported.get(10 * faults.get(1)).setUserName("nobody");
+		imported.get(10 * faults.get(2)).setUserName("ghost");
+
+		ImportResult result = new ImportResult();
+		new DBWorkLogQueries().createWorkLogs(imported, result);
+
+		List<Integer> failed = new ArrayList<Integer>();
+
+		for (ImportFailure failure : result.getFailures())
+		{
+			failed.add(failure.getIndex() / 10);
+		}
+		Assert.assertEquals(faults, failed);
+
+		// Each id is of the worklog at the next position that was stored.
+		Map<Integer, Long> stored = readStartTimes("import");
+		List<Long> expected = new ArrayList<Long>();
+
+		for (int i = 0; i < count; i++)
+		{
+			if (!faults.contains(i))
+			{
+				expected.add((long) i);
+			}
+		}
+		Assert.assertEquals(expected.size(), result.getIds().size());
+		Assert.assertEquals(expected.size(), stored.size());
+
+		for (int i = 0; i < expected.size(); i++)
+		{
+			Assert.assertEquals(expected.get(i), stored.get(result.getIds().get(i)));
+		}
+	}
+
+	@Test
+	public void otherErrorsAbortTheImportLeavingEarlierChunksStored() throws Exception
+	{
+		// A description too long for its column is not a constraint, so nothing can be done about it.
+		int bad = CHUNK + 50;
+		Map<Integer, WorkLog> imported = new LinkedHashMap<Integer, WorkLog>();
+
+		for (int i = 0; i < 2 * CHUNK; i++)
+		{
+			imported.put(i, importedWorkLog(i, "abort"));
+		}
+		imported.get(bad).setDescription(new String(new char[2000]).replace('\0', 'x'));
+
+		try
+		{
+			new DBWorkLogQueries().createWorkLogs(imported, new ImportResult());
+			Assert.fail("The import carried on past an error that was not a constraint");
+		}
+		catch (DataAccessException expected)
+		{
+		}
+
+		// The first chunk was committed, and those of the second tried before the one at fault.
+		Map<Integer, Long> stored = readStartTimes("abort");
+		Assert.assertEquals(bad, stored.size());
+		Assert.assertEquals(bad - 1, Collections.max(stored.values()).longValue());
+	}
+
+	@Test
+	public void cursorSurvivesEncoding() throws Exception
+	{
+		WorkLogCursor cursor = new WorkLogCursor(4000, 57);
+		WorkLogCursor decoded = WorkLogCursor.decode(cursor.encode());
+
+		Assert.assertEquals(4000, decoded.getStartTime());
+		Assert.assertEquals(57, decoded.getWorkLogId());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void malformedCursorIsRejected() throws Exception
+	{
+		WorkLogCursor.decode("not a cursor");
+	}
+
+	/**
+	 * Pages through the worklogs of a range, for all employees if userName is null.
+	 */
+	private static void assertPagesListOnce(String userName, long startTime, long endTime, int limit)
+			throws Exception
+	{
+		assertPagesListOnce(userName, new long[] {startTime, endTime}, limit);
+	}
+
+	/**
+	 * Pages through worklogs a page at a time, handing each page the encoded cursor of the last,
+	 * and checks they come newest first with ties broken by id, each exactly once, until a short
+	 * page ends the listing.
+	 *
+	 * @param userName - the employee of the worklogs, null for all employees.
+	 * @param range - the start and end time of the range, null for every worklog of the employee.
+	 * @param limit - the size of a page.
+	 */
+	private static void assertPagesListOnce(String userName, long[] range, int limit) throws Exception
+	{
+		String cursor = null;
+		List<Integer> listed = new ArrayList<Integer>();
+
+		while (true)
+		{
+			WorkLogCursor after = cursor == null ? null : WorkLogCursor.decode(cursor);
+			List<WorkLog> page;
+
+			if (range == null)
+			{
+				page = new DBWorkLogQueries().getWorkLogbyUser(userName, "pag", after, limit);
+			}
+			else if (userName == null)
+			{
+				page = new DBWorkLogQueries().getAllWorkLogsForTimeRange("pag", range[0], range[1], after, limit);
+			}
+			else
+			{
+				page = new DBWorkLogQueries().getAllWorkLogsForTimeRangeAndEmployee(userName, "pag", range[0],
+						range[1], after, limit);
+			}
+			Assert.assertTrue(page.size() <= limit);
+
+			for (WorkLog workLog : page)
+			{
+				listed.add(workLog.getWorkLogId());
+			}
+
+			if (page.size() < limit)
+			{
+				break;
+			}
+			cursor = WorkLogCursor.after(page.get(page.size() - 1)).encode();
+		}
+		Map<Integer, Long> startTimes = workLogs.getStartTimes();
+		Map<Integer, Long> endTimes = workLogs.getEndTimes();
+		Map<Integer, String> users = workLogs.getUsers();
+		List<Integer> expected = new ArrayList<Integer>();
+
+		for (int workLogId : startTimes.keySet())
+		{
+			if ((userName == null || userName.equals(users.get(workLogId)))
+					&& (range == null || startTimes.get(workLogId) >= range[0] && endTimes.get(workLogId) <= range[1]))
+			{
+				expected.add(workLogId);
+			}
+		}
+		expected.sort((a, b) -> startTimes.get(a).equals(startTimes.get(b))
+				? Integer.compare(b, a) : Long.compare(startTimes.get(b), startTimes.get(a)));
+
+		String message = userName + " " + (range == null ? "all" : range[0] + "-" + range[1]) + " by " + limit;
+		Assert.assertEquals(message, expected.size(), new TreeSet<Integer>(listed).size());
+		Assert.assertEquals(message, expected, listed);
+	}
+
+	/**
+	 * @return a worklog of the import business, whose start time is its position in the import.
+	 */
+	private static WorkLog importedWorkLog(int position, String description)
+	{
+		return new WorkLog(-1, "importer", "imp", 2, position, position + 1, description);
+	}
+
+	/**
+	 * @return the start time of each imported worklog with the given description, by id.
+	 */
+	private static Map<Integer, Long> readStartTimes(String description) throws Exception
+	{
+		Map<Integer, Long> result = new HashMap<Integer, Long>();
+
+		try (Connection connection = database.getConnection();
+				PreparedStatement stmt = connection.prepareStatement(
+						"SELECT workLogId, startTime FROM WorkLog WHERE businessTag = 'imp' AND description = ?"))
+		{
+			stmt.setString(1, description);
+
+			try (ResultSet resultSet = stmt.executeQuery())
+			{
+				while (resultSet.next())
+				{
+					result.put(resultSet.getInt(1), resultSet.getLong(2));
+				}
+			}
+		}
+		return result;
+	}
+}
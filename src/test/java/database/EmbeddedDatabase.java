@@ -0,0 +1,306 @@
+package database;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ * An in memory database, in MySQL compatibility mode, with the API schema loaded.
+ * Counts the connections checked out of it so tests can assert on pool usage.
+ *
+ * @author Lawrence
+ */
+public class EmbeddedDatabase implements DataSource
+{
+	/** The datasource of the embedded database. **/
+	private final JdbcDataSource dataSource;
+
+	/** The number of connections checked out since the last reset. **/
+	private final AtomicInteger checkouts = new AtomicInteger();
+
+	/** The number of connections currently checked out. **/
+	private final AtomicInteger open = new AtomicInteger();
+
+	/** The most connections checked out at the same time since the last reset. **/
+	private final AtomicInteger maxOpen = new AtomicInteger();
+
+	/**
+	 * CLASS CONSTRUCTOR
+	 *
+	 * @param name - the name of the database, databases with the same name are shared.
+	 */
+	public EmbeddedDatabase(String name)
+	{
+		this.dataSource = new JdbcDataSource();
+		this.dataSource.setURL("jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1;"
+				+ "INIT=RUNSCRIPT FROM 'classpath:schema.sql'");
+	}
+
+	/**
+	 * Makes the database pool take its connections from this database.
+	 *
+	 * @return this database.
+	 */
+	public EmbeddedDatabase install()
+	{
+		DatabasePool.useDataSource(this);
+		return this;
+	}
+
+	/**
+	 * Runs the given statements against the database, without counting the connection.
+	 *
+	 * @param sql - the statements to run.
+	 * @throws SQLException if a statement fails.
+	 */
+	public void execute(String... sql) throws SQLException
+	{
+		try (Connection connection = this.dataSource.getConnection();
+				Statement stmt = connection.createStatement())
+		{
+			for (String statement : sql)
+			{
+				stmt.execute(statement);
+			}
+		}
+	}
+
+	/**
+	 * Stores a business with the given employees and one client, and worklogs with ids 1 to count.
+	 * The worklogs start on only a few distinct times so that many of them tie, and every third
+	 * joins to two locations so that it reads as two rows before it is grouped.
+	 *
+	 * @param businessTag - the tag of the business.
+	 * @param users - the employees of the business, each worklog is for one of them.
+	 * @param count - the number of worklogs.
+	 * @param starts - the number of distinct start times, a step apart from 1000.
+	 * @param step - the time between start times, and the length of the shortest worklog.
+	 * @param lengths - the number of lengths a worklog can have, a step apart.
+	 * @param seed - the seed the times and employees are drawn from.
+	 * @return the worklogs stored.
+	 * @throws SQLException if the worklogs cannot be stored.
+	 */
+	public SeededWorkLogs seedWorkLogs(String businessTag, String[] users, int count, int starts, long step,
+			int lengths, long seed) throws SQLException
+	{
+		SeededWorkLogs result = new SeededWorkLogs();
+		List<String> inserts = new ArrayList<String>();
+		inserts.add("INSERT INTO Business VALUES ('" + businessTag + "', 'Seeded Business');");
+
+		for (String user : users)
+		{
+			inserts.add("INSERT INTO Account VALUES ('" + user + "', 'hash', '" + businessTag + "', '"
+					+ user + "@" + businessTag + "');");
+			inserts.add("INSERT INTO Employee VALUES ('" + user + "', 'first', 'last', '" + businessTag
+					+ "', NULL, 'role');");
+		}
+		inserts.add("INSERT INTO LocationOwner VALUES (1);");
+		inserts.add("INSERT INTO BusinessClient VALUES (1, 'client', '" + businessTag + "', 1);");
+		inserts.add("INSERT INTO LocationOwner VALUES (2);");
+		inserts.add("INSERT INTO Location VALUES (1, 'AB1 2CD', 'first');");
+		inserts.add("INSERT INTO Location VALUES (2, 'EF3 4GH', 'second');");
+		inserts.add("INSERT INTO LocationOwnertoLocation VALUES (2, 1);");
+		inserts.add("INSERT INTO LocationOwnertoLocation VALUES (2, 2);");
+
+		Random random = new Random(seed);
+
+		for (int workLogId = 1; workLogId <= count; workLogId++)
+		{
+			long startTime = 1000 + random.nextInt(starts) * step;
+			long endTime = startTime + (1 + random.nextInt(lengths)) * step;
+			String user = users[random.nextInt(users.length)];
+
+			result.startTimes.put(workLogId, startTime);
+			result.endTimes.put(workLogId, endTime);
+			result.users.put(workLogId, user);
+			inserts.add("INSERT INTO WorkLog VALUES (" + workLogId + ", '" + user + "', '" + businessTag
+					+ "', 1, " + startTime + ", " + endTime + ", 'work', " + (workLogId % 3 == 0 ? 2 : 1) + ");");
+		}
+
+		this.execute(inserts.toArray(new String[inserts.size()]));
+		return result;
+	}
+
+	/**
+	 * Resets the connection counters.
+	 */
+	public void resetCounts()
+	{
+		this.checkouts.set(0);
+		this.maxOpen.set(this.open.get());
+	}
+
+	/**
+	 * @return the number of connections checked out since the last reset.
+	 */
+	public int getCheckouts()
+	{
+		return this.checkouts.get();
+	}
+
+	/**
+	 * @return the number of connections currently checked out.
+	 */
+	public int getOpen()
+	{
+		return this.open.get();
+	}
+
+	/**
+	 * @return the most connections checked out at the same time since the last reset.
+	 */
+	public int getMaxOpen()
+	{
+		return this.maxOpen.get();
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException
+	{
+		return this.track(this.dataSource.getConnection());
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException
+	{
+		return this.track(this.dataSource.getConnection(username, password));
+	}
+
+	/**
+	 * Wraps the connection so that it is counted until it is closed.
+	 *
+	 * @param connection - the connection to count.
+	 * @return the counted connection.
+	 */
+	private Connection track(final Connection connection)
+	{
+		this.checkouts.incrementAndGet();
+		int current = this.open.incrementAndGet();
+		this.maxOpen.accumulateAndGet(current, Math::max);
+
+		InvocationHandler handler = new InvocationHandler()
+		{
+			private boolean closed = false;
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+			{
+				if ("close".equals(method.getName()) && !this.closed)
+				{
+					this.closed = true;
+					EmbeddedDatabase.this.open.decrementAndGet();
+				}
+
+				try
+				{
+					return method.invoke(connection, args);
+				}
+				catch (InvocationTargetException e)
+				{
+					throw e.getCause();
+				}
+			}
+		};
+
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, handler);
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException
+	{
+		return this.dataSource.getLogWriter();
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException
+	{
+		this.dataSource.setLogWriter(out);
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException
+	{
+		this.dataSource.setLoginTimeout(seconds);
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException
+	{
+		return this.dataSource.getLoginTimeout();
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException
+	{
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException
+	{
+		return this.dataSource.unwrap(iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException
+	{
+		return this.dataSource.isWrapperFor(iface);
+	}
+
+	/**
+	 * The worklogs stored by {@link EmbeddedDatabase#seedWorkLogs}, by id.
+	 */
+	public static final class SeededWorkLogs
+	{
+		/** The start time of each worklog. **/
+		private final Map<Integer, Long> startTimes = new LinkedHashMap<Integer, Long>();
+
+		/** The end time of each worklog. **/
+		private final Map<Integer, Long> endTimes = new LinkedHashMap<Integer, Long>();
+
+		/** The employee of each worklog. **/
+		private final Map<Integer, String> users = new LinkedHashMap<Integer, String>();
+
+		/**
+		 * @return the start time of each worklog.
+		 */
+		public Map<Integer, Long> getStartTimes()
+		{
+			return this.startTimes;
+		}
+
+		/**
+		 * @return the end time of each worklog.
+		 */
+		public Map<Integer, Long> getEndTimes()
+		{
+			return this.endTimes;
+		}
+
+		/**
+		 * @return the employee of each worklog.
+		 */
+		public Map<Integer, String> getUsers()
+		{
+			return this.users;
+		}
+	}
+}
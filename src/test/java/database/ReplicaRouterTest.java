@@ -0,0 +1,222 @@
+package database;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the routing of reads between the primary and the replica by several servers, each
+ * with its own router, sharing one primary. A write on one server should send the reads with
+ * the same token to the primary on every server until the window has passed.
+ *
+ * @author Lawrence
+ */
+public class ReplicaRouterTest
+{
+	/** How long reads with a token go to the primary after a write. **/
+	private static final long WINDOW = 300;
+
+	/** The primary shared by the servers. **/
+	private final EmbeddedDatabase primary = new EmbeddedDatabase("routerprimary");
+
+	/** The routers made by the test. **/
+	private final List<ReplicaRouter> routers = new ArrayList<ReplicaRouter>();
+
+	@After
+	public void shutdownRouters() throws Exception
+	{
+		ReplicaRouter.bindToken(null);
+
+		for (ReplicaRouter router : this.routers)
+		{
+			router.shutdown();
+		}
+		this.primary.execute("DELETE FROM RecentWrite;");
+	}
+
+	@Test
+	public void writeOnOneServerSendsReadsOnEveryServerToThePrimary() throws Exception
+	{
+		ReplicaRouter first = this.router(true);
+		ReplicaRouter second = this.router(true);
+
+		ReplicaRouter.bindToken("alice");
+		assertReadsFromReplica(second);
+
+		// The next request of the token reaches the other server.
+		first.recordWrite();
+		ReplicaRouter.bindToken("alice");
+		Assert.assertNull(second.getReadConnection());
+		assertJson(second, "\"readYourWritesReads\":1");
+
+		// Other tokens are not held back.
+		ReplicaRouter.bindToken("bob");
+		assertReadsFromReplica(second);
+
+		Thread.sleep(WINDOW + 50);
+		ReplicaRouter.bindToken("alice");
+		assertReadsFromReplica(second);
+	}
+
+	@Test
+	public void windowIsReadOnceForEachRequest() throws Exception
+	{
+		ReplicaRouter first = this.router(true);
+		ReplicaRouter second = this.router(true);
+
+		ReplicaRouter.bindToken("alice");
+		first.recordWrite();
+
+		ReplicaRouter.bindToken("alice");
+		Assert.assertNull(second.getReadConnection());
+		Assert.assertNull(second.getReadConnection());
+		assertJson(second, "\"windowLookups\":1", "\"readYourWritesReads\":2");
+
+		ReplicaRouter.bindToken("alice");
+		Assert.assertNull(second.getReadConnection());
+		assertJson(second, "\"windowLookups\":2");
+	}
+
+	@Test
+	public void tokensAreStoredAsDigests() throws Exception
+	{
+		ReplicaRouter router = this.router(true);
+
+		ReplicaRouter.bindToken("alice");
+		router.recordWrite();
+
+		try (Connection connection = this.primary.getConnection();
+				Statement stmt = connection.createStatement();
+				ResultSet resultSet = stmt.executeQuery("SELECT tokenDigest FROM RecentWrite"))
+		{
+			Assert.assertTrue(resultSet.next());
+			Assert.assertEquals(ReplicaRouter.digest("alice"), resultSet.getString(1));
+			Assert.assertEquals(64, resultSet.getString(1).length());
+			Assert.assertFalse(resultSet.next());
+		}
+	}
+
+	@Test
+	public void unsharedWindowIsOnlyKnownWhereTheWriteWasMade() throws Exception
+	{
+		ReplicaRouter first = this.router(false);
+		ReplicaRouter second = this.router(false);
+
+		ReplicaRouter.bindToken("alice");
+		first.recordWrite();
+
+		ReplicaRouter.bindToken("alice");
+		Assert.assertNull(first.getReadConnection());
+		assertReadsFromReplica(second);
+		assertJson(second, "\"windowLookups\":0");
+	}
+
+	/**
+	 * @return a router of another server, once it knows the lag of the replica.
+	 */
+	private ReplicaRouter router(boolean sharedWindow) throws InterruptedException
+	{
+		ConnectionPool primaryPool = new ConnectionPool(this.primary, 0, 4, 1000, 60000, 1, 600000);
+		ConnectionPool replicaPool = new ConnectionPool(new ReplicaDatabase(), 0, 4, 1000, 60000, 1, 600000);
+		ReplicaRouter router = new ReplicaRouter(primaryPool, replicaPool, 5, WINDOW, 50, sharedWindow);
+		long until = System.currentTimeMillis() + 5000;
+
+		this.routers.add(router);
+
+		while (router.getLag() != 0 && System.currentTimeMillis() < until)
+		{
+			Thread.sleep(5);
+		}
+		Assert.assertEquals(0, router.getLag());
+		return router;
+	}
+
+	/**
+	 * Checks a read is sent to the replica.
+	 */
+	private static void assertReadsFromReplica(ReplicaRouter router) throws SQLException
+	{
+		Connection connection = router.getReadConnection();
+
+		Assert.assertNotNull(connection);
+		connection.close();
+	}
+
+	private static void assertJson(ReplicaRouter router, String... expected)
+	{
+		String json = router.appendJson(new StringBuilder()).toString();
+
+		for (String value : expected)
+		{
+			Assert.assertTrue(json, json.contains(value));
+		}
+	}
+
+	/**
+	 * An embedded database that answers SHOW SLAVE STATUS as a replica that has caught up.
+	 */
+	private static final class ReplicaDatabase extends EmbeddedDatabase
+	{
+		/**
+		 * CLASS CONSTRUCTOR
+		 */
+		private ReplicaDatabase()
+		{
+			super("routerreplica");
+		}
+
+		@Override
+		public Connection getConnection() throws SQLException
+		{
+			final Connection connection = super.getConnection();
+
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, (proxy, method, args) ->
+			{
+				try
+				{
+					Object result = method.invoke(connection, args);
+
+					return "createStatement".equals(method.getName()) ? replicaStatement((Statement) result) : result;
+				}
+				catch (InvocationTargetException e)
+				{
+					throw e.getCause();
+				}
+			});
+		}
+
+		/**
+		 * @return the statement, with SHOW SLAVE STATUS answered with no lag.
+		 */
+		private static Statement replicaStatement(final Statement statement)
+		{
+			return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(),
+					new Class<?>[] { Statement.class }, (proxy, method, args) ->
+			{
+				if ("executeQuery".equals(method.getName()) && "SHOW SLAVE STATUS".equals(args[0]))
+				{
+					args = new Object[] { "SELECT 0 AS Seconds_Behind_Master FROM DUAL" };
+				}
+
+				try
+				{
+					return method.invoke(statement, args);
+				}
+				catch (InvocationTargetException e)
+				{
+					throw e.getCause();
+				}
+			});
+		}
+	}
+}
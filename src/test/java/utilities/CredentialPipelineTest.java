@@ -0,0 +1,121 @@
+package utilities;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import models.ImportFailure;
+import models.ImportResult;
+
+/**
+ * Tests of the credential pipeline, items finish hashing out of order but the store should be given
+ * them in the order of the import, and those that fail to hash should be reported at their position.
+ *
+ * @author Lawrence
+ */
+public class CredentialPipelineTest
+{
+	/** The number of items imported. **/
+	private static final int ITEMS = 500;
+
+	/** The number of items stored at once. **/
+	private static final int CHUNK_SIZE = 16;
+
+	@Test
+	public void chunksAreStoredInImportOrder() throws Exception
+	{
+		Map<Integer, Integer> items = new LinkedHashMap<Integer, Integer>();
+
+		for (int i = 0; i < ITEMS; i++)
+		{
+			items.put(10 * i, i);
+		}
+
+		List<Map<Integer, Integer>> chunks = new ArrayList<Map<Integer, Integer>>();
+		ImportResult result = new ImportResult();
+		// Several workers whatever the cores, so that items can overtake each other.
+		ExecutorService hashers = Executors.newFixedThreadPool(4);
+
+		try
+		{
+			CredentialPipeline.run(items, CredentialPipelineTest::hash, (chunk, stored) ->
+			{
+				chunks.add(new LinkedHashMap<Integer, Integer>(chunk));
+
+				for (int item : chunk.values())
+				{
+					stored.addId(item);
+				}
+			}, CHUNK_SIZE, result, hashers);
+		}
+		finally
+		{
+			hashers.shutdownNow();
+		}
+
+		// Every item that hashed is stored once, in order, in full chunks but for the last.
+		List<Integer> expected = new ArrayList<Integer>();
+		List<Integer> expectedFailures = new ArrayList<Integer>();
+
+		for (int i = 0; i < ITEMS; i++)
+		{
+			(fails(i) ? expectedFailures : expected).add(i);
+		}
+		Assert.assertEquals(expected, result.getIds());
+
+		for (int i = 0; i < chunks.size(); i++)
+		{
+			Assert.assertEquals(i < chunks.size() - 1 ? CHUNK_SIZE : (expected.size() - 1) % CHUNK_SIZE + 1,
+					chunks.get(i).size());
+
+			for (Map.Entry<Integer, Integer> entry : chunks.get(i).entrySet())
+			{
+				Assert.assertEquals(10 * entry.getValue(), entry.getKey().intValue());
+			}
+		}
+
+		// Failures are reported at their position, with why they failed.
+		List<Integer> failed = new ArrayList<Integer>();
+
+		for (ImportFailure failure : result.getFailures())
+		{
+			int item = failure.getIndex() / 10;
+
+			failed.add(item);
+			Assert.assertEquals(item % 37 == 3 ? "Server could not authenticate password" : "Weak password",
+					failure.getMessage());
+		}
+		Assert.assertEquals(expectedFailures, failed);
+	}
+
+	/**
+	 * Hashes an item after a delay that differs from item to item, some far longer than the rest,
+	 * so that items finish hashing out of order and a chunk apart.
+	 * Items three past a multiple of thirty seven cannot be hashed, and five past a multiple of eleven are refused.
+	 */
+	private static String hash(int item) throws Exception
+	{
+		Thread.sleep(item % 50 == 7 ? 30 : new Random(item).nextInt(3));
+
+		if (item % 37 == 3)
+		{
+			throw new IllegalStateException("The hash algorithm is not available");
+		}
+		return item % 11 == 5 ? "Weak password" : null;
+	}
+
+	/**
+	 * @return whether the item fails to hash.
+	 */
+	private static boolean fails(int item)
+	{
+		return item % 37 == 3 || item % 11 == 5;
+	}
+}
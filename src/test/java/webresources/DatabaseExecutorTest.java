@@ -0,0 +1,390 @@
+package webresources;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the executor the resources run their work on, with one thread, room for one request
+ * to wait and a short timeout. Whichever of the timeout and the thread reaches a request first
+ * decides how it is answered: 503 with Retry-After if it never ran, 504 without if it did.
+ *
+ * @author Lawrence
+ */
+public class DatabaseExecutorTest
+{
+	/** The milliseconds a request may take. **/
+	private static final long TIMEOUT = 200;
+
+	static
+	{
+		System.setProperty("executor.threads", "1");
+		System.setProperty("executor.queueSize", "1");
+		System.setProperty("executor.timeout", Long.toString(TIMEOUT));
+		System.setProperty("executor.retryAfter", "7");
+	}
+
+	/** Runs the timeouts of the responses. **/
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable ->
+	{
+		Thread thread = new Thread(runnable, "response-timer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Waits for the thread to finish with the requests of the last test, a request is answered
+	 * before the thread that ran it is free for the next.
+	 */
+	@Before
+	public void awaitIdle() throws InterruptedException
+	{
+		long until = System.currentTimeMillis() + 5000;
+
+		while ((metric("active") > 0 || metric("queued") > 0) && System.currentTimeMillis() < until)
+		{
+			Thread.sleep(5);
+		}
+	}
+
+	@Test
+	public void resultIsResumed() throws Exception
+	{
+		SuspendedResponse response = submit(() -> "done");
+
+		Assert.assertEquals("done", response.await());
+	}
+
+	@Test
+	public void exceptionIsResumed() throws Exception
+	{
+		IllegalStateException failure = new IllegalStateException("failed");
+		SuspendedResponse response = submit(() ->
+		{
+			throw failure;
+		});
+
+		Assert.assertSame(failure, response.await());
+	}
+
+	@Test
+	public void completedStageIsResumed() throws Exception
+	{
+		CompletableFuture<String> stage = new CompletableFuture<String>();
+		SuspendedResponse response = submit(() -> stage);
+
+		// The thread is given back before the stage completes.
+		this.awaitIdle();
+		Assert.assertTrue(response.isSuspended());
+
+		stage.complete("handed on");
+		Assert.assertEquals("handed on", response.await());
+	}
+
+	@Test
+	public void failedStageIsResumedWithItsCause() throws Exception
+	{
+		IllegalStateException failure = new IllegalStateException("failed");
+		SuspendedResponse response = submit(() -> CompletableFuture.supplyAsync(() ->
+		{
+			throw failure;
+		}));
+
+		Assert.assertSame(failure, response.await());
+	}
+
+	@Test
+	public void fullQueueIsTurnedAwayWithRetryAfter() throws Exception
+	{
+		CountDownLatch release = new CountDownLatch(1);
+		long rejected = metric("rejected");
+
+		// One running, one waiting, the third has nowhere to go.
+		SuspendedResponse running = submitRunning(() -> hold(release));
+		SuspendedResponse queued = submit(() -> "queued");
+		SuspendedResponse turnedAway = submit(() -> "turned away");
+
+		try
+		{
+			assertUnavailable(turnedAway.await(), "The server is busy");
+			Assert.assertEquals(rejected + 1, metric("rejected"));
+		}
+		finally
+		{
+			release.countDown();
+		}
+		Assert.assertEquals("released", running.await());
+		Assert.assertEquals("queued", queued.await());
+	}
+
+	@Test
+	public void queuedRequestTimesOutAndIsNeverRun() throws Exception
+	{
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicBoolean ran = new AtomicBoolean();
+		long abandoned = metric("abandoned");
+
+		SuspendedResponse running = submitRunning(() -> hold(release));
+		SuspendedResponse queued = submit(() -> ran.getAndSet(true));
+
+		try
+		{
+			assertUnavailable(queued.await(), "The server took too long to respond");
+		}
+		finally
+		{
+			release.countDown();
+		}
+		running.await();
+
+		// The thread is free once it has passed over the request that timed out.
+		this.awaitIdle();
+		Assert.assertFalse(ran.get());
+		Assert.assertEquals(abandoned + 1, metric("abandoned"));
+	}
+
+	@Test
+	public void runningRequestTimesOutWithoutRetryAfter() throws Exception
+	{
+		CountDownLatch release = new CountDownLatch(1);
+		SuspendedResponse running = submitRunning(() -> hold(release));
+
+		Response response;
+
+		try
+		{
+			response = (Response) running.await();
+		}
+		finally
+		{
+			release.countDown();
+		}
+
+		Assert.assertEquals(504, response.getStatus());
+		Assert.assertNull(response.getHeaderString(HttpHeaders.RETRY_AFTER));
+	}
+
+	@Test
+	public void onlyRequestsThatNeverRanAreAskedToRetry() throws Exception
+	{
+		// The running request frees the thread about when the waiting one times out, so either can win.
+		for (int i = 0; i < 10; i++)
+		{
+			long hold = TIMEOUT - 20 + 4 * i;
+			AtomicBoolean ran = new AtomicBoolean();
+
+			SuspendedResponse running = submitRunning(() ->
+			{
+				Thread.sleep(hold);
+				return "held";
+			});
+			SuspendedResponse queued = submit(() -> ran.getAndSet(true));
+
+			running.await();
+			Object result = queued.await();
+			this.awaitIdle();
+
+			if (ran.get())
+			{
+				Assert.assertTrue(result.toString(), Boolean.FALSE.equals(result)
+						|| result instanceof Response && ((Response) result).getStatus() == 504);
+			}
+			else
+			{
+				assertUnavailable(result, "The server took too long to respond");
+			}
+		}
+	}
+
+	/**
+	 * Holds the thread running the request until released.
+	 */
+	private static String hold(CountDownLatch release) throws InterruptedException
+	{
+		release.await();
+		return "released";
+	}
+
+	/**
+	 * Submits work to the executor as a resource does.
+	 */
+	private static SuspendedResponse submit(Callable<?> task)
+	{
+		SuspendedResponse response = new SuspendedResponse();
+		DatabaseExecutor.submit(response, task);
+		return response;
+	}
+
+	/**
+	 * Submits work to the executor and waits for the thread to take it, so the next request waits.
+	 */
+	private static SuspendedResponse submitRunning(Callable<?> task) throws InterruptedException
+	{
+		SuspendedResponse response = submit(task);
+		long until = System.currentTimeMillis() + 5000;
+
+		while (metric("queued") > 0 && System.currentTimeMillis() < until)
+		{
+			Thread.sleep(1);
+		}
+		return response;
+	}
+
+	/**
+	 * Checks the request was answered with 503 and asked to retry.
+	 */
+	private static void assertUnavailable(Object result, String message)
+	{
+		Assert.assertTrue(String.valueOf(result), result instanceof Response);
+		Response response = (Response) result;
+
+		Assert.assertEquals(503, response.getStatus());
+		Assert.assertEquals("7", response.getHeaderString(HttpHeaders.RETRY_AFTER));
+		Assert.assertEquals(message, response.getEntity());
+	}
+
+	/**
+	 * @return a counter of the executor, read from its metrics.
+	 */
+	private static long metric(String name)
+	{
+		String json = DatabaseExecutor.appendJson(new StringBuilder()).toString();
+		int start = json.indexOf("\"" + name + "\":") + name.length() + 3;
+		int end = start;
+
+		while (end < json.length() && Character.isDigit(json.charAt(end)))
+		{
+			end++;
+		}
+		return Long.parseLong(json.substring(start, end));
+	}
+
+	/**
+	 * A suspended response that keeps whatever it is first resumed with, and runs its timeout
+	 * handler if it has not been resumed in time, as the container does.
+	 */
+	private static final class SuspendedResponse implements AsyncResponse
+	{
+		/** What the response was resumed with. **/
+		private final CompletableFuture<Object> result = new CompletableFuture<Object>();
+
+		/** Handles the timeout. **/
+		private volatile TimeoutHandler handler;
+
+		/**
+		 * @return what the response was resumed with.
+		 */
+		private Object await() throws Exception
+		{
+			return this.result.get(5, TimeUnit.SECONDS);
+		}
+
+		@Override
+		public boolean resume(Object response)
+		{
+			return this.result.complete(response);
+		}
+
+		@Override
+		public boolean resume(Throwable response)
+		{
+			return this.result.complete(response);
+		}
+
+		@Override
+		public boolean cancel()
+		{
+			return this.result.cancel(false);
+		}
+
+		@Override
+		public boolean cancel(int retryAfter)
+		{
+			return this.cancel();
+		}
+
+		@Override
+		public boolean cancel(Date retryAfter)
+		{
+			return this.cancel();
+		}
+
+		@Override
+		public boolean isSuspended()
+		{
+			return !this.result.isDone();
+		}
+
+		@Override
+		public boolean isCancelled()
+		{
+			return this.result.isCancelled();
+		}
+
+		@Override
+		public boolean isDone()
+		{
+			return this.result.isDone();
+		}
+
+		@Override
+		public boolean setTimeout(long time, TimeUnit unit)
+		{
+			TIMER.schedule(() ->
+			{
+				if (!this.result.isDone())
+				{
+					this.handler.handleTimeout(this);
+				}
+			}, time, unit);
+			return true;
+		}
+
+		@Override
+		public void setTimeoutHandler(TimeoutHandler handler)
+		{
+			this.handler = handler;
+		}
+
+		@Override
+		public Collection<Class<?>> register(Class<?> callback)
+		{
+			return Collections.emptyList();
+		}
+
+		@Override
+		public Map<Class<?>, Collection<Class<?>>> register(Class<?> callback, Class<?>... callbacks)
+		{
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public Collection<Class<?>> register(Object callback)
+		{
+			return Collections.emptyList();
+		}
+
+		@Override
+		public Map<Class<?>, Collection<Class<?>>> register(Object callback, Object... callbacks)
+		{
+			return Collections.emptyMap();
+		}
+	}
+}
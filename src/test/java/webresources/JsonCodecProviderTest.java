@@ -0,0 +1,177 @@
+package webresources;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+
+import org.eclipse.persistence.jaxb.rs.MOXyJsonProvider;
+import org.junit.Assert;
+import org.junit.Test;
+
+import models.Account;
+import models.Business;
+import models.Client;
+import models.Employee;
+import models.Location;
+import models.Password;
+import models.WorkLog;
+
+/**
+ * Regression tests for the model codecs, the JSON has to stay the same as the JAXB provider's.
+ *
+ * @author Lawrence
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class JsonCodecProviderTest
+{
+	/** No annotations on the resource methods. **/
+	private static final Annotation[] ANNOTATIONS = new Annotation[0];
+
+	/** A string that needs escaping. **/
+	private static final String ESCAPED = "\"q\\/\n\t\b\u0001\u007f\u0085\u00e9\u2028";
+
+	/** The codecs. **/
+	private final JsonCodecProvider codecs = new JsonCodecProvider.Lists();
+
+	/** The JAXB provider. **/
+	private final MOXyJsonProvider moxy = new MOXyJsonProvider();
+
+	@Test
+	public void writesWhatMoxyWrites() throws Exception
+	{
+		assertSameJson(Arrays.asList(workLog(true), workLog(false)), new GenericType<List<WorkLog>>() {}.getType());
+		assertSameJson(Arrays.asList(client(), new Client()), new GenericType<List<Client>>() {}.getType());
+		assertSameJson(Arrays.asList(employee(), new Employee()), new GenericType<List<Employee>>() {}.getType());
+		assertSameJson(business(), Business.class);
+		assertSameJson(new Business("tag", "name"), Business.class);
+		assertSameJson(account(), Account.class);
+		assertSameJson(new ArrayList<Client>(), new GenericType<List<Client>>() {}.getType());
+	}
+
+	@Test
+	public void readsWhatMoxyWrites() throws Exception
+	{
+		Type type = new GenericType<List<Employee>>() {}.getType();
+		String json = write(this.moxy, Arrays.asList(employee(), new Employee()), type);
+		List<Employee> employees = (List<Employee>) read(json, List.class, type);
+
+		Assert.assertEquals(2, employees.size());
+		Assert.assertEquals(ESCAPED, employees.get(0).getFirstName());
+		Assert.assertEquals("pass", employees.get(0).getRequestedPassword());
+		Assert.assertEquals("acme", employees.get(0).getBusinessTag());
+		Assert.assertEquals(json, write(this.codecs, employees, type));
+
+		Business business = (Business) read(write(this.moxy, business(), Business.class), Business.class, Business.class);
+		Assert.assertEquals("bob", business.getDefaultEmployee().getUserName());
+	}
+
+	@Test
+	public void storedPasswordIsNeverWrittenOrRead() throws Exception
+	{
+		String json = write(this.codecs, account(), Account.class);
+		Assert.assertFalse(json, json.contains("hash"));
+
+		Account account = (Account) read("{\"userName\":\"bob\",\"storedPassword\":\"hash\"}", Account.class,
+				Account.class);
+		Assert.assertEquals("bob", account.getUserName());
+		Assert.assertNull(account.getStoredPassword());
+	}
+
+	@Test
+	public void numbersMayBeStringsAndNullsAreDefaults() throws Exception
+	{
+		Client client = (Client) read(" {\"clientId\":\"42\",\"hoursWorked\":null,\"locations\":null,"
+				+ "\"unknown\":{\"a\":[1,2.5,true,null]}} ", Client.class, Client.class);
+
+		Assert.assertEquals(42, client.getClientId());
+		Assert.assertEquals(-1, client.getHoursWorked());
+		Assert.assertNull(client.getLocations());
+	}
+
+	@Test
+	public void malformedJsonIsBadRequest() throws Exception
+	{
+		for (String json : new String[] {"", "{", "{\"clientId\":1,}", "{\"clientId\":1.5}", "{} {}"})
+		{
+			try
+			{
+				read(json, Client.class, Client.class);
+				Assert.fail("Read " + json);
+			}
+			catch (WebApplicationException e)
+			{
+				Assert.assertEquals(400, e.getResponse().getStatus());
+			}
+		}
+	}
+
+	private void assertSameJson(Object entity, Type type) throws Exception
+	{
+		Assert.assertEquals(write(this.moxy, entity, type), write(this.codecs, entity, type));
+	}
+
+	private static String write(Object provider, Object entity, Type type) throws Exception
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		((MessageBodyWriter) provider).writeTo(entity, entity.getClass(), type, ANNOTATIONS,
+				MediaType.APPLICATION_JSON_TYPE, new MultivaluedHashMap<String, Object>(), out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private Object read(String json, Class type, Type genericType) throws Exception
+	{
+		return ((MessageBodyReader) this.codecs).readFrom(type, genericType, ANNOTATIONS,
+				MediaType.APPLICATION_JSON_TYPE, new MultivaluedHashMap<String, String>(),
+				new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static WorkLog workLog(boolean located)
+	{
+		WorkLog workLog = new WorkLog(7, "bob", "acme", 3, -5, Long.MAX_VALUE, ESCAPED);
+
+		if (located)
+		{
+			workLog.setLocation(new Location("AB1 2CD", null));
+		}
+		return workLog;
+	}
+
+	private static Client client()
+	{
+		Client client = new Client(3, ESCAPED, "acme", 12);
+		client.getLocations().add(new Location("AB1 2CD", "Site"));
+		client.getLocations().add(new Location(null, ESCAPED));
+		return client;
+	}
+
+	private static Account account()
+	{
+		return new Account("bob", Password.fromHash("hash"), "acme", null);
+	}
+
+	private static Employee employee()
+	{
+		Employee employee = new Employee(account(), ESCAPED, "Smith", null, "dev", 40);
+		employee.setRequestedPassword("pass");
+		return employee;
+	}
+
+	private static Business business()
+	{
+		Business business = new Business("acme", ESCAPED);
+		business.setDefaultEmployee(employee());
+		return business;
+	}
+}